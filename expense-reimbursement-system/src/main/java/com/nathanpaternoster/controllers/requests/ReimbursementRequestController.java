@@ -1,23 +1,41 @@
 package com.nathanpaternoster.controllers.requests;
 
-import com.nathanpaternoster.services.EmailService;
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
-import com.nathanpaternoster.models.users.Employee;
-import com.nathanpaternoster.models.users.User;
+import com.nathanpaternoster.models.requests.RequestPage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.nathanpaternoster.services.PageToken;
 import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestExport;
+import com.nathanpaternoster.services.RequestQuery;
+import com.nathanpaternoster.services.RowHandler;
+import com.nathanpaternoster.services.SearchPageToken;
 import com.nathanpaternoster.services.UserDAO;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to handle actions on reimbursement requests
  */
 public class ReimbursementRequestController {
     private static final Logger log = LogManager.getLogger(ReimbursementRequestController.class);
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int MAX_QUERY_LENGTH = 200;
+    public static final int MAX_BULK_RESOLUTIONS = 1000;
+    // the query parameters that filter or sort a request listing
+    public static final List<String> QUERY_PARAMETERS = Arrays.asList("employeeID", "resolverID", "category", "from", "to", "minAmount", "maxAmount", "sort");
+    private static final List<String> EXPORT_STATUSES = Arrays.asList("pending", "resolved", "approved", "denied", "all");
     private final RequestDAO requestDAO;
     private final UserDAO userDAO;
 
@@ -50,6 +68,23 @@ public class ReimbursementRequestController {
         }
     }
 
+    /**
+     * Check a user input representing the number of requests to return on one page
+     * @param pageSize The entered page size (null or empty values use DEFAULT_PAGE_SIZE)
+     * @return the page size
+     * @throws RuntimeException if the value is not an integer between 1 and MAX_PAGE_SIZE
+     */
+    public int validatePageSize(String pageSize) throws RuntimeException {
+        if (pageSize == null || pageSize.isEmpty()) return DEFAULT_PAGE_SIZE;
+        try {
+            int size = Integer.parseInt(pageSize);
+            if (size < 1 || size > MAX_PAGE_SIZE) throw new NumberFormatException();
+            return size;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
     /**
      * Add a new reimbursement request
      * @param submitterID The user id belonging to the user submitting the request
@@ -72,31 +107,40 @@ public class ReimbursementRequestController {
 
     /**
      * Approve or deny a pending reimbursement request
+     * The submitter's email notification is queued in the same transaction and sent in the background by NotificationDispatcher
      * @param resolverID The user id of the manager resolving the request
      * @param requestID The request id of the request to update
      * @param approved True if the request is approved, false if the request is denied
-     * @return True if the request was successfully updated, false otherwise
+     * @return The updated request, or null if it doesn't exist, is no longer pending or the update failed
      */
-    public boolean resolveRequest(int resolverID, int requestID, boolean approved) {
+    public ReimbursementRequest resolveRequest(int resolverID, int requestID, boolean approved) {
         String newStatus = approved ? "Approved" : "Denied";
-        boolean success = requestDAO.resolveRequest(resolverID, requestID, newStatus);
-        if (success) {
-            try {
-                EmailService emailService = new EmailService();
-                ReimbursementRequest r = requestDAO.getRequest(requestID);
-                User u = userDAO.getUser(r.getSubmitterID());
-                String to = ((Employee) u).getEmail();
-                String subject = "Reimbursement Request Resolution";
-                String body = u.getFirstName() + ",\n\nYour reimbursement request for " + r.getCategory() +
-                        " in the amount of " + r.getStringAmount() + " has been " + r.getStatus() +
-                        ".\n\nThis is an automated message. For any questions or concerns please contact your direct manager." +
-                        "\n\nERS Department of Billing";
-                emailService.sendEmail(to, subject, body);
-            } catch (RuntimeException e) {
-                log.info("Email notification for a resolved request failed");
-            }
-        }
-        return success;
+        return requestDAO.resolveRequest(resolverID, requestID, newStatus);
+    }
+
+    /**
+     * Approve or deny many pending reimbursement requests in one transaction
+     * @param resolverID The user id of the manager resolving the requests
+     * @param decisions For each request id, true if the request is approved, false if it is denied
+     * @return the requests that were resolved, requests that were not found or already resolved are omitted
+     * @throws RuntimeException if no decisions or more than MAX_BULK_RESOLUTIONS decisions are given
+     */
+    public List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, Boolean> decisions) throws RuntimeException {
+        if (decisions == null || decisions.isEmpty())
+            throw new RuntimeException("No requests entered");
+        if (decisions.size() > MAX_BULK_RESOLUTIONS)
+            throw new RuntimeException("At most " + MAX_BULK_RESOLUTIONS + " requests can be resolved at once");
+        Map<Integer, String> resolutions = new LinkedHashMap<>();
+        decisions.forEach((requestID, approved) -> resolutions.put(requestID, approved ? "Approved" : "Denied"));
+        return requestDAO.resolveRequests(resolverID, resolutions);
+    }
+
+    /**
+     * Get the version of the requests table, read it before a listing to tag the response
+     * @return a number that changes whenever a request is submitted or resolved
+     */
+    public long getRequestsVersion() {
+        return requestDAO.getVersion();
     }
 
     /**
@@ -108,6 +152,15 @@ public class ReimbursementRequestController {
         return requestDAO.getRequest(requestID);
     }
 
+    /**
+     * Get every submission and resolution of a reimbursement request
+     * @param requestID The request id
+     * @return the request's transitions oldest first, empty if none were found
+     */
+    public List<AuditRecord> viewRequestHistory(int requestID) {
+        return requestDAO.getRequestHistory(requestID);
+    }
+
     /**
      * Get a list of all reimbursement requests submitted by one user
      * @param userID The user id of the user submitting the requests
@@ -158,4 +211,190 @@ public class ReimbursementRequestController {
     public List<ReimbursementRequest> viewAllResolvedRequests() {
         return requestDAO.getAllResolvedRequests();
     }
-}
\ No newline at end of file
+
+    /**
+     * Get one page of reimbursement requests submitted by one user, newest first
+     * @param userID The user id of the user submitting the requests
+     * @param status One of "Pending", "Resolved", or "All"
+     * @param pageSize The entered page size, may be null
+     * @param pageToken The token returned with the previous page, or null for the first page
+     * @return a page of reimbursement requests
+     * @throws RuntimeException if the page size or page token are invalid
+     */
+    public RequestPage viewRequestPage(int userID, String status, String pageSize, String pageToken) throws RuntimeException {
+        int size = validatePageSize(pageSize);
+        PageToken after = (pageToken == null || pageToken.isEmpty()) ? null : PageToken.decode(pageToken);
+        return requestDAO.getRequestPage(status, userID, after, size);
+    }
+
+    /**
+     * Get one page of reimbursement requests submitted by any user, newest first
+     * @param status One of "Pending", "Resolved", or "All"
+     * @param pageSize The entered page size, may be null
+     * @param pageToken The token returned with the previous page, or null for the first page
+     * @return a page of reimbursement requests
+     * @throws RuntimeException if the page size or page token are invalid
+     */
+    public RequestPage viewAllRequestPage(String status, String pageSize, String pageToken) throws RuntimeException {
+        return viewRequestPage(-1, status, pageSize, pageToken);
+    }
+
+    /**
+     * @param parameters The query parameters of a request listing
+     * @return true if any of them filter or sort the listing, which then has to be read with findRequestPage
+     */
+    public boolean isFiltered(Map<String, String[]> parameters) {
+        for (String name : QUERY_PARAMETERS) if (parameters.containsKey(name)) return true;
+        return false;
+    }
+
+    /**
+     * Get one page of reimbursement requests filtered and sorted by query parameters
+     *  employeeID, resolverID      |   the submitter's and resolver's user ids (employeeID only when userID is negative)
+     *  category                    |   the exact category
+     *  from, to                    |   submitted on or between these dates, formatted yyyy-MM-dd
+     *  minAmount, maxAmount        |   dollar amounts, inclusive
+     *  sort                        |   comma separated submitted, amount or submitter, prefixed with - for descending
+     *  pageSize, pageToken         |   as for the other listings
+     * @param userID The user id of the user submitting the requests, or a negative value for requests of any user
+     * @param status One of "Pending", "Resolved", or "All"
+     * @param parameters The query parameters
+     * @return a page of reimbursement requests
+     * @throws RuntimeException if a parameter is invalid
+     */
+    public RequestPage findRequestPage(int userID, String status, Map<String, String[]> parameters) throws RuntimeException {
+        RequestQuery query = new RequestQuery().withStatus(status);
+        if (userID >= 0) query.withSubmitter(userID);
+        else if (parameter(parameters, "employeeID") != null) query.withSubmitter(validateID(parameter(parameters, "employeeID"), "employee"));
+        if (parameter(parameters, "resolverID") != null) query.withResolver(validateID(parameter(parameters, "resolverID"), "resolver"));
+        query.withCategory(parameter(parameters, "category"));
+        LocalDate from = validateDate(parameter(parameters, "from"));
+        LocalDate to = validateDate(parameter(parameters, "to"));
+        query.submittedBetween((from == null) ? null : from.atStartOfDay(), (to == null) ? null : to.plusDays(1).atStartOfDay());
+        String minAmount = parameter(parameters, "minAmount");
+        String maxAmount = parameter(parameters, "maxAmount");
+        query.amountBetween((minAmount == null) ? -1 : validateMoney(minAmount), (maxAmount == null) ? -1 : validateMoney(maxAmount));
+        String sort = parameter(parameters, "sort");
+        if (sort != null) {
+            for (String column : sort.split(",")) {
+                column = column.trim();
+                boolean descending = column.startsWith("-");
+                query.orderBy(RequestQuery.Column.named(descending ? column.substring(1) : column), descending);
+            }
+        }
+        query.pageSize(validatePageSize(parameter(parameters, "pageSize")));
+        query.after(parameter(parameters, "pageToken"));
+        return requestDAO.find(query);
+    }
+
+    private static String parameter(Map<String, String[]> parameters, String name) {
+        String[] values = parameters.get(name);
+        return (values == null || values.length == 0 || values[0].isEmpty()) ? null : values[0];
+    }
+
+    private static int validateID(String id, String user) throws RuntimeException {
+        try {
+            int value = Integer.parseInt(id);
+            if (value < 0) throw new NumberFormatException();
+            return value;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid " + user + " id");
+        }
+    }
+
+    private static LocalDate validateDate(String date) throws RuntimeException {
+        if (date == null) return null;
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Dates must be formatted yyyy-MM-dd");
+        }
+    }
+
+    /**
+     * Search the category and description of reimbursement requests, best matches first
+     * @param query The entered search words
+     * @param status One of "Pending", "Resolved", or "All", null for all
+     * @param employeeID The entered id of the user the requests should belong to, null or empty for any user
+     * @param pageSize The entered page size, may be null
+     * @param pageToken The token returned with the previous page of the same search, or null for the first page
+     * @return a page of reimbursement requests
+     * @throws RuntimeException if the query, status, employee id, page size or page token are invalid
+     */
+    public RequestPage searchRequests(String query, String status, String employeeID, String pageSize, String pageToken) throws RuntimeException {
+        if (query == null || query.trim().isEmpty()) throw new RuntimeException("Enter the words to search for with ?q=");
+        if (query.length() > MAX_QUERY_LENGTH) throw new RuntimeException("Search queries are limited to " + MAX_QUERY_LENGTH + " characters");
+        if (status == null || status.isEmpty()) status = "All";
+        if (!status.equalsIgnoreCase("Pending") && !status.equalsIgnoreCase("Resolved") && !status.equalsIgnoreCase("All"))
+            throw new RuntimeException("Status must be pending, resolved, or all");
+        int userID = -1;
+        if (employeeID != null && !employeeID.isEmpty()) {
+            try {
+                userID = Integer.parseInt(employeeID);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid employee id");
+            }
+        }
+        int size = validatePageSize(pageSize);
+        SearchPageToken after = (pageToken == null || pageToken.isEmpty()) ? null : SearchPageToken.decode(pageToken);
+        return requestDAO.searchRequests(query, status, userID, after, size);
+    }
+
+    /**
+     * Stream reimbursement requests submitted by one user, newest first, without collecting them in memory
+     * @param userID The user id of the user submitting the requests
+     * @param status One of "Pending", "Resolved", or "All"
+     * @param handler Called once per request
+     * @return true if every request was read, false if the query failed
+     * @throws IOException if the handler fails
+     */
+    public boolean streamRequests(int userID, String status, RowHandler<ReimbursementRequest> handler) throws IOException {
+        return requestDAO.streamRequests(status, userID, handler);
+    }
+
+    /**
+     * Stream reimbursement requests submitted by any user, newest first, without collecting them in memory
+     * @param status One of "Pending", "Resolved", or "All"
+     * @param handler Called once per request
+     * @return true if every request was read, false if the query failed
+     * @throws IOException if the handler fails
+     */
+    public boolean streamAllRequests(String status, RowHandler<ReimbursementRequest> handler) throws IOException {
+        return requestDAO.streamRequests(status, -1, handler);
+    }
+
+    /**
+     * Build an export of reimbursement requests submitted by any user from query parameters, oldest first
+     *  format      |   csv (default) or ndjson
+     *  status      |   pending, resolved, approved, denied or all (default)
+     *  from, to    |   submitted on or between these dates, formatted yyyy-MM-dd
+     * @param parameters The query parameters
+     * @return the export, validated before anything is written
+     * @throws RuntimeException if a parameter is invalid
+     */
+    public RequestExport newExport(Map<String, String[]> parameters) throws RuntimeException {
+        RequestExport export = new RequestExport();
+        String format = parameter(parameters, "format");
+        if (format != null) export.format(RequestExport.Format.named(format));
+        String status = parameter(parameters, "status");
+        if (status != null) {
+            if (!EXPORT_STATUSES.contains(status.toLowerCase())) throw new RuntimeException("Invalid status '" + status + "'");
+            export.withStatus(status);
+        }
+        LocalDate from = validateDate(parameter(parameters, "from"));
+        LocalDate to = validateDate(parameter(parameters, "to"));
+        export.submittedBetween((from == null) ? null : from.atStartOfDay(), (to == null) ? null : to.plusDays(1).atStartOfDay());
+        return export;
+    }
+
+    /**
+     * Write an export's reimbursement requests to a stream as the database produces them, in constant memory
+     * @param export The export returned by newExport
+     * @param out Receives the requests, it is not closed
+     * @return the number of requests written, or -1 if the query failed
+     * @throws IOException if writing to out fails
+     */
+    public long exportRequests(RequestExport export, OutputStream out) throws IOException {
+        return requestDAO.exportRequests(export, out);
+    }
+}
@@ -2,23 +2,33 @@ package com.nathanpaternoster.controllers.users;
 
 import com.nathanpaternoster.services.EmailService;
 import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.EmployeeImportResult;
 import com.nathanpaternoster.models.users.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.nathanpaternoster.services.RowHandler;
 import com.nathanpaternoster.services.UserDAO;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Class to handle actions a manager can perform when logged in
  */
 public class ManagerController extends UserController {
     private static final Logger log = LogManager.getLogger(ManagerController.class);
+    public static final int MAX_IMPORT_ROWS = 10000;
+    private static final int MAX_NAME_LENGTH = 20;
+    private static final int MAX_EMAIL_LENGTH = 50;
 
     public ManagerController(UserDAO dao) {
         super(dao);
@@ -87,6 +97,79 @@ public class ManagerController extends UserController {
         return generatedID;
     }
 
+    /**
+     * Add many new employees at once, each gets a generated employee id and temporary password which are emailed to them
+     * Rows are validated independently, only the valid rows are inserted and every row gets its own outcome
+     * @param rows The parsed rows in order, a null entry marks a row that could not be parsed
+     * @return the outcome of every row in the same order, with the generated employee id or an error message
+     * @throws RuntimeException if there are no rows or more than MAX_IMPORT_ROWS rows
+     */
+    public List<EmployeeImportResult> importEmployees(List<Employee> rows) throws RuntimeException {
+        if (rows == null || rows.isEmpty())
+            throw new RuntimeException("No employees to import");
+        if (rows.size() > MAX_IMPORT_ROWS)
+            throw new RuntimeException("At most " + MAX_IMPORT_ROWS + " employees can be imported at once");
+
+        // the per-row checks don't touch the database, so they can run on every core
+        String[] errors = new String[rows.size()];
+        IntStream.range(0, rows.size()).parallel().forEach(i -> errors[i] = validateImportRow(rows.get(i)));
+
+        // duplicates within the import itself, the first occurrence wins
+        Set<String> emails = new HashSet<>();
+        for (int i = 0; i < rows.size(); ++i)
+            if (errors[i] == null && !emails.add(rows.get(i).getEmail()))
+                errors[i] = "Email address appears more than once in the import";
+
+        // one query for every email address instead of one per row
+        Set<String> unavailable = emails.isEmpty() ? Collections.emptySet() : dao.findUnavailableEmails(emails);
+        List<Employee> valid = new ArrayList<>(emails.size());
+        for (int i = 0; i < rows.size(); ++i) {
+            if (errors[i] != null) continue;
+            Employee row = rows.get(i);
+            if (unavailable == null) errors[i] = "Employee could not be added to the database";
+            else if (unavailable.contains(row.getEmail())) errors[i] = "Email address is unavailable";
+            else valid.add(new Employee(-1, generatePassword(MIN_PASSWORD_LENGTH), row.getFirstName(), row.getLastName(),
+                    row.getDob(), row.getEmail(), null));
+        }
+        Map<String, Integer> imported = valid.isEmpty() ? Collections.emptyMap() : dao.importEmployees(valid);
+        if (imported == null) log.warn("Bulk employee import failed");
+
+        List<EmployeeImportResult> results = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); ++i) {
+            Employee row = rows.get(i);
+            String email = (row != null) ? row.getEmail() : null;
+            if (errors[i] == null) {
+                Integer userID = (imported != null) ? imported.get(email) : null;
+                if (userID == null)
+                    errors[i] = (imported != null) ? "Email address is unavailable" : "Employee could not be added to the database";
+                results.add(new EmployeeImportResult(i + 1, userID, email, errors[i]));
+            } else results.add(new EmployeeImportResult(i + 1, null, email, errors[i]));
+        }
+        log.info("Imported {} of {} employees", imported != null ? imported.size() : 0, rows.size());
+        return results;
+    }
+
+    /**
+     * Check one row of a bulk import without querying the database
+     * @return an error message, or null if the row is valid
+     */
+    private String validateImportRow(Employee row) {
+        if (row == null) return "Row could not be parsed";
+        try {
+            validateName(row.getFirstName(), row.getLastName());
+            validateDOB(row.getDob());
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+        if (row.getFirstName().length() > MAX_NAME_LENGTH || row.getLastName().length() > MAX_NAME_LENGTH)
+            return "Names can be at most " + MAX_NAME_LENGTH + " characters";
+        if (row.getEmail() == null || row.getEmail().isEmpty())
+            return "No email entered";
+        if (row.getEmail().length() > MAX_EMAIL_LENGTH)
+            return "Email address can be at most " + MAX_EMAIL_LENGTH + " characters";
+        return null;
+    }
+
     /**
      * Get an employee's profile info
      * @param userID The employee's user id
@@ -97,6 +180,14 @@ public class ManagerController extends UserController {
         return (u instanceof Employee) ? (Employee) u : null;
     }
 
+    /**
+     * Get the version of the users table, read it before a listing to tag the response
+     * @return a number that changes whenever a user is added or updated
+     */
+    public long getEmployeesVersion() {
+        return dao.getVersion();
+    }
+
     /**
      * Get the profile info for every employee
      * @return a list of employees
@@ -104,4 +195,14 @@ public class ManagerController extends UserController {
     public List<Employee> viewAllEmployees() {
         return dao.getAllEmployees();
     }
-}
+
+    /**
+     * Stream the profile info for every employee without collecting them in memory
+     * @param handler Called once per employee
+     * @return true if every employee was read, false if the query failed
+     * @throws IOException if the handler fails
+     */
+    public boolean streamAllEmployees(RowHandler<Employee> handler) throws IOException {
+        return dao.streamEmployees(handler);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.nathanpaternoster.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.message.Message;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Log4j filter keeping a random one in rate of the events at or below a level, e.g. one in 10 DEBUG and TRACE events
+ * Used as a context-wide filter it runs before the event is created, so dropped debug logging costs a random number
+ * and no allocation. Events above the level are never sampled.
+ */
+@Plugin(name = "SamplingFilter", category = Node.CATEGORY, elementType = Filter.ELEMENT_TYPE, printObject = true)
+public final class SamplingFilter extends AbstractFilter {
+    private final Level level;
+    private final int rate;
+
+    private SamplingFilter(Level level, int rate, Result onMatch, Result onMismatch) {
+        super(onMatch, onMismatch);
+        this.level = level;
+        this.rate = rate;
+    }
+
+    /**
+     * @param level The most severe level sampled, DEBUG by default
+     * @param rate One in rate events are kept, 1 (the default) keeps them all
+     * @param onMatch The result for kept events, NEUTRAL by default
+     * @param onMismatch The result for dropped events, DENY by default
+     */
+    @PluginFactory
+    public static SamplingFilter createFilter(@PluginAttribute("level") Level level,
+                                              @PluginAttribute(value = "rate", defaultInt = 1) int rate,
+                                              @PluginAttribute("onMatch") Result onMatch,
+                                              @PluginAttribute("onMismatch") Result onMismatch) {
+        return new SamplingFilter(level == null ? Level.DEBUG : level, Math.max(rate, 1),
+                onMatch == null ? Result.NEUTRAL : onMatch, onMismatch == null ? Result.DENY : onMismatch);
+    }
+
+    public static SamplingFilter createFilter(Level level, int rate) {
+        return createFilter(level, rate, null, null);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    private Result filter(Level eventLevel) {
+        if (rate == 1 || !eventLevel.isLessSpecificThan(level)) return onMatch;
+        return ThreadLocalRandom.current().nextInt(rate) == 0 ? onMatch : onMismatch;
+    }
+
+    // every overload is implemented so the parameters are never copied into a varargs array
+
+    @Override
+    public Result filter(LogEvent event) {
+        return filter(event.getLevel());
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Message msg, Throwable t) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Object msg, Throwable t) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object... params) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4, Object p5) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4, Object p5, Object p6) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4, Object p5, Object p6, Object p7) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4, Object p5, Object p6, Object p7, Object p8) {
+        return filter(level);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object p0, Object p1, Object p2,
+                         Object p3, Object p4, Object p5, Object p6, Object p7, Object p8, Object p9) {
+        return filter(level);
+    }
+
+    @Override
+    public String toString() {
+        return "level=" + level + ", rate=" + rate;
+    }
+}
@@ -0,0 +1,127 @@
+package com.nathanpaternoster.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of durations (or other non-negative values such as sizes) over fixed bucket boundaries
+ * Recording is a binary search plus two LongAdder increments, so it is cheap enough for every request and never
+ * allocates. Percentiles are estimated as the upper bound of the bucket holding the requested rank.
+ */
+public class Histogram {
+    private static final long[] DEFAULT_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000
+    };
+    private final long[] upperBounds;
+    private final LongAdder[] buckets;      // one more than upperBounds, the last bucket counts everything above the largest bound
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Histogram with buckets from 50 microseconds to 10 seconds
+     */
+    public Histogram() {
+        this(toNanos(DEFAULT_BOUNDS_MICROS));
+    }
+
+    /**
+     * @param upperBoundsNanos Inclusive bucket upper bounds in nanoseconds, strictly increasing (in the recorded unit for
+     *      histograms of values other than durations)
+     */
+    public Histogram(long[] upperBoundsNanos) {
+        for (int i = 1; i < upperBoundsNanos.length; ++i)
+            if (upperBoundsNanos[i] <= upperBoundsNanos[i-1])
+                throw new IllegalArgumentException("Histogram bounds must be strictly increasing");
+        upperBounds = upperBoundsNanos.clone();
+        buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; ++i) buckets[i] = new LongAdder();
+    }
+
+    private static long[] toNanos(long[] micros) {
+        long[] nanos = new long[micros.length];
+        for (int i = 0; i < micros.length; ++i) nanos[i] = TimeUnit.MICROSECONDS.toNanos(micros[i]);
+        return nanos;
+    }
+
+    /**
+     * Record one observation
+     * @param nanos The observed duration in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int low = 0, high = upperBounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (upperBounds[mid] < nanos) low = mid + 1;
+            else high = mid;
+        }
+        buckets[low].increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return The inclusive upper bound of each bucket in nanoseconds, excluding the final unbounded bucket
+     */
+    public long[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * @return The number of observations in each bucket (not cumulative), the last entry counts observations above every bound
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; ++i) counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) count += bucket.sum();
+        return count;
+    }
+
+    /**
+     * @return The total of every recorded duration in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return The largest recorded duration in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Estimate a percentile from the bucket counts
+     * @param quantile The quantile between 0 and 1, e.g. 0.99
+     * @return The upper bound in nanoseconds of the bucket holding the quantile, the maximum if it falls above every bound,
+     *      or 0 if nothing was recorded
+     */
+    public long percentile(double quantile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < upperBounds.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBounds[i], getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + (getCount() > 0 ? TimeUnit.NANOSECONDS.toMicros(getSum() / getCount()) : 0) + "us" +
+                ", p50=" + TimeUnit.NANOSECONDS.toMicros(percentile(0.5)) + "us" +
+                ", p99=" + TimeUnit.NANOSECONDS.toMicros(percentile(0.99)) + "us" +
+                ", max=" + TimeUnit.NANOSECONDS.toMicros(getMax()) + "us";
+    }
+}
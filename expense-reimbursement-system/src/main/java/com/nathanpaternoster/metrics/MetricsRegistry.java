@@ -0,0 +1,178 @@
+package com.nathanpaternoster.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms written out in the Prometheus text format
+ * A metric is looked up once by name and label values and then updated without locking (counters are LongAdders and
+ * histograms are Histogram), so recording costs the same as incrementing a field. Asking again for the same name and
+ * labels returns the same instance. Gauges and function counters read their value from a supplier when written out.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final double scale;
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();     // keyed by the rendered labels
+
+        Family(String name, String help, String type, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * @return The registry shared by the application's servlets, filters and listeners
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get or create a counter
+     * @param labels Alternating label names and values, e.g. "result", "success"
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter", 1).series.computeIfAbsent(labels(labels), l -> new LongAdder());
+    }
+
+    /**
+     * Register a counter whose value is kept elsewhere, replacing any previous one with the same labels
+     * @param value Read each time the metrics are written, must never decrease
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter", 1).series.put(labels(labels), value);
+    }
+
+    /**
+     * Register a gauge, replacing any previous one with the same labels
+     * @param value Read each time the metrics are written
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "gauge", 1).series.put(labels(labels), value);
+    }
+
+    /**
+     * Get or create a histogram
+     * @param upperBounds The histogram's bucket bounds
+     * @param scale Divisor converting recorded values to the exported unit, e.g. 1e9 for nanoseconds exported as seconds
+     */
+    public Histogram histogram(String name, String help, long[] upperBounds, double scale, String... labels) {
+        return (Histogram) family(name, help, "histogram", scale).series.computeIfAbsent(labels(labels), l -> new Histogram(upperBounds));
+    }
+
+    /**
+     * Get or create a histogram of durations recorded in nanoseconds and exported in seconds, with the default buckets
+     * from 50 microseconds to 10 seconds
+     */
+    public Histogram durationHistogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram", 1e9).series.computeIfAbsent(labels(labels), l -> new Histogram());
+    }
+
+    /**
+     * Register a histogram that is recorded elsewhere, replacing any previous one with the same labels
+     * @param scale Divisor converting recorded values to the exported unit
+     */
+    public void histogram(String name, String help, Histogram histogram, double scale, String... labels) {
+        family(name, help, "histogram", scale).series.put(labels(labels), histogram);
+    }
+
+    /**
+     * Remove every metric whose name starts with the prefix, e.g. when the component they report on is shut down
+     */
+    public void remove(String namePrefix) {
+        families.keySet().removeIf(name -> name.startsWith(namePrefix));
+    }
+
+    private Family family(String name, String help, String type, double scale) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type, scale));
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException("Metric '" + name + "' is already registered as a " + family.type);
+        return family;
+    }
+
+    /**
+     * Render label pairs as name="value",name="value"
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name and value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i+1];
+            for (int j = 0; j < value.length(); ++j) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') sb.append('\\').append(c);
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format (version 0.0.4)
+     */
+    public void write(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Family family : families.values()) {
+            if (family.series.isEmpty()) continue;
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Histogram) {
+                    appendHistogram(sb, family, labels, (Histogram) metric);
+                } else {
+                    long value = (metric instanceof LongAdder) ? ((LongAdder) metric).sum() : ((LongSupplier) metric).getAsLong();
+                    appendSample(sb, family.name, labels, null, Long.toString(value));
+                }
+            }
+            out.write(sb.toString());
+            sb.setLength(0);
+        }
+        out.flush();
+    }
+
+    private static void appendHistogram(StringBuilder sb, Family family, String labels, Histogram histogram) {
+        long[] bounds = histogram.getUpperBounds();
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; ++i) {
+            cumulative += counts[i];
+            appendSample(sb, family.name + "_bucket", labels, format(bounds[i] / family.scale), Long.toString(cumulative));
+        }
+        cumulative += counts[bounds.length];
+        appendSample(sb, family.name + "_bucket", labels, "+Inf", Long.toString(cumulative));
+        appendSample(sb, family.name + "_sum", labels, null, format(histogram.getSum() / family.scale));
+        appendSample(sb, family.name + "_count", labels, null, Long.toString(cumulative));
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, String le, String value) {
+        sb.append(name);
+        if (!labels.isEmpty() || le != null) {
+            sb.append('{').append(labels);
+            if (le != null) sb.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        return (value == Math.rint(value) && Math.abs(value) < 1e15) ? Long.toString((long) value) : Double.toString(value);
+    }
+}
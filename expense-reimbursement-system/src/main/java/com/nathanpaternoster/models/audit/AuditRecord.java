@@ -0,0 +1,137 @@
+package com.nathanpaternoster.models.audit;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * One state transition recorded in the audit journal, or a request transition read from the request_transitions table
+ * Request records (SUBMITTED, RESOLVED) are keyed by requestID, user records (USER_ADDED, USER_UPDATED) by userID.
+ * Fields that don't apply to a record's type, or weren't known when it was written, are -1 or null.
+ */
+public class AuditRecord {
+    private final long sequence;
+    private final long timeMillis;
+    private final Type type;
+    private final int key;
+    private final int actorID;
+    private final int subjectID;
+    private final long amount;
+    private final String status;
+
+    public enum Type {
+        SUBMITTED, RESOLVED, USER_ADDED, USER_UPDATED;
+
+        public boolean isRequest() {
+            return this == SUBMITTED || this == RESOLVED;
+        }
+    }
+
+    /**
+     * @param sequence The record's position in the journal, assigned when it is appended, or the transition's id in the database
+     * @param timeMillis When the transition happened, in epoch milliseconds
+     * @param type The transition
+     * @param key The requestID of a request record, the userID of a user record
+     * @param actorID The user who made the transition (submitter, resolver, or the user updating their profile)
+     * @param subjectID The submitter of a request record
+     * @param amount The amount of a request in cents
+     * @param status The request's status after the transition, or the user's type (Employee or Manager)
+     */
+    public AuditRecord(long sequence, long timeMillis, Type type, int key, int actorID, int subjectID, long amount, String status) {
+        this.sequence = sequence;
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.key = key;
+        this.actorID = actorID;
+        this.subjectID = subjectID;
+        this.amount = amount;
+        this.status = status;
+    }
+
+    /**
+     * @return A record of a request being submitted, to be appended
+     */
+    public static AuditRecord submitted(int requestID, ReimbursementRequest r) {
+        return new AuditRecord(-1, System.currentTimeMillis(), Type.SUBMITTED, requestID, r.getSubmitterID(), r.getSubmitterID(), r.getAmount(), r.getStatus());
+    }
+
+    /**
+     * @param r The resolved request, or null if only its id is known
+     * @return A record of a request being resolved, to be appended
+     */
+    public static AuditRecord resolved(int requestID, int resolverID, String status, ReimbursementRequest r) {
+        return new AuditRecord(-1, System.currentTimeMillis(), Type.RESOLVED, requestID, resolverID,
+                (r == null) ? -1 : r.getSubmitterID(), (r == null) ? -1 : r.getAmount(), status);
+    }
+
+    /**
+     * @return A record of a user being added or updated, to be appended
+     */
+    public static AuditRecord user(Type type, int userID, int actorID, String userType) {
+        return new AuditRecord(-1, System.currentTimeMillis(), type, userID, actorID, -1, -1, userType);
+    }
+
+    /**
+     * @return The same record at a position in the journal
+     */
+    public AuditRecord at(long sequence) {
+        return new AuditRecord(sequence, timeMillis, type, key, actorID, subjectID, amount, status);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+    @JsonIgnore
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+    public LocalDateTime getTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault());
+    }
+    public Type getType() {
+        return type;
+    }
+    @JsonIgnore
+    public int getKey() {
+        return key;
+    }
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonGetter("requestID")
+    public Integer getRequestID() {
+        return type.isRequest() ? key : null;
+    }
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonGetter("userID")
+    public Integer getUserID() {
+        return type.isRequest() ? null : key;
+    }
+    public int getActorID() {
+        return actorID;
+    }
+    @JsonIgnore
+    public int getSubjectID() {
+        return subjectID;
+    }
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonGetter("submitterID")
+    public Integer getSubmitterID() {
+        return (type.isRequest() && subjectID >= 0) ? subjectID : null;
+    }
+    @JsonIgnore
+    public long getAmount() {
+        return amount;
+    }
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonGetter("amount")
+    public String getStringAmount() {
+        return (amount >= 0) ? ReimbursementRequest.formatAmount(amount) : null;
+    }
+    public String getStatus() {
+        return status;
+    }
+}
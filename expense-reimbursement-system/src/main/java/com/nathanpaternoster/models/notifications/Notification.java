@@ -0,0 +1,67 @@
+package com.nathanpaternoster.models.notifications;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+
+/**
+ * Class to represent a queued email notification claimed from the notification outbox
+ */
+public class Notification {
+    private long notificationID;
+    private String kind;
+    private int attempts;
+    private Employee recipient;
+    private ReimbursementRequest request;
+
+    public Notification() {
+    }
+    public Notification(long notificationID, String kind, int attempts, Employee recipient, ReimbursementRequest request) {
+        this.notificationID = notificationID;
+        this.kind = kind;
+        this.attempts = attempts;
+        this.recipient = recipient;
+        this.request = request;
+    }
+
+    public long getNotificationID() {
+        return notificationID;
+    }
+    public void setNotificationID(long notificationID) {
+        this.notificationID = notificationID;
+    }
+    public String getKind() {
+        return kind;
+    }
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * @return The number of delivery attempts including the current one
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    /**
+     * @return The employee receiving the email, for "Welcome" notifications this includes their temporary password
+     */
+    public Employee getRecipient() {
+        return recipient;
+    }
+    public void setRecipient(Employee recipient) {
+        this.recipient = recipient;
+    }
+
+    /**
+     * @return The reimbursement request the notification is about, null for notifications that are not about a request
+     */
+    public ReimbursementRequest getRequest() {
+        return request;
+    }
+    public void setRequest(ReimbursementRequest request) {
+        this.request = request;
+    }
+}
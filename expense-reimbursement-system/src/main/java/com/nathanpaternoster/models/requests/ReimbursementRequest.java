@@ -95,6 +95,13 @@ public class ReimbursementRequest {
      */
     @JsonGetter("amount")
     public String getStringAmount() {
+        return formatAmount(amount);
+    }
+
+    /**
+     * Format an amount in cents as dollars, e.g. 1250 as $12.50
+     */
+    public static String formatAmount(long amount) {
         String s = String.valueOf(amount);
         StringBuilder displayAmount = new StringBuilder(s);
         if (s.length() == 1) displayAmount.insert(0, "00");
@@ -0,0 +1,123 @@
+package com.nathanpaternoster.models.requests;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to represent a summary of all reimbursement requests for the manager dashboard
+ */
+public class RequestDashboard {
+    private long pendingCount;
+    private long pendingAmount;
+    private Map<String, Long> statusCounts;
+    private Map<String, Long> categoryCounts;
+    private List<Outstanding> outstanding;
+    private LocalDateTime reconciledAt;
+
+    /**
+     * The pending requests of one employee
+     */
+    public static class Outstanding {
+        private int employeeID;
+        private long count;
+        private long amount;
+
+        public Outstanding() {
+        }
+        public Outstanding(int employeeID, long count, long amount) {
+            this.employeeID = employeeID;
+            this.count = count;
+            this.amount = amount;
+        }
+
+        public int getEmployeeID() {
+            return employeeID;
+        }
+        public void setEmployeeID(int employeeID) {
+            this.employeeID = employeeID;
+        }
+        public long getCount() {
+            return count;
+        }
+        public void setCount(long count) {
+            this.count = count;
+        }
+        @JsonIgnore
+        public long getAmount() {
+            return amount;
+        }
+        public void setAmount(long amount) {
+            this.amount = amount;
+        }
+        @JsonGetter("amount")
+        public String getStringAmount() {
+            return ReimbursementRequest.formatAmount(amount);
+        }
+    }
+
+    public RequestDashboard() {
+    }
+    public RequestDashboard(long pendingCount, long pendingAmount, Map<String, Long> statusCounts, Map<String, Long> categoryCounts, List<Outstanding> outstanding, LocalDateTime reconciledAt) {
+        this.pendingCount = pendingCount;
+        this.pendingAmount = pendingAmount;
+        this.statusCounts = statusCounts;
+        this.categoryCounts = categoryCounts;
+        this.outstanding = outstanding;
+        this.reconciledAt = reconciledAt;
+    }
+
+    public long getPendingCount() {
+        return pendingCount;
+    }
+    public void setPendingCount(long pendingCount) {
+        this.pendingCount = pendingCount;
+    }
+    @JsonIgnore
+    public long getPendingAmount() {
+        return pendingAmount;
+    }
+    public void setPendingAmount(long pendingAmount) {
+        this.pendingAmount = pendingAmount;
+    }
+    public Map<String, Long> getStatusCounts() {
+        return statusCounts;
+    }
+    public void setStatusCounts(Map<String, Long> statusCounts) {
+        this.statusCounts = statusCounts;
+    }
+    public Map<String, Long> getCategoryCounts() {
+        return categoryCounts;
+    }
+    public void setCategoryCounts(Map<String, Long> categoryCounts) {
+        this.categoryCounts = categoryCounts;
+    }
+
+    /**
+     * @return The employees with pending requests, largest amount first
+     */
+    public List<Outstanding> getOutstanding() {
+        return outstanding;
+    }
+    public void setOutstanding(List<Outstanding> outstanding) {
+        this.outstanding = outstanding;
+    }
+
+    /**
+     * @return When the totals were last loaded from the database, they are kept up to date in memory in between
+     */
+    public LocalDateTime getReconciledAt() {
+        return reconciledAt;
+    }
+    public void setReconciledAt(LocalDateTime reconciledAt) {
+        this.reconciledAt = reconciledAt;
+    }
+
+    @JsonGetter("pendingAmount")
+    public String getStringPendingAmount() {
+        return ReimbursementRequest.formatAmount(pendingAmount);
+    }
+}
@@ -0,0 +1,52 @@
+package com.nathanpaternoster.models.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Class to represent a change to a reimbursement request, pushed to subscribed managers
+ */
+public class RequestEvent {
+    public static final String SUBMITTED = "submitted";
+    public static final String RESOLVED = "resolved";
+    private long id = -1;
+    private String type;
+    private ReimbursementRequest request;
+
+    public RequestEvent() {
+    }
+    public RequestEvent(String type, ReimbursementRequest request) {
+        this.type = type;
+        this.request = request;
+    }
+    public RequestEvent(long id, String type, ReimbursementRequest request) {
+        this(type, request);
+        this.id = id;
+    }
+
+    /**
+     * @return The id the database gave the event, the same on every instance of the application, or -1 if it has none
+     */
+    @JsonIgnore
+    public long getId() {
+        return id;
+    }
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return SUBMITTED or RESOLVED
+     */
+    public String getType() {
+        return type;
+    }
+    public void setType(String type) {
+        this.type = type;
+    }
+    public ReimbursementRequest getRequest() {
+        return request;
+    }
+    public void setRequest(ReimbursementRequest request) {
+        this.request = request;
+    }
+}
@@ -0,0 +1,35 @@
+package com.nathanpaternoster.models.requests;
+
+import java.util.List;
+
+/**
+ * Class to represent one page of reimbursement requests along with a token to retrieve the next page
+ */
+public class RequestPage {
+    private List<ReimbursementRequest> requests;
+    private String nextPageToken;
+
+    public RequestPage() {
+    }
+    public RequestPage(List<ReimbursementRequest> requests, String nextPageToken) {
+        this.requests = requests;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<ReimbursementRequest> getRequests() {
+        return requests;
+    }
+    public void setRequests(List<ReimbursementRequest> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * @return An opaque token identifying the last request on this page, or null if this is the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+    public void setNextPageToken(String nextPageToken) {
+        this.nextPageToken = nextPageToken;
+    }
+}
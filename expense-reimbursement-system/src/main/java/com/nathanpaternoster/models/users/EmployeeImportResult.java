@@ -0,0 +1,60 @@
+package com.nathanpaternoster.models.users;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Class to represent the outcome of importing a single row of a bulk employee import
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EmployeeImportResult {
+    private int row;
+    private Integer userID;
+    private String email;
+    private String error;
+
+    public EmployeeImportResult() {
+    }
+    public EmployeeImportResult(int row, Integer userID, String email, String error) {
+        this.row = row;
+        this.userID = userID;
+        this.email = email;
+        this.error = error;
+    }
+
+    /**
+     * @return The 1-based position of the row in the imported body, not counting a header line
+     */
+    public int getRow() {
+        return row;
+    }
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    /**
+     * @return The generated userID of the new employee, null if the row was not imported
+     */
+    public Integer getUserID() {
+        return userID;
+    }
+    public void setUserID(Integer userID) {
+        this.userID = userID;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    /**
+     * @return Why the row was not imported, null if it was
+     */
+    public String getError() {
+        return error;
+    }
+    public void setError(String error) {
+        this.error = error;
+    }
+}
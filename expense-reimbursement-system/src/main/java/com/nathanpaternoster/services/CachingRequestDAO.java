@@ -0,0 +1,138 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through cache in front of another RequestDAO
+ * Single resolved requests looked up by id are cached: they never change, so they stay cached until evicted and every
+ * instance of the application can cache them. Pending requests are always read from the wrapped DAO, since another
+ * instance may resolve them without invalidating this cache. Writes still invalidate their requests' entries.
+ * Listings are always passed through to the wrapped DAO.
+ */
+public class CachingRequestDAO implements RequestDAO {
+    private static final Logger log = LogManager.getLogger(CachingRequestDAO.class);
+    private final RequestDAO delegate;
+    private final LruCache<Integer, ReimbursementRequest> cache;
+
+    public CachingRequestDAO(RequestDAO delegate, int maxSize) {
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxSize);
+        log.debug("Caching request DAO created with a maximum size of {}", maxSize);
+    }
+
+    /**
+     * @return The cache holding requests by requestID, for reading hit/miss/eviction counts
+     */
+    public LruCache<Integer, ReimbursementRequest> getCache() {
+        return cache;
+    }
+
+    @Override
+    public int addRequest(ReimbursementRequest r) {
+        int requestID = delegate.addRequest(r);
+        if (requestID >= 0) cache.invalidate(requestID);
+        return requestID;
+    }
+
+    @Override
+    public ReimbursementRequest resolveRequest(int resolverID, int requestID, String resolution) {
+        try {
+            return delegate.resolveRequest(resolverID, requestID, resolution);
+        } finally {
+            cache.invalidate(requestID);
+        }
+    }
+
+    @Override
+    public List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, String> resolutions) {
+        try {
+            return delegate.resolveRequests(resolverID, resolutions);
+        } finally {
+            for (Integer requestID : resolutions.keySet()) cache.invalidate(requestID);
+        }
+    }
+
+    @Override
+    public ReimbursementRequest getRequest(int requestID) {
+        ReimbursementRequest r = cache.get(requestID);
+        if (r != null) return r;
+        long stamp = cache.stamp(requestID);
+        r = delegate.getRequest(requestID);
+        if (r != null && !r.getStatus().equalsIgnoreCase("Pending")) cache.putIfValid(requestID, r, stamp);
+        return r;
+    }
+
+    @Override
+    public List<AuditRecord> getRequestHistory(int requestID) {
+        return delegate.getRequestHistory(requestID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getRequests(int userID) {
+        return delegate.getRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getPendingRequests(int userID) {
+        return delegate.getPendingRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getResolvedRequests(int userID) {
+        return delegate.getResolvedRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllRequests() {
+        return delegate.getAllRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllPendingRequests() {
+        return delegate.getAllPendingRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllResolvedRequests() {
+        return delegate.getAllResolvedRequests();
+    }
+
+    @Override
+    public RequestPage getRequestPage(String withStatus, int userID, PageToken after, int pageSize) {
+        return delegate.getRequestPage(withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public RequestPage find(RequestQuery query) {
+        return delegate.find(query);
+    }
+
+    @Override
+    public RequestPage searchRequests(String query, String withStatus, int userID, SearchPageToken after, int pageSize) {
+        return delegate.searchRequests(query, withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public boolean streamRequests(String withStatus, int userID, RowHandler<ReimbursementRequest> handler) throws IOException {
+        return delegate.streamRequests(withStatus, userID, handler);
+    }
+
+    @Override
+    public long exportRequests(RequestExport export, OutputStream out) throws IOException {
+        return delegate.exportRequests(export, out);
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+}
@@ -0,0 +1,100 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.User;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-through cache in front of another UserDAO
+ * User profiles looked up by id are cached and invalidated whenever that user is inserted or updated.
+ * Authentication, email checks and listings are always passed through to the wrapped DAO.
+ */
+public class CachingUserDAO implements UserDAO {
+    private static final Logger log = LogManager.getLogger(CachingUserDAO.class);
+    private final UserDAO delegate;
+    private final LruCache<Integer, User> cache;
+
+    public CachingUserDAO(UserDAO delegate, int maxSize) {
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxSize);
+        log.debug("Caching user DAO created with a maximum size of {}", maxSize);
+    }
+
+    /**
+     * @return The cache holding users by userID, for reading hit/miss/eviction counts
+     */
+    public LruCache<Integer, User> getCache() {
+        return cache;
+    }
+
+    @Override
+    public int addNewUser(User newUser) {
+        int userID = delegate.addNewUser(newUser);
+        if (userID >= 0) cache.invalidate(userID);
+        return userID;
+    }
+
+    @Override
+    public boolean updateUser(User updatedUser) {
+        try {
+            return delegate.updateUser(updatedUser);
+        } finally {
+            cache.invalidate(updatedUser.getUserID());
+        }
+    }
+
+    @Override
+    public User authenticateUser(int userID, String password) {
+        return delegate.authenticateUser(userID, password);
+    }
+
+    @Override
+    public User getUser(int userID) {
+        User u = cache.get(userID);
+        if (u != null) return u;
+        long stamp = cache.stamp(userID);
+        u = delegate.getUser(userID);
+        if (u != null) cache.putIfValid(userID, u, stamp);
+        return u;
+    }
+
+    @Override
+    public List<Employee> getAllEmployees() {
+        return delegate.getAllEmployees();
+    }
+
+    @Override
+    public boolean streamEmployees(RowHandler<Employee> handler) throws IOException {
+        return delegate.streamEmployees(handler);
+    }
+
+    @Override
+    public boolean emailIsAvailable(String email) {
+        return delegate.emailIsAvailable(email);
+    }
+
+    @Override
+    public Set<String> findUnavailableEmails(Collection<String> emails) {
+        return delegate.findUnavailableEmails(emails);
+    }
+
+    @Override
+    public Map<String, Integer> importEmployees(List<Employee> employees) {
+        Map<String, Integer> imported = delegate.importEmployees(employees);
+        if (imported != null)
+            for (Integer userID : imported.values()) cache.invalidate(userID);
+        return imported;
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+}
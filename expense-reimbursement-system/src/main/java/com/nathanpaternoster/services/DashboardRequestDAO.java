@@ -0,0 +1,225 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestEvent;
+import com.nathanpaternoster.models.requests.RequestPage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * RequestDAO that keeps RequestAggregates up to date for the manager dashboard
+ * The totals are loaded from the database once, then updated in memory by every submission and resolution that goes
+ * through this DAO, and by those other instances of the application make, as their RequestEvents arrive (apply). They
+ * are reloaded periodically, and after events may have been missed, to correct any drift. Reads are passed through to
+ * the wrapped DAO.
+ */
+public class DashboardRequestDAO implements RequestDAO {
+    private static final Logger log = LogManager.getLogger(DashboardRequestDAO.class);
+    private final RequestDAO delegate;
+    private final AtomicReference<RequestAggregates> aggregates = new AtomicReference<>();
+    private final AtomicLong writes = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    public DashboardRequestDAO(RequestDAO delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Load the totals now and then reconcile them with the database every reconcileSeconds
+     */
+    public synchronized void start(long reconcileSeconds) {
+        if (executor != null) return;
+        reconcile();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dashboard-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                // an escaped exception would cancel the scheduled task
+                log.error("Dashboard reconciliation failed", e);
+            }
+        }, reconcileSeconds, reconcileSeconds, TimeUnit.SECONDS);
+        log.info("Dashboard aggregates reconciled every {}s", reconcileSeconds);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * @return The current totals, or null if they have never been loaded
+     */
+    public RequestAggregates getAggregates() {
+        return aggregates.get();
+    }
+
+    /**
+     * Reload the totals from the database and replace the in-memory ones
+     * The reload is discarded if a request was submitted or resolved while it ran, since the scan may have missed it.
+     * @return True if the totals were replaced
+     */
+    public boolean reconcile() {
+        long before = writes.get();
+        RequestAggregates loaded = RequestAggregates.load(delegate);
+        if (loaded == null) {
+            log.warn("Failed to load the dashboard aggregates");
+            return false;
+        }
+        if (writes.get() != before) {
+            log.debug("Requests changed while the dashboard aggregates were loading, reconciling at the next interval");
+            return false;
+        }
+        RequestAggregates previous = aggregates.getAndSet(loaded);
+        if (previous != null && (previous.getPendingCount() != loaded.getPendingCount() || previous.getPendingAmount() != loaded.getPendingAmount()))
+            log.warn("Dashboard aggregates had drifted: {} pending requests for {} cents in memory, {} for {} in the database",
+                    previous.getPendingCount(), previous.getPendingAmount(), loaded.getPendingCount(), loaded.getPendingAmount());
+        return true;
+    }
+
+    /**
+     * Reload the totals in the background, e.g. once events that were missed are known to have been
+     */
+    public synchronized void reconcileSoon() {
+        if (executor != null) executor.execute(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                log.error("Dashboard reconciliation failed", e);
+            }
+        });
+    }
+
+    /**
+     * Apply a submission or resolution made by any instance of the application
+     * Those made through this DAO were applied when they committed, and applying them again changes nothing.
+     */
+    public void apply(RequestEvent event) {
+        ReimbursementRequest r = event.getRequest();
+        if (RequestEvent.SUBMITTED.equals(event.getType())) update(a -> a.submitted(r.getRequestID(), r));
+        else if (RequestEvent.RESOLVED.equals(event.getType())) update(a -> a.resolved(r.getRequestID(), r.getStatus()));
+    }
+
+    /**
+     * Apply a change to the current totals, again if a reconciliation replaced them meanwhile (updates are idempotent)
+     */
+    private void update(Consumer<RequestAggregates> change) {
+        writes.incrementAndGet();
+        RequestAggregates current;
+        do {
+            current = aggregates.get();
+            if (current == null) return;    // the first load will read the change from the database
+            change.accept(current);
+        } while (current != aggregates.get());
+    }
+
+    @Override
+    public int addRequest(ReimbursementRequest r) {
+        int requestID = delegate.addRequest(r);
+        if (requestID >= 0) update(a -> a.submitted(requestID, r));
+        return requestID;
+    }
+
+    @Override
+    public ReimbursementRequest resolveRequest(int resolverID, int requestID, String resolution) {
+        ReimbursementRequest resolved = delegate.resolveRequest(resolverID, requestID, resolution);
+        if (resolved != null) update(a -> a.resolved(requestID, resolution));
+        return resolved;
+    }
+
+    @Override
+    public List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, String> resolutions) {
+        List<ReimbursementRequest> resolved = delegate.resolveRequests(resolverID, resolutions);
+        if (!resolved.isEmpty()) update(a -> {
+            for (ReimbursementRequest r : resolved) a.resolved(r.getRequestID(), r.getStatus());
+        });
+        return resolved;
+    }
+
+    @Override
+    public ReimbursementRequest getRequest(int requestID) {
+        return delegate.getRequest(requestID);
+    }
+
+    @Override
+    public List<AuditRecord> getRequestHistory(int requestID) {
+        return delegate.getRequestHistory(requestID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getRequests(int userID) {
+        return delegate.getRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getPendingRequests(int userID) {
+        return delegate.getPendingRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getResolvedRequests(int userID) {
+        return delegate.getResolvedRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllRequests() {
+        return delegate.getAllRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllPendingRequests() {
+        return delegate.getAllPendingRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllResolvedRequests() {
+        return delegate.getAllResolvedRequests();
+    }
+
+    @Override
+    public RequestPage getRequestPage(String withStatus, int userID, PageToken after, int pageSize) {
+        return delegate.getRequestPage(withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public RequestPage find(RequestQuery query) {
+        return delegate.find(query);
+    }
+
+    @Override
+    public RequestPage searchRequests(String query, String withStatus, int userID, SearchPageToken after, int pageSize) {
+        return delegate.searchRequests(query, withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public boolean streamRequests(String withStatus, int userID, RowHandler<ReimbursementRequest> handler) throws IOException {
+        return delegate.streamRequests(withStatus, userID, handler);
+    }
+
+    @Override
+    public long exportRequests(RequestExport export, OutputStream out) throws IOException {
+        return delegate.exportRequests(export, out);
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+}
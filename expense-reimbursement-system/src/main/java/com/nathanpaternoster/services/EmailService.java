@@ -0,0 +1,64 @@
+package com.nathanpaternoster.services;
+
+import javax.mail.*;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.Properties;
+
+/**
+ * Service class to send emails from "notifcationsers@gmail.com"
+ * The account's credentials are never part of the source: they are passed in, or read from the environment variables
+ * ERS_SMTP_USER and ERS_SMTP_PASSWORD.
+ */
+public class EmailService {
+    private final Session session;
+
+    public EmailService() {
+        this("smtp.gmail.com", 587, true);
+    }
+
+    /**
+     * @param host The SMTP server's host name
+     * @param port The SMTP server's port
+     * @param authenticate True to log in with STARTTLS, false for an unauthenticated plain connection (e.g. a local relay)
+     */
+    public EmailService(String host, int port, boolean authenticate) {
+        this(host, port, authenticate, System.getenv("ERS_SMTP_USER"), System.getenv("ERS_SMTP_PASSWORD"));
+    }
+
+    /**
+     * @param username The SMTP account, used when authenticate is true
+     * @param password The SMTP account's password
+     */
+    public EmailService(String host, int port, boolean authenticate, String username, String password) {
+        Properties pros = new Properties();
+        pros.put("mail.smtp.host", host);
+        pros.put("mail.smtp.port", port);
+        pros.put("mail.smtp.auth", String.valueOf(authenticate));
+        pros.put("mail.smtp.starttls.enable", String.valueOf(authenticate));
+        pros.put("mail.smtp.connectiontimeout", 10000);
+        pros.put("mail.smtp.timeout", 10000);
+        session = Session.getInstance(pros,
+                new Authenticator() {
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return new PasswordAuthentication(username, password);
+                    }
+                });
+    }
+
+    public void sendEmail(String to, String subject, String body) throws RuntimeException {
+        Message message = new MimeMessage(session);
+        try {
+            message.setFrom(new InternetAddress("notificationsERS@gmail.com"));
+            message.setRecipient(Message.RecipientType.TO, new InternetAddress(to));
+            message.setSubject(subject);
+            message.setText(body);
+            Transport.send(message);
+        } catch (AddressException e) {
+            throw new RuntimeException("Invalid email address entered", e);
+        } catch (MessagingException e) {
+            throw new RuntimeException("Error sending email", e);
+        }
+    }
+}
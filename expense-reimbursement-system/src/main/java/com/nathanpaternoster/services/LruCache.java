@@ -0,0 +1,161 @@
+package com.nathanpaternoster.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache with least-recently-used eviction
+ * Entries are spread over independently locked segments, each an access-ordered LinkedHashMap, so concurrent readers
+ * of different keys rarely contend. Eviction is LRU within a segment, which approximates global LRU.
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+    private final Segment[] segments;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private class Segment extends LinkedHashMap<K, V> {
+        private final int maxSize;
+        private long invalidations;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);     // access order
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param capacity The maximum number of entries held across all segments
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be positive");
+        this.capacity = capacity;
+        int segmentCount = Math.min(SEGMENTS, capacity);
+        segments = (Segment[]) new LruCache<?, ?>.Segment[segmentCount];
+        for (int i = 0; i < segmentCount; ++i)     // spread the remainder so the segment sizes add up to the capacity
+            segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * @param key The key to look up
+     * @return The cached value or null if the key is not cached
+     */
+    public V get(K key) {
+        Segment s = segmentFor(key);
+        V value;
+        synchronized (s) {
+            value = s.get(key);
+        }
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    /**
+     * Read a stamp before loading a value from the backing store, pass it to putIfValid() once the value is loaded
+     * @param key The key about to be loaded
+     * @return A stamp that changes whenever a key sharing this key's segment is invalidated
+     */
+    public long stamp(K key) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            return s.invalidations;
+        }
+    }
+
+    /**
+     * Cache a loaded value unless an invalidation happened since the stamp was taken, which means the value may be stale
+     * @param key The key
+     * @param value The loaded value
+     * @param stamp The stamp returned by stamp() before the value was loaded
+     * @return True if the value was cached
+     */
+    public boolean putIfValid(K key, V value, long stamp) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            if (s.invalidations != stamp) return false;
+            s.put(key, value);
+            return true;
+        }
+    }
+
+    /**
+     * @param key The key to cache
+     * @param value The value to cache
+     */
+    public void put(K key, V value) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            s.put(key, value);
+        }
+    }
+
+    /**
+     * Remove a key and invalidate any load of it that is still in progress
+     * @param key The key to remove
+     */
+    public void invalidate(K key) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            s.remove(key);
+            ++s.invalidations;
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment s : segments) {
+            synchronized (s) {
+                s.clear();
+                ++s.invalidations;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+    public int getCapacity() {
+        return capacity;
+    }
+    public long getHitCount() {
+        return hits.sum();
+    }
+    public long getMissCount() {
+        return misses.sum();
+    }
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + capacity + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+    }
+}
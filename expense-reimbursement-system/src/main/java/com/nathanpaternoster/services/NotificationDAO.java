@@ -0,0 +1,46 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.notifications.Notification;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Data access object for the email notification outbox ("notifications") table
+ */
+public interface NotificationDAO {
+
+    /**
+     * Claim a batch of due notifications for delivery
+     * Claimed notifications have their attempt count incremented and are hidden from other dispatchers until the lease
+     * expires, so a dispatcher that dies mid-batch has its notifications retried instead of lost
+     * @param batchSize The maximum number of notifications to claim
+     * @param leaseUntil When the claimed notifications become due again if they are not marked sent or rescheduled
+     * @return The claimed notifications, empty if none are due or the query failed
+     */
+    List<Notification> claimDue(int batchSize, LocalDateTime leaseUntil);
+
+    /**
+     * Record a successful delivery
+     * @param notificationID The notification's id
+     * @return True if the notification was updated
+     */
+    boolean markSent(long notificationID);
+
+    /**
+     * Record a failed delivery that should be retried
+     * @param notificationID The notification's id
+     * @param nextAttemptAt When the notification becomes due again
+     * @param error A description of the failure
+     * @return True if the notification was updated
+     */
+    boolean reschedule(long notificationID, LocalDateTime nextAttemptAt, String error);
+
+    /**
+     * Record a failed delivery that will not be retried
+     * @param notificationID The notification's id
+     * @param error A description of the failure
+     * @return True if the notification was updated
+     */
+    boolean markFailed(long notificationID, String error);
+}
@@ -0,0 +1,127 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.notifications.Notification;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NotificationDAOImplPostgres implements NotificationDAO {
+    private static final Logger log = LogManager.getLogger(NotificationDAOImplPostgres.class);
+    private static final int MAX_ERROR_LENGTH = 200;
+    private final DataSource dataSource;
+
+    public NotificationDAOImplPostgres(DataSource dataSource) {
+        this.dataSource = dataSource;
+        log.debug("Notification DAO created");
+    }
+
+    @Override
+    public List<Notification> claimDue(int batchSize, LocalDateTime leaseUntil) {
+        // skip locked lets several dispatchers claim disjoint batches concurrently
+        String sql =
+                "with claimed as (" +
+                    "update notifications set attempts=attempts+1, nextAttemptAt=? where notificationID in (" +
+                        "select notificationID from notifications where status='Pending' and nextAttemptAt<=now() " +
+                        "order by notificationID limit ? for update skip locked) " +
+                    "returning notificationID, kind, requestID, userID, attempts) " +
+                "select c.notificationID, c.kind, c.attempts, r.requestID, r.submitterID, r.resolverID, r.amount, r.timeSubmitted, " +
+                    "r.timeResolved, r.category, r.description, r.status, u.userID, u.password, u.firstName, u.lastName, u.email, u.dob " +
+                "from claimed c left join requests r on r.requestID=c.requestID " +
+                "join users u on u.userID=coalesce(c.userID, r.submitterID) " +
+                "order by c.notificationID;";
+        List<Notification> notifications = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            ps.setTimestamp(1, Timestamp.valueOf(leaseUntil));
+            ps.setInt(2, batchSize);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                ReimbursementRequest r = null;
+                int requestID = rs.getInt("requestID");
+                if (!rs.wasNull()) {
+                    Timestamp ts = rs.getTimestamp("timeSubmitted");
+                    Timestamp ts2 = rs.getTimestamp("timeResolved");
+                    r = new ReimbursementRequest(requestID, rs.getInt("submitterID"), rs.getInt("resolverID"), rs.getLong("amount"),
+                            rs.getString("category"), rs.getString("description"), (ts != null) ? ts.toLocalDateTime() : null,
+                            (ts2 != null) ? ts2.toLocalDateTime() : null, rs.getString("status"));
+                }
+                Timestamp dob = rs.getTimestamp("dob");
+                Employee recipient = new Employee(rs.getInt("userID"), rs.getString("password"), rs.getString("firstName"),
+                        rs.getString("lastName"), (dob != null) ? dob.toLocalDateTime().toLocalDate() : null, rs.getString("email"), null);
+                notifications.add(new Notification(rs.getLong("notificationID"), rs.getString("kind"), rs.getInt("attempts"), recipient, r));
+            }
+            connection.commit();
+            if (!notifications.isEmpty()) log.debug("Claimed {} notifications for delivery", notifications.size());
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+            notifications.clear();
+        }
+        return notifications;
+    }
+
+    @Override
+    public boolean markSent(long notificationID) {
+        String sql = "update notifications set status='Sent', sentAt=now(), lastError=null where notificationID=?;";
+        return update(sql, ps -> ps.setLong(1, notificationID));
+    }
+
+    @Override
+    public boolean reschedule(long notificationID, LocalDateTime nextAttemptAt, String error) {
+        String sql = "update notifications set nextAttemptAt=?, lastError=? where notificationID=?;";
+        return update(sql, ps -> {
+            ps.setTimestamp(1, Timestamp.valueOf(nextAttemptAt));
+            ps.setString(2, truncate(error));
+            ps.setLong(3, notificationID);
+        });
+    }
+
+    @Override
+    public boolean markFailed(long notificationID, String error) {
+        String sql = "update notifications set status='Failed', lastError=? where notificationID=?;";
+        return update(sql, ps -> {
+            ps.setString(1, truncate(error));
+            ps.setLong(2, notificationID);
+        });
+    }
+
+    private interface ParameterBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * Utility method for updating a single notification
+     * @param sql The update statement
+     * @param binder Sets the statement's parameters
+     * @return True if a row was updated
+     */
+    private boolean update(String sql, ParameterBinder binder) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            binder.bind(ps);
+            int rows = ps.executeUpdate();
+            connection.commit();
+            return rows > 0;
+        } catch (SQLException e) {
+            log.error("Database update failed");
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static String truncate(String error) {
+        if (error == null) return null;
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+}
@@ -0,0 +1,150 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.notifications.Notification;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background pool that drains the notification outbox in batches and sends the emails
+ * Supported kinds are "Resolution" (a request was approved or denied) and "Welcome" (a new employee's credentials)
+ * Failed deliveries are retried with exponential backoff until maxAttempts is reached, then marked as failed
+ */
+public class NotificationDispatcher {
+    private static final Logger log = LogManager.getLogger(NotificationDispatcher.class);
+    static final long BASE_BACKOFF_SECONDS = 30;
+    static final long MAX_BACKOFF_SECONDS = 60 * 60;
+    static final long LEASE_SECONDS = 5 * 60;
+    private final NotificationDAO dao;
+    private final EmailService emailService;
+    private final int threads;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long pollMillis;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param dao The outbox DAO
+     * @param emailService The service used to deliver messages
+     * @param threads The number of dispatcher threads
+     * @param batchSize The maximum number of notifications one thread claims per poll
+     * @param maxAttempts The number of delivery attempts before a notification is marked as failed
+     * @param pollMillis The delay between polls of the outbox when it is empty
+     */
+    public NotificationDispatcher(NotificationDAO dao, EmailService emailService, int threads, int batchSize, int maxAttempts, long pollMillis) {
+        this.dao = dao;
+        this.emailService = emailService;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.pollMillis = pollMillis;
+    }
+
+    public synchronized void start() {
+        if (executor != null) return;
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "notification-dispatcher-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; ++i)
+            executor.scheduleWithFixedDelay(this::drain, i * pollMillis / threads, pollMillis, TimeUnit.MILLISECONDS);
+        log.info("Notification dispatcher started with {} threads", threads);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        log.info("Notification dispatcher stopped");
+    }
+
+    /**
+     * Dispatch full batches back to back until the outbox has no due notifications
+     */
+    private void drain() {
+        try {
+            while (dispatchBatch() == batchSize && !Thread.currentThread().isInterrupted()) {
+                log.debug("Notification outbox has more due notifications, dispatching another batch");
+            }
+        } catch (RuntimeException e) {
+            // an escaped exception would cancel the scheduled task
+            log.error("Notification dispatch failed", e);
+        }
+    }
+
+    /**
+     * Claim one batch of due notifications and attempt to deliver each
+     * @return The number of notifications claimed
+     */
+    public int dispatchBatch() {
+        List<Notification> batch = dao.claimDue(batchSize, LocalDateTime.now().plusSeconds(LEASE_SECONDS));
+        for (Notification n : batch) {
+            try {
+                send(n);
+                dao.markSent(n.getNotificationID());
+            } catch (RuntimeException e) {
+                String error = e.getCause() != null ? e.getMessage() + ": " + e.getCause().getMessage() : e.getMessage();
+                if (n.getAttempts() >= maxAttempts) {
+                    log.warn("Email notification {} failed after {} attempts", n.getNotificationID(), n.getAttempts());
+                    dao.markFailed(n.getNotificationID(), error);
+                } else {
+                    log.info("Email notification {} failed, retrying", n.getNotificationID());
+                    dao.reschedule(n.getNotificationID(), LocalDateTime.now().plusSeconds(backoffSeconds(n.getAttempts())), error);
+                }
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * @param attempts The number of attempts made so far
+     * @return The delay before the next attempt, doubling with every attempt up to MAX_BACKOFF_SECONDS
+     */
+    static long backoffSeconds(int attempts) {
+        int exponent = Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(BASE_BACKOFF_SECONDS << exponent, MAX_BACKOFF_SECONDS);
+    }
+
+    private void send(Notification n) throws RuntimeException {
+        Employee to = n.getRecipient();
+        if (to.getEmail() == null || to.getEmail().isEmpty())
+            throw new RuntimeException("Recipient has no email address");
+        String subject;
+        String body;
+        if ("Resolution".equals(n.getKind())) {
+            ReimbursementRequest r = n.getRequest();
+            subject = "Reimbursement Request Resolution";
+            body = to.getFirstName() + ",\n\nYour reimbursement request for " + r.getCategory() +
+                    " in the amount of " + r.getStringAmount() + " has been " + r.getStatus() +
+                    ".\n\nThis is an automated message. For any questions or concerns please contact your direct manager." +
+                    "\n\nERS Department of Billing";
+        } else if ("Welcome".equals(n.getKind())) {
+            subject = "Welcome to ERS";
+            body = "Hello " + to.getFirstName() + " " + to.getLastName() + "," +
+                    "\n\nYour new ERS account has been created with an employee id of " + to.getUserID() +
+                    " and a temporary password of " + to.getPassword() + ". At your earliest convenience please use these" +
+                    " credentials to log in to your account and create a new password." +
+                    "\n\nThis is an automated message. For any questions or concerns please contact your direct manager." +
+                    "\n\nERS IT Department";
+        } else {
+            throw new RuntimeException("Unknown notification kind '" + n.getKind() + "'");
+        }
+        emailService.sendEmail(to.getEmail(), subject, body);
+    }
+}
@@ -0,0 +1,54 @@
+package com.nathanpaternoster.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+/**
+ * Keyset position of a reimbursement request in a listing ordered by (timeSubmitted, requestID) descending
+ * Clients only ever see the encoded form, which is treated as an opaque continuation token
+ */
+public final class PageToken {
+    private final LocalDateTime timeSubmitted;
+    private final int requestID;
+
+    public PageToken(LocalDateTime timeSubmitted, int requestID) {
+        this.timeSubmitted = timeSubmitted;
+        this.requestID = requestID;
+    }
+
+    public LocalDateTime getTimeSubmitted() {
+        return timeSubmitted;
+    }
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * @return A url-safe string representing this position
+     */
+    public String encode() {
+        String raw = timeSubmitted.toEpochSecond(ZoneOffset.UTC) + ":" + timeSubmitted.getNano() + ":" + requestID;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Convert a token produced by encode() back to a position
+     * @param token The encoded token
+     * @return The decoded position
+     * @throws RuntimeException if the token is malformed
+     */
+    public static PageToken decode(String token) throws RuntimeException {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":");
+            if (parts.length != 3) throw new IllegalArgumentException();
+            LocalDateTime timeSubmitted = LocalDateTime.ofEpochSecond(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), ZoneOffset.UTC);
+            return new PageToken(timeSubmitted, Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new RuntimeException("Invalid page token");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestDashboard;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals over every reimbursement request: pending count and amount, counts by status and by category, and
+ * each employee's pending count and amount
+ * Totals are LongAdders so concurrent submissions and resolutions don't contend. Pending requests are remembered by
+ * id, which makes each update idempotent: a submission already counted or a resolution of a request that isn't
+ * pending changes nothing.
+ */
+public class RequestAggregates {
+    static final String NO_CATEGORY = "None";
+    private final LongAdder pendingCount = new LongAdder();
+    private final LongAdder pendingAmount = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> categoryCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Totals> outstanding = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, ReimbursementRequest> pending = new ConcurrentHashMap<>();
+    private final LocalDateTime loadedAt = LocalDateTime.now();
+
+    private static class Totals {
+        final LongAdder count = new LongAdder();
+        final LongAdder amount = new LongAdder();
+    }
+
+    /**
+     * Build the totals from every request in the database, read through a cursor
+     * @return The totals, or null if the requests couldn't be read
+     */
+    public static RequestAggregates load(RequestDAO requestDAO) {
+        RequestAggregates aggregates = new RequestAggregates();
+        try {
+            return requestDAO.streamRequests("All", -1, aggregates::add) ? aggregates : null;
+        } catch (IOException e) {
+            return null;    // add doesn't throw
+        }
+    }
+
+    /**
+     * Count a request as it was read from the database
+     */
+    void add(ReimbursementRequest r) {
+        if ("Pending".equals(r.getStatus())) {
+            submitted(r.getRequestID(), r);
+        } else {
+            increment(statusCounts, r.getStatus());
+            increment(categoryCounts, category(r));
+        }
+    }
+
+    /**
+     * Count a newly submitted request
+     * @param requestID The id generated for the request
+     * @param r The request, its submitterID, amount and category are kept until it's resolved
+     */
+    public void submitted(int requestID, ReimbursementRequest r) {
+        ReimbursementRequest kept = new ReimbursementRequest(requestID, r.getSubmitterID(), -1, r.getAmount(), category(r), null, null, null, "Pending");
+        if (pending.putIfAbsent(requestID, kept) != null) return;
+        pendingCount.increment();
+        pendingAmount.add(kept.getAmount());
+        increment(statusCounts, "Pending");
+        increment(categoryCounts, kept.getCategory());
+        Totals totals = outstanding.computeIfAbsent(kept.getSubmitterID(), id -> new Totals());
+        totals.count.increment();
+        totals.amount.add(kept.getAmount());
+    }
+
+    /**
+     * Move a resolved request from the pending totals to its new status
+     * @param status The request's new status, "Approved" or "Denied"
+     */
+    public void resolved(int requestID, String status) {
+        ReimbursementRequest r = pending.remove(requestID);
+        if (r == null) return;
+        pendingCount.decrement();
+        pendingAmount.add(-r.getAmount());
+        statusCounts.get("Pending").decrement();
+        increment(statusCounts, status);
+        Totals totals = outstanding.get(r.getSubmitterID());
+        totals.count.decrement();
+        totals.amount.add(-r.getAmount());
+    }
+
+    public long getPendingCount() {
+        return pendingCount.sum();
+    }
+
+    public long getPendingAmount() {
+        return pendingAmount.sum();
+    }
+
+    /**
+     * @return The totals for the dashboard, each adder is summed separately so they can be momentarily inconsistent
+     * while requests are being submitted or resolved
+     */
+    public RequestDashboard snapshot() {
+        List<RequestDashboard.Outstanding> employees = new ArrayList<>();
+        for (Map.Entry<Integer, Totals> e : outstanding.entrySet()) {
+            long count = e.getValue().count.sum();
+            if (count > 0) employees.add(new RequestDashboard.Outstanding(e.getKey(), count, e.getValue().amount.sum()));
+        }
+        employees.sort((a, b) -> Long.compare(b.getAmount(), a.getAmount()));
+        return new RequestDashboard(pendingCount.sum(), pendingAmount.sum(), sums(statusCounts), sums(categoryCounts), employees, loadedAt);
+    }
+
+    private static String category(ReimbursementRequest r) {
+        return (r.getCategory() == null) ? NO_CATEGORY : r.getCategory();
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counts, String key) {
+        counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counts) {
+        Map<String, Long> sums = new TreeMap<>();
+        counts.forEach((key, count) -> sums.put(key, count.sum()));
+        return sums;
+    }
+}
@@ -1,8 +1,13 @@
 package com.nathanpaternoster.services;
 
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data access object for the reimbursement requests ("requests") table
@@ -10,20 +15,29 @@ import java.util.List;
 public interface RequestDAO {
 
     /**
-     * Add a new reimbursement request to the database
+     * Add a new reimbursement request to the database and record its submission in the same transaction
      * @param r The reimbursement request to insert
      * @return The generated requestID or -1 if the request wasn't inserted
      */
     int addRequest(ReimbursementRequest r);
 
     /**
-     * Update a request's status
+     * Update a request's status, then record the resolution and queue an email notification for the submitter in the same transaction
      * @param resolverID The user id of the user resolving the request
      * @param requestID The reimbursement request's id
      * @param resolution The updated status
-     * @return True if the request was successfully updated, false otherwise
+     * @return The updated request, or null if it doesn't exist, is no longer pending or the update failed
      */
-    boolean resolveRequest(int resolverID, int requestID, String resolution);
+    ReimbursementRequest resolveRequest(int resolverID, int requestID, String resolution);
+
+    /**
+     * Resolve many pending requests at once in a single statement and transaction, recording the resolution and queueing an email notification for each
+     * Requests that do not exist or are no longer pending are left unchanged
+     * @param resolverID The user id of the user resolving the requests
+     * @param resolutions The updated status for each request id
+     * @return The requests that were resolved, empty if none were or the update failed
+     */
+    List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, String> resolutions);
 
     /**
      * Search the database for a reimbursement request with the given id
@@ -32,6 +46,14 @@ public interface RequestDAO {
      */
     ReimbursementRequest getRequest(int requestID);
 
+    /**
+     * Get every submission and resolution of a request, recorded in the transaction that made it by whichever instance
+     * of the application made it
+     * @param requestID The request's id
+     * @return The request's transitions oldest first, each sequence is its id in the database, empty if there are none
+     */
+    List<AuditRecord> getRequestHistory(int requestID);
+
     /**
      * Get all requests belonging to the user with the specified userID
      * @param userID The specified user's id
@@ -70,4 +92,59 @@ public interface RequestDAO {
      * @return A list of resolved reimbursement requests
      */
     List<ReimbursementRequest> getAllResolvedRequests();
-}
\ No newline at end of file
+
+    /**
+     * Get one page of requests ordered by (timeSubmitted, requestID) descending
+     * @param withStatus One of "Pending", "Resolved", "All"
+     * @param userID The id of the user the requests should belong to, or a negative value for requests belonging to any user
+     * @param after The position of the last request on the previous page, or null for the first page
+     * @param pageSize The maximum number of requests to return
+     * @return A page of reimbursement requests with a token for the next page if more requests remain
+     */
+    RequestPage getRequestPage(String withStatus, int userID, PageToken after, int pageSize);
+
+    /**
+     * Get one page of the requests matching a query's filters, in its sort order
+     * @param query The filters, sort columns, page size and position of the previous page
+     * @return A page of reimbursement requests with a token for the next page if more requests remain
+     */
+    RequestPage find(RequestQuery query);
+
+    /**
+     * Get one page of the requests whose category or description match a full-text search, best matches first
+     * Uses the GIN index on the search column, ties in rank are ordered by requestID descending
+     * @param query Words to search for, in web search syntax: "quoted phrases", or, and -excluded words
+     * @param withStatus One of "Pending", "Resolved", "All"
+     * @param userID The id of the user the requests should belong to, or a negative value for requests belonging to any user
+     * @param after The position of the last request on the previous page, or null for the first page
+     * @param pageSize The maximum number of requests to return
+     * @return A page of reimbursement requests with a token for the next page if more requests remain
+     */
+    RequestPage searchRequests(String query, String withStatus, int userID, SearchPageToken after, int pageSize);
+
+    /**
+     * Pass every matching request to a handler as it is read from a server-side cursor, without collecting them in memory
+     * @param withStatus One of "Pending", "Resolved", "All"
+     * @param userID The id of the user the requests should belong to, or a negative value for requests belonging to any user
+     * @param handler Called once per request, ordered by timeSubmitted descending
+     * @return True if every row was read, false if the query failed
+     * @throws IOException if the handler fails
+     */
+    boolean streamRequests(String withStatus, int userID, RowHandler<ReimbursementRequest> handler) throws IOException;
+
+    /**
+     * Write every request matching an export's filters to a stream in its format, as postgres produces the rows
+     * @param export The filters and format
+     * @param out Receives the exported rows, it is not closed
+     * @return The number of requests written, or -1 if the query failed (some rows may have been written already)
+     * @throws IOException if writing to out fails
+     */
+    long exportRequests(RequestExport export, OutputStream out) throws IOException;
+
+    /**
+     * A number that changes after every committed write to the requests table, made by any instance of the application
+     * Read it before querying: if it's unchanged later, so are the results, which lets listings answer conditional GETs
+     * @return The current version of the requests table, or -1 if it isn't known and listings shouldn't be tagged
+     */
+    long getVersion();
+}
@@ -1,31 +1,97 @@
 package com.nathanpaternoster.services;
 
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
+import com.nathanpaternoster.services.routing.RoutingDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class RequestDAOImplPostgres implements RequestDAO {
     private static final Logger log = LogManager.getLogger(RequestDAOImplPostgres.class);
+    static final int STREAM_FETCH_SIZE = 500;
+    /**
+     * The pending filter, only resolved requests are archived so postgres can skip the requests_archive partition
+     */
+    static final String PENDING = " and status='Pending' and not archived";
+    /**
+     * Finds one request by its requestID, bound three times (bindID). Its partition keys are read from request_ids (V11
+     * migration) in initplans, so postgres prunes every partition but the request's own instead of probing them all.
+     */
+    static final String BY_ID = "requestID=? and archived=(select archived from request_ids where requestID=?) " +
+            "and timeSubmitted=(select timeSubmitted from request_ids where requestID=?)";
     private final DataSource dataSource;
+    // listings are read through this when replicas are configured, it may lag behind dataSource
+    private final DataSource reads;
+    private final RoutingDataSource routing;
+    private final TableVersions versions;
 
     public RequestDAOImplPostgres(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    public RequestDAOImplPostgres(DataSource dataSource, RoutingDataSource routing) {
+        this(dataSource, routing, null);
+    }
+
+    /**
+     * @param routing Sends the listings to replicas that have every write made through this DAO, null to read everything from dataSource
+     * @param versions The tables' versions, kept from the database's notifications, or null to leave listings untagged
+     */
+    public RequestDAOImplPostgres(DataSource dataSource, RoutingDataSource routing, TableVersions versions) {
         this.dataSource = dataSource;
+        this.routing = routing;
+        this.reads = (routing != null) ? routing : dataSource;
+        this.versions = versions;
         log.debug("Request DAO created");
     }
 
+    /**
+     * Kept in memory, so a conditional GET doesn't touch the database
+     */
+    @Override
+    public long getVersion() {
+        return (versions != null) ? versions.get("requests") : -1;
+    }
+
+    /**
+     * Bind a requestID to the BY_ID condition starting at index
+     * @return The index of the next parameter
+     */
+    static int bindID(PreparedStatement ps, int index, int requestID) throws SQLException {
+        for (int i = 0; i < 3; ++i) ps.setInt(index++, requestID);
+        return index;
+    }
+
+    /**
+     * Tell the replica router about a write, whether or not it succeeded, so the next reads aren't sent to a replica
+     * that doesn't have it yet
+     */
+    private void written() {
+        if (routing != null) routing.written();
+    }
+
     @Override
     public int addRequest(ReimbursementRequest r) {
+        // one round trip: insert the request and record its submission in request_transitions
         String sql =
-                "insert into requests (submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status) " +
-                "values (?, ?, ?, ?, ?, ?, ?, ?) returning requestID;";
+                "with inserted as (insert into requests (submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status) " +
+                    "values (?, ?, ?, ?, ?, ?, ?, ?) returning requestID, submitterID, timeSubmitted, status), " +
+                "recorded as (insert into request_transitions (requestID, kind, actorID, status, timeChanged) " +
+                    "select requestID, 'SUBMITTED', submitterID, status, timeSubmitted from inserted) " +
+                "select requestID from inserted;";
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS))
+             PreparedStatement ps = connection.prepareStatement(sql))
         {
             connection.setAutoCommit(false);
             ps.setInt(1, r.getSubmitterID());
@@ -40,10 +106,7 @@ public class RequestDAOImplPostgres implements RequestDAO {
             ps.setString(7, r.getDescription());
             ps.setString(8, r.getStatus());
             log.debug("Attempting database insert for new reimbursement request");
-            ps.executeUpdate();
-
-            // get the generated requestID
-            ResultSet keys = ps.getGeneratedKeys();
+            ResultSet keys = ps.executeQuery();
             int newRequestID = keys.next() ? keys.getInt(1) : -1;
 
             connection.commit();
@@ -51,40 +114,112 @@ public class RequestDAOImplPostgres implements RequestDAO {
         } catch (SQLException e) {
             log.error("Database insert failed");
             e.printStackTrace();
+        } finally {
+            written();
         }
         return -1;
     }
 
     @Override
-    public boolean resolveRequest(int resolverID, int requestID, String resolution) {
-        String sql = "update requests set status=?, resolverID=?, timeResolved=? where requestID=?;";
+    public ReimbursementRequest resolveRequest(int resolverID, int requestID, String resolution) {
+        // only a pending request is resolved, of two concurrent resolutions the second updates nothing
+        // the updated row is returned so the caller doesn't read it again
+        String sql = "update requests set status=?, resolverID=?, timeResolved=? where " + BY_ID + PENDING + " " +
+                "returning requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status;";
+        String outboxSql =
+                "with recorded as (insert into request_transitions (requestID, kind, actorID, status, timeChanged) values (?, 'RESOLVED', ?, ?, ?)) " +
+                "insert into notifications (kind, requestID) values ('Resolution', ?);";
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement ps = connection.prepareStatement(sql))
+             PreparedStatement ps = connection.prepareStatement(sql);
+             PreparedStatement outbox = connection.prepareStatement(outboxSql))
         {
             connection.setAutoCommit(false);
             ps.setString(1, resolution);
             ps.setInt(2, resolverID);
-            ps.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
-            ps.setInt(4, requestID);
+            Timestamp timeResolved = Timestamp.valueOf(LocalDateTime.now());
+            ps.setTimestamp(3, timeResolved);
+            bindID(ps, 4, requestID);
             log.debug("Attempting database update for a request's status");
-            int rows = ps.executeUpdate();
+            ReimbursementRequest resolved = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) resolved = mapRequest(rs);
+            }
+            if (resolved != null) {
+                // record the transition and queue the submitter's email in the same transaction, NotificationDispatcher delivers it
+                outbox.setInt(1, requestID);
+                outbox.setInt(2, resolverID);
+                outbox.setString(3, resolution);
+                outbox.setTimestamp(4, timeResolved);
+                outbox.setInt(5, requestID);
+                outbox.executeUpdate();
+            }
             connection.commit();
-            return rows > 0;
+            return resolved;
         } catch (SQLException e) {
             log.error("Database update failed");
             e.printStackTrace();
+        } finally {
+            written();
         }
-        return false;
+        return null;
+    }
+
+    @Override
+    public List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, String> resolutions) {
+        List<ReimbursementRequest> resolved = new ArrayList<>();
+        if (resolutions.isEmpty()) return resolved;
+        // one round trip: update every still pending request, record the transition, queue its notification and return the updated rows
+        // each request is matched on its whole primary key, read from request_ids, rather than on requestID in every partition
+        String sql =
+                "with decisions as (select * from unnest(?::int[], ?::varchar[]) as d(requestID, status)), " +
+                "updated as (update requests r set status=d.status, resolverID=?, timeResolved=? " +
+                    "from decisions d join request_ids i on i.requestID=d.requestID " +
+                    "where r.requestID=i.requestID and r.archived=i.archived and r.timeSubmitted=i.timeSubmitted " +
+                    "and r.status='Pending' and not r.archived " +
+                    "returning r.requestID, r.submitterID, r.resolverID, r.amount, r.timeSubmitted, r.timeResolved, r.category, r.description, r.status), " +
+                "recorded as (insert into request_transitions (requestID, kind, actorID, status, timeChanged) " +
+                    "select requestID, 'RESOLVED', resolverID, status, timeResolved from updated), " +
+                "queued as (insert into notifications (kind, requestID) select 'Resolution', requestID from updated) " +
+                "select * from updated;";
+        Integer[] ids = new Integer[resolutions.size()];
+        String[] statuses = new String[resolutions.size()];
+        int n = 0;
+        for (Map.Entry<Integer, String> e : resolutions.entrySet()) {
+            ids[n] = e.getKey();
+            statuses[n++] = e.getValue();
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            ps.setArray(1, connection.createArrayOf("int4", ids));
+            ps.setArray(2, connection.createArrayOf("varchar", statuses));
+            ps.setInt(3, resolverID);
+            ps.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+            log.debug("Attempting database update for the status of {} requests", ids.length);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                resolved.add(mapRequest(rs));
+            }
+            connection.commit();
+            return resolved;
+        } catch (SQLException e) {
+            log.error("Database update failed");
+            e.printStackTrace();
+        } finally {
+            written();
+        }
+        return new ArrayList<>();
     }
 
     @Override
     public ReimbursementRequest getRequest(int requestID) {
-        String sql = "select submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests where requestID=?;";
+        String sql = "select submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests where " + BY_ID + ";";
         try (Connection connection = dataSource.getConnection();
              PreparedStatement ps = connection.prepareStatement(sql))
         {
             connection.setAutoCommit(false);
-            ps.setInt(1, requestID);
+            bindID(ps, 1, requestID);
             log.debug("Attempting database query for existing reimbursement request");
             ResultSet rs = ps.executeQuery();
             connection.commit();
@@ -110,6 +245,34 @@ public class RequestDAOImplPostgres implements RequestDAO {
         return null;
     }
 
+    @Override
+    public List<AuditRecord> getRequestHistory(int requestID) {
+        String sql =
+                "select t.transitionID, t.kind, t.actorID, t.status, t.timeChanged, r.submitterID, r.amount " +
+                "from (select submitterID, amount from requests where " + BY_ID + ") r " +
+                "cross join request_transitions t where t.requestID=? order by t.transitionID;";
+        List<AuditRecord> history = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            ps.setInt(bindID(ps, 1, requestID), requestID);
+            log.debug("Attempting database query for the history of a reimbursement request");
+            ResultSet rs = ps.executeQuery();
+            connection.commit();
+
+            while (rs.next()) {
+                history.add(new AuditRecord(rs.getLong("transitionID"), rs.getTimestamp("timeChanged").getTime(),
+                        AuditRecord.Type.valueOf(rs.getString("kind")), requestID, rs.getInt("actorID"),
+                        rs.getInt("submitterID"), rs.getLong("amount"), rs.getString("status")));
+            }
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+        return history;
+    }
+
     /**
      * Utility method for querying a list of requests
      * @param withStatus One of "Pending", "Resolved", "All", defaults to all
@@ -117,48 +280,25 @@ public class RequestDAOImplPostgres implements RequestDAO {
      * @return A list of reimbursement requests
      */
     private List<ReimbursementRequest> queryRequests(String withStatus, int userID) {
-        String whereClause = " ";
-        if (userID >= 0) {
-            if (withStatus.equalsIgnoreCase("Pending")) {
-                whereClause = " where submitterID=" + userID + " and status='Pending' ";
-            } else if (withStatus.equalsIgnoreCase("Resolved")) {
-                whereClause = " where submitterID=" + userID + " and status in ('Approved', 'Denied') ";
-            } else {
-                whereClause = " where submitterID=" + userID + " ";
-            }
-        } else {
-            if (withStatus.equalsIgnoreCase("Pending")) {
-                whereClause = " where status='Pending' ";
-            } else if (withStatus.equalsIgnoreCase("Resolved")) {
-                whereClause = " where status in ('Approved', 'Denied') ";
-            }
-        }
-        String sql =
-                "select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests" +
-                        whereClause + "order by timeSubmitted desc;";
+        // the status filters are constants so there is one statement per status, the user is always a bind parameter
+        String sql = "select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests where true";
+        if (userID >= 0) sql += " and submitterID=?";
+        if (withStatus.equalsIgnoreCase("Pending")) sql += PENDING;
+        else if (withStatus.equalsIgnoreCase("Resolved")) sql += " and status in ('Approved', 'Denied')";
+        sql += " order by timeSubmitted desc;";
         List<ReimbursementRequest> requests = new ArrayList<>();
-        try (Connection connection = dataSource.getConnection();
+        try (Connection connection = reads.getConnection();
              PreparedStatement ps = connection.prepareStatement(sql))
         {
             connection.setAutoCommit(false);
-            log.debug("Attempting database query for '" + withStatus + "' requests" + (userID >= 0 ? " belonging to one user" : ""));
+            if (userID >= 0) ps.setInt(1, userID);
+            log.debug("Attempting database query for '{}' requests{}", withStatus, userID >= 0 ? " belonging to one user" : "");
             ResultSet rs = ps.executeQuery();
             connection.commit();
 
             while (rs.next()) {
-                int requestID = rs.getInt("requestID");
-                int submitterID = rs.getInt("submitterID");
-                int resolverID = rs.getInt("resolverID");
-                long amount = rs.getLong("amount");
-                Timestamp ts = rs.getTimestamp("timeSubmitted");
-                LocalDateTime timeSubmitted = (ts != null) ? ts.toLocalDateTime() : null;
-                Timestamp ts2 = rs.getTimestamp("timeResolved");
-                LocalDateTime timeResolved = (ts2 != null) ? ts2.toLocalDateTime() : null;
-                String category = rs.getString("category");
-                String description = rs.getString("description");
-                String status = rs.getString("status");
                 log.debug("Database query found a reimbursement request");
-                requests.add(new ReimbursementRequest(requestID, submitterID, resolverID, amount, category, description, timeSubmitted, timeResolved, status));
+                requests.add(mapRequest(rs));
             }
         } catch (SQLException e) {
             log.error("Database query failed");
@@ -196,4 +336,195 @@ public class RequestDAOImplPostgres implements RequestDAO {
     public List<ReimbursementRequest> getAllResolvedRequests() {
         return queryRequests("Resolved", -1);
     }
+
+    @Override
+    public RequestPage getRequestPage(String withStatus, int userID, PageToken after, int pageSize) {
+        StringBuilder sql = new StringBuilder(
+                "select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests where true");
+        if (userID >= 0) sql.append(" and submitterID=?");
+        if (withStatus.equalsIgnoreCase("Pending")) sql.append(PENDING);
+        else if (withStatus.equalsIgnoreCase("Resolved")) sql.append(" and status in ('Approved', 'Denied')");
+        // the bound on timeSubmitted on its own lets postgres prune the monthly partitions after the page, which the row
+        // comparison alone doesn't (as in RequestQuery)
+        if (after != null) sql.append(" and timeSubmitted <= ? and (timeSubmitted, requestID) < (?, ?)");
+        sql.append(" order by timeSubmitted desc, requestID desc limit ?;");
+
+        List<ReimbursementRequest> requests = new ArrayList<>();
+        try (Connection connection = reads.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql.toString()))
+        {
+            connection.setAutoCommit(false);
+            int i = 1;
+            if (userID >= 0) ps.setInt(i++, userID);
+            if (after != null) {
+                ps.setTimestamp(i++, Timestamp.valueOf(after.getTimeSubmitted()));
+                ps.setTimestamp(i++, Timestamp.valueOf(after.getTimeSubmitted()));
+                ps.setInt(i++, after.getRequestID());
+            }
+            ps.setInt(i, pageSize + 1);     // fetch one extra row to learn if another page exists
+            log.debug("Attempting database query for a page of '{}' requests{}", withStatus, userID >= 0 ? " belonging to one user" : "");
+            ResultSet rs = ps.executeQuery();
+            connection.commit();
+
+            while (rs.next()) {
+                requests.add(mapRequest(rs));
+            }
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+
+        String nextPageToken = null;
+        if (requests.size() > pageSize) {
+            requests.remove(pageSize);
+            ReimbursementRequest last = requests.get(pageSize - 1);
+            nextPageToken = new PageToken(last.getTimeSubmitted(), last.getRequestID()).encode();
+        }
+        return new RequestPage(requests, nextPageToken);
+    }
+
+    @Override
+    public RequestPage find(RequestQuery query) {
+        List<Object> params = new ArrayList<>();
+        String sql = query.toSql(params);
+        List<ReimbursementRequest> requests = new ArrayList<>();
+        try (Connection connection = reads.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < params.size(); ++i) ps.setObject(i + 1, params.get(i));
+            log.debug("Attempting database query for a filtered page of '{}' requests", query.getStatus());
+            ResultSet rs = ps.executeQuery();
+            connection.commit();
+
+            while (rs.next()) {
+                requests.add(mapRequest(rs));
+            }
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+
+        int pageSize = query.getPageSize();
+        String nextPageToken = null;
+        if (requests.size() > pageSize) {
+            requests.remove(pageSize);
+            nextPageToken = query.nextPageToken(requests.get(pageSize - 1));
+        }
+        return new RequestPage(requests, nextPageToken);
+    }
+
+    @Override
+    public RequestPage searchRequests(String query, String withStatus, int userID, SearchPageToken after, int pageSize) {
+        StringBuilder sql = new StringBuilder(
+                "select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status, " +
+                "ts_rank(search, q) as rank from requests, websearch_to_tsquery('english', ?) q where search @@ q");
+        if (userID >= 0) sql.append(" and submitterID=?");
+        if (withStatus.equalsIgnoreCase("Pending")) sql.append(PENDING);
+        else if (withStatus.equalsIgnoreCase("Resolved")) sql.append(" and status in ('Approved', 'Denied')");
+        // rank isn't a partition key, every partition is searched, but its bound on its own skips the higher ranked rows
+        // before the row comparison is evaluated (as in RequestQuery)
+        if (after != null) sql.append(" and ts_rank(search, q) <= ? and (ts_rank(search, q), requestID) < (?, ?)");
+        sql.append(" order by rank desc, requestID desc limit ?;");
+
+        List<ReimbursementRequest> requests = new ArrayList<>();
+        float lastRank = 0;
+        try (Connection connection = reads.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql.toString()))
+        {
+            connection.setAutoCommit(false);
+            int i = 1;
+            ps.setString(i++, query);
+            if (userID >= 0) ps.setInt(i++, userID);
+            if (after != null) {
+                ps.setFloat(i++, after.getRank());
+                ps.setFloat(i++, after.getRank());
+                ps.setInt(i++, after.getRequestID());
+            }
+            ps.setInt(i, pageSize + 1);     // fetch one extra row to learn if another page exists
+            log.debug("Attempting database search for a page of '{}' requests{}", withStatus, userID >= 0 ? " belonging to one user" : "");
+            ResultSet rs = ps.executeQuery();
+            connection.commit();
+
+            while (rs.next()) {
+                requests.add(mapRequest(rs));
+                if (requests.size() == pageSize) lastRank = rs.getFloat("rank");
+            }
+        } catch (SQLException e) {
+            log.error("Database search failed");
+            e.printStackTrace();
+        }
+
+        String nextPageToken = null;
+        if (requests.size() > pageSize) {
+            requests.remove(pageSize);
+            nextPageToken = new SearchPageToken(lastRank, requests.get(pageSize - 1).getRequestID()).encode();
+        }
+        return new RequestPage(requests, nextPageToken);
+    }
+
+    @Override
+    public boolean streamRequests(String withStatus, int userID, RowHandler<ReimbursementRequest> handler) throws IOException {
+        String sql = "select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests where true";
+        if (userID >= 0) sql += " and submitterID=?";
+        if (withStatus.equalsIgnoreCase("Pending")) sql += PENDING;
+        else if (withStatus.equalsIgnoreCase("Resolved")) sql += " and status in ('Approved', 'Denied')";
+        sql += " order by timeSubmitted desc, requestID desc;";
+        try (Connection connection = reads.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            // the driver only uses a server-side cursor inside a transaction with a fetch size set
+            connection.setAutoCommit(false);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            if (userID >= 0) ps.setInt(1, userID);
+            log.debug("Attempting streamed database query for '{}' requests{}", withStatus, userID >= 0 ? " belonging to one user" : "");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(mapRequest(rs));
+                }
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    @Override
+    public long exportRequests(RequestExport export, OutputStream out) throws IOException {
+        String sql = export.toSql();
+        try (Connection connection = reads.getConnection()) {
+            log.debug("Attempting database export of requests as {}", export.getFormat().getName());
+            long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+            if (!connection.getAutoCommit()) connection.commit();
+            log.debug("Exported {} requests", rows);
+            return rows;
+        } catch (SQLException e) {
+            log.error("Database export failed");
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * Utility method to create a reimbursement request from the current row of a result set
+     * @param rs A result set positioned on a row containing every column of the requests table
+     * @return A new reimbursement request
+     */
+    private ReimbursementRequest mapRequest(ResultSet rs) throws SQLException {
+        int requestID = rs.getInt("requestID");
+        int submitterID = rs.getInt("submitterID");
+        int resolverID = rs.getInt("resolverID");
+        long amount = rs.getLong("amount");
+        Timestamp ts = rs.getTimestamp("timeSubmitted");
+        LocalDateTime timeSubmitted = (ts != null) ? ts.toLocalDateTime() : null;
+        Timestamp ts2 = rs.getTimestamp("timeResolved");
+        LocalDateTime timeResolved = (ts2 != null) ? ts2.toLocalDateTime() : null;
+        String category = rs.getString("category");
+        String description = rs.getString("description");
+        String status = rs.getString("status");
+        return new ReimbursementRequest(requestID, submitterID, resolverID, amount, category, description, timeSubmitted, timeResolved, status);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.nathanpaternoster.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers RequestEvents to registered listeners
+ * The events come from the request_events channel (V9 migration), which the requests table's triggers notify when a
+ * submission or resolution commits, so every instance of the application delivers every change whichever instance
+ * made it. Listeners are called on the ClusterBus thread and must not block. A failing listener is logged.
+ */
+public class RequestEvents {
+    private static final Logger log = LogManager.getLogger(RequestEvents.class);
+    /**
+     * The channel the triggers notify
+     */
+    public static final String CHANNEL = "request_events";
+    private static final ObjectMapper om = new ObjectMapper();
+    private final List<Consumer<RequestEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Consumer<RequestEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<RequestEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    public void publish(RequestEvent event) {
+        for (Consumer<RequestEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                log.error("A request event listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Publish the event in a request_events notification
+     */
+    public void publish(String payload) {
+        RequestEvent event = parse(payload);
+        if (event != null) publish(event);
+    }
+
+    /**
+     * @param payload The JSON object notify_request_event() sends
+     * @return The event, or null if the payload isn't one
+     */
+    static RequestEvent parse(String payload) {
+        try {
+            JsonNode n = om.readTree(payload);
+            ReimbursementRequest r = new ReimbursementRequest(n.path("requestID").asInt(), n.path("submitterID").asInt(),
+                    n.path("resolverID").asInt(), n.path("amount").asLong(), text(n, "category"), text(n, "description"),
+                    time(n, "timeSubmitted"), time(n, "timeResolved"), text(n, "status"));
+            return new RequestEvent(n.path("id").asLong(-1), n.path("type").asText(), r);
+        } catch (IOException | RuntimeException e) {
+            log.error("Ignoring a malformed request event: {}", payload, e);
+            return null;
+        }
+    }
+
+    private static String text(JsonNode n, String field) {
+        return n.path(field).isTextual() ? n.get(field).asText() : null;
+    }
+
+    private static LocalDateTime time(JsonNode n, String field) {
+        return n.path(field).isTextual() ? LocalDateTime.parse(n.get(field).asText()) : null;
+    }
+}
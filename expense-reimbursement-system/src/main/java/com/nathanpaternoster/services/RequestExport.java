@@ -0,0 +1,106 @@
+package com.nathanpaternoster.services;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filters and format of a bulk export of reimbursement requests, compiled by RequestDAO.exportRequests() to one
+ * COPY ... TO STDOUT statement
+ * Postgres formats every row and the driver copies the output to a stream as it arrives, so an export of millions of
+ * requests needs no more memory than one of ten. Requests are ordered oldest first, which the timeSubmitted index and
+ * the monthly partitions (V5 migration) provide without sorting.
+ * COPY can't take bind parameters: the status filters are constants and the dates are formatted from LocalDateTimes,
+ * no text a user entered is ever part of the statement.
+ */
+public class RequestExport {
+    private Format format = Format.CSV;
+    private String status = "All";
+    private LocalDateTime submittedFrom;
+    private LocalDateTime submittedBefore;
+
+    /**
+     * The formats requests can be exported in, each has a name used in urls
+     */
+    public enum Format {
+        // a header row then one row per request
+        CSV("csv", "text/csv", "format csv, header"),
+        // one JSON object per line, quoted with characters JSON never contains so postgres writes the text unchanged
+        NDJSON("ndjson", "application/x-ndjson", "format csv, delimiter e'\\x02', quote e'\\x01'");
+
+        private final String name;
+        private final String contentType;
+        private final String options;
+
+        Format(String name, String contentType, String options) {
+            this.name = name;
+            this.contentType = contentType;
+            this.options = options;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return The format with this url name
+         * @throws RuntimeException if there is none
+         */
+        public static Format named(String name) throws RuntimeException {
+            for (Format f : values()) if (f.name.equalsIgnoreCase(name)) return f;
+            throw new RuntimeException("Requests can't be exported as '" + name + "', use csv or ndjson");
+        }
+    }
+
+    public RequestExport format(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @param status One of "Pending", "Resolved", "Approved", "Denied", "All"
+     */
+    public RequestExport withStatus(String status) {
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * @param from Include requests submitted at or after this time, or null
+     * @param before Include requests submitted before this time, or null
+     */
+    public RequestExport submittedBetween(LocalDateTime from, LocalDateTime before) {
+        this.submittedFrom = from;
+        this.submittedBefore = before;
+        return this;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Build the copy statement, amounts are exported in dollars and times as ISO 8601
+     * @return The sql, containing only fixed column names, constants and formatted dates
+     */
+    public String toSql() {
+        StringBuilder sql = new StringBuilder("copy (select ");
+        if (format == Format.NDJSON) {
+            sql.append("json_build_object('requestID', requestID, 'submitterID', submitterID, 'resolverID', resolverID, " +
+                    "'amount', (amount / 100.0)::numeric(14, 2), 'timeSubmitted', timeSubmitted, 'timeResolved', timeResolved, " +
+                    "'category', category, 'description', description, 'status', status)");
+        } else {
+            sql.append("requestID as \"requestID\", submitterID as \"submitterID\", resolverID as \"resolverID\", " +
+                    "(amount / 100.0)::numeric(14, 2) as amount, " +
+                    "to_char(timeSubmitted, 'YYYY-MM-DD\"T\"HH24:MI:SS.US') as \"timeSubmitted\", " +
+                    "to_char(timeResolved, 'YYYY-MM-DD\"T\"HH24:MI:SS.US') as \"timeResolved\", " +
+                    "category, description, status");
+        }
+        sql.append(" from requests where true").append(RequestQuery.statusFilter(status));
+        if (submittedFrom != null) sql.append(" and timeSubmitted>='").append(submittedFrom).append("'::timestamp");
+        if (submittedBefore != null) sql.append(" and timeSubmitted<'").append(submittedBefore).append("'::timestamp");
+        sql.append(" order by timeSubmitted asc, requestID asc) to stdout with (").append(format.options).append(");");
+        return sql.toString();
+    }
+}
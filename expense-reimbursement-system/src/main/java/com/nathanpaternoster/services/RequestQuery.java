@@ -0,0 +1,322 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Filters, sort order and page position of a reimbursement request listing, compiled by RequestDAO.find() to one
+ * parameterized statement
+ * Every filter is optional and they are combined with and. Rows are ordered by the chosen columns with requestID as
+ * the final tie breaker, and pages continue from the sort values of the previous page's last row (keyset pagination),
+ * so deep pages cost the same as the first: when every column sorts the same way the position is one row comparison that
+ * the indexes serve as a range, mixed directions fall back to an or of comparisons bounded by the first column. The filters on submitter, resolver, category and amount and the sorts on
+ * timeSubmitted and amount each have an index (V2 and V4 migrations).
+ */
+public class RequestQuery {
+    public static final String COLUMNS = "requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status";
+    private String status = "All";
+    private int submitterID = -1;
+    private int resolverID = -1;
+    private String category;
+    private LocalDateTime submittedFrom;
+    private LocalDateTime submittedBefore;
+    private long minAmount = -1;
+    private long maxAmount = -1;
+    private final List<Order> orders = new ArrayList<>();
+    private Object[] after;         // sort values then requestID of the previous page's last row
+    private int pageSize = 50;
+
+    /**
+     * The columns requests can be sorted by, each has a name used in urls and page tokens
+     */
+    public enum Column {
+        SUBMITTED("submitted", "timeSubmitted", ReimbursementRequest::getTimeSubmitted),
+        AMOUNT("amount", "amount", ReimbursementRequest::getAmount),
+        SUBMITTER("submitter", "submitterID", ReimbursementRequest::getSubmitterID);
+
+        private final String name;
+        private final String sql;
+        private final Function<ReimbursementRequest, Object> value;
+
+        Column(String name, String sql, Function<ReimbursementRequest, Object> value) {
+            this.name = name;
+            this.sql = sql;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The column with this url name
+         * @throws RuntimeException if there is none
+         */
+        public static Column named(String name) throws RuntimeException {
+            for (Column c : values()) if (c.name.equalsIgnoreCase(name)) return c;
+            throw new RuntimeException("Requests can't be sorted by '" + name + "'");
+        }
+    }
+
+    /**
+     * One sort column and its direction
+     */
+    public static final class Order {
+        private final Column column;
+        private final boolean descending;
+
+        public Order(Column column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        public Column getColumn() {
+            return column;
+        }
+        public boolean isDescending() {
+            return descending;
+        }
+    }
+
+    /**
+     * @param status One of "Pending", "Resolved", "Approved", "Denied", "All"
+     */
+    public RequestQuery withStatus(String status) {
+        this.status = status;
+        return this;
+    }
+    public RequestQuery withSubmitter(int submitterID) {
+        this.submitterID = submitterID;
+        return this;
+    }
+    public RequestQuery withResolver(int resolverID) {
+        this.resolverID = resolverID;
+        return this;
+    }
+    public RequestQuery withCategory(String category) {
+        this.category = category;
+        return this;
+    }
+
+    /**
+     * @param from Include requests submitted at or after this time, or null
+     * @param before Include requests submitted before this time, or null
+     */
+    public RequestQuery submittedBetween(LocalDateTime from, LocalDateTime before) {
+        this.submittedFrom = from;
+        this.submittedBefore = before;
+        return this;
+    }
+
+    /**
+     * @param min Include requests of at least this many cents, or a negative value
+     * @param max Include requests of at most this many cents, or a negative value
+     */
+    public RequestQuery amountBetween(long min, long max) {
+        this.minAmount = min;
+        this.maxAmount = max;
+        return this;
+    }
+
+    /**
+     * Add a sort column, the first added is the primary order
+     * Without any, requests are ordered newest first like the other listings
+     */
+    public RequestQuery orderBy(Column column, boolean descending) {
+        for (Order o : orders)
+            if (o.column == column) throw new RuntimeException("Requests are already sorted by '" + column.name + "'");
+        orders.add(new Order(column, descending));
+        return this;
+    }
+    public RequestQuery pageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Continue after the last row of a previous page, must be called after the sort columns are added
+     * @param token The nextPageToken of a page returned for the same query, or null for the first page
+     * @throws RuntimeException if the token is malformed or was issued for a different sort order
+     */
+    public RequestQuery after(String token) throws RuntimeException {
+        if (token == null || token.isEmpty()) {
+            after = null;
+            return this;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            List<Order> orders = getOrders();
+            if (parts.length != orders.size() + 2 || !parts[0].equals(signature())) throw new IllegalArgumentException();
+            Object[] values = new Object[orders.size() + 1];
+            for (int i = 0; i < orders.size(); ++i) values[i] = decode(orders.get(i).column, parts[i + 1]);
+            values[orders.size()] = Integer.parseInt(parts[orders.size() + 1]);
+            after = values;
+            return this;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new RuntimeException("Invalid page token");
+        }
+    }
+
+    public String getStatus() {
+        return status;
+    }
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return The sort columns, newest first if none were added
+     */
+    public List<Order> getOrders() {
+        return orders.isEmpty() ? Collections.singletonList(new Order(Column.SUBMITTED, true)) : orders;
+    }
+
+    /**
+     * Build the select statement for one page, fetching one extra row to learn if another page exists
+     * @param params Filled with the statement's parameters in order
+     * @return The sql, containing only the fixed column names and ? placeholders
+     */
+    public String toSql(List<Object> params) {
+        StringBuilder sql = new StringBuilder("select ").append(COLUMNS).append(" from requests where true").append(statusFilter(status));
+        if (submitterID >= 0) {
+            sql.append(" and submitterID=?");
+            params.add(submitterID);
+        }
+        if (resolverID >= 0) {
+            sql.append(" and resolverID=?");
+            params.add(resolverID);
+        }
+        if (category != null) {
+            sql.append(" and category=?");
+            params.add(category);
+        }
+        if (submittedFrom != null) {
+            sql.append(" and timeSubmitted>=?");
+            params.add(Timestamp.valueOf(submittedFrom));
+        }
+        if (submittedBefore != null) {
+            sql.append(" and timeSubmitted<?");
+            params.add(Timestamp.valueOf(submittedBefore));
+        }
+        if (minAmount >= 0) {
+            sql.append(" and amount>=?");
+            params.add(minAmount);
+        }
+        if (maxAmount >= 0) {
+            sql.append(" and amount<=?");
+            params.add(maxAmount);
+        }
+        List<Order> orders = getOrders();
+        boolean tieDescending = orders.get(orders.size() - 1).descending;
+        if (after != null) {
+            // the first sort column's bound on its own lets postgres prune monthly partitions and start the index scan
+            Order first = orders.get(0);
+            sql.append(" and ").append(first.column.sql).append(first.descending ? "<=?" : ">=?");
+            params.add(bindable(after[0]));
+            boolean sameDirection = true;
+            for (Order o : orders) sameDirection &= (o.descending == tieDescending);
+            if (sameDirection) {
+                // (a, b, requestID) after (x, y, id) as one row comparison, which postgres uses as an index range condition
+                sql.append(" and (");
+                for (Order o : orders) sql.append(o.column.sql).append(", ");
+                sql.append("requestID) ").append(tieDescending ? "<" : ">").append(" (");
+                for (int i = 0; i <= orders.size(); ++i) {
+                    sql.append((i > 0) ? ", ?" : "?");
+                    params.add(bindable(after[i]));
+                }
+                sql.append(')');
+            } else {
+                // mixed directions can't be compared as one row: (a after x) or (a = x and b after y) or ...
+                sql.append(" and (");
+                for (int i = 0; i <= orders.size(); ++i) {
+                    if (i > 0) sql.append(" or ");
+                    sql.append('(');
+                    for (int j = 0; j < i; ++j) {
+                        sql.append(orders.get(j).column.sql).append("=? and ");
+                        params.add(bindable(after[j]));
+                    }
+                    boolean descending = (i < orders.size()) ? orders.get(i).descending : tieDescending;
+                    sql.append((i < orders.size()) ? orders.get(i).column.sql : "requestID").append(descending ? "<?" : ">?");
+                    params.add(bindable(after[i]));
+                    sql.append(')');
+                }
+                sql.append(')');
+            }
+        }
+        sql.append(" order by ");
+        for (Order o : orders) sql.append(o.column.sql).append(o.descending ? " desc, " : " asc, ");
+        sql.append("requestID").append(tieDescending ? " desc" : " asc").append(" limit ?;");
+        params.add(pageSize + 1);
+        return sql.toString();
+    }
+
+    /**
+     * @param status One of "Pending", "Resolved", "Approved", "Denied", "All"
+     * @return The constant sql condition for the status, starting with " and", empty for all
+     */
+    static String statusFilter(String status) {
+        switch (status.toLowerCase()) {
+            case "pending": return RequestDAOImplPostgres.PENDING;
+            case "resolved": return " and status in ('Approved', 'Denied')";
+            case "approved": return " and status='Approved'";
+            case "denied": return " and status='Denied'";
+            default: return "";
+        }
+    }
+
+    /**
+     * @param last The last request on a page
+     * @return The token continuing after it
+     */
+    public String nextPageToken(ReimbursementRequest last) {
+        StringBuilder raw = new StringBuilder(signature());
+        for (Order o : getOrders()) raw.append(':').append(encode(o.column.value.apply(last)));
+        raw.append(':').append(last.getRequestID());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The sort order in a token, e.g. -submitted,+amount, so a token can't be used with another order
+     */
+    private String signature() {
+        StringBuilder sb = new StringBuilder();
+        for (Order o : getOrders()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(o.descending ? '-' : '+').append(o.column.name);
+        }
+        return sb.toString();
+    }
+
+    private static String encode(Object value) {
+        if (value instanceof LocalDateTime) {
+            LocalDateTime t = (LocalDateTime) value;
+            return t.toEpochSecond(ZoneOffset.UTC) + "." + t.getNano();
+        }
+        return String.valueOf(value);
+    }
+
+    private static Object decode(Column column, String value) {
+        switch (column) {
+            case SUBMITTED:
+                int dot = value.indexOf('.');
+                if (dot < 0) throw new IllegalArgumentException();
+                return LocalDateTime.ofEpochSecond(Long.parseLong(value.substring(0, dot)), Integer.parseInt(value.substring(dot + 1)), ZoneOffset.UTC);
+            case AMOUNT: return Long.parseLong(value);
+            default: return Integer.parseInt(value);
+        }
+    }
+
+    private static Object bindable(Object value) {
+        return (value instanceof LocalDateTime) ? Timestamp.valueOf((LocalDateTime) value) : value;
+    }
+}
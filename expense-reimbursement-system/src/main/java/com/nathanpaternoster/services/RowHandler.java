@@ -0,0 +1,18 @@
+package com.nathanpaternoster.services;
+
+import java.io.IOException;
+
+/**
+ * Callback used by the streaming DAO methods, invoked once per row while the database cursor is still open
+ * @param <T> The type each row is mapped to
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+    /**
+     * Handle one mapped row
+     * @param row The mapped row
+     * @throws IOException if the row could not be written to its destination, which stops the stream
+     */
+    void handle(T row) throws IOException;
+}
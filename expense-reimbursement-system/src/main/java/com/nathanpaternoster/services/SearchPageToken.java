@@ -0,0 +1,52 @@
+package com.nathanpaternoster.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset position of a reimbursement request in search results ordered by (rank, requestID) descending
+ * The rank is kept as the exact bits of the float4 Postgres returned, so the next page starts exactly after this one
+ */
+public final class SearchPageToken {
+    private final float rank;
+    private final int requestID;
+
+    public SearchPageToken(float rank, int requestID) {
+        this.rank = rank;
+        this.requestID = requestID;
+    }
+
+    public float getRank() {
+        return rank;
+    }
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * @return A url-safe string representing this position
+     */
+    public String encode() {
+        String raw = "s:" + Integer.toHexString(Float.floatToIntBits(rank)) + ":" + requestID;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Convert a token produced by encode() back to a position
+     * @param token The encoded token
+     * @return The decoded position
+     * @throws RuntimeException if the token is malformed
+     */
+    public static SearchPageToken decode(String token) throws RuntimeException {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":");
+            if (parts.length != 3 || !parts[0].equals("s")) throw new IllegalArgumentException();
+            float rank = Float.intBitsToFloat(Integer.parseUnsignedInt(parts[1], 16));
+            if (Float.isNaN(rank)) throw new IllegalArgumentException();
+            return new SearchPageToken(rank, Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid page token");
+        }
+    }
+}
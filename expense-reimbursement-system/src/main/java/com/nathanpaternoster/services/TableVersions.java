@@ -0,0 +1,79 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.services.cluster.ClusterBus;
+import com.nathanpaternoster.services.routing.RoutingDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the version of each table whose listings are tagged for conditional GETs, in memory
+ * Triggers (V10 migration) notify the table_changes channel with "table:txid" when a statement changing the table
+ * commits, and the notification becomes the table's version. Every instance receives the notifications in commit order,
+ * so instances that are up to date give the same version, and a version names one state of the table.
+ * Until the ClusterBus is listening a table's version is unknown (-1). Changes made while it was disconnected were
+ * missed, so once it connects each table gets a fresh version of its own, sent on the channel for every instance.
+ */
+public class TableVersions {
+    private static final Logger log = LogManager.getLogger(TableVersions.class);
+    /**
+     * The channel the triggers notify
+     */
+    public static final String CHANNEL = "table_changes";
+    private final String[] tables;
+    private final RoutingDataSource routing;
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private ClusterBus bus;
+
+    /**
+     * @param routing Told about every change before its version is given, so tagged listings aren't read from a
+     *                replica without it, or null
+     * @param tables The tables whose versions are kept
+     */
+    public TableVersions(RoutingDataSource routing, String... tables) {
+        this.routing = routing;
+        this.tables = tables;
+    }
+
+    /**
+     * Follow the table_changes channel, call before the bus is started
+     */
+    public void listen(ClusterBus bus) {
+        this.bus = bus;
+        bus.subscribe(CHANNEL, this::changed);
+        bus.addConnectionListener(this::connected);
+    }
+
+    /**
+     * @return The table's current version, or -1 if it isn't known
+     */
+    public long get(String table) {
+        return versions.getOrDefault(table, -1L);
+    }
+
+    /**
+     * @param payload "table:version"
+     */
+    void changed(String payload) {
+        int colon = payload.lastIndexOf(':');
+        try {
+            long version = Long.parseLong(payload.substring(colon + 1));
+            // reads that see the new version must also see the change, so they stay on the primary until replicas have it
+            if (routing != null) routing.written();
+            versions.put(payload.substring(0, colon), version);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring a malformed table change: {}", payload);
+        }
+    }
+
+    void connected(boolean up) {
+        versions.clear();
+        if (!up) return;
+        // sent after listening, so it arrives after every change committed before it, on every instance
+        for (String table : tables)
+            bus.send(CHANNEL, table + ":" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+    }
+}
@@ -3,7 +3,11 @@ package com.nathanpaternoster.services;
 import com.nathanpaternoster.models.users.Employee;
 import com.nathanpaternoster.models.users.User;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Data access object for the users ("users") table
@@ -51,4 +55,35 @@ public interface UserDAO {
      * @return True if the email address is not currently assigned to an existing user, otherwise false
      */
     boolean emailIsAvailable(String email);
-}
\ No newline at end of file
+
+    /**
+     * Pass every employee to a handler as it is read from a server-side cursor, without collecting them in memory
+     * @param handler Called once per employee, ordered by userID
+     * @return True if every row was read, false if the query failed
+     * @throws IOException if the handler fails
+     */
+    boolean streamEmployees(RowHandler<Employee> handler) throws IOException;
+
+    /**
+     * Check many email addresses for availability with a single query
+     * @param emails Email addresses to check
+     * @return The subset of the given addresses that are already registered, or null if the query failed
+     */
+    Set<String> findUnavailableEmails(Collection<String> emails);
+
+    /**
+     * Insert many employees at once by copying them into a staging table and inserting from it in one statement
+     * A welcome notification is queued for each inserted employee in the same transaction
+     * Employees whose email address was registered after it was checked are skipped
+     * @param employees The employees to insert, with their temporary passwords set
+     * @return The generated userIDs keyed by email address for every inserted employee, or null if the import failed
+     */
+    Map<String, Integer> importEmployees(List<Employee> employees);
+
+    /**
+     * A number that changes after every committed write to the users table, made by any instance of the application
+     * Read it before querying: if it's unchanged later, so are the results, which lets listings answer conditional GETs
+     * @return The current version of the users table, or -1 if it isn't known and listings shouldn't be tagged
+     */
+    long getVersion();
+}
@@ -3,24 +3,71 @@ package com.nathanpaternoster.services;
 import com.nathanpaternoster.models.users.Employee;
 import com.nathanpaternoster.models.users.Manager;
 import com.nathanpaternoster.models.users.User;
+import com.nathanpaternoster.services.routing.RoutingDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class UserDAOImplPostgres implements UserDAO {
     private static final Logger log = LogManager.getLogger(UserDAOImplPostgres.class);
+    static final int STREAM_FETCH_SIZE = 500;
+    static final int COPY_BUFFER_SIZE = 64 * 1024;
     private final DataSource dataSource;
+    // listings are read through this when replicas are configured, it may lag behind dataSource
+    private final DataSource reads;
+    private final RoutingDataSource routing;
+    private final TableVersions versions;
 
     public UserDAOImplPostgres(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    public UserDAOImplPostgres(DataSource dataSource, RoutingDataSource routing) {
+        this(dataSource, routing, null);
+    }
+
+    /**
+     * @param routing Sends the listings to replicas that have every write made through this DAO, null to read everything from dataSource
+     * @param versions The tables' versions, kept from the database's notifications, or null to leave listings untagged
+     */
+    public UserDAOImplPostgres(DataSource dataSource, RoutingDataSource routing, TableVersions versions) {
         this.dataSource = dataSource;
+        this.routing = routing;
+        this.reads = (routing != null) ? routing : dataSource;
+        this.versions = versions;
         log.debug("PostgreSQL DAO created");
     }
 
+    /**
+     * Kept in memory, so a conditional GET doesn't touch the database
+     */
+    @Override
+    public long getVersion() {
+        return (versions != null) ? versions.get("users") : -1;
+    }
+
+    /**
+     * Tell the replica router about a write, whether or not it succeeded, so the next reads aren't sent to a replica
+     * that doesn't have it yet
+     */
+    private void written() {
+        if (routing != null) routing.written();
+    }
+
     @Override
     public int addNewUser(User newUser) {
         String sql = "insert into users (password, userType, firstName, lastName, email, dob) values (?, ?, ?, ?, ?, ?);";
@@ -49,6 +96,8 @@ public class UserDAOImplPostgres implements UserDAO {
         } catch (SQLException e) {
             log.error("Database insert failed");
             e.printStackTrace();
+        } finally {
+            written();
         }
         return -1;
     }
@@ -74,6 +123,8 @@ public class UserDAOImplPostgres implements UserDAO {
         } catch (SQLException e) {
             log.error("Database update failed");
             e.printStackTrace();
+        } finally {
+            written();
         }
         return false;
     }
@@ -154,7 +205,7 @@ public class UserDAOImplPostgres implements UserDAO {
     public List<Employee> getAllEmployees() {
         String sql = "select userID, firstName, lastName, email, dob from users where userType='Employee' order by userID asc;";
         List<Employee> employees = new ArrayList<>();
-        try (Connection connection = dataSource.getConnection();
+        try (Connection connection = reads.getConnection();
              PreparedStatement ps = connection.prepareStatement(sql))
         {
             connection.setAutoCommit(false);
@@ -180,6 +231,38 @@ public class UserDAOImplPostgres implements UserDAO {
         return employees;
     }
 
+    @Override
+    public boolean streamEmployees(RowHandler<Employee> handler) throws IOException {
+        String sql = "select userID, firstName, lastName, email, dob from users where userType='Employee' order by userID asc;";
+        try (Connection connection = reads.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            // the driver only uses a server-side cursor inside a transaction with a fetch size set
+            connection.setAutoCommit(false);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            log.debug("Attempting streamed database query for all employees");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String replacedPassword = "**********";
+                    int userID = rs.getInt("userID");
+                    String fName = rs.getString("firstName");
+                    String lName = rs.getString("lastName");
+                    String email = rs.getString("email");
+                    Timestamp ts = rs.getTimestamp("dob");
+                    LocalDate dob = (ts != null) ? ts.toLocalDateTime().toLocalDate() : null;
+                    email = (email == null) ? "" : email;
+                    handler.handle(new Employee(userID, replacedPassword, fName, lName, dob, email, null));
+                }
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     @Override
     public boolean emailIsAvailable(String email) {
         String sql = "select userID from users where email=?;";
@@ -198,4 +281,121 @@ public class UserDAOImplPostgres implements UserDAO {
         }
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Set<String> findUnavailableEmails(Collection<String> emails) {
+        String sql = "select email from users where email = any(?);";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql))
+        {
+            connection.setAutoCommit(false);
+            ps.setArray(1, connection.createArrayOf("varchar", emails.toArray()));
+            log.debug("Attempting database query for the availability of {} email addresses", emails.size());
+            ResultSet rs = ps.executeQuery();
+            Set<String> unavailable = new HashSet<>();
+            while (rs.next()) unavailable.add(rs.getString("email"));
+            connection.commit();
+            return unavailable;
+        } catch (SQLException e) {
+            log.error("Database query failed");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Integer> importEmployees(List<Employee> employees) {
+        String stageSql = "create temp table employee_import (rowNumber int, password varchar(20), firstName varchar(20), " +
+                "lastName varchar(20), email varchar(50), dob timestamp) on commit drop;";
+        // rows that lost an email race since findUnavailableEmails are skipped rather than failing the whole import
+        String insertSql =
+                "with inserted as (" +
+                    "insert into users (password, userType, firstName, lastName, email, dob) " +
+                    "select password, 'Employee', firstName, lastName, email, dob from employee_import order by rowNumber " +
+                    "on conflict (email) do nothing returning userID, email), " +
+                "queued as (insert into notifications (kind, userID) select 'Welcome', userID from inserted) " +
+                "select userID, email from inserted;";
+        try (Connection connection = dataSource.getConnection();
+             Statement st = connection.createStatement();
+             PreparedStatement ps = connection.prepareStatement(insertSql))
+        {
+            connection.setAutoCommit(false);
+            st.execute(stageSql);
+            log.debug("Attempting to stage {} employees for import", employees.size());
+            if (connection.isWrapperFor(PGConnection.class)) copyEmployees(connection, employees);
+            else batchEmployees(connection, employees);
+
+            log.debug("Attempting database insert for staged employees");
+            ResultSet rs = ps.executeQuery();
+            Map<String, Integer> imported = new HashMap<>();
+            while (rs.next()) imported.put(rs.getString("email"), rs.getInt("userID"));
+            connection.commit();
+            return imported;
+        } catch (SQLException e) {
+            log.error("Database insert failed");
+            e.printStackTrace();
+        } finally {
+            written();
+        }
+        return null;
+    }
+
+    /**
+     * Load employees into the staging table with COPY, writing the CSV to the server in fixed size chunks
+     */
+    private void copyEmployees(Connection connection, List<Employee> employees) throws SQLException {
+        String sql = "copy employee_import (rowNumber, password, firstName, lastName, email, dob) from stdin with (format csv);";
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        try {
+            StringBuilder sb = new StringBuilder(COPY_BUFFER_SIZE);
+            for (int i = 0; i < employees.size(); ++i) {
+                Employee e = employees.get(i);
+                sb.append(i).append(',');
+                appendCsv(sb, e.getPassword()).append(',');
+                appendCsv(sb, e.getFirstName()).append(',');
+                appendCsv(sb, e.getLastName()).append(',');
+                appendCsv(sb, e.getEmail()).append(',');
+                if (e.getDob() != null) sb.append(e.getDob());
+                sb.append('\n');
+                if (sb.length() >= COPY_BUFFER_SIZE) {
+                    byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    copyIn.writeToCopy(bytes, 0, bytes.length);
+                    sb.setLength(0);
+                }
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) copyIn.cancelCopy();
+        }
+    }
+
+    /**
+     * Load employees into the staging table with a batched insert, for connections that cannot be unwrapped to the driver
+     */
+    private void batchEmployees(Connection connection, List<Employee> employees) throws SQLException {
+        String sql = "insert into employee_import (rowNumber, password, firstName, lastName, email, dob) values (?, ?, ?, ?, ?, ?);";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < employees.size(); ++i) {
+                Employee e = employees.get(i);
+                ps.setInt(1, i);
+                ps.setString(2, e.getPassword());
+                ps.setString(3, e.getFirstName());
+                ps.setString(4, e.getLastName());
+                ps.setString(5, e.getEmail());
+                ps.setTimestamp(6, (e.getDob() != null) ? Timestamp.valueOf(e.getDob().atStartOfDay()) : null);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Append a quoted CSV field, nulls are written as an empty unquoted field which COPY reads as null
+     */
+    private static StringBuilder appendCsv(StringBuilder sb, String value) {
+        if (value == null) return sb;
+        return sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,458 @@
+package com.nathanpaternoster.services.audit;
+
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.services.RowHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of request and user state transitions, kept in memory-mapped segment files
+ * Records are RECORD_SIZE bytes, so a record's sequence number is also its position: segment sequence / recordsPerSegment,
+ * slot sequence % recordsPerSegment. Appending copies the record into the mapped segment under a lock and never waits
+ * on the database or the disk. A flusher thread forces the segments to disk, and every appender waiting in awaitSynced
+ * is released by the same force (group fsync), so a burst of writes costs one fsync.
+ * The index is sparse: keys are grouped in blocks of INDEX_BLOCK consecutive ids, only the newest record of each block
+ * is held in memory, and every record links to the previous record of its block. A history is read by following that
+ * chain, a few hundred fixed size reads at most. The index is rebuilt by scanning the journal when it is opened, and
+ * after a crash the journal ends at the first record that is empty or fails its checksum.
+ * A journal directory belongs to one process, which holds a lock on it while the journal is open.
+ */
+public class AuditJournal implements Closeable {
+    private static final Logger log = LogManager.getLogger(AuditJournal.class);
+    static final int RECORD_SIZE = 64;
+    static final int HEADER_SIZE = 64;
+    static final int INDEX_BLOCK = 64;
+    private static final int MAGIC = 0x45525341;     // "ERSA"
+    private static final int VERSION = 1;
+    private static final String[] STATUSES = {null, "Pending", "Approved", "Denied", "Employee", "Manager"};
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Long> requestHeads = new HashMap<>();     // guarded by this
+    private final Map<Integer, Long> userHeads = new HashMap<>();        // guarded by this
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);    // guarded by this
+    private final CRC32 crc = new CRC32();                                  // guarded by this
+    private final Object syncLock = new Object();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private volatile long next;         // sequence of the next record, every record before it is readable
+    private volatile long synced;       // every record before this one has been forced to disk
+    private volatile boolean closed;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncFailures = new LongAdder();
+    private final Histogram syncTime = new Histogram();
+    private ExecutorService flusher;
+
+    /**
+     * One mapped segment file
+     */
+    private static class Segment {
+        final MappedByteBuffer buffer;
+        final ByteBuffer writer;        // positioned for appends, used under the journal's lock
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+    }
+
+    /**
+     * Open the journal in a directory, creating it if needed, and recover its end and index
+     * @param directory Holds the segment files, audit-(number).log
+     * @param recordsPerSegment The size of new segments in records, an existing journal keeps the size it was created with
+     * @throws IOException if the journal can't be opened, is corrupt before its last segment, or is open in another process
+     */
+    public AuditJournal(Path directory, int recordsPerSegment) throws IOException {
+        if (recordsPerSegment <= 0 || (long) recordsPerSegment * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A segment must hold between 1 and " + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE + " records");
+        this.directory = directory;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("journal.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock held;
+        try {
+            held = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            held = null;     // open in this process
+        }
+        lock = held;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The audit journal in " + directory + " is open in another process");
+        }
+        try {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "audit-*.log")) {
+                for (Path file : stream) files.add(file);
+            }
+            Collections.sort(files);
+            this.recordsPerSegment = files.isEmpty() ? recordsPerSegment : readHeader(files.get(0), 0);
+            for (int i = 0; i < files.size(); ++i) {
+                if (!files.get(i).equals(segmentPath(i))) throw new IOException("Audit journal segment " + segmentPath(i) + " is missing");
+                readHeader(files.get(i), i);
+                segments.add(map(files.get(i), false, i));
+            }
+            recover();
+        } catch (IOException | RuntimeException e) {
+            closeFiles();
+            throw e;
+        }
+        log.info("Opened the audit journal in {} with {} records", directory, next);
+    }
+
+    /**
+     * Start forcing appended records to disk as soon as there are any
+     */
+    public synchronized void start() {
+        if (flusher != null || closed) return;
+        flusher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "audit-journal-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.execute(this::flushLoop);
+    }
+
+    /**
+     * Append a record, it is readable straight away and durable once awaitSynced returns true for its sequence
+     * @param record The record, its sequence is ignored
+     * @return The record's sequence number
+     * @throws IOException if the journal is closed or a new segment can't be created
+     */
+    public long append(AuditRecord record) throws IOException {
+        long sequence;
+        synchronized (this) {
+            if (closed) throw new IOException("The audit journal is closed");
+            sequence = next;
+            int segment = (int) (sequence / recordsPerSegment);
+            if (segment == segments.size()) segments.add(map(segmentPath(segment), true, segment));
+            Map<Integer, Long> heads = record.getType().isRequest() ? requestHeads : userHeads;
+            int block = Math.floorDiv(record.getKey(), INDEX_BLOCK);
+            Long previous = heads.get(block);
+            encode(sequence, record, (previous == null) ? -1 : previous);
+            ByteBuffer writer = segments.get(segment).writer;
+            writer.position(offset(sequence));
+            writer.put(scratch);
+            heads.put(block, sequence);
+            next = sequence + 1;
+        }
+        appended.increment();
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait for a record to be forced to disk with the others appended alongside it
+     * @return False if it wasn't durable within timeoutMillis or the journal was closed
+     */
+    public boolean awaitSynced(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (syncLock) {
+            while (synced <= sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) return false;
+                TimeUnit.NANOSECONDS.timedWait(syncLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            long target;
+            synchronized (syncLock) {
+                while (!closed && synced == next) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                target = next;
+            }
+            try {
+                force(synced, target);
+            } catch (RuntimeException e) {
+                // MappedByteBuffer.force reports IO errors unchecked, the records are forced again on the next pass
+                syncFailures.increment();
+                log.error("Failed to force the audit journal to disk", e);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Force the segments holding records from (inclusive) to target (exclusive), then release their waiters
+     */
+    private void force(long from, long target) {
+        long start = System.nanoTime();
+        for (int segment = (int) (from / recordsPerSegment); segment <= (target - 1) / recordsPerSegment; ++segment)
+            segments.get(segment).buffer.force();
+        syncTime.record(System.nanoTime() - start);
+        syncs.increment();
+        synchronized (syncLock) {
+            synced = target;
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The record with a sequence number, or null if there is none
+     */
+    public AuditRecord read(long sequence) {
+        if (sequence < 0 || sequence >= next) return null;
+        return decode(segments.get((int) (sequence / recordsPerSegment)).buffer, offset(sequence));
+    }
+
+    /**
+     * Pass every record from a sequence number on to a handler, oldest first
+     * @return The sequence number after the last record passed
+     * @throws IOException if the handler fails
+     */
+    public long scan(long from, RowHandler<AuditRecord> handler) throws IOException {
+        long end = next;
+        for (long sequence = Math.max(0, from); sequence < end; ++sequence) handler.handle(read(sequence));
+        return end;
+    }
+
+    /**
+     * @return Every SUBMITTED and RESOLVED record of a request, oldest first
+     */
+    public List<AuditRecord> requestHistory(int requestID) {
+        return history(requestHeads, requestID, true);
+    }
+
+    /**
+     * @return Every USER_ADDED and USER_UPDATED record of a user, oldest first
+     */
+    public List<AuditRecord> userHistory(int userID) {
+        return history(userHeads, userID, false);
+    }
+
+    private List<AuditRecord> history(Map<Integer, Long> heads, int key, boolean requests) {
+        Long head;
+        synchronized (this) {
+            head = heads.get(Math.floorDiv(key, INDEX_BLOCK));
+        }
+        List<AuditRecord> history = new ArrayList<>();
+        long sequence = (head == null) ? -1 : head;
+        while (sequence >= 0) {
+            Segment segment = segments.get((int) (sequence / recordsPerSegment));
+            int offset = offset(sequence);
+            if (segment.buffer.getInt(offset + 32) == key) {
+                AuditRecord record = decode(segment.buffer, offset);
+                if (record.getType().isRequest() == requests) history.add(record);
+            }
+            sequence = segment.buffer.getLong(offset + 24);
+        }
+        Collections.reverse(history);
+        return history;
+    }
+
+    /**
+     * Stop the flusher, force what was appended and close the segment files
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+        }
+        if (flusher != null) {
+            flusher.shutdownNow();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (next > synced) force(synced, next);
+        closeFiles();
+        log.info("Closed the audit journal with {} records", next);
+    }
+
+    public long getNextSequence() {
+        return next;
+    }
+    public long getSyncedSequence() {
+        return synced;
+    }
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+    public long getSyncCount() {
+        return syncs.sum();
+    }
+    public long getSyncFailureCount() {
+        return syncFailures.sum();
+    }
+    public Histogram getSyncTime() {
+        return syncTime;
+    }
+
+    /**
+     * Find the end of the journal and rebuild the index, zeroing any records after a torn one in the last segment
+     */
+    private void recover() throws IOException {
+        long sequence = 0;
+        for (int i = 0; i < segments.size(); ++i) {
+            MappedByteBuffer buffer = segments.get(i).buffer;
+            for (int slot = 0; slot < recordsPerSegment; ++slot, ++sequence) {
+                int offset = offset(sequence);
+                if (!valid(buffer, offset, sequence)) {
+                    if (i < segments.size() - 1)
+                        throw new IOException("The audit journal is corrupt at record " + sequence + ", before its last segment");
+                    for (int end = offset; end < buffer.capacity() && buffer.get(end + 4) != 0; end += RECORD_SIZE)
+                        for (int b = 0; b < RECORD_SIZE; ++b) buffer.put(end + b, (byte) 0);
+                    finishRecovery(sequence);
+                    return;
+                }
+                AuditRecord record = decode(buffer, offset);
+                (record.getType().isRequest() ? requestHeads : userHeads).put(Math.floorDiv(record.getKey(), INDEX_BLOCK), sequence);
+            }
+        }
+        finishRecovery(sequence);
+    }
+
+    private void finishRecovery(long end) {
+        next = end;
+        synced = end;
+    }
+
+    private boolean valid(ByteBuffer buffer, int offset, long sequence) {
+        byte type = buffer.get(offset + 4);
+        if (type <= 0 || type > AuditRecord.Type.values().length || buffer.getLong(offset + 8) != sequence) return false;
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + RECORD_SIZE);
+        body.position(offset + 4);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(offset);
+    }
+
+    /**
+     * Fill scratch with a record, ready to be copied into a segment
+     *  0 crc32 of bytes 4-63 | 4 type | 5 status | 8 sequence | 16 time | 24 previous sequence in the index block
+     *  32 key | 36 actor | 40 subject | 48 amount | the rest is reserved
+     */
+    private void encode(long sequence, AuditRecord record, long previous) {
+        scratch.clear();
+        scratch.putInt(0);
+        scratch.put((byte) (record.getType().ordinal() + 1));
+        scratch.put(statusCode(record.getStatus()));
+        scratch.putShort((short) 0);
+        scratch.putLong(sequence);
+        scratch.putLong(record.getTimeMillis());
+        scratch.putLong(previous);
+        scratch.putInt(record.getKey());
+        scratch.putInt(record.getActorID());
+        scratch.putInt(record.getSubjectID());
+        scratch.putInt(0);
+        scratch.putLong(record.getAmount());
+        scratch.putLong(0);
+        crc.reset();
+        crc.update(scratch.array(), 4, RECORD_SIZE - 4);
+        scratch.putInt(0, (int) crc.getValue());
+        scratch.flip();
+    }
+
+    private static AuditRecord decode(ByteBuffer buffer, int offset) {
+        return new AuditRecord(buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                AuditRecord.Type.values()[buffer.get(offset + 4) - 1], buffer.getInt(offset + 32), buffer.getInt(offset + 36),
+                buffer.getInt(offset + 40), buffer.getLong(offset + 48), STATUSES[buffer.get(offset + 5)]);
+    }
+
+    private static byte statusCode(String status) {
+        for (int i = 1; i < STATUSES.length; ++i) if (STATUSES[i].equalsIgnoreCase(status)) return (byte) i;
+        return 0;
+    }
+
+    private int offset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("audit-%010d.log", segment));
+    }
+
+    /**
+     * Map a segment file, a new one is created at its full size and zero filled so an empty slot marks the end
+     */
+    private Segment map(Path file, boolean create, int number) throws IOException {
+        long size = HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (create) raf.setLength(size);
+            else if (raf.length() != size) throw new IOException("Audit journal segment " + file + " has the wrong size");
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, recordsPerSegment);
+                buffer.putInt(12, number);
+                log.info("Created audit journal segment {}", file);
+            }
+            // the mapping stays valid after the file is closed
+            return new Segment(buffer);
+        }
+    }
+
+    /**
+     * @return The records per segment in a segment file's header
+     */
+    private static int readHeader(Path file, int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+            if (header.remaining() < 16 || header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != number)
+                throw new IOException("Audit journal segment " + file + " has an invalid header");
+            return header.getInt(8);
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("Failed to release the audit journal lock", e);
+        }
+    }
+}
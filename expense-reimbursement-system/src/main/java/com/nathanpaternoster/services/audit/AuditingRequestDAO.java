@@ -0,0 +1,155 @@
+package com.nathanpaternoster.services.audit;
+
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
+import com.nathanpaternoster.services.PageToken;
+import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestExport;
+import com.nathanpaternoster.services.RequestQuery;
+import com.nathanpaternoster.services.RowHandler;
+import com.nathanpaternoster.services.SearchPageToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RequestDAO that appends every submission and resolution made through it to an AuditJournal
+ * Records are appended once the wrapped DAO has committed the change, then the caller waits (at most syncTimeoutMillis)
+ * for the journal's next group fsync. The journal never touches the database, and a journal failure is logged rather
+ * than failing a change that is already committed. Reads are passed through to the wrapped DAO, including request
+ * histories, which the wrapped DAO records in the database with each change: the journal is this instance's local copy.
+ */
+public class AuditingRequestDAO implements RequestDAO {
+    private static final Logger log = LogManager.getLogger(AuditingRequestDAO.class);
+    private final RequestDAO delegate;
+    private final AuditJournal journal;
+    private final long syncTimeoutMillis;
+
+    /**
+     * @param syncTimeoutMillis How long a write waits for its records to be durable, 0 to not wait
+     */
+    public AuditingRequestDAO(RequestDAO delegate, AuditJournal journal, long syncTimeoutMillis) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+    }
+
+    /**
+     * Append records and wait for the last one to be synced, which syncs the others with it
+     */
+    static void record(AuditJournal journal, long syncTimeoutMillis, AuditRecord... records) {
+        try {
+            long last = -1;
+            for (AuditRecord record : records) last = journal.append(record);
+            if (last >= 0 && syncTimeoutMillis > 0 && !journal.awaitSynced(last, syncTimeoutMillis))
+                log.warn("Audit record {} wasn't synced to disk within {}ms", last, syncTimeoutMillis);
+        } catch (IOException e) {
+            log.error("Failed to append {} records to the audit journal", records.length, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int addRequest(ReimbursementRequest r) {
+        int requestID = delegate.addRequest(r);
+        if (requestID >= 0) record(journal, syncTimeoutMillis, AuditRecord.submitted(requestID, r));
+        return requestID;
+    }
+
+    @Override
+    public ReimbursementRequest resolveRequest(int resolverID, int requestID, String resolution) {
+        ReimbursementRequest resolved = delegate.resolveRequest(resolverID, requestID, resolution);
+        if (resolved != null) record(journal, syncTimeoutMillis, AuditRecord.resolved(requestID, resolverID, resolution, resolved));
+        return resolved;
+    }
+
+    @Override
+    public List<ReimbursementRequest> resolveRequests(int resolverID, Map<Integer, String> resolutions) {
+        List<ReimbursementRequest> resolved = delegate.resolveRequests(resolverID, resolutions);
+        if (!resolved.isEmpty()) {
+            AuditRecord[] records = new AuditRecord[resolved.size()];
+            for (int i = 0; i < records.length; ++i) {
+                ReimbursementRequest r = resolved.get(i);
+                records[i] = AuditRecord.resolved(r.getRequestID(), resolverID, r.getStatus(), r);
+            }
+            record(journal, syncTimeoutMillis, records);
+        }
+        return resolved;
+    }
+
+    @Override
+    public ReimbursementRequest getRequest(int requestID) {
+        return delegate.getRequest(requestID);
+    }
+
+    @Override
+    public List<AuditRecord> getRequestHistory(int requestID) {
+        return delegate.getRequestHistory(requestID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getRequests(int userID) {
+        return delegate.getRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getPendingRequests(int userID) {
+        return delegate.getPendingRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getResolvedRequests(int userID) {
+        return delegate.getResolvedRequests(userID);
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllRequests() {
+        return delegate.getAllRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllPendingRequests() {
+        return delegate.getAllPendingRequests();
+    }
+
+    @Override
+    public List<ReimbursementRequest> getAllResolvedRequests() {
+        return delegate.getAllResolvedRequests();
+    }
+
+    @Override
+    public RequestPage getRequestPage(String withStatus, int userID, PageToken after, int pageSize) {
+        return delegate.getRequestPage(withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public RequestPage find(RequestQuery query) {
+        return delegate.find(query);
+    }
+
+    @Override
+    public RequestPage searchRequests(String query, String withStatus, int userID, SearchPageToken after, int pageSize) {
+        return delegate.searchRequests(query, withStatus, userID, after, pageSize);
+    }
+
+    @Override
+    public boolean streamRequests(String withStatus, int userID, RowHandler<ReimbursementRequest> handler) throws IOException {
+        return delegate.streamRequests(withStatus, userID, handler);
+    }
+
+    @Override
+    public long exportRequests(RequestExport export, OutputStream out) throws IOException {
+        return delegate.exportRequests(export, out);
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+}
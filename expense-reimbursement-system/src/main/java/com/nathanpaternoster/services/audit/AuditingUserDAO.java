@@ -0,0 +1,96 @@
+package com.nathanpaternoster.services.audit;
+
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.Manager;
+import com.nathanpaternoster.models.users.User;
+import com.nathanpaternoster.services.RowHandler;
+import com.nathanpaternoster.services.UserDAO;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * UserDAO that appends every user added, imported or updated through it to an AuditJournal, like AuditingRequestDAO
+ */
+public class AuditingUserDAO implements UserDAO {
+    private final UserDAO delegate;
+    private final AuditJournal journal;
+    private final long syncTimeoutMillis;
+
+    public AuditingUserDAO(UserDAO delegate, AuditJournal journal, long syncTimeoutMillis) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+    }
+
+    private static String typeOf(User u) {
+        return (u instanceof Manager) ? "Manager" : "Employee";
+    }
+
+    @Override
+    public int addNewUser(User newUser) {
+        int userID = delegate.addNewUser(newUser);
+        if (userID >= 0)
+            AuditingRequestDAO.record(journal, syncTimeoutMillis, AuditRecord.user(AuditRecord.Type.USER_ADDED, userID, -1, typeOf(newUser)));
+        return userID;
+    }
+
+    @Override
+    public boolean updateUser(User updatedUser) {
+        boolean updated = delegate.updateUser(updatedUser);
+        if (updated) AuditingRequestDAO.record(journal, syncTimeoutMillis, AuditRecord.user(AuditRecord.Type.USER_UPDATED,
+                updatedUser.getUserID(), updatedUser.getUserID(), typeOf(updatedUser)));
+        return updated;
+    }
+
+    @Override
+    public User authenticateUser(int userID, String password) {
+        return delegate.authenticateUser(userID, password);
+    }
+
+    @Override
+    public User getUser(int userID) {
+        return delegate.getUser(userID);
+    }
+
+    @Override
+    public List<Employee> getAllEmployees() {
+        return delegate.getAllEmployees();
+    }
+
+    @Override
+    public boolean emailIsAvailable(String email) {
+        return delegate.emailIsAvailable(email);
+    }
+
+    @Override
+    public boolean streamEmployees(RowHandler<Employee> handler) throws IOException {
+        return delegate.streamEmployees(handler);
+    }
+
+    @Override
+    public Set<String> findUnavailableEmails(Collection<String> emails) {
+        return delegate.findUnavailableEmails(emails);
+    }
+
+    @Override
+    public Map<String, Integer> importEmployees(List<Employee> employees) {
+        Map<String, Integer> imported = delegate.importEmployees(employees);
+        if (imported != null && !imported.isEmpty()) {
+            AuditRecord[] records = imported.values().stream()
+                    .map(userID -> AuditRecord.user(AuditRecord.Type.USER_ADDED, userID, -1, "Employee"))
+                    .toArray(AuditRecord[]::new);
+            AuditingRequestDAO.record(journal, syncTimeoutMillis, records);
+        }
+        return imported;
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+}
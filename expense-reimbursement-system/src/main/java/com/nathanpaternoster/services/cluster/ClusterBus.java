@@ -0,0 +1,203 @@
+package com.nathanpaternoster.services.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Postgres LISTEN/NOTIFY channels shared by every instance of the application
+ * One thread holds a dedicated connection that listens on every subscribed channel and hands each notification to the
+ * channel's handlers. Triggers notify in the transaction that makes a change, so a notification arrives once the change
+ * has committed, and every instance receives every channel's notifications in the same (commit) order. send() queues a
+ * notification that the thread sends between polls, every instance receives it too, including this one.
+ * When the connection fails the thread reconnects, and the connection listeners are told so they can resynchronize
+ * whatever they keep from notifications, since those sent while disconnected are lost.
+ */
+public class ClusterBus implements Closeable {
+    private static final Logger log = LogManager.getLogger(ClusterBus.class);
+    /**
+     * Postgres refuses payloads of 8000 bytes or more
+     */
+    public static final int MAX_PAYLOAD = 7900;
+    static final long RETRY_MILLIS = 1000;
+    private final DataSource dataSource;
+    private final int pollMillis;
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    private final List<Consumer<Boolean>> connectionListeners = new CopyOnWriteArrayList<>();
+    private final Queue<String[]> outgoing = new ConcurrentLinkedQueue<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private ExecutorService listener;
+
+    /**
+     * @param dataSource Opens the listening connection, it is held until close() so it shouldn't come from a pool
+     * @param pollMillis The longest a notification to send waits for the listening thread
+     */
+    public ClusterBus(DataSource dataSource, int pollMillis) {
+        this.dataSource = dataSource;
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Call handler with the payload of every notification on a channel, subscribe before start()
+     * Handlers run on the listening thread and must not block.
+     */
+    public void subscribe(String channel, Consumer<String> handler) {
+        handlers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * Call listener with true once the bus is listening, and with false when it loses the connection
+     */
+    public void addConnectionListener(Consumer<Boolean> listener) {
+        connectionListeners.add(listener);
+    }
+
+    /**
+     * Queue a notification for every instance, it is dropped if the bus is disconnected when it is sent
+     * @param payload At most MAX_PAYLOAD bytes
+     */
+    public void send(String channel, String payload) {
+        if (connected && !closed) outgoing.add(new String[] {channel, payload});
+    }
+
+    public synchronized void start() {
+        if (listener != null || closed) return;
+        listener = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-bus");
+            t.setDaemon(true);
+            return t;
+        });
+        listener.execute(this::run);
+        log.info("Listening on {} channels", handlers.size());
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                listen();
+            } catch (SQLException | RuntimeException e) {
+                failures.increment();
+                if (!closed) log.error("The cluster bus connection failed, reconnecting in {}ms", RETRY_MILLIS, e);
+            } finally {
+                if (connected) {
+                    connected = false;
+                    fire(false);
+                }
+            }
+            try {
+                if (!closed) Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Listen on every channel, then dispatch notifications and send queued ones until the connection fails or closes
+     */
+    private void listen() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement notify = connection.prepareStatement("select pg_notify(?, ?);"))
+        {
+            connection.setAutoCommit(true);
+            PGConnection pg = connection.unwrap(PGConnection.class);
+            try (Statement statement = connection.createStatement()) {
+                // channel names are identifiers, they can't be bound
+                for (String channel : handlers.keySet()) statement.execute("listen \"" + channel.replace("\"", "") + "\";");
+            }
+            connected = true;
+            fire(true);
+            while (!closed) {
+                String[] next;
+                while ((next = outgoing.poll()) != null) {
+                    notify.setString(1, next[0]);
+                    notify.setString(2, next[1]);
+                    notify.execute();
+                    sent.increment();
+                }
+                PGNotification[] notifications = pg.getNotifications(pollMillis);
+                if (notifications == null) continue;
+                for (PGNotification n : notifications) dispatch(n.getName(), n.getParameter());
+            }
+        }
+    }
+
+    void dispatch(String channel, String payload) {
+        received.increment();
+        List<Consumer<String>> list = handlers.get(channel);
+        if (list == null) return;
+        for (Consumer<String> handler : list) {
+            try {
+                handler.accept(payload);
+            } catch (RuntimeException e) {
+                log.error("A handler of the {} channel failed", channel, e);
+            }
+        }
+    }
+
+    private void fire(boolean up) {
+        if (up) log.info("The cluster bus is listening");
+        for (Consumer<Boolean> l : connectionListeners) {
+            try {
+                l.accept(up);
+            } catch (RuntimeException e) {
+                log.error("A cluster bus connection listener failed", e);
+            }
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+    public long getReceivedCount() {
+        return received.sum();
+    }
+    public long getSentCount() {
+        return sent.sum();
+    }
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Stop listening, queued notifications are dropped
+     */
+    @Override
+    public void close() {
+        closed = true;
+        outgoing.clear();
+        synchronized (this) {
+            if (listener == null) return;
+            listener.shutdownNow();
+            try {
+                listener.awaitTermination(pollMillis + RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            listener = null;
+        }
+    }
+}
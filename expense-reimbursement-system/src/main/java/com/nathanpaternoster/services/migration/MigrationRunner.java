@@ -0,0 +1,290 @@
+package com.nathanpaternoster.services.migration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned SQL scripts under a classpath location and records them in the schema_migrations table
+ * The scripts are listed in order in the location's index.txt and named V(version)__(description).sql. Each applied
+ * script's checksum is stored, so editing a script after it has been applied fails startup instead of silently
+ * diverging. A Postgres advisory lock serializes runners, so replicas starting together apply each script once.
+ * Scripts run in a single transaction unless their first line is "-- migration: no-transaction", in which case each
+ * statement (ending with a semicolon at the end of a line) runs on its own, as create index concurrently requires.
+ * A failed create index concurrently leaves an INVALID index behind, which "if not exists" would then skip: such an index
+ * is dropped and built again on the next run, and a script is only recorded once every index it builds is valid.
+ */
+public class MigrationRunner {
+    private static final Logger log = LogManager.getLogger(MigrationRunner.class);
+    static final long ADVISORY_LOCK_KEY = 0x6572735f6d6967L;     // "ers_mig"
+    private static final Pattern SCRIPT_NAME = Pattern.compile("^V(\\d+)__(\\w+)\\.sql$");
+    private static final String NO_TRANSACTION = "-- migration: no-transaction";
+    private static final Pattern CONCURRENT_INDEX = Pattern.compile(
+            "^create\\s+(?:unique\\s+)?index\\s+concurrently\\s+(?:if\\s+not\\s+exists\\s+)?(\\w+)\\s", Pattern.CASE_INSENSITIVE);
+    private final DataSource dataSource;
+    private final String location;
+
+    /**
+     * A single migration script
+     */
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final String checksum;
+
+        Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = checksum(script);
+        }
+
+        public int getVersion() {
+            return version;
+        }
+        public String getDescription() {
+            return description;
+        }
+        public String getScript() {
+            return script;
+        }
+
+        /**
+         * @return The hex SHA-256 of the script with line endings normalized
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+        public boolean isTransactional() {
+            return !script.startsWith(NO_TRANSACTION);
+        }
+    }
+
+    /**
+     * @param dataSource The database to migrate
+     * @param location Classpath directory holding index.txt and the scripts, e.g. "db/migration"
+     */
+    public MigrationRunner(DataSource dataSource, String location) {
+        this.dataSource = dataSource;
+        this.location = location;
+    }
+
+    /**
+     * Read every migration listed in the index
+     * @return The migrations in ascending version order
+     * @throws RuntimeException if the index or a script is missing, misnamed, or versions are not strictly increasing
+     */
+    public List<Migration> load() throws RuntimeException {
+        List<Migration> migrations = new ArrayList<>();
+        for (String name : readIndex(location + "/index.txt")) {
+            Matcher m = SCRIPT_NAME.matcher(name);
+            if (!m.matches())
+                throw new RuntimeException("Invalid migration name '" + name + "', expected V<version>__<description>.sql");
+            int version = Integer.parseInt(m.group(1));
+            if (!migrations.isEmpty() && version <= migrations.get(migrations.size() - 1).getVersion())
+                throw new RuntimeException("Migration versions must be strictly increasing, found V" + version + " out of order");
+            migrations.add(new Migration(version, m.group(2).replace('_', ' '), String.join("\n", readResource(location + "/" + name))));
+        }
+        return migrations;
+    }
+
+    /**
+     * Apply every migration that hasn't been applied yet, in order
+     * @return The number of migrations applied
+     * @throws RuntimeException if an applied migration has changed or a migration fails (the failed one is rolled back if
+     *      it is transactional, the ones before it stay applied)
+     */
+    public int migrate() throws RuntimeException {
+        List<Migration> migrations = load();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            lock(connection, true);
+            try {
+                try (Statement st = connection.createStatement()) {
+                    st.execute("create table if not exists schema_migrations (" +
+                            "version int primary key, description varchar(200) not null, checksum varchar(64) not null, " +
+                            "appliedAt timestamp not null default now(), executionMillis int not null);");
+                }
+                Map<Integer, String> applied = appliedChecksums(connection);
+                int count = 0;
+                for (Migration migration : migrations) {
+                    String checksum = applied.get(migration.getVersion());
+                    if (checksum != null) {
+                        if (!checksum.equals(migration.getChecksum()))
+                            throw new RuntimeException("Migration V" + migration.getVersion() + " has been modified since it was applied");
+                        continue;
+                    }
+                    apply(connection, migration);
+                    ++count;
+                }
+                if (count == 0) log.info("Database schema is up to date");
+                else log.info("Applied {} database migrations", count);
+                return count;
+            } finally {
+                lock(connection, false);
+            }
+        } catch (SQLException e) {
+            log.error("Database migration failed");
+            throw new RuntimeException("Database migration failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void lock(Connection connection, boolean acquire) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(acquire ? "select pg_advisory_lock(?);" : "select pg_advisory_unlock(?);")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            ps.execute();
+        }
+    }
+
+    private Map<Integer, String> appliedChecksums(Connection connection) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (PreparedStatement ps = connection.prepareStatement("select version, checksum from schema_migrations;");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) applied.put(rs.getInt("version"), rs.getString("checksum"));
+        }
+        return applied;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        log.info("Applying migration V{} ({})", migration.getVersion(), migration.getDescription());
+        long start = System.currentTimeMillis();
+        if (migration.isTransactional()) {
+            connection.setAutoCommit(false);
+            try (Statement st = connection.createStatement()) {
+                st.execute(migration.getScript());
+                record(connection, migration, start);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } else {
+            try (Statement st = connection.createStatement()) {
+                List<String> indexes = new ArrayList<>();
+                for (String sql : splitStatements(migration.getScript())) {
+                    String index = concurrentIndex(sql);
+                    if (index != null) {
+                        indexes.add(index);
+                        if (Boolean.FALSE.equals(isValidIndex(connection, index))) {
+                            log.warn("Index {} was left invalid by an earlier attempt, rebuilding it", index);
+                            st.execute("drop index concurrently if exists " + index + ";");
+                        }
+                    }
+                    st.execute(sql);
+                }
+                for (String index : indexes)
+                    if (Boolean.FALSE.equals(isValidIndex(connection, index)))
+                        throw new SQLException("Index " + index + " of migration V" + migration.getVersion() + " is invalid, the migration was not recorded");
+            }
+            record(connection, migration, start);
+        }
+    }
+
+    /**
+     * @return The name of the index a create index concurrently statement builds, or null for any other statement
+     */
+    static String concurrentIndex(String sql) {
+        Matcher m = CONCURRENT_INDEX.matcher(sql);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * @return Whether an index is valid (usable by queries), or null if it doesn't exist
+     */
+    private Boolean isValidIndex(Connection connection, String index) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("select indisvalid from pg_index where indexrelid=to_regclass(?);")) {
+            ps.setString(1, index);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBoolean(1) : null;
+            }
+        }
+    }
+
+    private void record(Connection connection, Migration migration, long start) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "insert into schema_migrations (version, description, checksum, executionMillis) values (?, ?, ?, ?);")) {
+            ps.setInt(1, migration.getVersion());
+            ps.setString(2, migration.getDescription());
+            ps.setString(3, migration.getChecksum());
+            ps.setInt(4, (int) (System.currentTimeMillis() - start));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Split a script into statements on semicolons that end a line, dropping comment-only lines
+     */
+    static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : script.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) continue;
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                statements.add(current.toString().trim());
+                current.setLength(0);
+            }
+        }
+        if (current.toString().trim().length() > 0) statements.add(current.toString().trim());
+        return statements;
+    }
+
+    /**
+     * Read the script names from an index, skipping blank lines and # comments
+     */
+    private static List<String> readIndex(String resource) {
+        List<String> lines = new ArrayList<>();
+        for (String line : readResource(resource)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static List<String> readResource(String resource) {
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        if (in == null) in = MigrationRunner.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) throw new RuntimeException("Migration resource '" + resource + "' was not found");
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) lines.add(line);
+        } catch (IOException e) {
+            throw new RuntimeException("Migration resource '" + resource + "' could not be read", e);
+        }
+        return lines;
+    }
+
+    private static String checksum(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
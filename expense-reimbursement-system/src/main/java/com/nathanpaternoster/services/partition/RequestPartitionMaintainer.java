@@ -0,0 +1,173 @@
+package com.nathanpaternoster.services.partition;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Background job keeping the partitioned requests table (V5 migration) ready for new requests and small where it's hot
+ * Each run creates the monthly partitions of requests_current up to monthsAhead months from now, then moves resolved
+ * requests submitted more than archiveAfterDays ago to requests_archive in batches, one transaction per batch. Queries
+ * for pending requests never read the archive, and the monthly partitions left behind hold only the few requests
+ * still pending. Every instance of the application runs the job, an advisory lock lets one of them at a time do the work.
+ */
+public class RequestPartitionMaintainer {
+    private static final Logger log = LogManager.getLogger(RequestPartitionMaintainer.class);
+    static final long ADVISORY_LOCK_KEY = 0x6572735f706172L;     // "ers_par"
+    private final DataSource dataSource;
+    private final int monthsAhead;
+    private final int archiveAfterDays;
+    private final int batchSize;
+    private final Supplier<LocalDateTime> now;
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param dataSource The primary database
+     * @param monthsAhead Partitions are created this many months before requests are submitted in them
+     * @param archiveAfterDays Resolved requests submitted longer ago are archived, 0 or less disables archiving
+     * @param batchSize Requests moved per transaction
+     */
+    public RequestPartitionMaintainer(DataSource dataSource, int monthsAhead, int archiveAfterDays, int batchSize) {
+        this(dataSource, monthsAhead, archiveAfterDays, batchSize, LocalDateTime::now);
+    }
+
+    RequestPartitionMaintainer(DataSource dataSource, int monthsAhead, int archiveAfterDays, int batchSize, Supplier<LocalDateTime> now) {
+        this.dataSource = dataSource;
+        this.monthsAhead = monthsAhead;
+        this.archiveAfterDays = archiveAfterDays;
+        this.batchSize = batchSize;
+        this.now = now;
+    }
+
+    /**
+     * Run the job now and then every periodMinutes
+     */
+    public synchronized void start(long periodMinutes) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "request-partition-maintainer");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (RuntimeException e) {
+                // an escaped exception would cancel the scheduled task
+                log.error("Request partition maintenance failed", e);
+            }
+        }, 0, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Create the upcoming partitions and archive old resolved requests, unless another instance is already doing it
+     * @return False if another instance holds the lock or the work failed (it is retried on the next run)
+     */
+    public boolean maintain() {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            if (!lock(connection, true)) {
+                log.debug("Request partitions are being maintained by another instance");
+                return false;
+            }
+            try {
+                int partitions = createPartitions(connection);
+                long moved = archive(connection);
+                if (partitions > 0 || moved > 0)
+                    log.info("Created {} request partitions and archived {} resolved requests", partitions, moved);
+                return true;
+            } finally {
+                lock(connection, false);
+            }
+        } catch (SQLException e) {
+            failures.increment();
+            log.warn("Request partition maintenance failed, retrying on the next run", e);
+            return false;
+        }
+    }
+
+    private boolean lock(Connection connection, boolean acquire) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(acquire ? "select pg_try_advisory_lock(?);" : "select pg_advisory_unlock(?);")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * @return The number of monthly partitions created, from this month's to monthsAhead months from now
+     */
+    int createPartitions(Connection connection) throws SQLException {
+        int count = 0;
+        try (PreparedStatement ps = connection.prepareStatement("select create_request_partition(?);")) {
+            for (int i = 0; i <= monthsAhead; ++i) {
+                ps.setDate(1, Date.valueOf(now.get().toLocalDate().withDayOfMonth(1).plusMonths(i)));
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) ++count;
+                }
+            }
+        }
+        created.add(count);
+        return count;
+    }
+
+    /**
+     * Move resolved requests submitted before the cutoff to requests_archive, batchSize at a time
+     * Updating the archived partition key makes postgres move each row, the other columns are unchanged so listings
+     * and cached results stay valid
+     * @return The number of requests archived
+     */
+    long archive(Connection connection) throws SQLException {
+        if (archiveAfterDays <= 0) return 0;
+        Timestamp cutoff = Timestamp.valueOf(now.get().minusDays(archiveAfterDays));
+        String sql = "update requests set archived=true where not archived and timeSubmitted<? and requestID in (" +
+                "select requestID from requests where not archived and timeSubmitted<? and status in ('Approved', 'Denied') " +
+                "order by timeSubmitted limit ?);";
+        long total = 0;
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int moved;
+            do {
+                ps.setTimestamp(1, cutoff);
+                ps.setTimestamp(2, cutoff);
+                ps.setInt(3, batchSize);
+                moved = ps.executeUpdate();
+                total += moved;
+                archived.add(moved);
+            } while (moved >= batchSize && !Thread.currentThread().isInterrupted());
+        }
+        return total;
+    }
+
+    public long getArchivedCount() {
+        return archived.sum();
+    }
+    public long getCreatedCount() {
+        return created.sum();
+    }
+    public long getFailureCount() {
+        return failures.sum();
+    }
+}
@@ -0,0 +1,362 @@
+package com.nathanpaternoster.services.pool;
+
+import com.nathanpaternoster.metrics.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool owned by the application, physical connections are opened through another (unpooled) DataSource
+ * A fair semaphore bounds the number of connections checked out at once, so callers past maxSize wait in order and fail
+ * with an SQLTimeoutException after acquireTimeoutMillis instead of opening yet another connection. Returned connections
+ * are rolled back and reset to autocommit before reuse, idle ones are validated before being handed out again, and a
+ * housekeeping thread keeps minSize connections open and reports connections held longer than the leak threshold.
+ * Each connection also caches up to statementCacheSize prepared statements by SQL text (see PooledConnection).
+ */
+public class ConnectionPool implements DataSource, Closeable {
+    private static final Logger log = LogManager.getLogger(ConnectionPool.class);
+    static final long HOUSEKEEPING_MILLIS = 5000;
+    static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private final DataSource factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long idleValidationMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();    // used as a stack, the warmest connection is reused first
+    private final Set<PooledConnection> checkedOut = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Histogram acquireTime = new Histogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    final LongAdder statementHits = new LongAdder();
+    final LongAdder statementMisses = new LongAdder();
+    private ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * @param factory Opens the physical connections
+     * @param minSize Connections opened at startup and kept open while idle
+     * @param maxSize Maximum number of connections open at once
+     * @param acquireTimeoutMillis How long getConnection waits for a free connection before failing
+     * @param validationTimeoutSeconds Timeout passed to Connection.isValid when validating an idle connection
+     * @param idleValidationMillis Connections idle for longer than this are validated before being handed out
+     * @param leakThresholdMillis Connections checked out for longer than this are logged with the borrower's stack, 0 disables
+     * @param statementCacheSize Prepared statements kept open per connection, 0 disables the statement cache
+     */
+    public ConnectionPool(DataSource factory, int minSize, int maxSize, long acquireTimeoutMillis, int validationTimeoutSeconds,
+                          long idleValidationMillis, long leakThresholdMillis, int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize)
+            throw new IllegalArgumentException("Pool sizes must satisfy 0 <= minSize <= maxSize and maxSize >= 1");
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.idleValidationMillis = idleValidationMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Open minSize connections and start the housekeeping thread
+     * A database that is unreachable at startup is logged rather than thrown, connections are opened on demand once it is up
+     */
+    public synchronized void start() {
+        if (housekeeper != null) return;
+        fill();
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_MILLIS, HOUSEKEEPING_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Connection pool started: {}", this);
+    }
+
+    /**
+     * Stop handing out connections and close every idle one, connections still checked out are closed when returned
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (housekeeper != null) housekeeper.shutdownNow();
+        for (PooledConnection pc; (pc = idle.pollFirst()) != null; ) destroy(pc);
+        log.info("Connection pool closed: {}", this);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection (" + this + ")");
+        }
+        try {
+            PooledConnection pc = borrow();
+            checkedOut.add(pc);
+            acquireTime.record(System.nanoTime() - start);
+            return pc.lease(this, leakThresholdMillis > 0);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Take a validated idle connection or open a new one, the caller must hold a permit
+     */
+    private PooledConnection borrow() throws SQLException {
+        while (true) {
+            PooledConnection pc = idle.pollFirst();
+            if (pc != null) {
+                if (System.currentTimeMillis() - pc.lastUsedAt < idleValidationMillis || isValid(pc)) return pc;
+                validationFailures.increment();
+                log.warn("Discarding a pooled connection that failed validation");
+                destroy(pc);
+                continue;
+            }
+            // a permit guarantees a free slot, but a connection being returned can briefly count as both idle and checked out
+            int n = total.get();
+            if (n < maxSize) {
+                if (total.compareAndSet(n, n + 1)) return open();
+            } else Thread.yield();
+        }
+    }
+
+    /**
+     * Open a physical connection, the caller must already have counted it in total
+     */
+    private PooledConnection open() throws SQLException {
+        try {
+            Connection c = factory.getConnection();
+            log.debug("Opened a new pooled connection");
+            return new PooledConnection(c, statementCacheSize);
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Called when a borrower closes its handle
+     */
+    void release(PooledConnection pc) {
+        checkedOut.remove(pc);
+        if (!closed && pc.reset()) {
+            pc.lastUsedAt = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } else destroy(pc);
+        permits.release();
+    }
+
+    private void destroy(PooledConnection pc) {
+        total.decrementAndGet();
+        pc.closePhysical();
+        log.debug("Closed a pooled connection");
+    }
+
+    /**
+     * Open connections until minSize are open
+     */
+    private void fill() {
+        while (!closed) {
+            int n = total.get();
+            if (n >= minSize) return;
+            if (!total.compareAndSet(n, n + 1)) continue;
+            try {
+                PooledConnection pc = open();
+                idle.offerLast(pc);
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Could not open a pooled connection: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Report leaks, close connections idle past IDLE_TIMEOUT_MILLIS above minSize, and top the pool back up to minSize
+     */
+    void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            if (leakThresholdMillis > 0) {
+                for (PooledConnection pc : checkedOut) {
+                    if (!pc.leakReported && now - pc.checkedOutAt > leakThresholdMillis) {
+                        pc.leakReported = true;
+                        leaks.increment();
+                        log.warn("A connection has been checked out for {}ms, it may have leaked", now - pc.checkedOutAt, pc.checkoutTrace);
+                    }
+                }
+            }
+            // the oldest idle connections are at the end of the stack
+            for (PooledConnection pc; total.get() > minSize && (pc = idle.peekLast()) != null && now - pc.lastUsedAt > IDLE_TIMEOUT_MILLIS; ) {
+                if (idle.removeLastOccurrence(pc)) destroy(pc);
+            }
+            fill();
+            log.debug("Connection pool: {}", this);
+        } catch (RuntimeException e) {
+            log.error("Connection pool housekeeping failed", e);
+        }
+    }
+
+    /**
+     * @return The number of physical connections currently open
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    /**
+     * @return The number of connections currently checked out
+     */
+    public int getActiveCount() {
+        return checkedOut.size();
+    }
+
+    /**
+     * @return The number of open connections waiting to be checked out
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return The number of callers currently blocked in getConnection
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The time spent in getConnection for every successful checkout, including time waiting for a free connection
+     */
+    public Histogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.sum();
+    }
+
+    /**
+     * @return The number of prepareStatement calls answered from a connection's statement cache
+     */
+    public long getStatementCacheHitCount() {
+        return statementHits.sum();
+    }
+
+    /**
+     * @return The number of prepareStatement calls that had to prepare and cache a new statement
+     */
+    public long getStatementCacheMissCount() {
+        return statementMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + getTotalCount() + ", active=" + getActiveCount() + ", idle=" + getIdleCount() + ", waiting=" + getWaitingCount() +
+                ", max=" + maxSize + ", timeouts=" + getTimeoutCount() + ", leaks=" + getLeakCount() +
+                ", statementHits=" + getStatementCacheHitCount() + ", statementMisses=" + getStatementCacheMissCount() +
+                ", acquire=[" + acquireTime + "]";
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the credentials of the underlying DataSource");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return factory.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        factory.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        factory.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return factory.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return factory.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : factory.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || factory.isWrapperFor(iface);
+    }
+}
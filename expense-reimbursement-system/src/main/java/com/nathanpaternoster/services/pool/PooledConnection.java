@@ -0,0 +1,267 @@
+package com.nathanpaternoster.services.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection owned by a ConnectionPool along with its bookkeeping
+ * Each checkout hands out a fresh proxy, so a handle that is closed twice or used after close can't affect the next borrower
+ * Prepared statements are cached per connection by SQL text: closing a statement handle resets it and keeps it open, and
+ * preparing the same SQL again on this connection reuses it instead of parsing it again. A connection only has one
+ * borrower at a time, so the cache needs no locking.
+ */
+class PooledConnection {
+    final Connection physical;
+    private final int statementCacheSize;
+    private final LinkedHashMap<String, CachedStatement> statements;
+    final long createdAt;
+    volatile long lastUsedAt;
+    volatile long checkedOutAt;
+    volatile Throwable checkoutTrace;
+    volatile boolean leakReported;
+    volatile boolean broken;
+
+    /**
+     * @param physical The connection opened by the pool's factory
+     * @param statementCacheSize Maximum number of prepared statements kept open on this connection, 0 disables caching
+     */
+    PooledConnection(Connection physical, int statementCacheSize) {
+        this.physical = physical;
+        this.statementCacheSize = statementCacheSize;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {     // access order
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= PooledConnection.this.statementCacheSize) return false;
+                eldest.getValue().evicted = true;
+                if (!eldest.getValue().inUse) eldest.getValue().closePhysical();
+                return true;
+            }
+        };
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    /**
+     * @return The number of prepared statements currently cached on this connection
+     */
+    int cachedStatementCount() {
+        return statements.size();
+    }
+
+    /**
+     * Record a checkout and create the handle given to the borrower
+     * @param pool The pool the handle is returned to when closed
+     * @param trace Whether to capture the borrower's stack for leak reports
+     */
+    Connection lease(ConnectionPool pool, boolean trace) {
+        checkedOutAt = System.currentTimeMillis();
+        checkoutTrace = trace ? new Throwable("Connection checked out here") : null;
+        leakReported = false;
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new Handle(pool));
+    }
+
+    /**
+     * Put the connection back in the state a new borrower expects, rolling back anything left uncommitted
+     * @return true if the connection can be reused
+     */
+    boolean reset() {
+        if (broken) return false;
+        try {
+            if (physical.isClosed()) return false;
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) physical.setReadOnly(false);
+            physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closePhysical() {
+        for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+            it.next().closePhysical();
+            it.remove();
+        }
+        try {
+            physical.close();
+        } catch (SQLException ignored) {
+            // the connection is being discarded either way
+        }
+    }
+
+    /**
+     * Hand out a cached statement for the SQL, preparing and caching it on a miss
+     * Only prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached, other variants pass through
+     */
+    private Object prepare(Object connectionProxy, ConnectionPool pool, Method method, Object[] args) throws Throwable {
+        boolean cacheable = statementCacheSize > 0 && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer));
+        if (!cacheable) return invokePhysical(method, args);
+        String key = (args.length == 2) ? args[1] + ":" + args[0] : (String) args[0];
+        CachedStatement cs = statements.get(key);
+        if (cs != null && cs.inUse)     // the same SQL is open twice on this connection, the second one is not cached
+            return invokePhysical(method, args);
+        if (cs != null) {
+            pool.statementHits.increment();
+        } else {
+            pool.statementMisses.increment();
+            cs = new CachedStatement((PreparedStatement) invokePhysical(method, args));
+            statements.put(key, cs);
+        }
+        cs.inUse = true;
+        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new StatementHandle(cs, connectionProxy));
+    }
+
+    private Object invokePhysical(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(physical, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // SQL state class 08 is a connection exception, the connection can't be trusted afterwards
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null &&
+                    ((SQLException) cause).getSQLState().startsWith("08"))
+                broken = true;
+            throw cause;
+        }
+    }
+
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * Called when the borrower closes its statement handle, resets the statement for the next use
+         * A statement that can't be reset, or was evicted while in use, is closed instead
+         */
+        void giveBack() {
+            inUse = false;
+            try {
+                if (!evicted) {
+                    // release the rows of the last result now rather than when the statement is next executed
+                    ResultSet rs = statement.getResultSet();
+                    if (rs != null) rs.close();
+                    statement.clearParameters();
+                    statement.clearWarnings();
+                    statement.setFetchSize(0);
+                    statement.setMaxRows(0);
+                    statement.setQueryTimeout(0);
+                    return;
+                }
+            } catch (SQLException e) {
+                evicted = true;
+            }
+            closePhysical();
+        }
+
+        void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // the statement is being discarded either way
+            }
+        }
+    }
+
+    private class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Object connectionProxy;
+        private boolean closed;
+
+        StatementHandle(CachedStatement cached, Object connectionProxy) {
+            this.cached = cached;
+            this.connectionProxy = connectionProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cached.giveBack();
+                        // an evicted statement is closed on give back and must not be handed out again
+                        if (cached.evicted) statements.values().remove(cached);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached " + cached.statement;
+                default:
+                    if (closed) throw new SQLException("Statement is closed");
+                    try {
+                        return method.invoke(cached.statement, args);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null &&
+                                ((SQLException) cause).getSQLState().startsWith("08"))
+                            broken = true;
+                        throw cause;
+                    }
+            }
+        }
+    }
+
+    private class Handle implements InvocationHandler {
+        private final ConnectionPool pool;
+        private boolean closed;
+
+        Handle(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + physical;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(physical) || physical.isWrapperFor((Class<?>) args[0]);
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(physical) ? physical : physical.unwrap((Class<?>) args[0]);
+                case "prepareStatement":
+                    if (closed) throw new SQLException("Connection is closed");
+                    return prepare(proxy, pool, method, args);
+                default:
+                    if (closed) throw new SQLException("Connection is closed");
+                    return invokePhysical(method, args);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.nathanpaternoster.services.routing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * DataSource for read-only queries that hands out connections to streaming replicas when they are known to be current
+ * DAOs keep writing through the primary and call written() after each write. A monitor thread samples the primary's
+ * WAL position and each replica's replayed position: once a replica has replayed past a sample taken after the last
+ * write, it has every write this application made and reads are sent to it (round robin). Until then, or when a replica
+ * lags more than maxLagMillis or fails, reads fall back to the primary. Threads pinned with pinToPrimary() always use
+ * the primary, which gives users read-your-writes for writes made through other instances of the application.
+ */
+public class RoutingDataSource implements DataSource, Closeable {
+    private static final Logger log = LogManager.getLogger(RoutingDataSource.class);
+    private static final ThreadLocal<Boolean> pinned = ThreadLocal.withInitial(() -> false);
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final LongSupplier nanoTime;
+    private final AtomicLong lastWrite;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private ScheduledExecutorService monitor;
+
+    /**
+     * One replica and what the monitor last learned about it
+     */
+    public static class Replica {
+        private final DataSource dataSource;
+        volatile long caughtUpTo;       // nanoTime of the latest primary sample the replica has replayed
+        volatile long lagBytes = -1;
+        volatile long lagMillis = -1;
+        volatile boolean available;
+
+        Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        /**
+         * @return WAL bytes not yet replayed at the last sample, or -1 if the replica couldn't be reached
+         */
+        public long getLagBytes() {
+            return lagBytes;
+        }
+
+        /**
+         * @return Age of the last replayed transaction when bytes were still to be replayed (0 when caught up), or -1
+         */
+        public long getLagMillis() {
+            return lagMillis;
+        }
+        public boolean isAvailable() {
+            return available;
+        }
+    }
+
+    /**
+     * @param primary Where reads go when no replica is current
+     * @param replicas The replicas, each usually a ConnectionPool
+     * @param maxLagMillis Replicas further behind than this aren't read from even if they have every write
+     */
+    public RoutingDataSource(DataSource primary, List<DataSource> replicas, long maxLagMillis) {
+        this(primary, replicas, maxLagMillis, System::nanoTime);
+    }
+
+    RoutingDataSource(DataSource primary, List<DataSource> replicas, long maxLagMillis, LongSupplier nanoTime) {
+        this.primary = primary;
+        this.maxLagMillis = maxLagMillis;
+        this.nanoTime = nanoTime;
+        this.lastWrite = new AtomicLong(nanoTime.getAsLong());     // writes made before startup are unknown
+        List<Replica> list = new ArrayList<>();
+        for (DataSource dataSource : replicas) {
+            Replica replica = new Replica(dataSource);
+            replica.caughtUpTo = lastWrite.get() - 1;
+            list.add(replica);
+        }
+        this.replicas = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Send every read of the current thread to the primary until unpinned, e.g. for the user who just wrote
+     */
+    public static void pinToPrimary(boolean pin) {
+        if (pin) pinned.set(true);
+        else pinned.remove();
+    }
+
+    /**
+     * Record that a write was committed (or failed) through the primary, call it before publishing the change
+     */
+    public void written() {
+        lastWrite.accumulateAndGet(nanoTime.getAsLong(), (last, now) -> (now - last > 0) ? now : last);
+    }
+
+    /**
+     * Start sampling replication progress every pollMillis, replicas are not read from until the first sample
+     */
+    public synchronized void start(long pollMillis) {
+        if (monitor != null) return;
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        monitor.scheduleWithFixedDelay(() -> {
+            try {
+                sample();
+            } catch (RuntimeException e) {
+                // an escaped exception would cancel the scheduled task
+                log.error("Sampling replica lag failed", e);
+            }
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+        log.info("Routing reads to {} replicas, sampled every {}ms", replicas.size(), pollMillis);
+    }
+
+    /**
+     * Stop the monitor, the replicas are closed by their owner
+     */
+    @Override
+    public synchronized void close() {
+        if (monitor == null) return;
+        monitor.shutdownNow();
+        monitor = null;
+    }
+
+    /**
+     * Compare each replica's replayed WAL position with the primary's current one
+     */
+    void sample() {
+        long sampledAt = nanoTime.getAsLong();
+        long primaryLsn;
+        try (Connection connection = primary.getConnection();
+             Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("select pg_current_wal_lsn();")) {
+            rs.next();
+            primaryLsn = parseLsn(rs.getString(1));
+            if (!connection.getAutoCommit()) connection.commit();
+        } catch (SQLException e) {
+            log.warn("Failed to read the primary's WAL position", e);
+            return;
+        }
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement st = connection.createStatement();
+                 ResultSet rs = st.executeQuery("select pg_last_wal_replay_lsn(), " +
+                         "coalesce(extract(epoch from now() - pg_last_xact_replay_timestamp()) * 1000, 0)::bigint;")) {
+                rs.next();
+                String replayed = rs.getString(1);
+                if (replayed == null) throw new SQLException("Not a streaming replica");
+                long lagBytes = Math.max(0, primaryLsn - parseLsn(replayed));
+                replica.lagBytes = lagBytes;
+                replica.lagMillis = (lagBytes == 0) ? 0 : rs.getLong(2);
+                if (lagBytes == 0) replica.caughtUpTo = sampledAt;
+                replica.available = true;
+                if (!connection.getAutoCommit()) connection.commit();
+            } catch (SQLException e) {
+                if (replica.available) log.warn("Replica {} is unavailable, reading from the primary", replicas.indexOf(replica), e);
+                replica.available = false;
+                replica.lagBytes = -1;
+                replica.lagMillis = -1;
+            }
+        }
+    }
+
+    /**
+     * Convert a Postgres LSN such as 16/B374D848 to a byte position
+     */
+    static long parseLsn(String lsn) {
+        int slash = lsn.indexOf('/');
+        return (Long.parseLong(lsn.substring(0, slash), 16) << 32) + Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    /**
+     * @return A connection to a current replica, or to the primary if there is none or the thread is pinned
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!pinned.get() && !replicas.isEmpty()) {
+            long written = lastWrite.get();
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); ++i) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (!replica.available || replica.caughtUpTo - written < 0 || replica.lagMillis > maxLagMillis) continue;
+                try {
+                    Connection connection = replica.dataSource.getConnection();
+                    replicaReads.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    log.warn("Failed to connect to a replica, reading from the primary until it recovers", e);
+                    replica.available = false;
+                }
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+    public long getPrimaryReadCount() {
+        return primaryReads.sum();
+    }
+    public long getReplicaReadCount() {
+        return replicaReads.sum();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections are opened with the replicas' own credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+}
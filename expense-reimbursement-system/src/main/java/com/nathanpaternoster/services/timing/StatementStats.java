@@ -0,0 +1,56 @@
+package com.nathanpaternoster.services.timing;
+
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution statistics of every statement sharing one normalized SQL shape
+ */
+public class StatementStats {
+    private final String statement;
+    private final Histogram time;
+    private final LongAdder rows;
+    private final LongAdder errors;
+
+    StatementStats(String statement, MetricsRegistry registry) {
+        this.statement = statement;
+        this.time = registry.durationHistogram("ers_db_statement_seconds", "Statement execution time by normalized SQL", "statement", statement);
+        this.rows = registry.counter("ers_db_statement_rows_total", "Rows fetched from result sets by normalized SQL", "statement", statement);
+        this.errors = registry.counter("ers_db_statement_errors_total", "Statements that failed by normalized SQL", "statement", statement);
+    }
+
+    /**
+     * @return The normalized SQL, with literals and parameter lists replaced by a single ?
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return The execution time of each statement in nanoseconds, from execute until the driver returned
+     */
+    public Histogram getTime() {
+        return time;
+    }
+
+    /**
+     * @return The number of rows read from the statements' result sets
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    void addRows(long count) {
+        rows.add(count);
+    }
+
+    void addError() {
+        errors.increment();
+    }
+}
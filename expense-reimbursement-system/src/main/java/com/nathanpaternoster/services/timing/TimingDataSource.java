@@ -0,0 +1,373 @@
+package com.nathanpaternoster.services.timing;
+
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.metrics.MetricsRegistry;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * DataSource that times everything done through the connections it hands out
+ * Records how long getConnection takes, the execution time, rows fetched and failures of every statement grouped by
+ * its normalized SQL (see normalize), and the duration of each transaction from its first statement to its commit or
+ * rollback. Connections, statements and result sets are wrapped in proxies that delegate everything else, so unwrap
+ * still reaches the driver's own classes.
+ * The number of distinct statements tracked is capped at MAX_STATEMENTS, any beyond that are counted under "other".
+ */
+public class TimingDataSource implements DataSource {
+    static final int MAX_STATEMENTS = 500;
+    private static final int MAX_CACHED_SQL = 5000;
+    private static final String OTHER = "other";
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private final DataSource delegate;
+    private final MetricsRegistry registry;
+    private final Histogram acquireTime;
+    private final Histogram commitTime;
+    private final Histogram rollbackTime;
+    private final ConcurrentMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> shapes = new ConcurrentHashMap<>();     // SQL text to its normalized form
+
+    /**
+     * @param delegate The data source whose connections are timed, e.g. the connection pool
+     * @param registry Where the timings are exported
+     */
+    public TimingDataSource(DataSource delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.acquireTime = registry.durationHistogram("ers_db_connection_acquire_seconds", "Time taken to get a connection");
+        this.commitTime = registry.durationHistogram("ers_db_transaction_seconds", "Transaction time from the first statement to the end", "outcome", "commit");
+        this.rollbackTime = registry.durationHistogram("ers_db_transaction_seconds", "Transaction time from the first statement to the end", "outcome", "rollback");
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = delegate.getConnection();
+        acquireTime.record(System.nanoTime() - start);
+        return wrap(connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = delegate.getConnection(username, password);
+        acquireTime.record(System.nanoTime() - start);
+        return wrap(connection);
+    }
+
+    private Connection wrap(Connection connection) throws SQLException {
+        try {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    new ConnectionHandle(connection));
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The statistics of every statement executed so far
+     */
+    public List<StatementStats> getStatements() {
+        return new ArrayList<>(statements.values());
+    }
+
+    public Histogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    /**
+     * @param committed Whether to get the committed or the rolled back transactions
+     */
+    public Histogram getTransactionTime(boolean committed) {
+        return committed ? commitTime : rollbackTime;
+    }
+
+    StatementStats stats(String sql) {
+        String shape = shapes.get(sql);
+        if (shape == null) {
+            shape = normalize(sql);
+            if (shapes.size() < MAX_CACHED_SQL) shapes.put(sql, shape);
+        }
+        StatementStats stats = statements.get(shape);
+        if (stats == null) {
+            String key = (statements.size() < MAX_STATEMENTS) ? shape : OTHER;
+            stats = statements.computeIfAbsent(key, k -> new StatementStats(k, registry));
+        }
+        return stats;
+    }
+
+    /**
+     * Reduce SQL to its shape so executions differing only in values are counted together
+     * Whitespace is collapsed, comments and the trailing semicolon are dropped, string and number literals become ?, and
+     * a list of placeholders such as in (?, ?, ?) becomes a single ?.
+     */
+    static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int n = sql.length();
+        for (int i = 0; i < n; ++i) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // string literal, '' is an escaped quote
+                for (++i; i < n; ++i) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < n && sql.charAt(i + 1) == '\'') ++i;
+                        else break;
+                    }
+                }
+                sb.append('?');
+            } else if (c == '"') {
+                // quoted identifier, copied as is
+                int end = sql.indexOf('"', i + 1);
+                if (end < 0) end = n - 1;
+                sb.append(sql, i, end + 1);
+                i = end;
+            } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                while (i + 1 < n && sql.charAt(i + 1) != '\n') ++i;
+            } else if (Character.isWhitespace(c)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierPart(sb.charAt(sb.length() - 1)))) {
+                while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) ++i;
+                sb.append('?');
+            } else {
+                sb.append(c);
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && (sb.charAt(end - 1) == ' ' || sb.charAt(end - 1) == ';')) --end;
+        sb.setLength(end);
+        return PARAMETER_LIST.matcher(sb).replaceAll("?");
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class ConnectionHandle implements InvocationHandler {
+        private final Connection connection;
+        private boolean autoCommit;
+        private long transactionStart;      // 0 until a statement runs in the current transaction
+
+        ConnectionHandle(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+        }
+
+        /**
+         * Called before each statement executes, starts timing the transaction it belongs to
+         */
+        void executing() {
+            if (!autoCommit && transactionStart == 0) transactionStart = System.nanoTime();
+        }
+
+        private void endTransaction(boolean committed) {
+            if (transactionStart == 0) return;
+            (committed ? commitTime : rollbackTime).record(System.nanoTime() - transactionStart);
+            transactionStart = 0;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                    return wrapStatement(proxy, method, call(connection, method, args), stats((String) args[0]));
+                case "createStatement":
+                    return wrapStatement(proxy, method, call(connection, method, args), null);
+                case "setAutoCommit":
+                    call(connection, method, args);
+                    boolean on = (Boolean) args[0];
+                    if (on && !autoCommit) endTransaction(true);     // turning auto-commit on commits
+                    autoCommit = on;
+                    return null;
+                case "commit":
+                    try {
+                        call(connection, method, args);
+                        endTransaction(true);
+                    } catch (SQLException e) {
+                        endTransaction(false);
+                        throw e;
+                    }
+                    return null;
+                case "rollback":
+                    call(connection, method, args);
+                    if (args == null) endTransaction(false);      // rolling back to a savepoint leaves the transaction open
+                    return null;
+                case "close":
+                    endTransaction(false);      // closing with a transaction open discards it
+                    return call(connection, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Timed " + connection;
+                default:
+                    return call(connection, method, args);
+            }
+        }
+
+        private Object wrapStatement(Object connectionProxy, Method method, Object statement, StatementStats stats) {
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{method.getReturnType()},
+                    new StatementHandle(this, connectionProxy, (Statement) statement, stats));
+        }
+    }
+
+    private class StatementHandle implements InvocationHandler {
+        private final ConnectionHandle connection;
+        private final Object connectionProxy;
+        private final Statement statement;
+        private final StatementStats prepared;     // null for plain statements, their SQL is given to execute
+        private StatementStats last;
+
+        StatementHandle(ConnectionHandle connection, Object connectionProxy, Statement statement, StatementStats prepared) {
+            this.connection = connection;
+            this.connectionProxy = connectionProxy;
+            this.statement = statement;
+            this.prepared = prepared;
+            this.last = prepared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                StatementStats stats = prepared;
+                if (stats == null) stats = (args != null && args.length > 0 && args[0] instanceof String) ? stats((String) args[0]) : stats("batch");
+                last = stats;
+                connection.executing();
+                long start = System.nanoTime();
+                Object result;
+                try {
+                    result = call(statement, method, args);
+                } catch (SQLException e) {
+                    stats.addError();
+                    throw e;
+                } finally {
+                    stats.getTime().record(System.nanoTime() - start);
+                }
+                return (result instanceof ResultSet) ? wrapResultSet(proxy, (ResultSet) result, stats) : result;
+            }
+            switch (name) {
+                case "getResultSet":
+                    Object rs = call(statement, method, args);
+                    return (rs != null && last != null) ? wrapResultSet(proxy, (ResultSet) rs, last) : rs;
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Timed " + statement;
+                default:
+                    return call(statement, method, args);
+            }
+        }
+
+        private Object wrapResultSet(Object statementProxy, ResultSet rs, StatementStats stats) {
+            return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    new ResultSetHandle(statementProxy, rs, stats));
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set, added to the statement's total when the result set is exhausted or closed
+     */
+    private static class ResultSetHandle implements InvocationHandler {
+        private final Object statementProxy;
+        private final ResultSet rs;
+        private final StatementStats stats;
+        private long rows;
+
+        ResultSetHandle(Object statementProxy, ResultSet rs, StatementStats stats) {
+            this.statementProxy = statementProxy;
+            this.rs = rs;
+            this.stats = stats;
+        }
+
+        private void flush() {
+            if (rows > 0) stats.addRows(rows);
+            rows = 0;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    boolean hasRow = (Boolean) call(rs, method, args);
+                    if (hasRow) ++rows;
+                    else flush();
+                    return hasRow;
+                case "close":
+                    flush();
+                    return call(rs, method, args);
+                case "getStatement":
+                    return statementProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return call(rs, method, args);
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,122 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.web.routing.RouteMatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.util.Unbox;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes one line per request to the "access" logger and tags everything logged while handling it with a request ID
+ * The ID is the X-Request-ID header when a proxy sent a usable one and a random 16 digit hex number otherwise. It's
+ * returned in the X-Request-ID response header and put in the ThreadContext as requestId, which the log layouts print.
+ * Access lines are key=value pairs: requestId, method, path, route, status, bytes, micros and user.
+ */
+public class AccessLogFilter implements Filter {
+    private static final Logger access = LogManager.getLogger("access");
+    static final String HEADER = "X-Request-ID";
+    static final String REQUEST_ID = "requestId";
+    private static final int MAX_ID_LENGTH = 64;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        CountingResponse resp = CountingResponse.wrap((HttpServletResponse) response);
+        String requestId = requestId(req.getHeader(HEADER));
+        ThreadContext.put(REQUEST_ID, requestId);
+        resp.setHeader(HEADER, requestId);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(req, resp);
+            failed = false;
+        } finally {
+            if (!failed && req.isAsyncStarted()) {
+                // the response completes later, on another thread
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        ThreadContext.put(REQUEST_ID, requestId);
+                        try {
+                            log(req, resp.getStatus(), start, resp.count.sum(), requestId);
+                        } finally {
+                            ThreadContext.remove(REQUEST_ID);
+                        }
+                    }
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                // an exception leaving the filter becomes a 500 from the container
+                log(req, failed ? 500 : resp.getStatus(), start, resp.count.sum(), requestId);
+            }
+            ThreadContext.remove(REQUEST_ID);
+        }
+    }
+
+    private static void log(HttpServletRequest req, int status, long start, long bytes, String requestId) {
+        if (!access.isInfoEnabled()) return;
+        long micros = (System.nanoTime() - start) / 1000;
+        Object route = req.getAttribute(RouteMatch.TEMPLATE_ATTRIBUTE);
+        access.info("requestId={} method={} path={} route={} status={} bytes={} micros={} user={}",
+                requestId, req.getMethod(), req.getRequestURI(), (route == null) ? "-" : route,
+                Unbox.box(status), Unbox.box(bytes), Unbox.box(micros), user(req));
+    }
+
+    /**
+     * @return The userID of the logged in user, or - if there is none
+     */
+    private static Object user(HttpServletRequest req) {
+        int userID = Authentication.userID(req);
+        return (userID < 0) ? "-" : Integer.valueOf(userID);
+    }
+
+    /**
+     * Use the caller's ID if it's short and made of characters that can't break up the log line, else make one
+     */
+    static String requestId(String header) {
+        if (header != null && !header.isEmpty() && header.length() <= MAX_ID_LENGTH) {
+            boolean valid = true;
+            for (int i = 0; i < header.length() && valid; ++i) {
+                char c = header.charAt(i);
+                valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '-' || c == '_' || c == '.' || c == ':';
+            }
+            if (valid) return header;
+        }
+        String hex = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        return (hex.length() == 16) ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
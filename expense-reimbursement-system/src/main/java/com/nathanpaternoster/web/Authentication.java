@@ -0,0 +1,84 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.models.users.User;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Who is making a request, in either auth mode
+ * With authMode "session" the user is kept in the HttpSession, with "token" TokenAuthenticationFilter verifies the
+ * request's signed token and leaves the user in request attributes of the same names.
+ */
+final class Authentication {
+    static final String USER = "user";
+    static final String USER_TYPE = "userType";
+    static final String COOKIE = "ers_token";
+    static final int SESSION_SECONDS = 30 * 60;
+
+    private Authentication() {
+    }
+
+    /**
+     * @return The userID of the logged in user, or -1 if there is none
+     */
+    static int userID(HttpServletRequest req) {
+        Object user = attribute(req, USER);
+        return (user instanceof Integer) ? (Integer) user : -1;
+    }
+
+    /**
+     * @param userType "Employee" or "Manager", not checked for sessions created before the type was stored
+     * @return True if the user with this userID and type is logged in
+     */
+    static boolean is(HttpServletRequest req, int userID, String userType) {
+        if (userID(req) != userID) return false;
+        Object type = attribute(req, USER_TYPE);
+        return type == null || type.equals(userType);
+    }
+
+    private static Object attribute(HttpServletRequest req, String name) {
+        Object value = req.getAttribute(name);
+        if (value != null) return value;
+        HttpSession session = req.getSession(false);
+        if (session == null) return null;
+        try {
+            return session.getAttribute(name);
+        } catch (IllegalStateException e) {
+            return null;    // the session was invalidated while handling the request, e.g. by logging out
+        }
+    }
+
+    /**
+     * Log the user in with a token cookie if tokens is set, otherwise with a new HttpSession
+     */
+    static void login(HttpServletRequest req, HttpServletResponse resp, User user, String userType, SessionTokens tokens) {
+        if (tokens != null) {
+            setCookie(req, resp, tokens.issue(user.getUserID(), userType), tokens.getTtlSeconds());
+            return;
+        }
+        HttpSession session = req.getSession();
+        session.setAttribute(USER, user.getUserID());
+        session.setAttribute(USER_TYPE, userType);
+        session.setMaxInactiveInterval(SESSION_SECONDS);  // session expires in 30 minutes
+    }
+
+    /**
+     * Invalidate the HttpSession and remove the token cookie
+     */
+    static void logout(HttpServletRequest req, HttpServletResponse resp) {
+        HttpSession session = req.getSession(false);
+        if (session != null) session.invalidate();
+        if (req.getAttribute(USER) != null) setCookie(req, resp, "", 0);
+    }
+
+    /**
+     * Set the token cookie, written as a header because Servlet 3.1 cookies have no SameSite attribute
+     */
+    static void setCookie(HttpServletRequest req, HttpServletResponse resp, String token, long maxAgeSeconds) {
+        String path = req.getContextPath().isEmpty() ? "/" : req.getContextPath();
+        resp.addHeader("Set-Cookie", COOKIE + "=" + token + "; Path=" + path + "; Max-Age=" + maxAgeSeconds
+                + "; HttpOnly; SameSite=Strict" + (req.isSecure() ? "; Secure" : ""));
+    }
+}
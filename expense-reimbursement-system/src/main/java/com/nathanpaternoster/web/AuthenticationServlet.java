@@ -2,6 +2,7 @@ package com.nathanpaternoster.web;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nathanpaternoster.controllers.users.UserController;
+import com.nathanpaternoster.metrics.MetricsRegistry;
 import com.nathanpaternoster.models.users.Employee;
 import com.nathanpaternoster.models.users.Manager;
 import com.nathanpaternoster.models.users.User;
@@ -16,6 +17,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Servlet to process login requests and redirect when successful
@@ -23,8 +25,13 @@ import java.io.IOException;
 @WebServlet("/login")
 public class AuthenticationServlet extends HttpServlet {
     private static final Logger log = LogManager.getLogger(AuthenticationServlet.class);
+    private static final LongAdder employeeLogins = MetricsRegistry.getDefault().counter("ers_logins_total", "Login attempts by outcome", "result", "employee");
+    private static final LongAdder managerLogins = MetricsRegistry.getDefault().counter("ers_logins_total", "Login attempts by outcome", "result", "manager");
+    private static final LongAdder failedLogins = MetricsRegistry.getDefault().counter("ers_logins_total", "Login attempts by outcome", "result", "failed");
     private ObjectMapper om;
     private UserController userController;
+    private SessionTokens tokens;
+    private RateLimiter userLimiter;
 
     static class LoginRequest {
         public int userID;
@@ -36,6 +43,8 @@ public class AuthenticationServlet extends HttpServlet {
         om = new ObjectMapper();
         UserDAO userDao = (UserDAO) getServletContext().getAttribute("userDAO");
         userController = new UserController(userDao);
+        tokens = (SessionTokens) getServletContext().getAttribute("sessionTokens");
+        userLimiter = (RateLimiter) getServletContext().getAttribute("userRateLimiter");
         log.debug("AuthenticationServlet initialized");
     }
 
@@ -52,14 +61,15 @@ public class AuthenticationServlet extends HttpServlet {
     /**
      * Process a login request
      * When a user is authenticated:
-     *      - create an HTTPSession and set a session attribute "user" containing their userID
+     *      - create an HTTPSession with attributes "user" and "userType" containing their userID and type, or when
+     *        authMode is token set a cookie with a signed token containing both
      *      - redirect to either /employees/(userID) or /managers/(userID)
      * When an authentication fails:
      *      - invalidate the current HTTPSession
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("AuthenticationServlet doPost called with: " + req.getPathInfo());
+        log.debug("AuthenticationServlet doPost called with: {}", req.getPathInfo());
 
         // Get client login input
         LoginRequest loginRequest;
@@ -71,26 +81,32 @@ public class AuthenticationServlet extends HttpServlet {
             return;
         }
 
+        // Throttle attempts against one account, RateLimitFilter has already throttled the client address
+        if (userLimiter != null && !RateLimitFilter.allow(userLimiter, "login:" + loginRequest.userID, resp)) {
+            failedLogins.increment();
+            return;
+        }
+
         // Authenticate login
         HttpSession session = req.getSession(false);
         if (session != null) session.invalidate();
         User user = userController.login(loginRequest.userID, loginRequest.password);
         if (user != null) {
-            session = req.getSession();
-            session.setAttribute("user", user.getUserID());
-            session.setMaxInactiveInterval(30*60);  // session expires in 30 minutes
             if (user instanceof Employee) {
+                Authentication.login(req, resp, user, "Employee", tokens);
                 String path = req.getContextPath() + "/employees/" + user.getUserID();
-                log.info("Employee authentication succeeded, redirecting to " + path);
+                log.info("Employee authentication succeeded, redirecting to {}", path);
+                employeeLogins.increment();
                 resp.sendRedirect(path);
                 return;
             } else if (user instanceof Manager) {
+                Authentication.login(req, resp, user, "Manager", tokens);
                 String path = req.getContextPath() + "/managers/" + user.getUserID();
-                log.info("Manager authentication succeeded, redirecting to " + path);
+                log.info("Manager authentication succeeded, redirecting to {}", path);
+                managerLogins.increment();
                 resp.sendRedirect(path);
                 return;
             } else {
-                session.invalidate();
                 log.warn("Authentication succeeded for an unknown user type");
                 resp.setContentType("plain/text");
                 resp.getWriter().println("Invalid user type");
@@ -98,6 +114,7 @@ public class AuthenticationServlet extends HttpServlet {
             }
         } else {
             log.info("Authentication attempt failed");
+            failedLogins.increment();
             resp.setContentType("plain/text");
             resp.getWriter().println("Invalid username or password entered");
             resp.setStatus(401);        // invalid login credentials
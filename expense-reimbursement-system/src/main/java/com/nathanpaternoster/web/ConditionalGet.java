@@ -0,0 +1,61 @@
+package com.nathanpaternoster.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * ETag and Cache-Control handling for the servlets' GET endpoints
+ * Listings are tagged with the version of the table they read (RequestDAO.getVersion, UserDAO.getVersion), so an
+ * unchanged listing is answered with 304 before the full query runs or any JSON is written, without reading the
+ * database. The versions come from the database's change notifications (TableVersions), so every instance of the
+ * application that has received them gives a listing the same tag.
+ */
+final class ConditionalGet {
+    static final String REVALIDATE = "private, no-cache";
+    static final String IMMUTABLE = "private, max-age=31536000, immutable";
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * @param table The table the response is read from, e.g. "requests"
+     * @param version The table's version, read before querying it, or -1 if it isn't known
+     * @return A strong entity tag, or null if the response can't be tagged
+     */
+    static String etag(String table, long version) {
+        return (version < 0) ? null : "\"" + table + "-" + version + "\"";
+    }
+
+    /**
+     * Answer 304 if the request's If-None-Match lists the tag
+     * @return True if the response is complete and the handler should stop
+     */
+    static boolean notModified(HttpServletRequest req, HttpServletResponse resp, String etag) {
+        if (etag == null || !matches(req.getHeader("If-None-Match"), etag)) return false;
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", REVALIDATE);
+        resp.setStatus(304);    // the client's copy is current
+        return true;
+    }
+
+    /**
+     * Tag a successful response, clients must revalidate before reusing it
+     */
+    static void tag(HttpServletResponse resp, String etag) {
+        if (etag != null) resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", REVALIDATE);
+    }
+
+    /**
+     * If-None-Match uses the weak comparison: W/ prefixes are ignored and * matches any tag
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+            if (candidate.equals(etag) || candidate.equals("*")) return true;
+        }
+        return false;
+    }
+}
@@ -1,32 +1,395 @@
 package com.nathanpaternoster.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.nathanpaternoster.metrics.MetricsRegistry;
+import com.nathanpaternoster.services.CachingRequestDAO;
+import com.nathanpaternoster.services.CachingUserDAO;
+import com.nathanpaternoster.services.DashboardRequestDAO;
+import com.nathanpaternoster.services.EmailService;
+import com.nathanpaternoster.services.NotificationDAOImplPostgres;
+import com.nathanpaternoster.services.NotificationDispatcher;
 import com.nathanpaternoster.services.RequestDAO;
 import com.nathanpaternoster.services.RequestDAOImplPostgres;
+import com.nathanpaternoster.services.RequestEvents;
+import com.nathanpaternoster.services.TableVersions;
 import com.nathanpaternoster.services.UserDAO;
 import com.nathanpaternoster.services.UserDAOImplPostgres;
+import com.nathanpaternoster.services.audit.AuditJournal;
+import com.nathanpaternoster.services.audit.AuditingRequestDAO;
+import com.nathanpaternoster.services.audit.AuditingUserDAO;
+import com.nathanpaternoster.services.cluster.ClusterBus;
+import com.nathanpaternoster.services.migration.MigrationRunner;
+import com.nathanpaternoster.services.partition.RequestPartitionMaintainer;
+import com.nathanpaternoster.services.pool.ConnectionPool;
+import com.nathanpaternoster.services.routing.RoutingDataSource;
+import com.nathanpaternoster.services.timing.TimingDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.ds.PGSimpleDataSource;
 
 import javax.annotation.Resource;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * When the servletContext is initialized, set context variables for a userDAO and requestDAO provide database access to the servlets
+ * Context parameters (web.xml) configure optional layers around the DAOs:
+ *      migrateOnStartup    |   apply the db/migration scripts before the DAOs are created, a failure stops deployment (default false)
+ *      poolEnabled         |   hand the DAOs a ConnectionPool instead of the container DataSource (default false)
+ *      poolMinSize, poolMaxSize        |   connections kept open while idle and open at most (default 2, 10)
+ *      poolAcquireTimeoutMillis        |   wait for a free connection before failing (default 5000)
+ *      poolValidationTimeoutSeconds    |   timeout for validating an idle connection (default 2)
+ *      poolIdleValidationMillis        |   connections idle longer than this are validated before use (default 30000)
+ *      poolLeakThresholdMillis         |   log connections checked out longer than this, 0 disables (default 60000)
+ *      poolStatementCacheSize          |   prepared statements cached per pooled connection, 0 disables (default 64)
+ *      partitionMaintenanceEnabled     |   create upcoming request partitions and archive old resolved requests, needs migration V5 (default false)
+ *      partitionMaintenanceMinutes     |   how often the partitions are maintained (default 60)
+ *      partitionMonthsAhead            |   monthly partitions are created this far ahead (default 3)
+ *      archiveAfterDays    |   resolved requests submitted longer ago move to requests_archive, 0 disables (default 365)
+ *      archiveBatchSize    |   requests archived per transaction (default 1000)
+ *      replicaUrls         |   comma separated jdbc urls of streaming replicas that listings are read from when current (default none)
+ *      replicaUser, replicaPassword    |   credentials for the replicas, if not in the urls
+ *      replicaPollMillis   |   how often the replicas' replay position is compared with the primary's (default 500)
+ *      replicaMaxLagMillis |   replicas further behind aren't read from (default 5000)
+ *      replicaPinSeconds   |   a client's reads go to the primary for this long after it writes (default 5)
+ *      clusterBusPollMillis            |   the longest a notification to the other instances (rate limits, table versions) waits to be sent, and how often rate limits are shared (default 250)
+ *      sqlTimingEnabled    |   time every connection, statement and transaction, exported to /metrics and /metrics/sql (default false)
+ *      auditEnabled        |   also append request and user transitions to a local memory-mapped journal, histories are read from the database's request_transitions (default false)
+ *      auditDir            |   directory of the journal's segment files, one per instance of the application, keep it on a volume (default (catalina.base)/audit)
+ *      auditSegmentRecords |   64 byte records per segment file (default 1048576)
+ *      auditSyncTimeoutMillis          |   a write waits this long for its record to be synced to disk, 0 doesn't wait (default 1000)
+ *      dashboardEnabled    |   keep the manager dashboard's request totals in memory (default false)
+ *      dashboardReconcileSeconds       |   also reload the dashboard totals from the database this often, besides applying every instance's changes and reloading when the cluster bus reconnects (default 300)
+ *      authMode            |   "session" keeps logins in HttpSessions, "token" in signed cookies any replica can verify (default session)
+ *      authTokenSecret     |   HMAC key shared by every replica, at least 32 characters, required when authMode is token
+ *      authTokenTtlSeconds |   lifetime of a token, renewed while the user is active (default 1800)
+ *      rateLimitEnabled    |   throttle logins, request submissions and profile updates with 429 responses (default false)
+ *      rateLimitIpBurst, rateLimitIpPerMinute      |   writes a client address can make at once and per minute (default 20, 60)
+ *      rateLimitUserBurst, rateLimitUserPerMinute  |   writes and login attempts per userID at once and per minute (default 10, 20)
+ *      rateLimitMaxKeys    |   buckets kept per limiter, the least recently used are evicted (default 100000)
+ *      exportMaxConcurrent |   request exports (/managers/(userID)/requests/export) running at once, more are refused with 503 (default 2)
+ *      eventStreamMaxSubscribers       |   managers connected to /managers/(userID)/requests/events at once (default 1000)
+ *      daoCacheEnabled     |   wrap both DAOs in read-through caches (default false)
+ *      requestCacheSize    |   maximum number of cached resolved requests (default 10000)
+ *      userCacheSize       |   maximum number of cached users, 0 disables the user cache, as needed when several instances run (default 5000)
+ *      smtpHost, smtpPort, smtpAuth    |   mail server used for notifications (default smtp.gmail.com, 587, true)
+ *      smtpUser, smtpPassword          |   the mail account, best set as system properties (default the ERS_SMTP_USER and ERS_SMTP_PASSWORD environment variables)
+ *      notificationThreads             |   number of outbox dispatcher threads (default 2)
+ *      notificationBatchSize           |   notifications claimed per poll (default 50)
+ *      notificationMaxAttempts         |   delivery attempts before a notification is marked failed (default 8)
+ *      notificationPollMillis          |   delay between polls of an empty outbox (default 2000)
  */
 public class ContextListener implements ServletContextListener {
+    private static final Logger log = LogManager.getLogger(ContextListener.class);
 
     @Resource(name="jdbc/ersDB")
     private DataSource dataSource;
+    private ConnectionPool connectionPool;
+    private NotificationDispatcher notificationDispatcher;
+    private DashboardRequestDAO dashboard;
+    private EventStream eventStream;
+    private ClusterBus clusterBus;
+    private RateLimitSync rateLimitSync;
+    private RoutingDataSource routing;
+    private RequestPartitionMaintainer partitionMaintainer;
+    private AuditJournal auditJournal;
+    private final List<ConnectionPool> replicaPools = new ArrayList<>();
 
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
-        UserDAO userDAO = new UserDAOImplPostgres(dataSource);
-        RequestDAO requestDAO = new RequestDAOImplPostgres(dataSource);
-        servletContextEvent.getServletContext().setAttribute("userDAO", userDAO);
-        servletContextEvent.getServletContext().setAttribute("requestDAO", requestDAO);
+        ServletContext context = servletContextEvent.getServletContext();
+        DataSource dataSource = this.dataSource;
+        if (Boolean.parseBoolean(getParameter(context, "poolEnabled", "false"))) {
+            // the container resource is unpooled, it only opens the physical connections
+            connectionPool = newPool(context, dataSource);
+            context.setAttribute("connectionPool", connectionPool);
+            registerPoolMetrics(MetricsRegistry.getDefault(), connectionPool);
+            dataSource = connectionPool;
+        }
+        if (Boolean.parseBoolean(getParameter(context, "sqlTimingEnabled", "false"))) {
+            TimingDataSource timing = new TimingDataSource(dataSource, MetricsRegistry.getDefault());
+            context.setAttribute("sqlTiming", timing);
+            dataSource = timing;
+            log.info("SQL timing enabled");
+        }
+        if (Boolean.parseBoolean(getParameter(context, "migrateOnStartup", "false")))
+            new MigrationRunner(dataSource, "db/migration").migrate();
+        // every instance listens to the database's notification channels on a connection of its own, outside the pool
+        int clusterBusPollMillis = Integer.parseInt(getParameter(context, "clusterBusPollMillis", "250"));
+        clusterBus = new ClusterBus(this.dataSource, clusterBusPollMillis);
+        registerClusterBusMetrics(MetricsRegistry.getDefault(), clusterBus);
+        if (Boolean.parseBoolean(getParameter(context, "partitionMaintenanceEnabled", "false"))) {
+            partitionMaintainer = new RequestPartitionMaintainer(dataSource,
+                    Integer.parseInt(getParameter(context, "partitionMonthsAhead", "3")),
+                    Integer.parseInt(getParameter(context, "archiveAfterDays", "365")),
+                    Integer.parseInt(getParameter(context, "archiveBatchSize", "1000")));
+            partitionMaintainer.start(Long.parseLong(getParameter(context, "partitionMaintenanceMinutes", "60")));
+            registerPartitionMetrics(MetricsRegistry.getDefault(), partitionMaintainer);
+        }
+        String replicaUrls = getParameter(context, "replicaUrls", "");
+        if (!replicaUrls.trim().isEmpty()) {
+            List<DataSource> replicas = new ArrayList<>();
+            for (String url : replicaUrls.split(",")) {
+                PGSimpleDataSource replica = new PGSimpleDataSource();
+                replica.setURL(url.trim());
+                if (getParameter(context, "replicaUser", null) != null) replica.setUser(getParameter(context, "replicaUser", null));
+                if (getParameter(context, "replicaPassword", null) != null) replica.setPassword(getParameter(context, "replicaPassword", null));
+                if (connectionPool != null) {
+                    ConnectionPool pool = newPool(context, replica);
+                    replicaPools.add(pool);
+                    replicas.add(pool);
+                } else {
+                    replicas.add(replica);
+                }
+            }
+            routing = new RoutingDataSource(dataSource, replicas, Long.parseLong(getParameter(context, "replicaMaxLagMillis", "5000")));
+            routing.start(Long.parseLong(getParameter(context, "replicaPollMillis", "500")));
+            context.setAttribute("routingDataSource", routing);
+            registerReplicaMetrics(MetricsRegistry.getDefault(), routing);
+        }
+        // listings are tagged with versions kept from the database's notifications
+        TableVersions versions = new TableVersions(routing, "requests", "users");
+        versions.listen(clusterBus);
+        UserDAO userDAO = new UserDAOImplPostgres(dataSource, routing, versions);
+        RequestDAO requestDAO = new RequestDAOImplPostgres(dataSource, routing, versions);
+        if (Boolean.parseBoolean(getParameter(context, "auditEnabled", "false"))) {
+            String directory = getParameter(context, "auditDir",
+                    Paths.get(System.getProperty("catalina.base", System.getProperty("java.io.tmpdir")), "audit").toString());
+            try {
+                auditJournal = new AuditJournal(Paths.get(directory), Integer.parseInt(getParameter(context, "auditSegmentRecords", "1048576")));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open the audit journal in " + directory, e);
+            }
+            auditJournal.start();
+            long syncTimeoutMillis = Long.parseLong(getParameter(context, "auditSyncTimeoutMillis", "1000"));
+            requestDAO = new AuditingRequestDAO(requestDAO, auditJournal, syncTimeoutMillis);
+            userDAO = new AuditingUserDAO(userDAO, auditJournal, syncTimeoutMillis);
+            registerAuditMetrics(MetricsRegistry.getDefault(), auditJournal);
+        }
+        if (Boolean.parseBoolean(getParameter(context, "dashboardEnabled", "false"))) {
+            dashboard = new DashboardRequestDAO(requestDAO);
+            dashboard.start(Long.parseLong(getParameter(context, "dashboardReconcileSeconds", "300")));
+            context.setAttribute("dashboard", dashboard);
+            requestDAO = dashboard;
+        }
+        if (Boolean.parseBoolean(getParameter(context, "daoCacheEnabled", "false"))) {
+            requestDAO = new CachingRequestDAO(requestDAO, Integer.parseInt(getParameter(context, "requestCacheSize", "10000")));
+            // a profile updated through another instance stays cached here, so several instances run without this cache
+            int userCacheSize = Integer.parseInt(getParameter(context, "userCacheSize", "5000"));
+            if (userCacheSize > 0) userDAO = new CachingUserDAO(userDAO, userCacheSize);
+            log.info("DAO caching enabled");
+        }
+        context.setAttribute("userDAO", userDAO);
+        context.setAttribute("requestDAO", requestDAO);
+
+        String authMode = getParameter(context, "authMode", "session");
+        if (authMode.equals("token")) {
+            String secret = getParameter(context, "authTokenSecret", null);
+            if (secret == null)
+                throw new IllegalStateException("authTokenSecret must be set when authMode is token");
+            context.setAttribute("sessionTokens", new SessionTokens(secret.getBytes(StandardCharsets.UTF_8),
+                    Long.parseLong(getParameter(context, "authTokenTtlSeconds", "1800"))));
+            log.info("Token authentication enabled");
+        } else if (!authMode.equals("session")) {
+            throw new IllegalStateException("Unknown authMode '" + authMode + "', expected session or token");
+        }
+
+        if (Boolean.parseBoolean(getParameter(context, "rateLimitEnabled", "false"))) {
+            int maxKeys = Integer.parseInt(getParameter(context, "rateLimitMaxKeys", "100000"));
+            RateLimiter ipLimiter = new RateLimiter(Long.parseLong(getParameter(context, "rateLimitIpBurst", "20")),
+                    Long.parseLong(getParameter(context, "rateLimitIpPerMinute", "60")), maxKeys);
+            RateLimiter userLimiter = new RateLimiter(Long.parseLong(getParameter(context, "rateLimitUserBurst", "10")),
+                    Long.parseLong(getParameter(context, "rateLimitUserPerMinute", "20")), maxKeys);
+            context.setAttribute("ipRateLimiter", ipLimiter);
+            context.setAttribute("userRateLimiter", userLimiter);
+            registerRateLimitMetrics(MetricsRegistry.getDefault(), ipLimiter, "ip");
+            registerRateLimitMetrics(MetricsRegistry.getDefault(), userLimiter, "user");
+            // a client spreading its requests over the instances takes from its buckets on each of them
+            rateLimitSync = new RateLimitSync(clusterBus);
+            rateLimitSync.add("ip", ipLimiter);
+            rateLimitSync.add("user", userLimiter);
+            rateLimitSync.start(clusterBusPollMillis);
+            log.info("Rate limiting enabled");
+        }
+
+        // every instance's submissions and resolutions are pushed to managers subscribed to the event stream, and
+        // applied to the dashboard totals
+        ObjectMapper om = new ObjectMapper();
+        om.registerModule(new JavaTimeModule());
+        eventStream = new EventStream(om, Integer.parseInt(getParameter(context, "eventStreamMaxSubscribers", "1000")));
+        eventStream.start();
+        RequestEvents requestEvents = new RequestEvents();
+        requestEvents.addListener(event -> eventStream.publish(event.getId(), event.getType(), event));
+        if (dashboard != null) {
+            DashboardRequestDAO totals = dashboard;
+            requestEvents.addListener(totals::apply);
+            // changes made while the bus was disconnected weren't applied
+            clusterBus.addConnectionListener(up -> { if (up) totals.reconcileSoon(); });
+        }
+        clusterBus.subscribe(RequestEvents.CHANNEL, requestEvents::publish);
+        clusterBus.start();
+        context.setAttribute("requestEvents", requestEvents);
+        context.setAttribute("eventStream", eventStream);
+        context.setAttribute("clusterBus", clusterBus);
+
+        EmailService emailService = new EmailService(getParameter(context, "smtpHost", "smtp.gmail.com"),
+                Integer.parseInt(getParameter(context, "smtpPort", "587")),
+                Boolean.parseBoolean(getParameter(context, "smtpAuth", "true")),
+                getParameter(context, "smtpUser", System.getenv("ERS_SMTP_USER")),
+                getParameter(context, "smtpPassword", System.getenv("ERS_SMTP_PASSWORD")));
+        notificationDispatcher = new NotificationDispatcher(new NotificationDAOImplPostgres(dataSource), emailService,
+                Integer.parseInt(getParameter(context, "notificationThreads", "2")),
+                Integer.parseInt(getParameter(context, "notificationBatchSize", "50")),
+                Integer.parseInt(getParameter(context, "notificationMaxAttempts", "8")),
+                Long.parseLong(getParameter(context, "notificationPollMillis", "2000")));
+        notificationDispatcher.start();
     }
     @Override
     public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        if (notificationDispatcher != null) notificationDispatcher.stop();
+        if (rateLimitSync != null) rateLimitSync.stop();
+        if (clusterBus != null) {
+            MetricsRegistry.getDefault().remove("ers_cluster_bus_");
+            clusterBus.close();
+        }
+        if (dashboard != null) dashboard.stop();
+        if (partitionMaintainer != null) {
+            MetricsRegistry.getDefault().remove("ers_request_partition");
+            partitionMaintainer.stop();
+        }
+        if (eventStream != null) eventStream.stop();
+        MetricsRegistry.getDefault().remove("ers_rate_limit_");
+        ServletContext context = servletContextEvent.getServletContext();
+        Object requestDAO = context.getAttribute("requestDAO");
+        Object userDAO = context.getAttribute("userDAO");
+        if (requestDAO instanceof CachingRequestDAO)
+            log.info("Request cache: {}", ((CachingRequestDAO) requestDAO).getCache());
+        if (userDAO instanceof CachingUserDAO)
+            log.info("User cache: {}", ((CachingUserDAO) userDAO).getCache());
+        if (auditJournal != null) {
+            MetricsRegistry.getDefault().remove("ers_audit_");
+            auditJournal.close();
+        }
+        if (routing != null) {
+            MetricsRegistry.getDefault().remove("ers_db_replica_");
+            MetricsRegistry.getDefault().remove("ers_db_reads_");
+            routing.close();
+        }
+        for (ConnectionPool pool : replicaPools) pool.close();
+        if (connectionPool != null) {
+            MetricsRegistry.getDefault().remove("ers_db_pool_");
+            connectionPool.close();
+        }
+        // write out what is still in the async loggers' ring buffer and stop their thread
+        LogManager.shutdown();
+    }
+
+    /**
+     * Open a started ConnectionPool with the pool parameters
+     * @param factory Opens the physical connections
+     */
+    private static ConnectionPool newPool(ServletContext context, DataSource factory) {
+        ConnectionPool pool = new ConnectionPool(factory,
+                Integer.parseInt(getParameter(context, "poolMinSize", "2")),
+                Integer.parseInt(getParameter(context, "poolMaxSize", "10")),
+                Long.parseLong(getParameter(context, "poolAcquireTimeoutMillis", "5000")),
+                Integer.parseInt(getParameter(context, "poolValidationTimeoutSeconds", "2")),
+                Long.parseLong(getParameter(context, "poolIdleValidationMillis", "30000")),
+                Long.parseLong(getParameter(context, "poolLeakThresholdMillis", "60000")),
+                Integer.parseInt(getParameter(context, "poolStatementCacheSize", "64")));
+        pool.start();
+        return pool;
+    }
+
+    /**
+     * Export each replica's lag and where reads were sent
+     */
+    static void registerReplicaMetrics(MetricsRegistry metrics, RoutingDataSource routing) {
+        for (int i = 0; i < routing.getReplicas().size(); ++i) {
+            RoutingDataSource.Replica replica = routing.getReplicas().get(i);
+            String index = Integer.toString(i);
+            metrics.gauge("ers_db_replica_lag_bytes", "WAL bytes the replica had not replayed at the last sample, -1 if unreachable", replica::getLagBytes, "replica", index);
+            metrics.gauge("ers_db_replica_lag_milliseconds", "Age of the replica's last replayed transaction while behind, -1 if unreachable", replica::getLagMillis, "replica", index);
+            metrics.gauge("ers_db_replica_available", "1 if the replica answered the last sample", () -> replica.isAvailable() ? 1 : 0, "replica", index);
+        }
+        metrics.counter("ers_db_reads_total", "Routed read connections by target", routing::getPrimaryReadCount, "target", "primary");
+        metrics.counter("ers_db_reads_total", "Routed read connections by target", routing::getReplicaReadCount, "target", "replica");
+    }
+
+    /**
+     * Export whether the cluster bus is listening and how many notifications it has passed on
+     */
+    static void registerClusterBusMetrics(MetricsRegistry metrics, ClusterBus bus) {
+        metrics.gauge("ers_cluster_bus_connected", "1 if the cluster bus is listening for notifications", () -> bus.isConnected() ? 1 : 0);
+        metrics.counter("ers_cluster_bus_notifications_total", "Notifications by direction", bus::getReceivedCount, "direction", "received");
+        metrics.counter("ers_cluster_bus_notifications_total", "Notifications by direction", bus::getSentCount, "direction", "sent");
+        metrics.counter("ers_cluster_bus_failures_total", "Times the cluster bus connection failed", bus::getFailureCount);
+    }
+
+    /**
+     * Export what the partition maintainer has done since startup
+     */
+    static void registerPartitionMetrics(MetricsRegistry metrics, RequestPartitionMaintainer maintainer) {
+        metrics.counter("ers_request_partitions_created_total", "Monthly request partitions created", maintainer::getCreatedCount);
+        metrics.counter("ers_request_partition_archived_total", "Resolved requests moved to requests_archive", maintainer::getArchivedCount);
+        metrics.counter("ers_request_partition_failures_total", "Partition maintenance runs that failed", maintainer::getFailureCount);
+    }
+
+    /**
+     * Export how much the audit journal has written and how long its group syncs take
+     */
+    static void registerAuditMetrics(MetricsRegistry metrics, AuditJournal journal) {
+        metrics.counter("ers_audit_records_total", "Records appended to the audit journal", journal::getAppendedCount);
+        metrics.gauge("ers_audit_unsynced_records", "Appended records not yet synced to disk", () -> journal.getNextSequence() - journal.getSyncedSequence());
+        metrics.counter("ers_audit_syncs_total", "Group syncs of the audit journal", journal::getSyncCount);
+        metrics.counter("ers_audit_sync_failures_total", "Audit journal syncs that failed and were retried", journal::getSyncFailureCount);
+        metrics.histogram("ers_audit_sync_seconds", "Time spent forcing the audit journal to disk", journal.getSyncTime(), 1e9);
+    }
+
+    /**
+     * Export the pool's gauges and counters, read from the pool each time the metrics are scraped
+     */
+    static void registerPoolMetrics(MetricsRegistry metrics, ConnectionPool pool) {
+        metrics.gauge("ers_db_pool_connections", "Pooled connections by state", pool::getActiveCount, "state", "active");
+        metrics.gauge("ers_db_pool_connections", "Pooled connections by state", pool::getIdleCount, "state", "idle");
+        metrics.gauge("ers_db_pool_max_connections", "Maximum size of the connection pool", pool::getMaxSize);
+        metrics.gauge("ers_db_pool_waiting_threads", "Threads waiting for a pooled connection", pool::getWaitingCount);
+        metrics.histogram("ers_db_pool_acquire_seconds", "Time spent waiting for a pooled connection", pool.getAcquireTime(), 1e9);
+        metrics.counter("ers_db_pool_acquire_timeouts_total", "Connection requests that timed out", pool::getTimeoutCount);
+        metrics.counter("ers_db_pool_leaks_total", "Connections held longer than the leak threshold", pool::getLeakCount);
+        metrics.counter("ers_db_pool_validation_failures_total", "Idle connections discarded after failing validation", pool::getValidationFailureCount);
+        metrics.counter("ers_db_pool_statement_cache_total", "Prepared statement cache lookups", pool::getStatementCacheHitCount, "result", "hit");
+        metrics.counter("ers_db_pool_statement_cache_total", "Prepared statement cache lookups", pool::getStatementCacheMissCount, "result", "miss");
+    }
+
+    /**
+     * Export a rate limiter's decisions and bucket count, labelled by what it is keyed on
+     */
+    static void registerRateLimitMetrics(MetricsRegistry metrics, RateLimiter limiter, String key) {
+        metrics.counter("ers_rate_limit_requests_total", "Rate limited requests by outcome", limiter::getAllowedCount, "key", key, "result", "allowed");
+        metrics.counter("ers_rate_limit_requests_total", "Rate limited requests by outcome", limiter::getRejectedCount, "key", key, "result", "rejected");
+        metrics.gauge("ers_rate_limit_buckets", "Token buckets currently held", limiter::size, "key", key);
+        metrics.counter("ers_rate_limit_evictions_total", "Buckets evicted before they refilled because the limiter was full", limiter::getEvictionCount, "key", key);
+    }
 
+    /**
+     * Read a configuration value, a system property of the same name overrides the web.xml context parameter
+     * @param context The servlet context holding the init parameters
+     * @param name The parameter name
+     * @param defaultValue The value used when the parameter is not set
+     * @return The configured value
+     */
+    static String getParameter(ServletContext context, String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) value = context.getInitParameter(name);
+        return (value == null || value.isEmpty()) ? defaultValue : value;
     }
 }
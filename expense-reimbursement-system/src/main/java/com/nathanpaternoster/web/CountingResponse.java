@@ -0,0 +1,96 @@
+package com.nathanpaternoster.web;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the body bytes written through the response's output stream or writer
+ * Characters written through the writer are counted as bytes, which is exact for the ASCII JSON and text the
+ * servlets write.
+ */
+class CountingResponse extends HttpServletResponseWrapper {
+    final LongAdder count = new LongAdder();
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    CountingResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Wrap the response, or return it if an outer filter already did
+     */
+    static CountingResponse wrap(HttpServletResponse response) {
+        return (response instanceof CountingResponse) ? (CountingResponse) response : new CountingResponse(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            ServletOutputStream wrapped = super.getOutputStream();
+            out = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    wrapped.write(b);
+                    count.increment();
+                }
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    wrapped.write(b, off, len);
+                    count.add(len);
+                }
+                @Override
+                public void flush() throws IOException {
+                    wrapped.flush();
+                }
+                @Override
+                public void close() throws IOException {
+                    wrapped.close();
+                }
+                @Override
+                public boolean isReady() {
+                    return wrapped.isReady();
+                }
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    wrapped.setWriteListener(writeListener);
+                }
+            };
+        }
+        return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            PrintWriter wrapped = super.getWriter();
+            writer = new PrintWriter(new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    wrapped.write(cbuf, off, len);
+                    count.add(len);
+                }
+                @Override
+                public void write(String str, int off, int len) {
+                    wrapped.write(str, off, len);
+                    count.add(len);
+                }
+                @Override
+                public void flush() {
+                    wrapped.flush();
+                }
+                @Override
+                public void close() {
+                    wrapped.close();
+                }
+            });
+        }
+        return writer;
+    }
+}
@@ -1,25 +1,31 @@
 package com.nathanpaternoster.web;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.nathanpaternoster.controllers.users.EmployeeController;
 import com.nathanpaternoster.controllers.requests.ReimbursementRequestController;
+import com.nathanpaternoster.metrics.MetricsRegistry;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
 import com.nathanpaternoster.models.users.Employee;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.nathanpaternoster.services.RequestDAO;
 import com.nathanpaternoster.services.UserDAO;
+import com.nathanpaternoster.web.routing.RouteHandler;
+import com.nathanpaternoster.web.routing.RouteMatch;
+import com.nathanpaternoster.web.routing.Router;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Servlet to handle actions an authenticated employee can perform
@@ -27,6 +33,7 @@ import java.util.List;
 @WebServlet("/employees/*")
 public class EmployeeServlet extends HttpServlet {
     private static final Logger log = LogManager.getLogger(EmployeeServlet.class);
+    private static final LongAdder submissions = MetricsRegistry.getDefault().counter("ers_requests_submitted_total", "Reimbursement requests submitted by employees");
     private ObjectMapper om;
     private EmployeeController employeeController;
     private ReimbursementRequestController requestController;
@@ -39,11 +46,30 @@ public class EmployeeServlet extends HttpServlet {
     }
     static class RequestArray {
         public List<ReimbursementRequest> requests;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String nextPageToken;
         public RequestArray(List<ReimbursementRequest> requests) {
             this.requests = requests;
         }
+        public RequestArray(RequestPage page) {
+            this.requests = page.getRequests();
+            this.nextPageToken = page.getNextPageToken();
+        }
     }
 
+    // routes relative to /employees, compiled into a trie once when the servlet is created
+    private final Router<RouteHandler> routes = new Router<RouteHandler>("/employees")
+            .add("GET", "/{userID}", this::getWelcome)
+            .add("GET", "/{userID}/profile", this::getProfile)
+            .add("GET", "/{userID}/requests", this::getRequestOptions)
+            .add("GET", "/{userID}/requests/all", (req, resp, match) -> getRequests(req, resp, match, "all"))
+            .add("GET", "/{userID}/requests/pending", (req, resp, match) -> getRequests(req, resp, match, "pending"))
+            .add("GET", "/{userID}/requests/resolved", (req, resp, match) -> getRequests(req, resp, match, "resolved"))
+            .add("GET", "/{userID}/requests/{requestID}", this::getRequest)
+            .add("POST", "/{userID}/logout", this::postLogout)
+            .add("POST", "/{userID}/requests/new", this::postNewRequest)
+            .add("PUT", "/{userID}/update", this::putProfile);
+
     @Override
     public void init() throws ServletException {
         om = new ObjectMapper();
@@ -62,22 +88,46 @@ public class EmployeeServlet extends HttpServlet {
     }
 
     /**
-     * Validate that the employee specified by userID in the url parameters is currently logged in (by comparing with the HTTPSession attribute)
+     * Validate that the employee specified by userID in the url parameters is currently logged in (by comparing with the HTTPSession or token's user)
      * @return the userID of the employee, or -1 if the employee is not logged in or the url is malformed
      */
     private int validate(HttpServletRequest req, HttpServletResponse resp) {
-        String[] params = req.getPathInfo().split("/");
+        String path = req.getPathInfo();
+        if (path == null) return -1;
         try {
-            int userID = Integer.parseInt(params[1]);
-            HttpSession session = req.getSession(false);
-            if (session == null || session.getAttribute("user") == null || (int) session.getAttribute("user") != userID)
-                return -1;
-            return userID;
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            int end = path.indexOf('/', 1);
+            int userID = RouteMatch.parseInt(path, 1, (end < 0) ? path.length() : end);
+            return Authentication.is(req, userID, "Employee") ? userID : -1;
+        } catch (NumberFormatException e) {
             return -1;
         }
     }
 
+    /**
+     * Validate the employee, then call the handler of the route matching the url
+     * The matched route's template is left in the request attribute RouteMatch.TEMPLATE_ATTRIBUTE
+     */
+    private void dispatch(String method, HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        // validate the user
+        int userID = validate(req, resp);
+        if (userID < 0) {
+            log.info("Unauthorized {} request made to EmployeeServlet with {}", method, req.getPathInfo());
+            resp.setStatus(403);        // unauthorized
+            return;
+        }
+
+        // handle the request
+        RouteMatch match = new RouteMatch();
+        RouteHandler handler = routes.match(method, req.getPathInfo(), match);
+        if (handler == null) {
+            log.info("An invalid {} request was made", method);
+            resp.setStatus(404);        // invalid request url
+            return;
+        }
+        req.setAttribute(RouteMatch.TEMPLATE_ATTRIBUTE, match.getTemplate());
+        handler.handle(req, resp, match);
+    }
+
     /**
      *  GET requests are used on endpoints:
      *      /employees/(userID)                         |   display welcome and options
@@ -87,111 +137,115 @@ public class EmployeeServlet extends HttpServlet {
      *      /employees/(userID)/requests/all            |   display all requests
      *      /employees/(userID)/requests/pending        |   display all pending requests
      *      /employees/(userID)/requests/resolved       |   display all resolved requests
+     *  Request listings are paginated with the optional query parameters pageSize and pageToken, filtered and sorted
+     *  in the database with resolverID, category, from, to, minAmount, maxAmount and sort,
+     *  or with ?stream=true every row is written straight from a database cursor to the response instead
+     *  Listings that aren't streamed carry an ETag and answer a matching If-None-Match with 304, resolved requests
+     *  never change and may be cached by the client
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("EmployeeServlet doGet called with: " + req.getPathInfo());
+        log.debug("EmployeeServlet doGet called with: {}", req.getPathInfo());
+        dispatch("GET", req, resp);
+    }
 
-        String[] params = req.getPathInfo().split("/");
+    // employees/(userID)
+    private void getWelcome(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        resp.setContentType("text/plain");
+        resp.getWriter().println("Successfully logged in!");
+        resp.getWriter().println("Enter /profile, /update, /requests, or /logout");
+        resp.setStatus(200);
+    }
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to EmployeeServlet doGet with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
-            return;
+    // employees/(userID)/profile
+    private void getProfile(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        Employee e = employeeController.getProfile(match.getInt("userID"));
+        if (e == null) {
+            log.warn("Failed to retrieve profile information for an authorized employee");
+            resp.getWriter().println("Employee profile not found");
+            resp.setStatus(404);    // employee profile not found
+        } else {
+            resp.setContentType("application/json");
+            resp.getWriter().write(om.writeValueAsString(e));
+            resp.setStatus(200);    // employee profile found
         }
+    }
 
-        // handle the get request
-        try {
-            if (params.length == 2) {
-                // employees/(userID)
-
-                resp.setContentType("text/plain");
-                resp.getWriter().println("Successfully logged in!");
-                resp.getWriter().println("Enter /profile, /update, /requests, or /logout");
-                resp.setStatus(200);
-            } else if (params.length == 3 && params[2].equalsIgnoreCase("profile")) {
-                // employees/(userID)/profile
+    // employees/(userID)/requests
+    private void getRequestOptions(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        resp.setContentType("text/plain");
+        resp.getWriter().println("Viewing requests");
+        resp.getWriter().println("Enter /all, /pending, /resolved, or /(requestID)");
+        resp.setStatus(200);
+    }
 
-                Employee e = employeeController.getProfile(userID);
-                if (e == null) {
-                    log.warn("Failed to retrieve profile information for an authorized employee");
-                    resp.getWriter().println("Employee profile not found");
-                    resp.setStatus(404);    // employee profile not found
-                } else {
-                    resp.setContentType("application/json");
-                    resp.getWriter().write(om.writeValueAsString(e));
-                    resp.setStatus(200);    // employee profile found
+    // employees/(userID)/requests/all or pending or resolved (?pageSize=&pageToken=)
+    private void getRequests(HttpServletRequest req, HttpServletResponse resp, RouteMatch match, String status) throws IOException {
+        int userID = match.getInt("userID");
+        if ("true".equalsIgnoreCase(req.getParameter("stream"))) {
+            log.debug("Streaming reimbursement requests for an employee");
+            resp.setContentType("application/json");
+            resp.setStatus(200);
+            try (StreamingJsonWriter<ReimbursementRequest> out = new StreamingJsonWriter<>(om, resp.getOutputStream(), "requests")) {
+                if (!requestController.streamRequests(userID, status, out)) {
+                    log.warn("Failed to stream reimbursement requests for an authorized employee");
+                    out.fail("Failed to retrieve reimbursement requests");
                 }
-            } else if (params[2].equalsIgnoreCase("requests")) {
-                if (params.length == 3) {
-                    // employees/(userID)/requests
-
-                    resp.setContentType("text/plain");
-                    resp.getWriter().println("Viewing requests");
-                    resp.getWriter().println("Enter /all, /pending, /resolved, or /(requestID)");
-                    resp.setStatus(200);
-                } else if (params.length == 4) {
-                    if (params[3].equalsIgnoreCase("pending") || params[3].equalsIgnoreCase("resolved") || params[3].equalsIgnoreCase("all")) {
-                        // employees/(userID)/requests/all or pending or resolved
-
-                        List<ReimbursementRequest> requests = null;
-                        if (params[3].equalsIgnoreCase("pending")) {
-                            requests = requestController.viewPendingRequests(userID);
-                        } else if (params[3].equalsIgnoreCase("resolved")) {
-                            requests = requestController.viewResolvedRequests(userID);
-                        } else {
-                            requests = requestController.viewRequests(userID);
-                        }
-                        if (requests == null) {
-                            log.warn("Failed to retrieve reimbursement requests for an authorized employee");
-                            resp.getWriter().println("No reimbursement requests found");
-                            resp.setStatus(404);    // reimbursement requests not found
-                        } else {
-                            log.debug("Retrieved reimbursement requests for an employee");
-                            resp.setContentType("application/json");
-                            RequestArray arr = new RequestArray(requests);
-                            resp.getWriter().write(om.writeValueAsString(arr));
-                            resp.setStatus(200);    // reimbursement requests found
-                        }
-                    } else {
-                        try {
-                            // employees/(userID)/requests/(requestID)
+            }
+            return;
+        }
+        String etag = ConditionalGet.etag("requests", requestController.getRequestsVersion());
+        if (ConditionalGet.notModified(req, resp, etag)) return;
+        RequestPage page;
+        try {
+            page = requestController.isFiltered(req.getParameterMap())
+                    ? requestController.findRequestPage(userID, status, req.getParameterMap())
+                    : requestController.viewRequestPage(userID, status, req.getParameter("pageSize"), req.getParameter("pageToken"));
+        } catch (RuntimeException e) {
+            log.info("Invalid filter or pagination parameters entered");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // invalid filter, sort, page size or page token
+            return;
+        }
+        if (page == null) {
+            log.warn("Failed to retrieve reimbursement requests for an authorized employee");
+            resp.getWriter().println("No reimbursement requests found");
+            resp.setStatus(404);    // reimbursement requests not found
+        } else {
+            log.debug("Retrieved reimbursement requests for an employee");
+            resp.setContentType("application/json");
+            ConditionalGet.tag(resp, etag);
+            RequestArray arr = new RequestArray(page);
+            resp.getWriter().write(om.writeValueAsString(arr));
+            resp.setStatus(200);    // reimbursement requests found
+        }
+    }
 
-                            int requestID = Integer.parseInt(params[3]);
-                            ReimbursementRequest r = requestController.viewRequest(requestID);
-                            if (r == null) {
-                                log.debug("The reimbursement request with id '" + requestID + "' was not found");
-                                resp.getWriter().println("Reimbursement request not found");
-                                resp.setStatus(404);    // reimbursement request not found
-                            } else if (r.getSubmitterID() != userID) {
-                                log.info("Authorized user requested a reimbursement request belonging to another user");
-                                resp.getWriter().println("Reimbursement request does not belong to this user");
-                                resp.setStatus(403);    // reimbursement request does not belong to this user
-                            } else {
-                                log.debug("Retrieved a reimbursement request for an employee");
-                                resp.setContentType("application/json");
-                                resp.getWriter().write(om.writeValueAsString(r));
-                                resp.setStatus(200);    // reimbursement request found
-                            }
-                        } catch (NumberFormatException e) {
-                            log.info("An invalid request was made for a reimbursement request with specified id '" + params[3] + "'");
-                            resp.getWriter().println("Invalid request ID entered");
-                            resp.setStatus(400);
-                        }
-                    }
-                } else {
-                    log.info("A GET request was made with too many parameters");
-                    resp.setStatus(404);
-                }
+    // employees/(userID)/requests/(requestID)
+    private void getRequest(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        try {
+            int requestID = match.getInt("requestID");
+            ReimbursementRequest r = requestController.viewRequest(requestID);
+            if (r == null) {
+                log.debug("The reimbursement request with id '{}' was not found", requestID);
+                resp.getWriter().println("Reimbursement request not found");
+                resp.setStatus(404);    // reimbursement request not found
+            } else if (r.getSubmitterID() != match.getInt("userID")) {
+                log.info("Authorized user requested a reimbursement request belonging to another user");
+                resp.getWriter().println("Reimbursement request does not belong to this user");
+                resp.setStatus(403);    // reimbursement request does not belong to this user
             } else {
-                log.info("An invalid GET request was made");
-                resp.setStatus(404);
+                log.debug("Retrieved a reimbursement request for an employee");
+                resp.setContentType("application/json");
+                resp.setHeader("Cache-Control", r.getStatus().equalsIgnoreCase("Pending") ? ConditionalGet.REVALIDATE : ConditionalGet.IMMUTABLE);
+                resp.getWriter().write(om.writeValueAsString(r));
+                resp.setStatus(200);    // reimbursement request found
             }
-        } catch (IndexOutOfBoundsException | NumberFormatException e) {
-            log.info("An invalid GET request was made");
-            resp.setStatus(404);
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for a reimbursement request with specified id '{}'", match.getString("requestID"));
+            resp.getWriter().println("Invalid request ID entered");
+            resp.setStatus(400);
         }
     }
 
@@ -199,71 +253,52 @@ public class EmployeeServlet extends HttpServlet {
     /**
      *  POST requests are used on endpoints:
      *      /employees/(userID)/requests/new            |   submit a new request
-     *      /employees/(userID)/requests/logout         |   logout
+     *      /employees/(userID)/logout                  |   logout
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("EmployeeServlet doPost called with: " + req.getPathInfo());
+        log.debug("EmployeeServlet doPost called with: {}", req.getPathInfo());
+        dispatch("POST", req, resp);
+    }
 
-        String[] params = req.getPathInfo().split("/");
+    // employees/(userID)/logout
+    private void postLogout(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        log.debug("Employee logged out, redirecting to /login");
+        Authentication.logout(req, resp);
+        resp.sendRedirect(req.getContextPath() + "/login");
+    }
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to EmployeeServlet doPost with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
+    // employees/(userID)/requests/new
+    private void postNewRequest(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        // Get reimbursement request input
+        ReimbursementInput input;
+        try {
+            input = om.readValue(req.getInputStream(), ReimbursementInput.class);
+        } catch (IOException e) {
+            resp.getWriter().write("Invalid reimbursement request parameters");
+            resp.setStatus(400);
             return;
         }
 
-        // handle the post request
         try {
-            if (params.length == 3 && params[2].equalsIgnoreCase("logout")) {
-                // employees/(userID)/logout
-
-                log.debug("Employee logged out, redirecting to /login");
-                HttpSession session = req.getSession(false);
-                if (session != null) session.invalidate();
-                resp.sendRedirect(req.getContextPath() + "/login");
-                return;
-            } else if (params.length == 4 && params[2].equalsIgnoreCase("requests") && params[3].equalsIgnoreCase("new")) {
-                // employees/(userID)/requests/new
-
-                // Get reimbursement request input
-                ReimbursementInput input;
-                try {
-                    input = om.readValue(req.getInputStream(), ReimbursementInput.class);
-                } catch (IOException e) {
-                    resp.getWriter().write("Invalid reimbursement request parameters");
-                    resp.setStatus(400);
-                    return;
-                }
-
-                try {
-                    int requestID = requestController.submitNewRequest(userID, input.amount, input.category, input.description);
-                    if (requestID < 0) {
-                        log.warn("Failed to add a valid new request");
-                        resp.getWriter().println("Failed to add the request");
-                        resp.setStatus(500);    // failed to add new request
-                    } else {
-                        log.info("Successfully added a new request");
-                        ReimbursementRequest request = requestController.viewRequest(requestID);
-                        resp.setContentType("application/json");
-                        resp.getWriter().write(om.writeValueAsString(request));
-                        resp.setStatus(201);    // new request added successfully
-                    }
-                } catch (RuntimeException e) {
-                    log.info("An invalid reimbursement request was not added");
-                    resp.setContentType("plain/text");
-                    resp.getWriter().println(e.getMessage());
-                    resp.setStatus(409);    // input was invalid
-                }
+            int requestID = requestController.submitNewRequest(match.getInt("userID"), input.amount, input.category, input.description);
+            if (requestID < 0) {
+                log.warn("Failed to add a valid new request");
+                resp.getWriter().println("Failed to add the request");
+                resp.setStatus(500);    // failed to add new request
             } else {
-                log.info("An invalid POST request was made");
-                resp.setStatus(404);
+                log.info("Successfully added a new request");
+                submissions.increment();
+                ReimbursementRequest request = requestController.viewRequest(requestID);
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(request));
+                resp.setStatus(201);    // new request added successfully
             }
-        } catch (IndexOutOfBoundsException | NumberFormatException e) {
-            log.info("An invalid POST request was made");
-            resp.setStatus(404);    // invalid request
+        } catch (RuntimeException e) {
+            log.info("An invalid reimbursement request was not added");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(409);    // input was invalid
         }
     }
 
@@ -273,50 +308,40 @@ public class EmployeeServlet extends HttpServlet {
      */
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("EmployeeServlet doPut called with: " + req.getPathInfo());
+        log.debug("EmployeeServlet doPut called with: {}", req.getPathInfo());
+        dispatch("PUT", req, resp);
+    }
 
-        String[] params = req.getPathInfo().split("/");
+    // employees/(userID)/update
+    private void putProfile(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        int userID = match.getInt("userID");
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to EmployeeServlet doPut with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
+        // Get new profile info
+        Employee updated;
+        try {
+            updated = om.readValue(req.getInputStream(), Employee.class);
+        } catch (IOException e) {
+            log.info("An invalid PUT request was made");
+            resp.setStatus(404);    // invalid request
             return;
         }
-
-        // handle the put request
         try {
-            if (params.length == 3 && params[2].equalsIgnoreCase("update")) {
-                // employees/(userID)/update
-
-                // Get new profile info
-                Employee updated = om.readValue(req.getInputStream(), Employee.class);
-                try {
-                    boolean success = employeeController.updateProfile(userID, updated.getPassword(), updated.getFirstName(), updated.getLastName(), updated.getDob(), updated.getEmail());
-                    if (success) {
-                        log.debug("Employee profile successfully updated");
-                        Employee e = employeeController.getProfile(userID);
-                        resp.setContentType("application/json");
-                        resp.getWriter().write(om.writeValueAsString(e));
-                        resp.setStatus(200);    // profile was successfully updated
-                    } else {
-                        log.warn("Failed to update employee profile");
-                        resp.setStatus(400);    // profile was not updated
-                    }
-                } catch (RuntimeException e) {
-                    log.info("Invalid values provided when updating employee profile");
-                    resp.setContentType("plain/text");
-                    resp.getWriter().println(e.getMessage());
-                    resp.setStatus(409);        // input was invalid
-                }
+            boolean success = employeeController.updateProfile(userID, updated.getPassword(), updated.getFirstName(), updated.getLastName(), updated.getDob(), updated.getEmail());
+            if (success) {
+                log.debug("Employee profile successfully updated");
+                Employee e = employeeController.getProfile(userID);
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(e));
+                resp.setStatus(200);    // profile was successfully updated
             } else {
-                log.info("An invalid PUT request was made");
-                resp.setStatus(404);
+                log.warn("Failed to update employee profile");
+                resp.setStatus(400);    // profile was not updated
             }
-        } catch (IndexOutOfBoundsException | IOException e) {
-            log.info("An invalid PUT request was made");
-            resp.setStatus(404);    // invalid request
+        } catch (RuntimeException e) {
+            log.info("Invalid values provided when updating employee profile");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(409);        // input was invalid
         }
     }
-}
\ No newline at end of file
+}
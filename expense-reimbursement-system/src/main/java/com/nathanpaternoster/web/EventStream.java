@@ -0,0 +1,261 @@
+package com.nathanpaternoster.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-sent events feed written to any number of subscribers without holding a thread for each
+ * Subscribing starts async processing and registers a WriteListener (Servlet 3.1 non-blocking IO), so the request
+ * thread returns to the container straight away. An event is serialized once and queued for every subscriber, then
+ * written by whichever thread publishes it or by the container when a slow subscriber's socket can take more.
+ * Subscribers that fall MAX_QUEUED events behind are disconnected, their browser reconnects with Last-Event-ID and
+ * gets the events it missed from the last REPLAYED events. Events published with the id the database gave them are
+ * numbered, and received in the same order, on every instance, so the browser can reconnect to any of them.
+ */
+public class EventStream {
+    private static final Logger log = LogManager.getLogger(EventStream.class);
+    static final int MAX_QUEUED = 1000;
+    static final int REPLAYED = 256;
+    static final long HEARTBEAT_SECONDS = 15;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private final ObjectMapper om;
+    private final int maxSubscribers;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Deque<Event> recent = new ArrayDeque<>();     // guarded by this
+    private long lastID;                                        // guarded by this
+    private ScheduledExecutorService heartbeat;
+
+    private static class Event {
+        final long id;
+        final byte[] bytes;
+
+        Event(long id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * One connected client, its queue is filled by publishers and drained whenever the socket is writable
+     */
+    private class Subscriber implements WriteListener, AsyncListener {
+        final AsyncContext async;
+        final ServletOutputStream out;
+        final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        volatile boolean listening;
+        volatile boolean closed;
+
+        Subscriber(AsyncContext async, ServletOutputStream out) {
+            this.async = async;
+            this.out = out;
+        }
+
+        void send(byte[] event) {
+            if (closed) return;
+            if (queued.incrementAndGet() > MAX_QUEUED) {
+                log.info("Disconnecting an event stream subscriber that stopped reading");
+                close();
+                return;
+            }
+            queue.add(event);
+            drain();
+        }
+
+        /**
+         * Write queued events while the socket accepts them without blocking
+         * Once isReady() returns false the container calls onWritePossible when it can take more
+         */
+        synchronized void drain() {
+            if (!listening || closed) return;
+            try {
+                while (out.isReady()) {
+                    byte[] next = queue.poll();
+                    if (next == null) {
+                        out.flush();
+                        out.isReady();      // registers for onWritePossible if the flush is incomplete
+                        return;
+                    }
+                    queued.decrementAndGet();
+                    out.write(next);
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            subscribers.remove(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // already completed
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            listening = true;
+            drain();
+        }
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+        @Override
+        public void onComplete(AsyncEvent event) {
+            closed = true;
+            subscribers.remove(this);
+        }
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * @param om Serializes published events
+     * @param maxSubscribers Further subscriptions are refused with 503
+     */
+    public EventStream(ObjectMapper om, int maxSubscribers) {
+        this.om = om;
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * Start writing a comment to every subscriber every HEARTBEAT_SECONDS, which keeps proxies from closing idle
+     * connections and detects clients that have gone away
+     */
+    public synchronized void start() {
+        if (heartbeat != null) return;
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-stream-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(() -> {
+            for (Subscriber s : subscribers) s.send(HEARTBEAT);
+        }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the heartbeat and disconnect every subscriber
+     */
+    public void stop() {
+        synchronized (this) {
+            if (heartbeat != null) heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        for (Subscriber s : subscribers) s.close();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Send an event to every subscriber, numbered after the last one
+     * @param type The event's name, e.g. "submitted"
+     * @param data Serialized as JSON for the event's data
+     */
+    public void publish(String type, Object data) {
+        publish(-1, type, data);
+    }
+
+    /**
+     * Send an event to every subscriber
+     * @param id The event's id, or -1 to number it after the last one
+     */
+    public void publish(long id, String type, Object data) {
+        String json;
+        try {
+            json = om.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize a {} event", type, e);
+            return;
+        }
+        // ids are assigned and queued under the lock so every subscriber sees events in id order
+        synchronized (this) {
+            lastID = (id < 0) ? lastID + 1 : id;
+            byte[] bytes = ("id: " + lastID + "\nevent: " + type + "\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+            recent.addLast(new Event(lastID, bytes));
+            if (recent.size() > REPLAYED) recent.removeFirst();
+            for (Subscriber s : subscribers) s.send(bytes);
+        }
+    }
+
+    /**
+     * Hand the request to the event stream, the response stays open until the client disconnects or stop() is called
+     * A Last-Event-ID header replays the events published after the one with that id, or those with greater ids if it
+     * is no longer among the last REPLAYED
+     * @return False if the subscription was refused with 503 because maxSubscribers are connected
+     */
+    public boolean subscribe(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (subscribers.size() >= maxSubscribers) {
+            log.warn("An event stream subscription was refused, {} subscribers are connected", subscribers.size());
+            resp.setStatus(503);    // too many subscribers
+            return false;
+        }
+        long lastSeen = -1;
+        try {
+            if (req.getHeader("Last-Event-ID") != null) lastSeen = Long.parseLong(req.getHeader("Last-Event-ID").trim());
+        } catch (NumberFormatException e) {
+            // replay nothing
+        }
+        resp.setStatus(200);
+        resp.setContentType("text/event-stream");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader("X-Accel-Buffering", "no");     // stops nginx from buffering the stream
+        AsyncContext async = req.startAsync();
+        async.setTimeout(0);
+        Subscriber subscriber = new Subscriber(async, resp.getOutputStream());
+        async.addListener(subscriber);
+        subscriber.send("retry: 5000\n\n".getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            boolean seen = false;
+            for (Event e : recent) seen |= (e.id == lastSeen);
+            // ids given by the database can be published out of order, so replay by position when the id is known
+            boolean after = false;
+            for (Event e : recent) {
+                if (lastSeen >= 0 && (seen ? after : e.id > lastSeen)) subscriber.send(e.bytes);
+                after |= (e.id == lastSeen);
+            }
+            subscribers.add(subscriber);
+        }
+        // queued events are written once the container calls onWritePossible
+        resp.getOutputStream().setWriteListener(subscriber);
+        return true;
+    }
+}
@@ -1,13 +1,24 @@
 package com.nathanpaternoster.web;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.nathanpaternoster.controllers.users.ManagerController;
 import com.nathanpaternoster.controllers.requests.ReimbursementRequestController;
+import com.nathanpaternoster.metrics.MetricsRegistry;
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
 import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.EmployeeImportResult;
+import com.nathanpaternoster.services.DashboardRequestDAO;
+import com.nathanpaternoster.services.RequestAggregates;
 import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestExport;
 import com.nathanpaternoster.services.UserDAO;
+import com.nathanpaternoster.web.routing.RouteHandler;
+import com.nathanpaternoster.web.routing.RouteMatch;
+import com.nathanpaternoster.web.routing.Router;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -16,20 +27,39 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Servlet to actions an authenticated manager can perform
  */
-@WebServlet("/managers/*")
+@WebServlet(urlPatterns = "/managers/*", asyncSupported = true)
 public class ManagerServlet extends HttpServlet {
     private static final Logger log = LogManager.getLogger(ManagerServlet.class);
+    private static final LongAdder approvals = MetricsRegistry.getDefault().counter("ers_requests_resolved_total", "Reimbursement requests resolved by managers", "decision", "approved");
+    private static final LongAdder denials = MetricsRegistry.getDefault().counter("ers_requests_resolved_total", "Reimbursement requests resolved by managers", "decision", "denied");
+    private static final LongAdder exported = MetricsRegistry.getDefault().counter("ers_requests_exported_total", "Reimbursement requests written by exports");
+    static final int EXPORT_BUFFER_SIZE = 64 * 1024;
     protected ObjectMapper om;
     protected ManagerController managerController;
     protected ReimbursementRequestController requestController;
+    protected DashboardRequestDAO dashboard;
+    protected EventStream eventStream;
+    protected Semaphore exports;
 
     // classes for serializing arrays
     public static class EmployeeArray {
@@ -38,13 +68,77 @@ public class ManagerServlet extends HttpServlet {
             this.employees = employees;
         }
     }
+    public static class ImportArray {
+        public int imported;
+        public List<EmployeeImportResult> results;
+        public ImportArray(List<EmployeeImportResult> results) {
+            this.results = results;
+            for (EmployeeImportResult r : results) if (r.getUserID() != null) ++imported;
+        }
+    }
+    public static class Decision {
+        public int requestID;
+        public boolean approved;
+    }
+    public static class ResolutionResult {
+        public int requestID;
+        public boolean resolved;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public ReimbursementRequest request;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String error;
+    }
+    public static class ResolutionArray {
+        public List<ResolutionResult> results;
+        public ResolutionArray(List<ResolutionResult> results) {
+            this.results = results;
+        }
+    }
     public static class RequestArray {
         public List<ReimbursementRequest> requests;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String nextPageToken;
         public RequestArray(List<ReimbursementRequest> requests) {
             this.requests = requests;
         }
+        public RequestArray(RequestPage page) {
+            this.requests = page.getRequests();
+            this.nextPageToken = page.getNextPageToken();
+        }
+    }
+
+    public static class RequestHistory {
+        public int requestID;
+        public List<AuditRecord> history;
+        public RequestHistory(int requestID, List<AuditRecord> history) {
+            this.requestID = requestID;
+            this.history = history;
+        }
     }
 
+    // routes relative to /managers, compiled into a trie once when the servlet is created
+    private final Router<RouteHandler> routes = new Router<RouteHandler>("/managers")
+            .add("GET", "/{userID}", this::getWelcome)
+            .add("GET", "/{userID}/dashboard", this::getDashboard)
+            .add("GET", "/{userID}/employees", this::getEmployeeOptions)
+            .add("GET", "/{userID}/employees/all", this::getAllEmployees)
+            .add("GET", "/{userID}/employees/{employeeID}", this::getEmployee)
+            .add("GET", "/{userID}/requests", this::getRequestOptions)
+            .add("GET", "/{userID}/requests/all", (req, resp, match) -> getAllRequests(req, resp, "all"))
+            .add("GET", "/{userID}/requests/pending", (req, resp, match) -> getAllRequests(req, resp, "pending"))
+            .add("GET", "/{userID}/requests/resolved", (req, resp, match) -> getAllRequests(req, resp, "resolved"))
+            .add("GET", "/{userID}/requests/events", this::getRequestEvents)
+            .add("GET", "/{userID}/requests/search", this::getSearchRequests)
+            .add("GET", "/{userID}/requests/export", this::getRequestExport)
+            .add("GET", "/{userID}/requests/{requestID}", this::getRequest)
+            .add("GET", "/{userID}/requests/{requestID}/history", this::getRequestHistory)
+            .add("GET", "/{userID}/requests/employee/{employeeID}", this::getEmployeeRequests)
+            .add("POST", "/{userID}/logout", this::postLogout)
+            .add("POST", "/{userID}/employees/new", this::postNewEmployee)
+            .add("POST", "/{userID}/employees/import", this::postEmployeeImport)
+            .add("PUT", "/{userID}/requests/update", this::putResolutions)
+            .add("PUT", "/{userID}/requests/update/{requestID}", this::putResolution);
+
     @Override
     public void init() {
         om = new ObjectMapper();
@@ -59,29 +153,57 @@ public class ManagerServlet extends HttpServlet {
         RequestDAO requestDAO = (RequestDAO) getServletContext().getAttribute("requestDAO");
         managerController = new ManagerController(userDao);
         requestController = new ReimbursementRequestController(requestDAO, userDao);
+        eventStream = (EventStream) getServletContext().getAttribute("eventStream");
+        dashboard = (DashboardRequestDAO) getServletContext().getAttribute("dashboard");
+        exports = new Semaphore(Integer.parseInt(ContextListener.getParameter(getServletContext(), "exportMaxConcurrent", "2")));
         log.debug("ManagerServlet initialized");
     }
 
     /**
-     * Validate that the manager specified by userID in the url parameters is currently logged in (by comparing with the HTTPSession attribute)
+     * Validate that the manager specified by userID in the url parameters is currently logged in (by comparing with the HTTPSession or token's user)
      * @return the userID of the manager, or -1 if the manager is not logged in or the url is malformed
      */
     private int validate(HttpServletRequest req, HttpServletResponse resp) {
-        String[] params = req.getPathInfo().split("/");
+        String path = req.getPathInfo();
+        if (path == null) return -1;
         try {
-            int userID = Integer.parseInt(params[1]);
-            HttpSession session = req.getSession(false);
-            if (session == null || session.getAttribute("user") == null || (int) session.getAttribute("user") != userID)
-                return -1;
-            return userID;
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            int end = path.indexOf('/', 1);
+            int userID = RouteMatch.parseInt(path, 1, (end < 0) ? path.length() : end);
+            return Authentication.is(req, userID, "Manager") ? userID : -1;
+        } catch (NumberFormatException e) {
             return -1;
         }
     }
 
+    /**
+     * Validate the manager, then call the handler of the route matching the url
+     * The matched route's template is left in the request attribute RouteMatch.TEMPLATE_ATTRIBUTE
+     */
+    private void dispatch(String method, HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        // validate the user
+        int userID = validate(req, resp);
+        if (userID < 0) {
+            log.info("Unauthorized {} request made to ManagerServlet with {}", method, req.getPathInfo());
+            resp.setStatus(403);        // unauthorized
+            return;
+        }
+
+        // handle the request
+        RouteMatch match = new RouteMatch();
+        RouteHandler handler = routes.match(method, req.getPathInfo(), match);
+        if (handler == null) {
+            log.info("An invalid {} request was made", method);
+            resp.setStatus(404);        // invalid request url
+            return;
+        }
+        req.setAttribute(RouteMatch.TEMPLATE_ATTRIBUTE, match.getTemplate());
+        handler.handle(req, resp, match);
+    }
+
     /**
      *  GET requests are used on endpoints:
      *      /managers/(userID)                                  |   display welcome and options
+     *      /managers/(userID)/dashboard                        |   display request totals: pending, by status, by category and by employee
      *      /managers/(userID)/employees                        |   display employee options
      *      /managers/(userID)/employees/(employeeID)           |   display specified employee's profile
      *      /managers/(userID)/employees/all                    |   display all employees
@@ -90,289 +212,549 @@ public class ManagerServlet extends HttpServlet {
      *      /managers/(userID)/requests/all                     |   display all requests
      *      /managers/(userID)/requests/pending                 |   display pending requests
      *      /managers/(userID)/requests/resolved                |   display resolved requests
+     *      /managers/(userID)/requests/events                  |   server-sent events for every submission and resolution
+     *      /managers/(userID)/requests/search?q=               |   requests whose category or description match, best first,
+     *                                                          |   optionally filtered with status and employeeID
      *      /managers/(userID)/requests/employee/(employeeID)   |   display all requests belonging to specified employee
+     *  Request listings are paginated with the optional query parameters pageSize and pageToken, and filtered and
+     *  sorted in the database with employeeID, resolverID, category, from, to, minAmount, maxAmount and sort
+     *  The all/pending/resolved request listings and the employee listing accept ?stream=true to write every row
+     *  straight from a database cursor to the response instead
+     *  Listings that aren't streamed carry an ETag and answer a matching If-None-Match with 304, resolved requests
+     *  never change and may be cached by the client
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("ManagerServlet doGet called with: " + req.getPathInfo());
+        log.debug("ManagerServlet doGet called with: {}", req.getPathInfo());
+        dispatch("GET", req, resp);
+    }
 
-        String[] params = req.getPathInfo().split("/");
+    // manager/(userID)
+    private void getWelcome(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        resp.setContentType("text/plain");
+        resp.getWriter().println("Successfully logged in!");
+        resp.getWriter().println("Enter /dashboard, /employees, /requests, or /logout");
+        resp.setStatus(200);
+    }
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to ManagerServlet doGet with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
+    // manager/(userID)/dashboard
+    private void getDashboard(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        RequestAggregates aggregates = (dashboard != null) ? dashboard.getAggregates() : null;
+        if (aggregates == null) {
+            log.warn("The dashboard was requested but its totals are not available");
+            resp.setStatus(503);    // dashboard disabled or not loaded yet
+            return;
+        }
+        log.debug("Retrieved the dashboard for a manager");
+        resp.setContentType("application/json");
+        resp.getWriter().write(om.writeValueAsString(aggregates.snapshot()));
+        resp.setStatus(200);
+    }
+
+    // manager/(userID)/employees
+    private void getEmployeeOptions(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        resp.setContentType("text/plain");
+        resp.getWriter().println("Viewing employees");
+        resp.getWriter().println("Enter /new, /all, or /(userID)");
+        resp.setStatus(200);
+    }
+
+    // manager/(userID)/employees/all
+    private void getAllEmployees(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        if ("true".equalsIgnoreCase(req.getParameter("stream"))) {
+            log.debug("Streaming all employees for an authorized manager");
+            resp.setContentType("application/json");
+            resp.setStatus(200);
+            try (StreamingJsonWriter<Employee> out = new StreamingJsonWriter<>(om, resp.getOutputStream(), "employees")) {
+                if (!managerController.streamAllEmployees(out)) {
+                    log.warn("Failed to stream all employees for an authorized manager");
+                    out.fail("Failed to retrieve employees");
+                }
+            }
             return;
         }
+        String etag = ConditionalGet.etag("users", managerController.getEmployeesVersion());
+        if (ConditionalGet.notModified(req, resp, etag)) return;
+        List<Employee> employees = managerController.viewAllEmployees();
+        if (employees == null) {
+            log.warn("Failed to retrieve all employees for an authorized manager");
+            resp.getWriter().println("No employees found");
+            resp.setStatus(404);    // employees not found
+        } else {
+            log.debug("Retrieved all employees for an authorized manager");
+            resp.setContentType("application/json");
+            ConditionalGet.tag(resp, etag);
+            EmployeeArray arr = new EmployeeArray(employees);
+            resp.getWriter().write(om.writeValueAsString(arr));
+            resp.setStatus(200);    // employees found
+        }
+    }
 
-        // handle the get request
+    // manager/(userID)/employees/(employeeID)
+    private void getEmployee(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
         try {
-            if (params.length == 2) {
-                // manager/(userID)
+            int employeeID = match.getInt("employeeID");
+            Employee e = managerController.viewEmployee(employeeID);
+            if (e == null) {
+                log.debug("Employee with id '{}' was not found", employeeID);
+                resp.setStatus(404);    // employee not found
+            } else {
+                log.debug("Retrieved an employee's profile for a manager");
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(e));
+                resp.setStatus(200);    // employee found
+            }
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for an employee profile with specified id '{}'", match.getString("employeeID"));
+            resp.getWriter().println("Invalid employee ID entered");
+            resp.setStatus(400);        // invalid employeeID entered
+        }
+    }
 
-                resp.setContentType("text/plain");
-                resp.getWriter().println("Successfully logged in!");
-                resp.getWriter().println("Enter /employees, /requests, or /logout");
-                resp.setStatus(200);
-            } else if (params[2].equalsIgnoreCase("employees")) {
-                if (params.length == 3) {
-                    // manager/(userID)/employees
-
-                    resp.setContentType("text/plain");
-                    resp.getWriter().println("Viewing employees");
-                    resp.getWriter().println("Enter /new, /all, or /(userID)");
-                    resp.setStatus(200);
-                } else if (params.length == 4) {
-                    if (params[3].equalsIgnoreCase("all")) {
-                        // manager/(userID)/employees/all
-
-                        List<Employee> employees = managerController.viewAllEmployees();
-                        if (employees == null) {
-                            log.warn("Failed to retrieve all employees for an authorized manager");
-                            resp.getWriter().println("No employees found");
-                            resp.setStatus(404);    // employees not found
-                        } else {
-                            log.debug("Retrieved all employees for an authorized manager");
-                            resp.setContentType("application/json");
-                            EmployeeArray arr = new EmployeeArray(employees);
-                            resp.getWriter().write(om.writeValueAsString(arr));
-                            resp.setStatus(200);    // employees found
-                        }
-                    } else {
-                        try {
-                            // manager/(userID)/employees/(employeeID)
-
-                            int employeeID = Integer.parseInt(params[3]);
-                            Employee e = managerController.viewEmployee(employeeID);
-                            if (e == null) {
-                                log.debug("Employee with id '" + employeeID + "' was not found");
-                                resp.setStatus(404);    // employee not found
-                            } else {
-                                log.debug("Retrieved an employee's profile for a manager");
-                                resp.setContentType("application/json");
-                                resp.getWriter().write(om.writeValueAsString(e));
-                                resp.setStatus(200);    // employee found
-                            }
-                        } catch (NumberFormatException e) {
-                            log.info("An invalid request was made for an employee profile with specified id '" + params[3] + "'");
-                            resp.getWriter().println("Invalid employee ID entered");
-                            resp.setStatus(400);        // invalid employeeID entered
-                        }
-                    }
-                } else {
-                    log.info("A GET request was made with too many parameters");
-                    resp.setStatus(404);
+    // manager/(userID)/requests
+    private void getRequestOptions(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        resp.setContentType("text/plain");
+        resp.getWriter().println("Viewing requests");
+        resp.getWriter().println("Enter /all, /pending, /resolved, /search?q=, /(requestID), or update/(requestID)");
+        resp.setStatus(200);
+    }
+
+    // manager/(userID)/requests/all or manager/(userID)/requests/pending or manager/(userID)/requests/resolved
+    private void getAllRequests(HttpServletRequest req, HttpServletResponse resp, String status) throws IOException {
+        if ("true".equalsIgnoreCase(req.getParameter("stream"))) {
+            log.debug("Streaming reimbursement requests for a manager");
+            resp.setContentType("application/json");
+            resp.setStatus(200);
+            try (StreamingJsonWriter<ReimbursementRequest> out = new StreamingJsonWriter<>(om, resp.getOutputStream(), "requests")) {
+                if (!requestController.streamAllRequests(status, out)) {
+                    log.warn("Failed to stream requests for an authorized manager");
+                    out.fail("Failed to retrieve reimbursement requests");
                 }
-            } else if (params[2].equalsIgnoreCase("requests")) {
-                if (params.length == 3) {
-                    // manager/(userID)/requests
-
-                    resp.setContentType("text/plain");
-                    resp.getWriter().println("Viewing requests");
-                    resp.getWriter().println("Enter /all, /pending, /resolved, /(requestID), or update/(requestID)");
-                    resp.setStatus(200);
-                } else if (params.length == 4) {
-                    if (params[3].equalsIgnoreCase("all") || params[3].equalsIgnoreCase("pending") || params[3].equalsIgnoreCase("resolved")) {
-                        // manager/(userID)/requests/all or manager/(userID)/requests/pending or manager/(userID)/requests/resolved
-
-                        List<ReimbursementRequest> requests = null;
-                        if (params[3].equalsIgnoreCase("pending")) {
-                            requests = requestController.viewAllPendingRequests();
-                        } else if (params[3].equalsIgnoreCase("resolved")) {
-                            requests = requestController.viewAllResolvedRequests();
-                        } else {
-                            requests = requestController.viewAllRequests();
-                        }
-                        if (requests == null) {
-                            log.warn("Failed to retrieve requests for an authorized manager");
-                            resp.setStatus(404);    // reimbursement requests not found
-                        } else {
-                            log.debug("Retrieved reimbursement requests for an employee");
-                            resp.setContentType("application/json");
-                            RequestArray arr = new RequestArray(requests);
-                            resp.getWriter().write(om.writeValueAsString(arr));
-                            resp.setStatus(200);    // reimbursement requests found
-                        }
-                    } else {
-                        try {
-                            // manager/(userID)/requests/(requestID)
-
-                            int requestID = Integer.parseInt(params[3]);
-                            ReimbursementRequest r = requestController.viewRequest(requestID);
-                            if (r == null) {
-                                log.debug("The reimbursement request with id '" + requestID + "' was not found");
-                                resp.setStatus(404);    // reimbursement request not found
-                            } else {
-                                log.debug("Retrieved a reimbursement request for a manager");
-                                resp.setContentType("application/json");
-                                resp.getWriter().write(om.writeValueAsString(r));
-                                resp.setStatus(200);    // reimbursement request found
-                            }
-                        } catch (NumberFormatException e) {
-                            log.info("An invalid request was made for a reimbursement request with specified id '" + params[3] + "'");
-                            resp.setStatus(400);        // invalid requestID entered
-                        }
-                    }
-                } else if (params.length == 5 && params[3].equalsIgnoreCase("employee")) {
-                    try {
-                        // manager/(userID)/requests/employee/(employeeID)
-
-                        int employeeID = Integer.parseInt(params[4]);
-                        List<ReimbursementRequest> requests = requestController.viewRequests(employeeID);
-                        if (requests == null) {
-                            log.warn("Failed to retrieve an employee's reimbursement requests for an authorized manager");
-                            resp.setStatus(404);        // reimbursement requests not found
-                        } else {
-                            log.debug("Retrieved an employee's reimbursement requests for a manager");
-                            resp.setContentType("application/json");
-                            RequestArray arr = new RequestArray(requests);
-                            resp.getWriter().write(om.writeValueAsString(arr));
-                            resp.setStatus(200);        // reimbursement requests found
-                        }
-                    } catch (NumberFormatException e) {
-                        log.info("An invalid request was made for an employee's reimbursement requests with the specified employee id '" + params[4] + "'");
-                        resp.setStatus(400);        // invalid employeeID entered
-                    }
-                } else {
-                    log.info("A GET request was made with too many parameters");
-                    resp.setStatus(404);
+            }
+            return;
+        }
+        String etag = ConditionalGet.etag("requests", requestController.getRequestsVersion());
+        if (ConditionalGet.notModified(req, resp, etag)) return;
+        RequestPage page;
+        try {
+            page = requestController.isFiltered(req.getParameterMap())
+                    ? requestController.findRequestPage(-1, status, req.getParameterMap())
+                    : requestController.viewAllRequestPage(status, req.getParameter("pageSize"), req.getParameter("pageToken"));
+        } catch (RuntimeException e) {
+            log.info("Invalid filter or pagination parameters entered");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // invalid filter, sort, page size or page token
+            return;
+        }
+        if (page == null) {
+            log.warn("Failed to retrieve requests for an authorized manager");
+            resp.setStatus(404);    // reimbursement requests not found
+        } else {
+            log.debug("Retrieved reimbursement requests for an employee");
+            resp.setContentType("application/json");
+            ConditionalGet.tag(resp, etag);
+            RequestArray arr = new RequestArray(page);
+            resp.getWriter().write(om.writeValueAsString(arr));
+            resp.setStatus(200);    // reimbursement requests found
+        }
+    }
+
+    // manager/(userID)/requests/events
+    private void getRequestEvents(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        if (eventStream == null) {
+            log.warn("The request event stream was requested but it is not available");
+            resp.setStatus(404);    // event stream not configured
+            return;
+        }
+        if (eventStream.subscribe(req, resp)) log.debug("A manager subscribed to request events");
+    }
+
+    // manager/(userID)/requests/search
+    private void getSearchRequests(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        String etag = ConditionalGet.etag("requests", requestController.getRequestsVersion());
+        if (ConditionalGet.notModified(req, resp, etag)) return;
+        RequestPage page;
+        try {
+            page = requestController.searchRequests(req.getParameter("q"), req.getParameter("status"), req.getParameter("employeeID"),
+                    req.getParameter("pageSize"), req.getParameter("pageToken"));
+        } catch (RuntimeException e) {
+            log.info("Invalid search parameters entered");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // invalid query, filter, page size or page token
+            return;
+        }
+        log.debug("Searched reimbursement requests for a manager");
+        resp.setContentType("application/json");
+        ConditionalGet.tag(resp, etag);
+        resp.getWriter().write(om.writeValueAsString(new RequestArray(page)));
+        resp.setStatus(200);    // search results, possibly empty
+    }
+
+    // manager/(userID)/requests/export (?format=&status=&from=&to=)
+    private void getRequestExport(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        RequestExport export;
+        try {
+            export = requestController.newExport(req.getParameterMap());
+        } catch (RuntimeException e) {
+            log.info("Invalid export parameters entered");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // invalid format, status or date
+            return;
+        }
+        // each export holds a database connection until it's done, the rest are for interactive requests
+        if (!exports.tryAcquire()) {
+            log.warn("A request export was refused, the maximum number of exports are running");
+            resp.setHeader("Retry-After", "60");
+            resp.setStatus(503);    // too many exports running
+            return;
+        }
+        try {
+            String acceptEncoding = req.getHeader("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+            resp.setContentType(export.getFormat().getContentType());
+            resp.setCharacterEncoding("UTF-8");
+            resp.setHeader("Content-Disposition", "attachment; filename=\"requests." + export.getFormat().getName() + "\"");
+            resp.setHeader("Vary", "Accept-Encoding");
+            if (gzip) resp.setHeader("Content-Encoding", "gzip");
+            resp.setBufferSize(EXPORT_BUFFER_SIZE);
+            resp.setStatus(200);
+            // the fastest level compresses rows of text nearly as well as the default at a fraction of the cpu
+            OutputStream out = !gzip ? resp.getOutputStream() : new GZIPOutputStream(resp.getOutputStream(), EXPORT_BUFFER_SIZE) {
+                { def.setLevel(Deflater.BEST_SPEED); }
+            };
+            long rows = requestController.exportRequests(export, out);
+            if (rows < 0) {
+                log.warn("Failed to export reimbursement requests for an authorized manager");
+                if (!resp.isCommitted()) {
+                    resp.reset();
+                    resp.setStatus(500);    // the query failed before anything was sent
+                    return;
                 }
+                // the status was sent with the first rows, dropping the connection tells the client the export is incomplete
+                throw new IOException("Request export failed after the response was committed");
+            }
+            out.close();
+            exported.add(rows);
+            log.debug("Exported {} reimbursement requests for a manager", rows);
+        } finally {
+            exports.release();
+        }
+    }
+
+    // manager/(userID)/requests/(requestID)
+    private void getRequest(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        try {
+            int requestID = match.getInt("requestID");
+            ReimbursementRequest r = requestController.viewRequest(requestID);
+            if (r == null) {
+                log.debug("The reimbursement request with id '{}' was not found", requestID);
+                resp.setStatus(404);    // reimbursement request not found
+            } else {
+                log.debug("Retrieved a reimbursement request for a manager");
+                resp.setContentType("application/json");
+                resp.setHeader("Cache-Control", r.getStatus().equalsIgnoreCase("Pending") ? ConditionalGet.REVALIDATE : ConditionalGet.IMMUTABLE);
+                resp.getWriter().write(om.writeValueAsString(r));
+                resp.setStatus(200);    // reimbursement request found
+            }
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for a reimbursement request with specified id '{}'", match.getString("requestID"));
+            resp.setStatus(400);        // invalid requestID entered
+        }
+    }
+
+    // manager/(userID)/requests/(requestID)/history
+    private void getRequestHistory(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        try {
+            int requestID = match.getInt("requestID");
+            // read from the database, which has the transitions written through every instance
+            List<AuditRecord> history = requestController.viewRequestHistory(requestID);
+            if (history.isEmpty()) {
+                log.debug("No history was found for the reimbursement request with id '{}'", requestID);
+                resp.setStatus(404);    // no transitions recorded for this request
+            } else {
+                log.debug("Retrieved the history of a reimbursement request for a manager");
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(new RequestHistory(requestID, history)));
+                resp.setStatus(200);
+            }
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for the history of a reimbursement request with specified id '{}'", match.getString("requestID"));
+            resp.setStatus(400);        // invalid requestID entered
+        }
+    }
+
+    // manager/(userID)/requests/employee/(employeeID)
+    private void getEmployeeRequests(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        try {
+            int employeeID = match.getInt("employeeID");
+            String etag = ConditionalGet.etag("requests", requestController.getRequestsVersion());
+            if (ConditionalGet.notModified(req, resp, etag)) return;
+            RequestPage page;
+            try {
+                page = requestController.isFiltered(req.getParameterMap())
+                        ? requestController.findRequestPage(employeeID, "All", req.getParameterMap())
+                        : requestController.viewRequestPage(employeeID, "All", req.getParameter("pageSize"), req.getParameter("pageToken"));
+            } catch (RuntimeException e) {
+                log.info("Invalid filter or pagination parameters entered");
+                resp.setContentType("plain/text");
+                resp.getWriter().println(e.getMessage());
+                resp.setStatus(400);    // invalid filter, sort, page size or page token
+                return;
+            }
+            if (page == null) {
+                log.warn("Failed to retrieve an employee's reimbursement requests for an authorized manager");
+                resp.setStatus(404);        // reimbursement requests not found
             } else {
-                log.info("An invalid GET request was made");
-                resp.setStatus(404);
+                log.debug("Retrieved an employee's reimbursement requests for a manager");
+                resp.setContentType("application/json");
+                ConditionalGet.tag(resp, etag);
+                RequestArray arr = new RequestArray(page);
+                resp.getWriter().write(om.writeValueAsString(arr));
+                resp.setStatus(200);        // reimbursement requests found
             }
-        } catch (IndexOutOfBoundsException e) {
-            log.info("An invalid GET request was made");
-            resp.setStatus(404);    // invalid get request url
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for an employee's reimbursement requests with the specified employee id '{}'", match.getString("employeeID"));
+            resp.setStatus(400);        // invalid employeeID entered
         }
     }
 
     /**
      *  POST requests are used on endpoints:
      *      /managers/(userID)/employees/new                    |   add a new employee
+     *      /managers/(userID)/employees/import                 |   add many employees, body is text/csv or application/x-ndjson
      *      /managers/(userID)/logout                           |   logout
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("ManagerServlet doPost called with: " + req.getPathInfo());
+        log.debug("ManagerServlet doPost called with: {}", req.getPathInfo());
+        dispatch("POST", req, resp);
+    }
 
-        String[] params = req.getPathInfo().split("/");
+    // manager/(userID)/logout
+    private void postLogout(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        log.debug("Manager logged out, redirecting to /login");
+        Authentication.logout(req, resp);
+        resp.sendRedirect(req.getContextPath() + "/login");
+    }
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to ManagerServlet doPost with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
-            return;
+    // manager/(userID)/employees/new
+    private void postNewEmployee(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        try {
+            Employee e = om.readValue(req.getInputStream(), Employee.class);
+            int employeeID = managerController.addNewEmployee(e.getFirstName(), e.getLastName(), e.getDob(), e.getEmail());
+            if (employeeID < 1) {
+                log.warn("Failed to add the new employee");
+                resp.getWriter().println("Employee could not be added to the database");
+                resp.setStatus(400);    // failed to add the new employee
+            } else {
+                log.info("Successfully added a new employee");
+                Employee newEmployee = managerController.viewEmployee(employeeID);
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(newEmployee));
+                resp.setStatus(200);    // successfully added the new employee
+            }
+        } catch (RuntimeException ex) {
+            log.info("An invalid employee profile was not added");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(ex.getMessage());
+            resp.setStatus(409);        // entered email is not available
         }
+    }
 
-        // handle the post request
+    // manager/(userID)/employees/import
+    private void postEmployeeImport(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        String contentType = (req.getContentType() != null) ? req.getContentType().toLowerCase() : "";
+        List<Employee> rows;
+        if (contentType.startsWith("text/csv")) rows = readCsvEmployees(req.getReader());
+        else if (contentType.startsWith("application/x-ndjson")) rows = readNdjsonEmployees(req.getReader());
+        else {
+            log.info("A bulk employee import was sent with an unsupported content type");
+            resp.setStatus(415);    // unsupported body format
+            return;
+        }
         try {
-            if (params.length == 3 && params[2].equalsIgnoreCase("logout")) {
-                // manager/(userID)/logout
+            List<EmployeeImportResult> results = managerController.importEmployees(rows);
+            resp.setContentType("application/json");
+            resp.getWriter().write(om.writeValueAsString(new ImportArray(results)));
+            resp.setStatus(200);    // per-row outcomes are in the body
+        } catch (RuntimeException e) {
+            log.info("An invalid bulk employee import was not processed");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // no rows or too many rows
+        }
+    }
 
-                log.debug("Manager logged out, redirecting to /login");
-                HttpSession session = req.getSession(false);
-                if (session != null) session.invalidate();
-                resp.sendRedirect(req.getContextPath() + "/login");
-                return;
-            } else if (params.length == 4 && params[2].equalsIgnoreCase("employees") && params[3].equalsIgnoreCase("new")) {
-                // manager/(userID)/employees/new
-
-                try {
-                    Employee e = om.readValue(req.getInputStream(), Employee.class);
-                    int employeeID = managerController.addNewEmployee(e.getFirstName(), e.getLastName(), e.getDob(), e.getEmail());
-                    if (employeeID < 1) {
-                        log.warn("Failed to add the new employee");
-                        resp.getWriter().println("Employee could not be added to the database");
-                        resp.setStatus(400);    // failed to add the new employee
-                    } else {
-                        log.info("Successfully added a new employee");
-                        Employee newEmployee = managerController.viewEmployee(employeeID);
-                        resp.setContentType("application/json");
-                        resp.getWriter().write(om.writeValueAsString(newEmployee));
-                        resp.setStatus(200);    // successfully added the new employee
-                    }
-                } catch (RuntimeException ex) {
-                    log.info("An invalid employee profile was not added");
-                    resp.setContentType("plain/text");
-                    resp.getWriter().println(ex.getMessage());
-                    resp.setStatus(409);        // entered email is not available
-                }
-            } else {
-                log.info("An invalid POST request was made");
-                resp.setStatus(404);    // invalid post request url
+    /**
+     * Read the rows of a CSV employee import, stopping one row past the import limit
+     * Columns are firstName,lastName,dob,email unless the first line is a header naming them in another order
+     * @return the parsed rows, with null for any row that could not be parsed
+     */
+    private List<Employee> readCsvEmployees(BufferedReader reader) throws IOException {
+        List<Employee> rows = new ArrayList<>();
+        int first = 0, last = 1, dob = 2, email = 3;
+        String line = reader.readLine();
+        if (line != null && line.toLowerCase().contains("firstname")) {
+            String[] header = line.split(",", -1);
+            for (int i = 0; i < header.length; ++i) {
+                String column = unquote(header[i]).toLowerCase();
+                if (column.equals("firstname")) first = i;
+                else if (column.equals("lastname")) last = i;
+                else if (column.equals("dob")) dob = i;
+                else if (column.equals("email")) email = i;
+            }
+            line = reader.readLine();
+        }
+        int columns = Math.max(Math.max(first, last), Math.max(dob, email)) + 1;
+        for (; line != null && rows.size() <= ManagerController.MAX_IMPORT_ROWS; line = reader.readLine()) {
+            if (line.trim().isEmpty()) continue;
+            String[] fields = line.split(",", -1);
+            if (fields.length < columns) {
+                rows.add(null);
+                continue;
+            }
+            try {
+                String dobField = unquote(fields[dob]);
+                rows.add(new Employee(-1, null, unquote(fields[first]), unquote(fields[last]),
+                        dobField.isEmpty() ? null : LocalDate.parse(dobField), unquote(fields[email]), null));
+            } catch (DateTimeParseException e) {
+                rows.add(null);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Read the rows of an NDJSON employee import (one Employee object per line), stopping one row past the import limit
+     * @return the parsed rows, with null for any row that could not be parsed
+     */
+    private List<Employee> readNdjsonEmployees(BufferedReader reader) throws IOException {
+        List<Employee> rows = new ArrayList<>();
+        for (String line = reader.readLine(); line != null && rows.size() <= ManagerController.MAX_IMPORT_ROWS; line = reader.readLine()) {
+            if (line.trim().isEmpty()) continue;
+            try {
+                rows.add(om.readValue(line, Employee.class));
+            } catch (IOException e) {
+                rows.add(null);
             }
-        } catch (IndexOutOfBoundsException | NumberFormatException e) {
-            log.info("An invalid POST request was made");
-            resp.setStatus(404);    // invalid post request url
         }
+        return rows;
+    }
+
+    private static String unquote(String field) {
+        field = field.trim();
+        if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\""))
+            field = field.substring(1, field.length() - 1).replace("\"\"", "\"");
+        return field;
     }
 
     /**
      *  PUT requests are used on endpoints:
+     *      /managers/(userID)/requests/update                  |   approve or deny many requests, body [{"requestID": 1, "approved": true}, ...]
      *      /managers/(userID)/requests/update/(requestID)      |   approve or deny a request
      */
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        log.debug("ManagerServlet doPut called with: " + req.getPathInfo());
-
-        String[] params = req.getPathInfo().split("/");
+        log.debug("ManagerServlet doPut called with: {}", req.getPathInfo());
+        dispatch("PUT", req, resp);
+    }
 
-        // validate the user
-        int userID = validate(req, resp);
-        if (userID < 0) {
-            log.info("Unauthorized request made to ManagerServlet doPut with " + req.getPathInfo());
-            resp.setStatus(403);        // unauthorized
+    // manager/(userID)/requests/update
+    private void putResolutions(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        int userID = match.getInt("userID");
+        Decision[] decisions;
+        try {
+            decisions = om.readValue(req.getInputStream(), Decision[].class);
+        } catch (IOException e) {
+            log.info("Invalid bulk resolution parameters entered");
+            resp.setStatus(400);    // invalid input
+            return;
+        }
+        // a literal null body, or null elements, parse without an error
+        if (decisions == null || Arrays.asList(decisions).contains(null)) {
+            log.info("A bulk resolution without decisions was not processed");
+            resp.setContentType("plain/text");
+            resp.getWriter().println("Expected an array of decisions");
+            resp.setStatus(400);    // invalid input
             return;
         }
+        Map<Integer, Boolean> byID = new LinkedHashMap<>();
+        for (Decision d : decisions) byID.put(d.requestID, d.approved);
+        try {
+            Map<Integer, ReimbursementRequest> resolved = new HashMap<>();
+            for (ReimbursementRequest r : requestController.resolveRequests(userID, byID)) {
+                resolved.put(r.getRequestID(), r);
+                if (Boolean.TRUE.equals(byID.get(r.getRequestID()))) approvals.increment();
+                else denials.increment();
+            }
+            List<ResolutionResult> results = new ArrayList<>(byID.size());
+            for (Integer requestID : byID.keySet()) {
+                ResolutionResult result = new ResolutionResult();
+                result.requestID = requestID;
+                result.request = resolved.get(requestID);
+                result.resolved = result.request != null;
+                if (!result.resolved) result.error = "Request not found or already resolved";
+                results.add(result);
+            }
+            log.info("Resolved {} of {} reimbursement requests in bulk", resolved.size(), byID.size());
+            resp.setContentType("application/json");
+            resp.getWriter().write(om.writeValueAsString(new ResolutionArray(results)));
+            resp.setStatus(200);    // per-request outcomes are in the body
+        } catch (RuntimeException e) {
+            log.info("An invalid bulk resolution was not processed");
+            resp.setContentType("plain/text");
+            resp.getWriter().println(e.getMessage());
+            resp.setStatus(400);    // no decisions or too many decisions
+        }
+    }
+
+    private static boolean isPending(ReimbursementRequest r) {
+        return r != null && r.getStatus().equalsIgnoreCase("Pending");
+    }
 
-        // handle the put request
+    // manager/(userID)/requests/update/(requestID)
+    private void putResolution(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws IOException {
+        int userID = match.getInt("userID");
         try {
-            if (params.length == 5 && params[2].equalsIgnoreCase("requests") && params[3].equalsIgnoreCase("update")) {
-                try {
-                    // manager/(userID)/requests/update/(requestID)
-
-                    int requestID = Integer.parseInt(params[4]);
-                    ReimbursementRequest r = requestController.viewRequest(requestID);
-                    if (r == null) {
-                        log.debug("The reimbursement request with id '" + requestID + "' was not found");
-                        resp.setStatus(404);    // request not found
-                    } else if (!r.getStatus().equalsIgnoreCase("Pending")) {
-                        log.info("An attempt was made to resolve a reimbursement request that has already been resolved");
-                        resp.setContentType("plain/text");
-                        resp.getWriter().println("The specified request has already been resolved");
-                        resp.setStatus(409);    // request has already been resolved
-                    } else {
-                        try {
-                            boolean resolution = om.readValue(req.getInputStream(), boolean.class);
-                            if (requestController.resolveRequest(userID, requestID, resolution)) {
-                                log.debug("Reimbursement request successfully resolved");
-                                ReimbursementRequest updated = requestController.viewRequest(requestID);
-                                resp.setContentType("application/json");
-                                resp.getWriter().write(om.writeValueAsString(updated));
-                                resp.setStatus(200);    // successfully updated the reimbursement request status
-                            } else {
-                                log.warn("Failed to update a reimbursement request");
-                                resp.setStatus(500);    // failed to update the reimbursement request status
-                            }
-                        } catch (IOException e) {
-                            log.info("Invalid resolution parameter entered");
-                            resp.setStatus(400);    // invalid input
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    log.info("An invalid request was made for a reimbursement request with specified id '" + params[3] + "'");
-                    resp.setStatus(400);    // invalid requestID entered
-                }
+            int requestID = match.getInt("requestID");
+            boolean resolution;
+            try {
+                resolution = om.readValue(req.getInputStream(), boolean.class);
+            } catch (IOException e) {
+                log.info("Invalid resolution parameter entered");
+                resp.setStatus(400);    // invalid input
+                return;
+            }
+            // the update returns the resolved row, the request is only read again to explain a failure
+            ReimbursementRequest updated = requestController.resolveRequest(userID, requestID, resolution);
+            if (updated != null) {
+                log.debug("Reimbursement request successfully resolved");
+                if (resolution) approvals.increment();
+                else denials.increment();
+                resp.setContentType("application/json");
+                resp.getWriter().write(om.writeValueAsString(updated));
+                resp.setStatus(200);    // successfully updated the reimbursement request status
+                return;
+            }
+            ReimbursementRequest r = requestController.viewRequest(requestID);
+            if (r == null) {
+                log.debug("The reimbursement request with id '{}' was not found", requestID);
+                resp.setStatus(404);    // request not found
+            } else if (!isPending(r)) {
+                log.info("An attempt was made to resolve a reimbursement request that has already been resolved");
+                resp.setContentType("plain/text");
+                resp.getWriter().println("The specified request has already been resolved");
+                resp.setStatus(409);    // request has already been resolved
             } else {
-                log.info("An invalid PUT request was made");
-                resp.setStatus(404);        // invalid put request url
+                log.warn("Failed to update a reimbursement request");
+                resp.setStatus(500);    // failed to update the reimbursement request status
             }
-        } catch (IndexOutOfBoundsException | NumberFormatException e) {
-            log.info("An invalid PUT request was made");
-            resp.setStatus(404);    // invalid put request url
+        } catch (NumberFormatException e) {
+            log.info("An invalid request was made for a reimbursement request with specified id '{}'", match.getString("requestID"));
+            resp.setStatus(400);    // invalid requestID entered
         }
     }
-}
\ No newline at end of file
+}
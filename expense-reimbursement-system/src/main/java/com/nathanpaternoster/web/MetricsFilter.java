@@ -0,0 +1,145 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.metrics.MetricsRegistry;
+import com.nathanpaternoster.web.routing.RouteMatch;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency, status code and response size of every request, labelled by HTTP method and route template
+ * The route is the template the servlet's router matched (RouteMatch.TEMPLATE_ATTRIBUTE), or the servlet path for
+ * servlets mapped to a single path such as /login. Anything else is reported as "other" so unknown urls can't create
+ * an unbounded number of series.
+ */
+public class MetricsFilter implements Filter {
+    static final long[] SIZE_BOUNDS_BYTES = {128, 512, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216};
+    private static final List<String> METHODS = Arrays.asList("GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH");
+    private final MetricsRegistry registry;
+    private final ConcurrentMap<String, ConcurrentMap<String, RouteMetrics>> routes = new ConcurrentHashMap<>();
+    private final Set<String> exactPaths = new HashSet<>();
+
+    /**
+     * The metrics of one method and route
+     */
+    private class RouteMetrics {
+        final String method;
+        final String route;
+        final Histogram duration;
+        final Histogram size;
+        final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(600);
+
+        RouteMetrics(String method, String route) {
+            this.method = method;
+            this.route = route;
+            this.duration = registry.durationHistogram("ers_http_request_duration_seconds", "Time from the request reaching the application to the response completing",
+                    "method", method, "route", route);
+            this.size = registry.histogram("ers_http_response_size_bytes", "Size of response bodies",
+                    SIZE_BOUNDS_BYTES, 1, "method", method, "route", route);
+        }
+
+        void record(int status, long nanos, long bytes) {
+            duration.record(nanos);
+            size.record(bytes);
+            if (status < 0 || status >= statuses.length()) status = 0;
+            LongAdder count = statuses.get(status);
+            if (count == null) {
+                count = registry.counter("ers_http_responses_total", "Responses by status code",
+                        "method", method, "route", route, "status", Integer.toString(status));
+                statuses.set(status, count);
+            }
+            count.increment();
+        }
+    }
+
+    public MetricsFilter() {
+        this(MetricsRegistry.getDefault());
+    }
+
+    MetricsFilter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // servlets mapped to exact paths (not /prefix/* or *.ext) are safe to report by path
+        for (ServletRegistration servlet : filterConfig.getServletContext().getServletRegistrations().values())
+            for (String mapping : servlet.getMappings())
+                if (mapping.startsWith("/") && !mapping.contains("*")) exactPaths.add(mapping);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        CountingResponse resp = CountingResponse.wrap((HttpServletResponse) response);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(req, resp);
+            failed = false;
+        } finally {
+            if (!failed && req.isAsyncStarted()) {
+                // the response completes later, on another thread
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(req, resp.getStatus(), start, resp.count.sum());
+                    }
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                // an exception leaving the filter becomes a 500 from the container
+                record(req, failed ? 500 : resp.getStatus(), start, resp.count.sum());
+            }
+        }
+    }
+
+    private void record(HttpServletRequest req, int status, long start, long bytes) {
+        long nanos = System.nanoTime() - start;
+        String method = METHODS.contains(req.getMethod()) ? req.getMethod() : "OTHER";
+        String route = (String) req.getAttribute(RouteMatch.TEMPLATE_ATTRIBUTE);
+        if (route == null) route = exactPaths.contains(req.getServletPath()) ? req.getServletPath() : "other";
+        ConcurrentMap<String, RouteMetrics> byRoute = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        RouteMetrics metrics = byRoute.get(route);
+        if (metrics == null) {
+            String m = method, r = route;
+            metrics = byRoute.computeIfAbsent(route, key -> new RouteMetrics(m, r));
+        }
+        metrics.record(status, nanos, bytes);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
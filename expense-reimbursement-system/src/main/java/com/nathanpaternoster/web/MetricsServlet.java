@@ -0,0 +1,29 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.metrics.MetricsRegistry;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Servlet exposing the application's metrics in the Prometheus text format for scraping
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+    private final MetricsRegistry registry = MetricsRegistry.getDefault();
+
+    /**
+     *  GET requests are used on endpoints:
+     *      /metrics        |   every registered metric
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        resp.setStatus(200);
+        registry.write(resp.getWriter());
+    }
+}
@@ -0,0 +1,79 @@
+package com.nathanpaternoster.web;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttles the writes of the urls it is mapped to (login, request submission and profile updates) before they reach
+ * the database, answering 429 with Retry-After once a client's bucket is empty
+ * Every write takes a token from the client address's bucket and, when the user is logged in, from the user's bucket.
+ * Login attempts carry the userID in the body, so AuthenticationServlet takes those tokens itself. Reads pass through.
+ * The address is the connection's, run Tomcat's RemoteIpValve when the application is behind a proxy.
+ */
+public class RateLimitFilter implements Filter {
+    private static final Logger log = LogManager.getLogger(RateLimitFilter.class);
+    private RateLimiter ipLimiter;
+    private RateLimiter userLimiter;
+
+    public RateLimitFilter() {
+    }
+
+    RateLimitFilter(RateLimiter ipLimiter, RateLimiter userLimiter) {
+        this.ipLimiter = ipLimiter;
+        this.userLimiter = userLimiter;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        ipLimiter = (RateLimiter) filterConfig.getServletContext().getAttribute("ipRateLimiter");
+        userLimiter = (RateLimiter) filterConfig.getServletContext().getAttribute("userRateLimiter");
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        String method = req.getMethod();
+        if (!method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS")) {
+            if (ipLimiter != null && !allow(ipLimiter, "ip:" + req.getRemoteAddr(), resp)) return;
+            int userID = Authentication.userID(req);
+            if (userLimiter != null && userID >= 0 && !allow(userLimiter, "user:" + userID, resp)) return;
+        }
+        chain.doFilter(req, resp);
+    }
+
+    /**
+     * Take a token for the key, or answer 429 with the seconds until one is available
+     * @return False if the request was rejected
+     */
+    static boolean allow(RateLimiter limiter, String key, HttpServletResponse resp) throws IOException {
+        long wait = limiter.tryAcquire(key);
+        if (wait == 0) return true;
+        long seconds = Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        log.info("Rate limited {} for {} seconds", key, seconds);
+        resp.setHeader("Retry-After", Long.toString(seconds));
+        resp.setContentType("plain/text");
+        resp.getWriter().println("Too many requests, try again in " + seconds + " seconds");
+        resp.setStatus(429);    // too many requests
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,110 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.services.cluster.ClusterBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares RateLimiters between the instances of the application through the ClusterBus
+ * Every period the tokens each key took from the named limiters are sent on the rate_limits channel, and the other
+ * instances take as many from their own buckets for that key. So a client spreading its requests over the instances is
+ * held to the configured limits, overshooting them by at most what it can take from each instance within a period.
+ * A payload is the sending instance's id on the first line, then one "name\ttokens\tkey" line per key.
+ */
+public class RateLimitSync {
+    private static final Logger log = LogManager.getLogger(RateLimitSync.class);
+    public static final String CHANNEL = "rate_limits";
+    private final ClusterBus bus;
+    private final String instance = UUID.randomUUID().toString();
+    private final Map<String, RateLimiter> limiters = new LinkedHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public RateLimitSync(ClusterBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Share a limiter with the limiters of the same name on the other instances, add them before start()
+     */
+    public void add(String name, RateLimiter limiter) {
+        limiter.recordTaken();
+        limiters.put(name, limiter);
+    }
+
+    /**
+     * Subscribe to the channel and send what was taken every period, call before the bus is started
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) return;
+        bus.subscribe(CHANNEL, this::receive);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limit-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::send, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Drain every limiter and send what was taken, split into payloads the bus accepts
+     */
+    void send() {
+        try {
+            StringBuilder payload = new StringBuilder(instance);
+            for (Map.Entry<String, RateLimiter> limiter : limiters.entrySet()) {
+                for (Map.Entry<String, Long> taken : limiter.getValue().drainTaken().entrySet()) {
+                    String line = "\n" + limiter.getKey() + '\t' + taken.getValue() + '\t' + taken.getKey();
+                    if (payload.length() > instance.length()
+                            && bytes(payload) + bytes(line) > ClusterBus.MAX_PAYLOAD) {
+                        bus.send(CHANNEL, payload.toString());
+                        payload.setLength(instance.length());
+                    }
+                    payload.append(line);
+                }
+            }
+            if (payload.length() > instance.length()) bus.send(CHANNEL, payload.toString());
+        } catch (RuntimeException e) {
+            log.error("Failed to share the rate limits", e);
+        }
+    }
+
+    /**
+     * Take what another instance reported from the named limiters, ignoring this instance's own payloads
+     */
+    void receive(String payload) {
+        String[] lines = payload.split("\n");
+        if (lines[0].equals(instance)) return;
+        for (int i = 1; i < lines.length; ++i) {
+            String[] fields = lines[i].split("\t", 3);
+            RateLimiter limiter = (fields.length == 3) ? limiters.get(fields[0]) : null;
+            if (limiter == null) continue;
+            try {
+                limiter.consume(fields[2], Long.parseLong(fields[1]));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring a malformed rate limit line: {}", lines[i]);
+            }
+        }
+    }
+
+    String getInstance() {
+        return instance;
+    }
+
+    private static int bytes(CharSequence s) {
+        return s.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,195 @@
+package com.nathanpaternoster.web;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by a string such as a client address or userID, refilled lazily when a key is next used
+ * Buckets are spread over independently locked stripes, each an access-ordered LinkedHashMap like LruCache's segments,
+ * so requests for different keys rarely contend. A bucket that has been idle long enough to refill completely is the
+ * same as a new one, so it is dropped the next time its stripe is used. Memory is bounded by maxKeys, beyond that the
+ * least recently used bucket of the stripe is evicted, which at worst lets that key start over with a full bucket.
+ * Several instances of the application share their limits through RateLimitSync: once recordTaken() is called, the
+ * tokens each key takes are remembered until drainTaken(), and consume() takes the tokens other instances reported.
+ */
+public class RateLimiter {
+    private static final int STRIPES = 16;
+    private final Stripe[] stripes;
+    private final long capacity;
+    private final long nanosPerToken;
+    private final long fullNanos;       // time for an empty bucket to refill completely
+    private final LongSupplier nanoTime;
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean recording;
+
+    /**
+     * Tokens are counted in nanoseconds of refill time, so refilling and taking a token are integer arithmetic
+     */
+    private static class Bucket {
+        long available;     // nanoseconds of refill, nanosPerToken per token
+        long updated;
+    }
+
+    private class Stripe extends LinkedHashMap<String, Bucket> {
+        private final int maxSize;
+        final Map<String, Long> taken = new HashMap<>();     // tokens taken by key since the last drain, when recording
+
+        Stripe(int maxSize) {
+            super(16, 0.75f, true);     // access order, the least recently used bucket is first
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Drop the buckets that have refilled completely, they are the least recently used so removal stops at the
+         * first one that is still refilling
+         */
+        void removeIdle(long now) {
+            Iterator<Bucket> it = values().iterator();
+            while (it.hasNext() && now - it.next().updated >= fullNanos) it.remove();
+        }
+    }
+
+    /**
+     * @param capacity Requests a key can make in a burst
+     * @param perMinute Requests a key can make per minute once its burst is used up
+     * @param maxKeys Buckets held at most across all stripes
+     */
+    public RateLimiter(long capacity, long perMinute, int maxKeys) {
+        this(capacity, perMinute, maxKeys, System::nanoTime);
+    }
+
+    RateLimiter(long capacity, long perMinute, int maxKeys, LongSupplier nanoTime) {
+        if (capacity < 1 || perMinute < 1 || maxKeys < 1)
+            throw new IllegalArgumentException("Rate limit capacity, rate and maximum keys must be positive");
+        this.capacity = capacity;
+        this.nanosPerToken = TimeUnit.MINUTES.toNanos(1) / perMinute;
+        this.fullNanos = capacity * nanosPerToken;
+        this.nanoTime = nanoTime;
+        int stripeCount = Math.min(STRIPES, maxKeys);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; ++i)
+            stripes[i] = new Stripe(maxKeys / stripeCount + (i < maxKeys % stripeCount ? 1 : 0));
+    }
+
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * @return The key's bucket, created full or refilled up to now, call it holding the stripe's lock
+     */
+    private Bucket refill(Stripe s, String key, long now) {
+        s.removeIdle(now);
+        Bucket bucket = s.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            bucket.available = fullNanos;
+            s.put(key, bucket);
+        } else {
+            bucket.available = Math.min(fullNanos, bucket.available + (now - bucket.updated));
+        }
+        bucket.updated = now;
+        return bucket;
+    }
+
+    /**
+     * Take a token from the key's bucket
+     * @return 0 if a token was taken, otherwise the nanoseconds until one will be available
+     */
+    public long tryAcquire(String key) {
+        Stripe s = stripeFor(key);
+        long now = nanoTime.getAsLong();
+        long wait;
+        synchronized (s) {
+            Bucket bucket = refill(s, key, now);
+            if (bucket.available >= nanosPerToken) {
+                bucket.available -= nanosPerToken;
+                wait = 0;
+                if (recording) s.taken.merge(key, 1L, Long::sum);
+            } else {
+                wait = nanosPerToken - bucket.available;
+            }
+        }
+        if (wait == 0) allowed.increment();
+        else rejected.increment();
+        return wait;
+    }
+
+    /**
+     * Take tokens another instance of the application took from the key, as many as are left
+     */
+    public void consume(String key, long tokens) {
+        Stripe s = stripeFor(key);
+        long now = nanoTime.getAsLong();
+        synchronized (s) {
+            Bucket bucket = refill(s, key, now);
+            bucket.available = Math.max(0, bucket.available - Math.min(tokens, capacity) * nanosPerToken);
+        }
+    }
+
+    /**
+     * Start remembering the tokens taken from each key, for drainTaken()
+     */
+    public void recordTaken() {
+        recording = true;
+    }
+
+    /**
+     * @return The tokens taken from each key since the last drain
+     */
+    public Map<String, Long> drainTaken() {
+        Map<String, Long> taken = new HashMap<>();
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                taken.putAll(s.taken);
+                s.taken.clear();
+            }
+        }
+        return taken;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of buckets currently held
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    public long getAllowedCount() {
+        return allowed.sum();
+    }
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,75 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.services.routing.RoutingDataSource;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Gives clients read-your-writes when listings are read from replicas, whichever instance serves their next request
+ * A write (any method but GET, HEAD and OPTIONS) sets a short-lived cookie, and while a client has it every read it
+ * makes goes to the primary. RoutingDataSource already keeps this instance's own writes consistent, the cookie covers
+ * writes made through another instance, which the replicas may not have replayed yet. Does nothing without replicas.
+ */
+public class ReadRoutingFilter implements Filter {
+    static final String COOKIE = "ers_primary";
+    private boolean enabled;
+    private int pinSeconds;
+
+    public ReadRoutingFilter() {
+    }
+
+    ReadRoutingFilter(int pinSeconds) {
+        this.enabled = true;
+        this.pinSeconds = pinSeconds;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        enabled = filterConfig.getServletContext().getAttribute("routingDataSource") != null;
+        pinSeconds = Integer.parseInt(ContextListener.getParameter(filterConfig.getServletContext(), "replicaPinSeconds", "5"));
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!enabled || !(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        String method = req.getMethod();
+        boolean write = !method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS");
+        if (write) {
+            // set before the servlet runs, the response may be committed by the time it returns
+            String path = req.getContextPath().isEmpty() ? "/" : req.getContextPath();
+            resp.addHeader("Set-Cookie", COOKIE + "=1; Path=" + path + "; Max-Age=" + pinSeconds + "; HttpOnly; SameSite=Strict"
+                    + (req.isSecure() ? "; Secure" : ""));
+        }
+        RoutingDataSource.pinToPrimary(write || hasCookie(req));
+        try {
+            chain.doFilter(req, resp);
+        } finally {
+            RoutingDataSource.pinToPrimary(false);
+        }
+    }
+
+    private static boolean hasCookie(HttpServletRequest req) {
+        Cookie[] cookies = req.getCookies();
+        if (cookies == null) return false;
+        for (Cookie c : cookies) if (COOKIE.equals(c.getName())) return true;
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,121 @@
+package com.nathanpaternoster.web;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Base64;
+
+/**
+ * Issues and verifies the signed tokens that replace HttpSessions when authMode is "token"
+ * A token is base64url(userID.userType.expiresAt) + "." + base64url(HMAC-SHA256 of that payload). Any replica sharing
+ * the secret can verify it without looking anything up, so requests don't need to return to the replica that logged
+ * the user in. Tokens can't be revoked before they expire, logging out only removes the client's cookie.
+ */
+public class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    static final int MIN_SECRET_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final Clock clock;
+    private final ThreadLocal<Mac> macs;     // Mac instances aren't thread safe
+
+    /**
+     * The user a valid token was issued to
+     */
+    public static class Claims {
+        private final int userID;
+        private final String userType;
+        private final long expiresAt;
+
+        Claims(int userID, String userType, long expiresAt) {
+            this.userID = userID;
+            this.userType = userType;
+            this.expiresAt = expiresAt;
+        }
+
+        public int getUserID() {
+            return userID;
+        }
+        public String getUserType() {
+            return userType;
+        }
+
+        /**
+         * @return The expiry in seconds since the epoch
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * @param secret The signing key shared by every replica, at least 32 bytes
+     * @param ttlSeconds How long an issued token is valid
+     */
+    public SessionTokens(byte[] secret, long ttlSeconds) {
+        this(secret, ttlSeconds, Clock.systemUTC());
+    }
+
+    SessionTokens(byte[] secret, long ttlSeconds, Clock clock) {
+        if (secret == null || secret.length < MIN_SECRET_BYTES)
+            throw new IllegalArgumentException("The token secret must be at least " + MIN_SECRET_BYTES + " bytes");
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * @return The current time in seconds since the epoch
+     */
+    long now() {
+        return clock.millis() / 1000;
+    }
+
+    /**
+     * @param userType "Employee" or "Manager"
+     * @return A token valid for ttlSeconds
+     */
+    public String issue(int userID, String userType) {
+        byte[] payload = (userID + "." + userType + "." + (now() + ttlSeconds)).getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(macs.get().doFinal(payload));
+    }
+
+    /**
+     * @return The token's claims, or null if it is malformed, wasn't signed with this secret or has expired
+     */
+    public Claims verify(String token) {
+        if (token == null) return null;
+        int dot = token.indexOf('.');
+        if (dot < 0) return null;
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, macs.get().doFinal(payload))) return null;
+            String[] fields = new String(payload, StandardCharsets.UTF_8).split("\\.");
+            if (fields.length != 3) return null;
+            long expiresAt = Long.parseLong(fields[2]);
+            if (expiresAt <= now()) return null;
+            return new Claims(Integer.parseInt(fields[0]), fields[1], expiresAt);
+        } catch (IllegalArgumentException e) {
+            return null;    // not base64 or not numbers
+        }
+    }
+}
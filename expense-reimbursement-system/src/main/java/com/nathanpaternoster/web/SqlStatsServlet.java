@@ -0,0 +1,120 @@
+package com.nathanpaternoster.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.services.timing.StatementStats;
+import com.nathanpaternoster.services.timing.TimingDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Servlet listing the slowest SQL statements recorded by the TimingDataSource
+ * The statements reveal the schema and how it is used, so only a logged in manager may list them.
+ */
+@WebServlet("/metrics/sql")
+public class SqlStatsServlet extends HttpServlet {
+    private static final Logger log = LogManager.getLogger(SqlStatsServlet.class);
+    private static final int DEFAULT_LIMIT = 20;
+    protected ObjectMapper om;
+    protected TimingDataSource timing;
+
+    // classes for JSON serialization
+    public static class StatementSummary {
+        public String statement;
+        public long count;
+        public double totalMillis;
+        public double meanMillis;
+        public double p50Millis;
+        public double p99Millis;
+        public double maxMillis;
+        public long rows;
+        public long errors;
+        public StatementSummary(StatementStats stats) {
+            Histogram time = stats.getTime();
+            statement = stats.getStatement();
+            count = time.getCount();
+            totalMillis = time.getSum() / 1e6;
+            meanMillis = (count > 0) ? totalMillis / count : 0;
+            p50Millis = time.percentile(0.5) / 1e6;
+            p99Millis = time.percentile(0.99) / 1e6;
+            maxMillis = time.getMax() / 1e6;
+            rows = stats.getRows();
+            errors = stats.getErrors();
+        }
+    }
+    public static class StatementArray {
+        public List<StatementSummary> statements;
+        public StatementArray(List<StatementSummary> statements) {
+            this.statements = statements;
+        }
+    }
+
+    @Override
+    public void init() {
+        om = new ObjectMapper();
+        timing = (TimingDataSource) getServletContext().getAttribute("sqlTiming");
+        log.debug("SqlStatsServlet initialized");
+    }
+
+    /**
+     *  GET requests are used on endpoints:
+     *      /metrics/sql        |   the statements with the most total execution time, for a logged in manager
+     *  The optional query parameters are limit (default 20) and sort, one of total (default), mean, p99, max, count, or rows
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        int userID = Authentication.userID(req);
+        if (userID < 0 || !Authentication.is(req, userID, "Manager")) {
+            log.info("Unauthorized request made to SqlStatsServlet");
+            resp.setStatus(403);    // unauthorized
+            return;
+        }
+        if (timing == null) {
+            log.info("SQL statistics were requested but SQL timing is not enabled");
+            resp.setStatus(404);    // sqlTimingEnabled is false
+            return;
+        }
+        int limit;
+        Comparator<StatementSummary> order;
+        try {
+            limit = (req.getParameter("limit") == null) ? DEFAULT_LIMIT : Integer.parseInt(req.getParameter("limit"));
+            if (limit < 1) throw new NumberFormatException();
+            order = order(req.getParameter("sort"));
+        } catch (IllegalArgumentException e) {
+            resp.setContentType("plain/text");
+            resp.getWriter().println("limit must be a positive number and sort one of total, mean, p99, max, count, or rows");
+            resp.setStatus(400);    // invalid limit or sort
+            return;
+        }
+        List<StatementSummary> statements = new ArrayList<>();
+        for (StatementStats stats : timing.getStatements()) statements.add(new StatementSummary(stats));
+        statements.sort(order.reversed());
+        if (statements.size() > limit) statements = statements.subList(0, limit);
+        resp.setContentType("application/json");
+        resp.getWriter().write(om.writeValueAsString(new StatementArray(statements)));
+        resp.setStatus(200);
+    }
+
+    private static Comparator<StatementSummary> order(String sort) throws IllegalArgumentException {
+        if (sort == null) sort = "total";
+        switch (sort.toLowerCase()) {
+            case "total": return Comparator.comparingDouble(s -> s.totalMillis);
+            case "mean": return Comparator.comparingDouble(s -> s.meanMillis);
+            case "p99": return Comparator.comparingDouble(s -> s.p99Millis);
+            case "max": return Comparator.comparingDouble(s -> s.maxMillis);
+            case "count": return Comparator.comparingLong(s -> s.count);
+            case "rows": return Comparator.comparingLong(s -> s.rows);
+            default: throw new IllegalArgumentException("Unknown sort '" + sort + "'");
+        }
+    }
+}
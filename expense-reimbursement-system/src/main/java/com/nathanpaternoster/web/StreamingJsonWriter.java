@@ -0,0 +1,53 @@
+package com.nathanpaternoster.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.nathanpaternoster.services.RowHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a JSON object of the form {"(field)": [...]} directly to an output stream, one array element at a time,
+ * so a response never holds more than the generator's buffer regardless of how many rows are written
+ * @param <T> The type of the array elements
+ */
+class StreamingJsonWriter<T> implements RowHandler<T>, Closeable {
+    private final JsonGenerator generator;
+    private final ObjectWriter writer;
+
+    StreamingJsonWriter(ObjectMapper om, OutputStream out, String field) throws IOException {
+        // flushing after every element would turn each row into its own network write
+        writer = om.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        generator = om.getFactory().createGenerator(out);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart(field);
+    }
+
+    @Override
+    public void handle(T row) throws IOException {
+        writer.writeValue(generator, row);
+    }
+
+    /**
+     * Mark the stream as incomplete, the response status has already been sent so the error is written as a field instead
+     * @param message A description of the failure
+     */
+    void fail(String message) throws IOException {
+        generator.writeEndArray();
+        generator.writeStringField("error", message);
+        generator.writeEndObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (generator.getOutputContext().inArray()) {
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.close();
+    }
+}
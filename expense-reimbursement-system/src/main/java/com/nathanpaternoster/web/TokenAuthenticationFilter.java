@@ -0,0 +1,74 @@
+package com.nathanpaternoster.web;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Verifies the signed session token of every request when authMode is "token", does nothing otherwise
+ * The token is read from an "Authorization: Bearer" header or the ers_token cookie. A valid token's userID and type are
+ * put in the request attributes read by Authentication, an invalid or expired one is ignored so the servlets answer
+ * 403 as they do without a session. Cookies past half their lifetime are replaced with a fresh token, so a user who
+ * keeps using the application stays logged in like with a session's inactivity timeout.
+ */
+public class TokenAuthenticationFilter implements Filter {
+    private static final Logger log = LogManager.getLogger(TokenAuthenticationFilter.class);
+    private SessionTokens tokens;
+
+    public TokenAuthenticationFilter() {
+    }
+
+    TokenAuthenticationFilter(SessionTokens tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        tokens = (SessionTokens) filterConfig.getServletContext().getAttribute("sessionTokens");
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (tokens == null || !(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        String header = req.getHeader("Authorization");
+        String token = (header != null && header.regionMatches(true, 0, "Bearer ", 0, 7)) ? header.substring(7).trim() : cookie(req);
+        if (token != null) {
+            SessionTokens.Claims claims = tokens.verify(token);
+            if (claims == null) {
+                log.debug("An invalid or expired session token was ignored");
+            } else {
+                req.setAttribute(Authentication.USER, claims.getUserID());
+                req.setAttribute(Authentication.USER_TYPE, claims.getUserType());
+                if (header == null && claims.getExpiresAt() - tokens.now() < tokens.getTtlSeconds() / 2)
+                    Authentication.setCookie(req, resp, tokens.issue(claims.getUserID(), claims.getUserType()), tokens.getTtlSeconds());
+            }
+        }
+        chain.doFilter(req, resp);
+    }
+
+    private static String cookie(HttpServletRequest req) {
+        Cookie[] cookies = req.getCookies();
+        if (cookies == null) return null;
+        for (Cookie c : cookies) if (Authentication.COOKIE.equals(c.getName())) return c.getValue();
+        return null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.nathanpaternoster.web.routing;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet method that handles the requests matching one route
+ */
+@FunctionalInterface
+public interface RouteHandler {
+    void handle(HttpServletRequest req, HttpServletResponse resp, RouteMatch match) throws ServletException, IOException;
+}
@@ -0,0 +1,94 @@
+package com.nathanpaternoster.web.routing;
+
+/**
+ * The route a path matched and the parameters captured from it
+ * Parameters are int ids parsed straight from the path while matching, so reading one never allocates. A parameter
+ * whose segment isn't an int still matches (so the handler can answer 400 rather than 404) and throws
+ * NumberFormatException when read, the same as Integer.parseInt on the segment would.
+ */
+public class RouteMatch {
+    /**
+     * Request attribute holding the template of the matched route, e.g. "/managers/{userID}/requests/{requestID}"
+     */
+    public static final String TEMPLATE_ATTRIBUTE = "routeTemplate";
+    static final int MAX_PARAMS = 8;
+    private static final long INVALID = Long.MIN_VALUE;
+    private final int[] starts = new int[MAX_PARAMS];
+    private final int[] ends = new int[MAX_PARAMS];
+    private final long[] values = new long[MAX_PARAMS];
+    private String path;
+    private String template;
+    private String[] names;
+
+    void capture(int index, String path, int start, int end) {
+        this.path = path;
+        starts[index] = start;
+        ends[index] = end;
+        values[index] = parse(path, start, end);
+    }
+
+    void matched(String template, String[] names) {
+        this.template = template;
+        this.names = names;
+    }
+
+    /**
+     * @return The template of the matched route including the servlet prefix, or null if nothing matched
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @param name The parameter name in the route template, e.g. "requestID" for {requestID}
+     * @return The parameter's value
+     * @throws NumberFormatException if the path segment is not an int
+     * @throws IllegalArgumentException if the matched route has no such parameter
+     */
+    public int getInt(String name) throws NumberFormatException, IllegalArgumentException {
+        int index = indexOf(name);
+        if (values[index] == INVALID)
+            throw new NumberFormatException("For input string: \"" + path.substring(starts[index], ends[index]) + "\"");
+        return (int) values[index];
+    }
+
+    /**
+     * @return The raw path segment of the parameter, for logging a value that isn't a valid int
+     */
+    public String getString(String name) throws IllegalArgumentException {
+        int index = indexOf(name);
+        return path.substring(starts[index], ends[index]);
+    }
+
+    private int indexOf(String name) {
+        if (names != null)
+            for (int i = 0; i < names.length; ++i)
+                if (names[i].equals(name)) return i;
+        throw new IllegalArgumentException("Route " + template + " has no parameter '" + name + "'");
+    }
+
+    /**
+     * Parse part of a string as a decimal int without creating a substring
+     * @throws NumberFormatException if the range is empty, has a non-digit, or overflows an int
+     */
+    public static int parseInt(CharSequence s, int start, int end) throws NumberFormatException {
+        long value = parse(s, start, end);
+        if (value == INVALID)
+            throw new NumberFormatException((start < end) ? "For input string: \"" + s.subSequence(start, end) + "\"" : "Empty path segment");
+        return (int) value;
+    }
+
+    private static long parse(CharSequence s, int start, int end) {
+        boolean negative = start < end && s.charAt(start) == '-';
+        int i = (negative || (start < end && s.charAt(start) == '+')) ? start + 1 : start;
+        if (i >= end || end - i > 10) return INVALID;
+        long value = 0;
+        for (; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return INVALID;
+            value = value * 10 + (c - '0');
+        }
+        if (negative) value = -value;
+        return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? INVALID : value;
+    }
+}
@@ -0,0 +1,128 @@
+package com.nathanpaternoster.web.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps request paths to handlers using path templates such as "/{userID}/requests/employee/{employeeID}"
+ * Templates are compiled into a trie per HTTP method when they're added, one node per path segment. Matching walks the
+ * path in place: literal segments are compared case-insensitively against the node's children and {name} segments
+ * capture an int parameter, so a lookup does no splitting and no substring allocation. Literal segments take
+ * precedence over a parameter at the same position, e.g. /requests/pending is never read as a requestID.
+ * A router is built once and is safe to share between request threads afterwards.
+ * @param <H> The handler type
+ */
+public class Router<H> {
+    private final String prefix;
+    private final Map<String, Node<H>> roots = new HashMap<>();
+
+    private static class Node<H> {
+        String[] literals = new String[0];
+        @SuppressWarnings("unchecked")
+        Node<H>[] children = (Node<H>[]) new Node<?>[0];
+        Node<H> param;
+        Route<H> route;
+    }
+
+    private static class Route<H> {
+        final String template;
+        final String[] names;
+        final H handler;
+
+        Route(String template, String[] names, H handler) {
+            this.template = template;
+            this.names = names;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * @param prefix The servlet's mapping, e.g. "/managers", prepended to the templates reported by matches
+     */
+    public Router(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Add a route
+     * @param method The HTTP method, e.g. "GET"
+     * @param template The path relative to the servlet, literal segments and {name} int parameters, e.g. "/{userID}/profile"
+     * @return this router
+     * @throws IllegalArgumentException if the template is malformed or the route already exists
+     */
+    public Router<H> add(String method, String template, H handler) throws IllegalArgumentException {
+        if (!template.startsWith("/"))
+            throw new IllegalArgumentException("Route template '" + template + "' must start with /");
+        Node<H> node = roots.computeIfAbsent(method.toUpperCase(), m -> new Node<>());
+        String[] names = new String[0];
+        for (String segment : template.substring(1).split("/", -1)) {
+            if (segment.isEmpty())
+                throw new IllegalArgumentException("Route template '" + template + "' has an empty segment");
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (name.isEmpty() || Arrays.asList(names).contains(name) || names.length == RouteMatch.MAX_PARAMS)
+                    throw new IllegalArgumentException("Route template '" + template + "' has an invalid parameter '" + segment + "'");
+                names = Arrays.copyOf(names, names.length + 1);
+                names[names.length - 1] = name;
+                if (node.param == null) node.param = new Node<>();
+                node = node.param;
+            } else {
+                node = literalChild(node, segment);
+            }
+        }
+        if (node.route != null)
+            throw new IllegalArgumentException("Route " + method + " " + template + " conflicts with " + node.route.template);
+        node.route = new Route<>(prefix + template, names, handler);
+        return this;
+    }
+
+    private static <H> Node<H> literalChild(Node<H> node, String segment) {
+        for (int i = 0; i < node.literals.length; ++i)
+            if (node.literals[i].equalsIgnoreCase(segment)) return node.children[i];
+        Node<H> child = new Node<>();
+        node.literals = Arrays.copyOf(node.literals, node.literals.length + 1);
+        node.children = Arrays.copyOf(node.children, node.children.length + 1);
+        node.literals[node.literals.length - 1] = segment;
+        node.children[node.children.length - 1] = child;
+        return child;
+    }
+
+    /**
+     * Find the route for a path
+     * @param method The HTTP method
+     * @param path The path relative to the servlet (its path info), a single trailing slash is ignored
+     * @param match Receives the matched template and parameters
+     * @return The route's handler, or null if no route matches
+     */
+    public H match(String method, String path, RouteMatch match) {
+        Node<H> root = roots.get(method);
+        if (root == null || path == null || path.isEmpty()) return null;
+        Route<H> route = match(root, path, 0, 0, match);
+        if (route == null) return null;
+        match.matched(route.template, route.names);
+        return route.handler;
+    }
+
+    private Route<H> match(Node<H> node, String path, int pos, int params, RouteMatch match) {
+        int length = path.length();
+        if (pos == length || (pos == length - 1 && pos > 0 && path.charAt(pos) == '/')) return node.route;
+        if (path.charAt(pos) != '/') return null;
+        int start = pos + 1;
+        int end = path.indexOf('/', start);
+        if (end < 0) end = length;
+        if (end == start) return null;      // empty segment
+        for (int i = 0; i < node.literals.length; ++i) {
+            String literal = node.literals[i];
+            if (literal.length() == end - start && path.regionMatches(true, start, literal, 0, literal.length())) {
+                Route<H> route = match(node.children[i], path, end, params, match);
+                if (route != null) return route;
+            }
+        }
+        if (node.param != null) {
+            match.capture(params, path, start, end);
+            return match(node.param, path, end, params + 1, match);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+-- listing versions move out of the database (TableVersions): every statement that changes requests or users notifies
+-- the table_changes channel with its transaction's id instead of bumping a table_versions row, which every writer had to
+-- lock until it committed. Notifications are delivered in commit order, so an instance's version for a table is the
+-- id of the last transaction that changed it, and instances that have received the same notifications agree on it.
+create or replace function notify_table_change() returns trigger language plpgsql as $$
+begin
+	-- a transaction's identical notifications are delivered once
+	perform pg_notify('table_changes', tg_table_name || ':' || txid_current());
+	return null;
+end;
+$$;
+
+drop trigger if exists requests_version on requests;
+create trigger requests_version after insert or update or delete or truncate on requests
+	for each statement execute function notify_table_change();
+drop trigger if exists users_version on users;
+create trigger users_version after insert or update or delete or truncate on users
+	for each statement execute function notify_table_change();
+
+drop function if exists bump_table_version();
+drop table if exists table_versions;
@@ -0,0 +1,30 @@
+-- point lookups by requestID (getRequest, resolveRequest, the history) probed the primary key of every partition, since
+-- the key of the partitioned requests table (V5) leads with requestID but also holds the partition keys. request_ids
+-- (V7) now keeps each request's partition keys too, so RequestDAOImplPostgres reads them first and postgres prunes every
+-- partition but the request's own
+alter table request_ids add column if not exists archived boolean;
+alter table request_ids add column if not exists timeSubmitted timestamp;
+update request_ids i set archived = r.archived, timeSubmitted = r.timeSubmitted
+	from requests r where r.requestID = i.requestID and i.timeSubmitted is null;
+alter table request_ids alter column archived set not null, alter column timeSubmitted set not null;
+
+-- archiving still runs as a delete then an insert, which moves the keys along with the row
+create or replace function track_request_id() returns trigger language plpgsql as $$
+begin
+	if tg_op = 'TRUNCATE' then
+		delete from request_ids;
+		return null;
+	end if;
+	if tg_op in ('DELETE', 'UPDATE') then
+		delete from request_ids where requestID = old.requestID;
+	end if;
+	if tg_op in ('INSERT', 'UPDATE') then
+		insert into request_ids (requestID, archived, timeSubmitted) values (new.requestID, new.archived, new.timeSubmitted);
+	end if;
+	return null;
+end;
+$$;
+
+drop trigger if exists requests_unique_id on requests;
+create trigger requests_unique_id after insert or delete or update of requestID, archived, timeSubmitted on requests
+	for each row execute function track_request_id();
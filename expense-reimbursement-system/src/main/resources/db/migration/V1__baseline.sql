@@ -0,0 +1,39 @@
+-- schema as it existed before migrations, safe to run against a database created by hand from ers.sql
+create table if not exists users (
+	userID int primary key generated always as identity (start with 1000000),
+	password varchar(20) not null,
+	userType varchar(20) not null,
+	firstName varchar(20) not null,
+	lastName varchar(20) not null,
+	email varchar(50) unique,
+	dob timestamp
+);
+
+create table if not exists requests (
+	requestID int primary key generated always as identity,
+	submitterID int references users(userID) not null,
+	resolverID int references users(userID),
+	amount bigint not null,
+	timeSubmitted timestamp not null,
+	timeResolved timestamp,
+	category varchar(20),
+	description varchar(50),
+	status varchar(20) not null
+);
+alter table requests add column if not exists timeResolved timestamp;
+
+-- transactional outbox, rows are written with the change that triggers them and drained by NotificationDispatcher
+create table if not exists notifications (
+	notificationID bigint primary key generated always as identity,
+	kind varchar(20) not null,
+	requestID int references requests(requestID),
+	userID int references users(userID),
+	status varchar(20) not null default 'Pending',
+	attempts int not null default 0,
+	createdAt timestamp not null default now(),
+	nextAttemptAt timestamp not null default now(),
+	sentAt timestamp,
+	lastError varchar(200)
+);
+alter table notifications add column if not exists userID int references users(userID);
+create index if not exists notifications_due_idx on notifications (nextAttemptAt) where status='Pending';
@@ -0,0 +1,11 @@
+-- migration: no-transaction
+-- built concurrently so deploying doesn't block writes to requests, which can't run inside a transaction
+
+-- one employee's requests, newest first (getRequests, getRequestPage and streamRequests for one user)
+create index concurrently if not exists requests_submitter_time_idx on requests (submitterID, timeSubmitted desc, requestID desc);
+
+-- every request newest first, also serves the resolved listings since most requests are resolved
+create index concurrently if not exists requests_time_idx on requests (timeSubmitted desc, requestID desc);
+
+-- the manager's pending queue, small because requests only stay pending until resolved
+create index concurrently if not exists requests_pending_time_idx on requests (timeSubmitted desc, requestID desc) where status='Pending';
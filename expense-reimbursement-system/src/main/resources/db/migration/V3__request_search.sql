@@ -0,0 +1,10 @@
+-- migration: no-transaction
+-- full-text search over category and description (searchRequests), category matches rank above description matches
+
+-- kept up to date by postgres on every insert and update, adding it rewrites requests once
+alter table requests add column if not exists search tsvector generated always as (
+	setweight(to_tsvector('english', coalesce(category, '')), 'A') ||
+	setweight(to_tsvector('english', coalesce(description, '')), 'B')) stored;
+
+-- built concurrently so deploying doesn't block writes to requests
+create index concurrently if not exists requests_search_idx on requests using gin (search);
@@ -0,0 +1,11 @@
+-- migration: no-transaction
+-- indexes for the filters and sorts of RequestDAO.find that the listing indexes (V2) don't cover
+
+-- one manager's resolutions, newest first
+create index concurrently if not exists requests_resolver_time_idx on requests (resolverID, timeSubmitted desc, requestID desc) where resolverID is not null;
+
+-- one category, newest first
+create index concurrently if not exists requests_category_time_idx on requests (category, timeSubmitted desc, requestID desc);
+
+-- amount thresholds and sorting by amount, scanned backwards for ascending order
+create index concurrently if not exists requests_amount_idx on requests (amount desc, requestID desc);
@@ -0,0 +1,83 @@
+-- requests becomes a partitioned table so queries for recent and pending requests skip years of resolved ones:
+--   requests               list partitioned by archived
+--     requests_current     archived=false, range partitioned by timeSubmitted into monthly requests_yyyy_mm partitions
+--       requests_current_default   rows outside every monthly partition
+--     requests_archive     archived=true, resolved requests moved out by RequestPartitionMaintainer
+-- the table is copied once, which blocks writes to requests while this migration runs
+
+-- a unique requestID across partitions can't be enforced, so notifications can no longer reference it
+alter table notifications drop constraint if exists notifications_requestid_fkey;
+
+alter table requests rename to requests_unpartitioned;
+-- free the names postgres gives the new table's key, foreign keys and identity sequence
+alter index if exists requests_pkey rename to requests_unpartitioned_pkey;
+alter table requests_unpartitioned
+	drop constraint if exists requests_submitterid_fkey,
+	drop constraint if exists requests_resolverid_fkey,
+	alter column requestID drop identity if exists;
+
+create table requests (
+	requestID int generated always as identity,
+	submitterID int references users(userID) not null,
+	resolverID int references users(userID),
+	amount bigint not null,
+	timeSubmitted timestamp not null,
+	timeResolved timestamp,
+	category varchar(20),
+	description varchar(50),
+	status varchar(20) not null,
+	search tsvector generated always as (
+		setweight(to_tsvector('english', coalesce(category, '')), 'A') ||
+		setweight(to_tsvector('english', coalesce(description, '')), 'B')) stored,
+	archived boolean not null default false,
+	-- a primary key must contain every partition key, requestID alone is unique because it comes from one sequence
+	primary key (requestID, archived, timeSubmitted)
+) partition by list (archived);
+
+create table requests_current partition of requests for values in (false) partition by range (timeSubmitted);
+create table requests_current_default partition of requests_current default;
+create table requests_archive partition of requests for values in (true);
+
+-- creates the monthly partition containing a date, called by RequestPartitionMaintainer to stay months ahead
+create or replace function create_request_partition(containing date) returns boolean as $$
+declare
+	month_start timestamp := date_trunc('month', containing::timestamp);
+	partition_name text := 'requests_' || to_char(month_start, 'YYYY_MM');
+begin
+	if to_regclass(partition_name) is not null then
+		return false;
+	end if;
+	execute format('create table %I partition of requests_current for values from (%L) to (%L)',
+		partition_name, month_start, month_start + interval '1 month');
+	return true;
+end;
+$$ language plpgsql;
+
+-- a partition for every month with requests and the next three
+do $$
+declare
+	month_start timestamp;
+begin
+	for month_start in select generate_series(
+			date_trunc('month', coalesce((select min(timeSubmitted) from requests_unpartitioned), localtimestamp)),
+			date_trunc('month', localtimestamp) + interval '3 months', interval '1 month') loop
+		perform create_request_partition(month_start::date);
+	end loop;
+end;
+$$;
+
+insert into requests (requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status)
+	overriding system value
+	select requestID, submitterID, resolverID, amount, timeSubmitted, timeResolved, category, description, status from requests_unpartitioned;
+select setval(pg_get_serial_sequence('requests', 'requestid'), coalesce(max(requestID), 0) + 1, false) from requests;
+
+drop table requests_unpartitioned;
+
+-- the indexes of V2, V3 and V4, created on every partition
+create index requests_submitter_time_idx on requests (submitterID, timeSubmitted desc, requestID desc);
+create index requests_time_idx on requests (timeSubmitted desc, requestID desc);
+create index requests_pending_time_idx on requests (timeSubmitted desc, requestID desc) where status='Pending';
+create index requests_search_idx on requests using gin (search);
+create index requests_resolver_time_idx on requests (resolverID, timeSubmitted desc, requestID desc) where resolverID is not null;
+create index requests_category_time_idx on requests (category, timeSubmitted desc, requestID desc);
+create index requests_amount_idx on requests (amount desc, requestID desc);
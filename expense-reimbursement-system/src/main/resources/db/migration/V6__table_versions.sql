@@ -0,0 +1,24 @@
+-- versions of the tables whose listings are tagged for conditional GETs (RequestDAO.getVersion, UserDAO.getVersion)
+-- every statement that changes requests or users bumps its table's version, whichever instance of the application
+-- (or anything else) ran it, and in that statement's transaction, so a version is never visible before its data
+create table if not exists table_versions (
+	tableName varchar(30) primary key,
+	version bigint not null default 0
+);
+insert into table_versions (tableName) values ('requests'), ('users') on conflict do nothing;
+
+create or replace function bump_table_version() returns trigger language plpgsql as $$
+begin
+	update table_versions set version = version + 1 where tableName = tg_table_name;
+	return null;
+end;
+$$;
+
+-- statement triggers fire once per statement however many rows it changes, including rows archived by
+-- RequestPartitionMaintainer and employees imported by COPY
+drop trigger if exists requests_version on requests;
+create trigger requests_version after insert or update or delete or truncate on requests
+	for each statement execute function bump_table_version();
+drop trigger if exists users_version on users;
+create trigger users_version after insert or update or delete or truncate on users
+	for each statement execute function bump_table_version();
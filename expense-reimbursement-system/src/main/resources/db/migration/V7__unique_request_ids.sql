@@ -0,0 +1,46 @@
+-- the partitioned requests table (V5) can only have a primary key containing its partition keys, so nothing stopped
+-- two partitions holding the same requestID (an explicit id, a bulk load, a bad archive move)
+-- request_ids holds every requestID once, kept in step by a trigger in the writing statement's transaction: a
+-- duplicate fails that statement, and notifications can reference requests again through it
+
+create table if not exists request_ids (
+	requestID int primary key
+);
+-- fails this migration if duplicates already exist, they must be resolved by hand first
+insert into request_ids (requestID) select requestID from requests on conflict do nothing;
+do $$
+begin
+	if (select count(*) from request_ids) <> (select count(*) from requests) then
+		raise exception 'requests holds duplicate requestIDs, see: select requestID from requests group by requestID having count(*) > 1';
+	end if;
+end;
+$$;
+
+-- archiving moves a row between partitions, which postgres runs as a delete then an insert and fires both triggers
+create or replace function track_request_id() returns trigger language plpgsql as $$
+begin
+	if tg_op = 'TRUNCATE' then
+		delete from request_ids;
+		return null;
+	end if;
+	if tg_op in ('DELETE', 'UPDATE') then
+		delete from request_ids where requestID = old.requestID;
+	end if;
+	if tg_op in ('INSERT', 'UPDATE') then
+		insert into request_ids (requestID) values (new.requestID);
+	end if;
+	return null;
+end;
+$$;
+
+drop trigger if exists requests_unique_id on requests;
+create trigger requests_unique_id after insert or delete or update of requestID on requests
+	for each row execute function track_request_id();
+drop trigger if exists requests_unique_id_truncate on requests;
+create trigger requests_unique_id_truncate after truncate on requests
+	for each statement execute function track_request_id();
+
+-- replaces the foreign key V5 dropped, checked at commit since an archive move briefly removes the id
+alter table notifications drop constraint if exists notifications_requestid_fkey;
+alter table notifications add constraint notifications_requestid_fkey
+	foreign key (requestID) references request_ids (requestID) deferrable initially deferred;
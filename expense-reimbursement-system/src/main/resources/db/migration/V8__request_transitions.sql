@@ -0,0 +1,24 @@
+-- every submission and resolution of a request, written by RequestDAOImplPostgres in the transaction that makes the
+-- change, so the history served by /managers/(userID)/requests/(requestID)/history includes the writes of every
+-- instance of the application. An instance's audit journal (auditEnabled) is only its local write-ahead copy.
+create table if not exists request_transitions (
+	transitionID bigint primary key generated always as identity,
+	requestID int not null references request_ids (requestID) deferrable initially deferred,
+	kind varchar(20) not null,
+	actorID int not null references users (userID),
+	status varchar(20) not null,
+	timeChanged timestamp not null
+);
+create index if not exists request_transitions_request_idx on request_transitions (requestID, transitionID);
+
+-- the history of requests written before this table existed, oldest transition first
+insert into request_transitions (requestID, kind, actorID, status, timeChanged)
+select requestID, kind, actorID, status, timeChanged from (
+	select requestID, 'SUBMITTED' as kind, submitterID as actorID, 'Pending' as status, timeSubmitted as timeChanged, 0 as step
+	from requests
+	union all
+	select requestID, 'RESOLVED', resolverID, status, timeResolved, 1
+	from requests where status <> 'Pending' and resolverID is not null and timeResolved is not null
+) transitions
+where not exists (select 1 from request_transitions)
+order by timeChanged, requestID, step;
@@ -0,0 +1,31 @@
+-- submissions and resolutions are announced on the request_events channel when their transaction commits, whichever
+-- instance of the application (or anything else) made them, so the event stream and dashboard of every instance that
+-- listens (ClusterBus) see every change. The id orders the events for Last-Event-ID on whichever instance a client
+-- reconnects to.
+create sequence if not exists request_event_ids;
+
+create or replace function notify_request_event() returns trigger language plpgsql as $$
+begin
+	perform pg_notify('request_events', json_build_object(
+		'id', nextval('request_event_ids'),
+		'type', case when tg_op = 'INSERT' then 'submitted' else 'resolved' end,
+		'requestID', new.requestID,
+		'submitterID', new.submitterID,
+		'resolverID', new.resolverID,
+		'amount', new.amount,
+		'category', new.category,
+		'description', new.description,
+		'timeSubmitted', new.timeSubmitted,
+		'timeResolved', new.timeResolved,
+		'status', new.status)::text);
+	return null;
+end;
+$$;
+
+-- archiving moves a row between partitions as a delete and an insert, the archived copy isn't a new submission
+drop trigger if exists requests_submitted_event on requests;
+create trigger requests_submitted_event after insert on requests
+	for each row when (not new.archived) execute function notify_request_event();
+drop trigger if exists requests_resolved_event on requests;
+create trigger requests_resolved_event after update of status on requests
+	for each row when (old.status = 'Pending' and new.status <> 'Pending') execute function notify_request_event();
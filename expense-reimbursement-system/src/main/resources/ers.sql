@@ -1,24 +1,5 @@
-create table if not exists users (
-	userID int primary key generated always as identity (start with 1000000),
-	password varchar(20) not null,
-	userType varchar(20) not null,
-	firstName varchar(20) not null,
-	lastName varchar(20) not null,
-	email varchar(50) unique,
-	dob timestamp
-);
-
-create table if not exists requests (
-	requestID int primary key generated always as identity,
-	submitterID int references users(userID) not null,
-	resolverID int references users(userID),
-	amount bigint not null,
-	timeSubmitted timestamp not null,
-	category varchar(20),
-	description varchar(50),
-	status varchar(20) not null
-);
-
+-- the schema is created and upgraded by the scripts in db/migration, which ContextListener applies at startup
+-- (see MigrationRunner), the statements below are sample data and queries for working against a dev database
 
 insert into users (password, userType, firstName, lastName, email, dob) values ('password', 'Employee', 'ZTest', 'ZTester', 'zttester@test.com', '2000-01-01 00:00:00') returning userID;
 insert into users (password, userType, firstName, lastName, email, dob) values ('password', 'Manager', 'manager', 'manager', 'manager@mail.com', '2000-01-01 00:00:00') returning userID;
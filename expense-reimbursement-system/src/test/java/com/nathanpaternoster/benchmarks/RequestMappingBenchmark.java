@@ -0,0 +1,44 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestDAOImplPostgres;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU and allocation cost of turning result set rows into ReimbursementRequests along the queryRequests path
+ * The rows come from SyntheticDataSource, whose reflective proxies add a fixed per-column cost a real driver doesn't have,
+ * so compare runs of this benchmark against each other rather than reading the absolute numbers as driver cost
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestMappingBenchmark {
+    @Param({"1", "50", "500"})
+    public int rows;
+    private RequestDAO dao;
+
+    @Setup
+    public void setUp() {
+        Configurator.setLevel("com.nathanpaternoster", Level.WARN);
+        dao = new RequestDAOImplPostgres(SyntheticDataSource.create(rows));
+    }
+
+    @Benchmark
+    public List<ReimbursementRequest> queryAllRequests() {
+        return dao.getAllRequests();
+    }
+
+    @Benchmark
+    public List<ReimbursementRequest> queryOneUsersPendingRequests() {
+        return dao.getPendingRequests(1000000);
+    }
+}
@@ -0,0 +1,167 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.nathanpaternoster.controllers.requests.ReimbursementRequestController;
+import com.nathanpaternoster.controllers.users.ManagerController;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
+import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.web.ManagerServlet;
+import com.nathanpaternoster.web.routing.RouteMatch;
+import com.nathanpaternoster.web.routing.Router;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of ManagerServlet.doGet from path to response for a few routes, with controllers that return fixed results so
+ * the numbers are the servlet's own dispatch, session check and serialization
+ * splitChain and trie isolate the dispatch itself: splitChain is the split("/") and equalsIgnoreCase chain the servlets
+ * used before the router (split in validate and again in doGet), trie is the Router lookup the servlets use now
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({"/123", "/123/employees/777", "/123/requests/5", "/123/requests/pending"})
+    public String path;
+    private BenchmarkServlet servlet;
+    private HttpServletRequest req;
+    private HttpServletResponse resp;
+    private Router<Integer> router;
+
+    static class BenchmarkServlet extends ManagerServlet {
+        BenchmarkServlet() {
+            om = new ObjectMapper();
+            om.registerModule(new JavaTimeModule());
+            om.setDateFormat(new SimpleDateFormat("dd-MM-yyyy"));
+            Employee employee = new Employee(777, "**********", "Morgan", "Freeman", LocalDate.of(1970, 1, 1), "mfreeman@gmail.com", null);
+            ReimbursementRequest request = new ReimbursementRequest(5, 777, 0, 12345, "Travel", "Conference",
+                    LocalDateTime.of(2022, 8, 1, 12, 0), null, "Pending");
+            managerController = new ManagerController(null) {
+                @Override
+                public Employee viewEmployee(int userID) {
+                    return employee;
+                }
+            };
+            requestController = new ReimbursementRequestController(null, null) {
+                @Override
+                public ReimbursementRequest viewRequest(int requestID) {
+                    return request;
+                }
+                @Override
+                public RequestPage viewAllRequestPage(String status, String pageSize, String pageToken) {
+                    return new RequestPage(Collections.singletonList(request), null);
+                }
+            };
+        }
+        void get(HttpServletRequest req, HttpServletResponse resp) throws Exception {
+            doGet(req, resp);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Configurator.setLevel("com.nathanpaternoster", Level.WARN);
+        servlet = new BenchmarkServlet();
+        HttpSession session = proxy(HttpSession.class, (p, m, a) -> m.getName().equals("getAttribute") ? 123 : null);
+        req = proxy(HttpServletRequest.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "getPathInfo": return path;
+                case "getSession": return session;
+                default: return null;
+            }
+        });
+        PrintWriter discard = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+            @Override
+            public void flush() {
+            }
+            @Override
+            public void close() {
+            }
+        });
+        resp = proxy(HttpServletResponse.class, (p, m, a) -> m.getName().equals("getWriter") ? discard : null);
+
+        router = new Router<Integer>("/managers")
+                .add("GET", "/{userID}", 1)
+                .add("GET", "/{userID}/employees", 2)
+                .add("GET", "/{userID}/employees/all", 3)
+                .add("GET", "/{userID}/employees/{employeeID}", 4)
+                .add("GET", "/{userID}/requests", 5)
+                .add("GET", "/{userID}/requests/all", 6)
+                .add("GET", "/{userID}/requests/pending", 6)
+                .add("GET", "/{userID}/requests/resolved", 6)
+                .add("GET", "/{userID}/requests/{requestID}", 7)
+                .add("GET", "/{userID}/requests/employee/{employeeID}", 8);
+    }
+
+    @Benchmark
+    public void doGet() throws Exception {
+        servlet.get(req, resp);
+    }
+
+    /**
+     * @return The route number plus the ids parsed from the path, so nothing is dead code
+     */
+    @Benchmark
+    public int splitChain() {
+        String[] params = path.split("/");
+        int userID = Integer.parseInt(path.split("/")[1]);      // validate() split the path on its own
+        try {
+            if (params.length == 2) return 1 + userID;
+            if (params[2].equalsIgnoreCase("employees")) {
+                if (params.length == 3) return 2 + userID;
+                if (params.length == 4) {
+                    if (params[3].equalsIgnoreCase("all")) return 3 + userID;
+                    return 4 + userID + Integer.parseInt(params[3]);
+                }
+            } else if (params[2].equalsIgnoreCase("requests")) {
+                if (params.length == 3) return 5 + userID;
+                if (params.length == 4) {
+                    if (params[3].equalsIgnoreCase("all") || params[3].equalsIgnoreCase("pending") || params[3].equalsIgnoreCase("resolved"))
+                        return 6 + userID;
+                    return 7 + userID + Integer.parseInt(params[3]);
+                }
+                if (params.length == 5 && params[3].equalsIgnoreCase("employee")) return 8 + userID + Integer.parseInt(params[4]);
+            }
+            return -1;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int trie() {
+        RouteMatch match = new RouteMatch();
+        Integer route = router.match("GET", path, match);
+        if (route == null) return -1;
+        int sum = route + match.getInt("userID");
+        if (route == 4 || route == 8) sum += match.getInt("employeeID");
+        else if (route == 7) sum += match.getInt("requestID");
+        return sum;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(RoutingBenchmark.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
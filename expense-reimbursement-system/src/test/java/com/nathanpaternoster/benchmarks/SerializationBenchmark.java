@@ -0,0 +1,62 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.web.ManagerServlet;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JSON responses for the request and employee listings, serialized the way ManagerServlet does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"1", "50"})
+    public int size;
+    private ObjectMapper om;
+    private ManagerServlet.RequestArray requests;
+    private ManagerServlet.EmployeeArray employees;
+
+    @Setup
+    public void setUp() {
+        // configured as in ManagerServlet.init
+        om = new ObjectMapper();
+        om.registerModule(new JavaTimeModule());
+        om.setDateFormat(new SimpleDateFormat("dd-MM-yyyy"));
+
+        List<ReimbursementRequest> requestList = new ArrayList<>(size);
+        List<Employee> employeeList = new ArrayList<>(size);
+        LocalDateTime submitted = LocalDateTime.of(2022, 8, 1, 12, 0);
+        for (int i = 0; i < size; ++i) {
+            requestList.add(new ReimbursementRequest(i + 1, 1000000 + i, i % 2 == 0 ? 0 : 1000500, 12345L * i, "Travel",
+                    "Synthetic request number " + i, submitted.minusMinutes(i), i % 2 == 0 ? null : submitted, i % 2 == 0 ? "Pending" : "Approved"));
+            employeeList.add(new Employee(1000000 + i, "**********", "First" + i, "Last" + i, LocalDate.of(1990, 1, 1).plusDays(i),
+                    "user" + i + "@example.com", null));
+        }
+        requests = new ManagerServlet.RequestArray(requestList);
+        employees = new ManagerServlet.EmployeeArray(employeeList);
+    }
+
+    @Benchmark
+    public String serializeRequestArray() throws Exception {
+        return om.writeValueAsString(requests);
+    }
+
+    @Benchmark
+    public String serializeEmployeeArray() throws Exception {
+        return om.writeValueAsString(employees);
+    }
+}
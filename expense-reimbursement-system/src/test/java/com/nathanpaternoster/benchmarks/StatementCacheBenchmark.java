@@ -0,0 +1,96 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.nathanpaternoster.metrics.Histogram;
+import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestDAOImplPostgres;
+import com.nathanpaternoster.services.UserDAO;
+import com.nathanpaternoster.services.UserDAOImplPostgres;
+import com.nathanpaternoster.services.pool.ConnectionPool;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures getRequest and authenticateUser latency through the connection pool with and without the per-connection
+ * statement cache, against a real database (the driver's parse/plan work is what the cache saves, so a fake won't do)
+ *
+ * Run with:
+ *      mvn test-compile org.codehaus.mojo:exec-maven-plugin:3.1.0:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.nathanpaternoster.benchmarks.StatementCacheBenchmark -Dexec.args=20000
+ *          -Dbenchmark.jdbcUrl=jdbc:postgresql://localhost:5432/postgres -Dbenchmark.user=postgres -Dbenchmark.password=...
+ */
+public class StatementCacheBenchmark {
+
+    interface Call {
+        void run(int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        String url = System.getProperty("benchmark.jdbcUrl");
+        if (url == null) {
+            System.out.println("Set -Dbenchmark.jdbcUrl (and -Dbenchmark.user, -Dbenchmark.password) to a database loaded with ers.sql");
+            return;
+        }
+        Configurator.setLevel("com.nathanpaternoster", Level.WARN);
+        PGSimpleDataSource factory = new PGSimpleDataSource();
+        factory.setUrl(url);
+        factory.setUser(System.getProperty("benchmark.user", "postgres"));
+        factory.setPassword(System.getProperty("benchmark.password", ""));
+
+        // sample ids to look up so every call isn't the same cached row on the server
+        List<Integer> requestIDs = new ArrayList<>();
+        List<Integer> userIDs = new ArrayList<>();
+        List<String> passwords = new ArrayList<>();
+        try (Connection c = factory.getConnection();
+             PreparedStatement requests = c.prepareStatement("select requestID from requests limit 1000");
+             PreparedStatement users = c.prepareStatement("select userID, password from users limit 1000")) {
+            ResultSet rs = requests.executeQuery();
+            while (rs.next()) requestIDs.add(rs.getInt(1));
+            rs = users.executeQuery();
+            while (rs.next()) {
+                userIDs.add(rs.getInt(1));
+                passwords.add(rs.getString(2));
+            }
+        }
+        if (requestIDs.isEmpty() || userIDs.isEmpty()) {
+            System.out.println("The database needs at least one user and one request");
+            return;
+        }
+
+        for (int cacheSize : new int[]{0, 64}) {
+            try (ConnectionPool pool = new ConnectionPool(factory, 1, 1, 5000, 2, 60000, 0, cacheSize)) {
+                pool.start();
+                RequestDAO requestDAO = new RequestDAOImplPostgres(pool);
+                UserDAO userDAO = new UserDAOImplPostgres(pool);
+                Call getRequest = i -> requestDAO.getRequest(requestIDs.get(i % requestIDs.size()));
+                Call authenticate = i -> userDAO.authenticateUser(userIDs.get(i % userIDs.size()), passwords.get(i % userIDs.size()));
+
+                measure(getRequest, iterations / 4);     // warm up the JIT, the pool and the driver's server-side statements
+                measure(authenticate, iterations / 4);
+                Histogram requestTime = measure(getRequest, iterations);
+                Histogram userTime = measure(authenticate, iterations);
+                System.out.printf("statementCacheSize=%-3d getRequest       %s%n", cacheSize, requestTime);
+                System.out.printf("statementCacheSize=%-3d authenticateUser %s%n", cacheSize, userTime);
+                System.out.printf("statementCacheSize=%-3d cache hits=%d misses=%d%n", cacheSize,
+                        pool.getStatementCacheHitCount(), pool.getStatementCacheMissCount());
+            }
+        }
+    }
+
+    private static Histogram measure(Call call, int iterations) {
+        Histogram h = new Histogram();
+        for (int i = 0; i < iterations; ++i) {
+            long start = System.nanoTime();
+            call.run(i);
+            h.record(System.nanoTime() - start);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,122 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestDAOImplPostgres;
+import com.nathanpaternoster.web.ManagerServlet;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the buffered response path (list -> RequestArray -> String) against the streamed path
+ * (cursor -> JsonGenerator -> output stream) for a full request listing, reporting peak heap and time to first byte
+ *
+ * Run with:
+ *      mvn test-compile org.codehaus.mojo:exec-maven-plugin:3.1.0:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.nathanpaternoster.benchmarks.StreamingResponseBenchmark -Dexec.args=200000
+ */
+public class StreamingResponseBenchmark {
+
+    interface ResponseWriter {
+        void write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Output stream that discards everything written to it but remembers when the first byte arrived
+     */
+    static class TimingSink extends OutputStream {
+        long firstByteNanos = -1;
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            if (firstByteNanos < 0) firstByteNanos = System.nanoTime();
+            ++bytes;
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (firstByteNanos < 0) firstByteNanos = System.nanoTime();
+            bytes += len;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Configurator.setLevel("com.nathanpaternoster", Level.WARN);
+
+        ObjectMapper om = new ObjectMapper();
+        om.registerModule(new JavaTimeModule());
+        RequestDAO dao = new RequestDAOImplPostgres(SyntheticDataSource.create(rows));
+
+        ResponseWriter buffered = out -> {
+            List<ReimbursementRequest> requests = dao.getAllRequests();
+            String json = om.writeValueAsString(new ManagerServlet.RequestArray(requests));
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        };
+        ObjectWriter writer = om.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        ResponseWriter streamed = out -> {
+            try (JsonGenerator gen = om.getFactory().createGenerator(out)) {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("requests");
+                dao.streamRequests("All", -1, r -> writer.writeValue(gen, r));
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+        };
+
+        // warm up both paths before measuring
+        for (int i = 0; i < 3; ++i) {
+            buffered.write(new TimingSink());
+            streamed.write(new TimingSink());
+        }
+
+        System.out.printf("%d rows%n%-10s %15s %15s %15s %12s%n", rows, "path", "peak live (MB)", "first byte (ms)", "total (ms)", "bytes");
+        measure("buffered", buffered);
+        measure("streamed", streamed);
+    }
+
+    private static void measure(String name, ResponseWriter writer) throws Exception {
+        // timing pass
+        TimingSink sink = new TimingSink();
+        long start = System.nanoTime();
+        writer.write(sink);
+        long end = System.nanoTime();
+
+        // live heap pass, a sampler repeatedly collects garbage so each sample only counts reachable objects
+        System.gc();
+        long baseline = heapUsed();
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!done.get()) {
+                System.gc();
+                peak.accumulateAndGet(heapUsed(), Math::max);
+                LockSupport.parkNanos(5_000_000);
+            }
+        });
+        sampler.start();
+        writer.write(new TimingSink());
+        done.set(true);
+        sampler.join();
+
+        System.out.printf("%-10s %15.1f %15.2f %15.2f %12d%n", name,
+                (peak.get() - baseline) / 1048576.0, (sink.firstByteNanos - start) / 1e6, (end - start) / 1e6, sink.bytes);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,94 @@
+package com.nathanpaternoster.benchmarks;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+/**
+ * In-memory stand-in for the ERS database used by the benchmarks, every query returns the same number of generated rows
+ * Rows are produced on demand as the result set advances so the data source itself holds no per-row state
+ */
+public class SyntheticDataSource {
+    private static final String[] CATEGORIES = {"Food", "Lodging", "Travel", "Supplies", "Training"};
+    private static final String[] STATUSES = {"Pending", "Approved", "Denied"};
+    private static final long BASE_TIME = Timestamp.valueOf("2022-08-01 12:00:00").getTime();
+
+    private SyntheticDataSource() {
+    }
+
+    /**
+     * @param rows The number of rows every query returns
+     * @return A data source whose connections answer any query with generated request and user columns
+     */
+    public static DataSource create(int rows) {
+        return proxy(DataSource.class, (p, m, a) -> m.getName().equals("getConnection") ? connection(rows) : defaultValue(m.getReturnType()));
+    }
+
+    private static Connection connection(int rows) {
+        return proxy(Connection.class, (p, m, a) -> m.getName().equals("prepareStatement") ? statement(rows) : defaultValue(m.getReturnType()));
+    }
+
+    private static PreparedStatement statement(int rows) {
+        return proxy(PreparedStatement.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "executeQuery":
+                case "getGeneratedKeys":
+                    return resultSet(rows);
+                case "executeUpdate":
+                    return 1;
+                default:
+                    return defaultValue(m.getReturnType());
+            }
+        });
+    }
+
+    private static ResultSet resultSet(int rows) {
+        int[] row = {-1};
+        return proxy(ResultSet.class, (p, m, a) -> {
+            int i = row[0];
+            switch (m.getName()) {
+                case "next":
+                    return ++row[0] < rows;
+                case "getInt":
+                    if (a[0] instanceof Integer) return i + 1;
+                    switch ((String) a[0]) {
+                        case "submitterID": return 1000000 + i % 500;
+                        case "resolverID": return i % 3 == 0 ? 0 : 1000500;
+                        default: return i + 1;
+                    }
+                case "getLong":
+                    return (i * 3779L) % 1000000;
+                case "getTimestamp":
+                    if ("timeResolved".equals(a[0]) && i % 3 == 0) return null;
+                    return new Timestamp(BASE_TIME - i * 60_000L);
+                case "getString":
+                    switch ((String) a[0]) {
+                        case "category": return CATEGORIES[i % CATEGORIES.length];
+                        case "description": return "Synthetic request number " + i;
+                        case "status": return STATUSES[i % STATUSES.length];
+                        case "userType": return "Employee";
+                        case "email": return "user" + i + "@example.com";
+                        default: return "Name" + i;
+                    }
+                default:
+                    return defaultValue(m.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SyntheticDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.nathanpaternoster.benchmarks;
+
+import com.nathanpaternoster.controllers.requests.ReimbursementRequestController;
+import com.nathanpaternoster.controllers.users.UserController;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the input validators run on every submission and profile change, including the rejected-input path
+ * where the validators throw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+    private ReimbursementRequestController requestController;
+    private Validators validators;
+
+    /**
+     * Exposes the protected UserController validators
+     */
+    static class Validators extends UserController {
+        Validators() {
+            super(null);
+        }
+        void name(String firstName, String lastName) {
+            validateName(firstName, lastName);
+        }
+        void password(String password) {
+            validatePassword(password);
+        }
+        void dob(LocalDate dob) {
+            validateDOB(dob);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Configurator.setLevel("com.nathanpaternoster", Level.WARN);
+        requestController = new ReimbursementRequestController(null, null);
+        validators = new Validators();
+    }
+
+    @Benchmark
+    public long validateMoney() {
+        return requestController.validateMoney("1234.56");
+    }
+
+    @Benchmark
+    public void validateMoneyRejected(Blackhole bh) {
+        try {
+            bh.consume(requestController.validateMoney("12.345"));
+        } catch (RuntimeException e) {
+            bh.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void validateName() {
+        validators.name("Morgan", "Van Freeman");
+    }
+
+    @Benchmark
+    public void validatePassword() {
+        validators.password("password!123");
+    }
+
+    @Benchmark
+    public void validatePasswordRejected(Blackhole bh) {
+        try {
+            validators.password("password");
+        } catch (RuntimeException e) {
+            bh.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void validateDOB() {
+        validators.dob(LocalDate.of(1970, 1, 1));
+    }
+}
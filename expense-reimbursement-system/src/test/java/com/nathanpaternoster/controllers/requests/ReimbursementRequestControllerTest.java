@@ -3,12 +3,21 @@ package com.nathanpaternoster.controllers.requests;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
 import com.nathanpaternoster.services.RequestDAO;
+import com.nathanpaternoster.services.RequestQuery;
 import com.nathanpaternoster.services.UserDAO;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ReimbursementRequestControllerTest {
     private ReimbursementRequestController testController;
     private RequestDAO testRequestDAO;
@@ -36,6 +45,32 @@ public class ReimbursementRequestControllerTest {
             assertThrows(RuntimeException.class, () -> testController.validateMoney(amount));
     }
 
+    @Test
+    public void testFindRequestPage() {
+        Map<String, String[]> parameters = new HashMap<>();
+        assertFalse(testController.isFiltered(parameters));
+        parameters.put("employeeID", new String[]{"77"});     // ignored for an employee's own listing
+        parameters.put("minAmount", new String[]{"100"});
+        parameters.put("from", new String[]{"2022-01-01"});
+        parameters.put("sort", new String[]{"-amount,submitted"});
+        assertTrue(testController.isFiltered(parameters));
+        testController.findRequestPage(34, "pending", parameters);
+        ArgumentCaptor<RequestQuery> query = ArgumentCaptor.forClass(RequestQuery.class);
+        Mockito.verify(testRequestDAO).find(query.capture());
+        List<Object> params = new ArrayList<>();
+        String sql = query.getValue().toSql(params);
+        assertTrue(sql.contains("status='Pending' and not archived and submitterID=? and timeSubmitted>=? and amount>=?"));
+        assertTrue(sql.contains("order by amount desc, timeSubmitted asc, requestID asc"));
+        assertEquals(34, params.get(0));
+        assertEquals(10000L, params.get(2));
+
+        parameters.put("from", new String[]{"01/01/2022"});
+        assertThrows(RuntimeException.class, () -> testController.findRequestPage(34, "pending", parameters));
+        parameters.put("from", new String[]{"2022-01-01"});
+        parameters.put("sort", new String[]{"description"});
+        assertThrows(RuntimeException.class, () -> testController.findRequestPage(34, "pending", parameters));
+    }
+
     @Test
     public void testSubmitNewRequest() {
         Mockito.when(testRequestDAO.addRequest(Mockito.any())).thenReturn(-12);
@@ -45,7 +80,41 @@ public class ReimbursementRequestControllerTest {
 
     @Test
     public void testResolveRequest() {
-        Mockito.when(testRequestDAO.resolveRequest(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyString())).thenReturn(true);
-        assertTrue(testController.resolveRequest(1, 1, true));
+        ReimbursementRequest approved = new ReimbursementRequest();
+        Mockito.when(testRequestDAO.resolveRequest(1, 1, "Approved")).thenReturn(approved);
+        assertSame(approved, testController.resolveRequest(1, 1, true));
+        assertNull(testController.resolveRequest(1, 1, false));
+    }
+
+    @Test
+    public void testValidatePageSize() {
+        assertEquals(ReimbursementRequestController.DEFAULT_PAGE_SIZE, testController.validatePageSize(null));
+        assertEquals(25, testController.validatePageSize("25"));
+        String[] invalid = new String[]{"0", "-5", "abc", String.valueOf(ReimbursementRequestController.MAX_PAGE_SIZE + 1)};
+        for (String size : invalid)
+            assertThrows(RuntimeException.class, () -> testController.validatePageSize(size));
+    }
+
+    @Test
+    public void testViewRequestPage() {
+        assertThrows(RuntimeException.class, () -> testController.viewRequestPage(1, "All", "10", "not a token"));
+    }
+
+    @Test
+    public void testResolveRequests() {
+        Map<Integer, Boolean> decisions = new HashMap<>();
+        decisions.put(1, true);
+        decisions.put(2, false);
+        Mockito.when(testRequestDAO.resolveRequests(Mockito.eq(9), Mockito.anyMap())).thenReturn(Collections.emptyList());
+        testController.resolveRequests(9, decisions);
+        Map<Integer, String> resolutions = new HashMap<>();
+        resolutions.put(1, "Approved");
+        resolutions.put(2, "Denied");
+        Mockito.verify(testRequestDAO).resolveRequests(9, resolutions);
+
+        assertThrows(RuntimeException.class, () -> testController.resolveRequests(9, new HashMap<>()));
+        Map<Integer, Boolean> tooMany = new HashMap<>();
+        for (int i = 0; i <= ReimbursementRequestController.MAX_BULK_RESOLUTIONS; ++i) tooMany.put(i, true);
+        assertThrows(RuntimeException.class, () -> testController.resolveRequests(9, tooMany));
     }
-}
\ No newline at end of file
+}
@@ -6,9 +6,16 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.EmployeeImportResult;
 import com.nathanpaternoster.services.UserDAO;
 
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ManagerControllerTest {
     private ManagerController testController;
@@ -31,4 +38,39 @@ public class ManagerControllerTest {
         LocalDate invalid = LocalDate.of(3000, 12, 12);
         assertThrows(RuntimeException.class, () -> testController.addNewEmployee("name", "name", invalid, "email"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testImportEmployees() {
+        LocalDate dob = LocalDate.of(1990, 1, 1);
+        List<Employee> rows = Arrays.asList(
+                new Employee(-1, null, "Ada", "Lovelace", dob, "ada@mail.com", null),
+                new Employee(-1, null, "Bad!", "Name", dob, "bad@mail.com", null),
+                new Employee(-1, null, "Ada", "Again", dob, "ada@mail.com", null),
+                new Employee(-1, null, "Taken", "Email", dob, "taken@mail.com", null),
+                null,
+                new Employee(-1, null, "Alan", "Turing", dob, "alan@mail.com", null));
+        Mockito.when(testDAO.findUnavailableEmails(Mockito.anyCollection())).thenReturn(Collections.singleton("taken@mail.com"));
+        Map<String, Integer> imported = new HashMap<>();
+        imported.put("ada@mail.com", 10);
+        imported.put("alan@mail.com", 11);
+        Mockito.when(testDAO.importEmployees(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Employee> valid = invocation.getArgument(0);
+            assertEquals(2, valid.size());
+            for (Employee e : valid) assertNotNull(e.getPassword());
+            return imported;
+        });
+
+        List<EmployeeImportResult> results = testController.importEmployees(rows);
+        assertEquals(6, results.size());
+        assertEquals(Integer.valueOf(10), results.get(0).getUserID());
+        assertEquals("Invalid name", results.get(1).getError());
+        assertEquals("Email address appears more than once in the import", results.get(2).getError());
+        assertEquals("Email address is unavailable", results.get(3).getError());
+        assertEquals("Row could not be parsed", results.get(4).getError());
+        assertEquals(Integer.valueOf(11), results.get(5).getUserID());
+        assertEquals(6, results.get(5).getRow());
+        Mockito.verify(testDAO, Mockito.never()).emailIsAvailable(Mockito.anyString());
+
+        assertThrows(RuntimeException.class, () -> testController.importEmployees(Collections.emptyList()));
+    }
+}
@@ -0,0 +1,40 @@
+package com.nathanpaternoster.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Filter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SamplingFilterTest {
+
+    private static int kept(SamplingFilter filter, Level level, int events) {
+        int kept = 0;
+        for (int i = 0; i < events; ++i)
+            if (filter.filter(null, level, null, "message {}", i) == Filter.Result.NEUTRAL) ++kept;
+        return kept;
+    }
+
+    @Test
+    public void samplesDebugAndTrace() {
+        SamplingFilter filter = SamplingFilter.createFilter(Level.DEBUG, 10);
+        int debug = kept(filter, Level.DEBUG, 100000);
+        int trace = kept(filter, Level.TRACE, 100000);
+        Assert.assertTrue("kept " + debug, debug > 9000 && debug < 11000);
+        Assert.assertTrue("kept " + trace, trace > 9000 && trace < 11000);
+    }
+
+    @Test
+    public void neverSamplesMoreSevereLevels() {
+        SamplingFilter filter = SamplingFilter.createFilter(Level.DEBUG, 10);
+        Assert.assertEquals(1000, kept(filter, Level.INFO, 1000));
+        Assert.assertEquals(1000, kept(filter, Level.ERROR, 1000));
+    }
+
+    @Test
+    public void rateOfOneKeepsEverything() {
+        SamplingFilter filter = SamplingFilter.createFilter(null, 0);
+        Assert.assertEquals(1, filter.getRate());
+        Assert.assertEquals(Level.DEBUG, filter.getLevel());
+        Assert.assertEquals(1000, kept(filter, Level.DEBUG, 1000));
+    }
+}
@@ -0,0 +1,42 @@
+package com.nathanpaternoster.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistogramTest {
+    private Histogram histogram;
+
+    @Before
+    public void setUp() throws Exception {
+        histogram = new Histogram(new long[]{10, 100, 1000});
+    }
+
+    @Test
+    public void testRecord() {
+        histogram.record(10);       // bounds are inclusive
+        histogram.record(11);
+        histogram.record(5000);
+        assertArrayEquals(new long[]{1, 1, 0, 1}, histogram.getBucketCounts());
+        assertEquals(3, histogram.getCount());
+        assertEquals(5021, histogram.getSum());
+        assertEquals(5000, histogram.getMax());
+    }
+
+    @Test
+    public void testPercentile() {
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 0; i < 98; ++i) histogram.record(50);
+        histogram.record(500);
+        histogram.record(5000);
+        assertEquals(100, histogram.percentile(0.5));
+        assertEquals(1000, histogram.percentile(0.99));
+        assertEquals(5000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void testBoundsMustIncrease() {
+        assertThrows(IllegalArgumentException.class, () -> new Histogram(new long[]{10, 10}));
+    }
+}
@@ -0,0 +1,67 @@
+package com.nathanpaternoster.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricsRegistryTest {
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new MetricsRegistry();
+    }
+
+    private String write() throws Exception {
+        StringWriter out = new StringWriter();
+        registry.write(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testCounter() throws Exception {
+        registry.counter("logins_total", "Logins", "result", "failed").increment();
+        registry.counter("logins_total", "Logins", "result", "failed").increment();
+        registry.counter("logins_total", "Logins", "result", "say \"hi\"").add(3);
+        assertEquals("# HELP logins_total Logins\n" +
+                "# TYPE logins_total counter\n" +
+                "logins_total{result=\"failed\"} 2\n" +
+                "logins_total{result=\"say \\\"hi\\\"\"} 3\n", write());
+    }
+
+    @Test
+    public void testGauge() throws Exception {
+        AtomicLong value = new AtomicLong(4);
+        registry.gauge("connections", "Connections", value::get);
+        value.set(7);
+        assertEquals("# HELP connections Connections\n# TYPE connections gauge\nconnections 7\n", write());
+        registry.remove("conn");
+        assertEquals("", write());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        Histogram h = registry.histogram("latency_seconds", "Latency", new long[]{500_000_000, 1_000_000_000}, 1e9, "route", "/login");
+        h.record(100_000_000);
+        h.record(700_000_000);
+        h.record(3_000_000_000L);
+        assertEquals("# HELP latency_seconds Latency\n" +
+                "# TYPE latency_seconds histogram\n" +
+                "latency_seconds_bucket{route=\"/login\",le=\"0.5\"} 1\n" +
+                "latency_seconds_bucket{route=\"/login\",le=\"1\"} 2\n" +
+                "latency_seconds_bucket{route=\"/login\",le=\"+Inf\"} 3\n" +
+                "latency_seconds_sum{route=\"/login\"} 3.8\n" +
+                "latency_seconds_count{route=\"/login\"} 3\n", write());
+    }
+
+    @Test
+    public void testTypeConflict() {
+        registry.counter("metric", "A counter");
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("metric", "A gauge", () -> 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("other", "Odd labels", "name"));
+    }
+}
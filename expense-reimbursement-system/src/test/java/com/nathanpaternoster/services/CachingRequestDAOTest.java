@@ -0,0 +1,87 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class CachingRequestDAOTest {
+    private RequestDAO delegate;
+    private CachingRequestDAO dao;
+    private ReimbursementRequest testRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = Mockito.mock(RequestDAO.class);
+        dao = new CachingRequestDAO(delegate, 100);
+        testRequest = new ReimbursementRequest(56, 123, 987, 5050, "Food", "Test description",
+                LocalDateTime.now(), LocalDateTime.now(), "Approved");
+        Mockito.when(delegate.getRequest(56)).thenReturn(testRequest);
+    }
+
+    @Test
+    public void testGetRequestIsCached() {
+        assertSame(testRequest, dao.getRequest(56));
+        assertSame(testRequest, dao.getRequest(56));
+        Mockito.verify(delegate, Mockito.times(1)).getRequest(56);
+        assertEquals(1, dao.getCache().getHitCount());
+        assertEquals(1, dao.getCache().getMissCount());
+    }
+
+    @Test
+    public void testPendingRequestIsNotCached() {
+        // another instance may resolve it without invalidating this cache
+        testRequest.setStatus("Pending");
+        dao.getRequest(56);
+        dao.getRequest(56);
+        Mockito.verify(delegate, Mockito.times(2)).getRequest(56);
+    }
+
+    @Test
+    public void testMissingRequestIsNotCached() {
+        assertNull(dao.getRequest(1));
+        assertNull(dao.getRequest(1));
+        Mockito.verify(delegate, Mockito.times(2)).getRequest(1);
+    }
+
+    @Test
+    public void testResolveRequestInvalidates() {
+        dao.getRequest(56);
+        ReimbursementRequest denied = new ReimbursementRequest();
+        Mockito.when(delegate.resolveRequest(1, 56, "Denied")).thenReturn(denied);
+        assertSame(denied, dao.resolveRequest(1, 56, "Denied"));
+        dao.getRequest(56);
+        Mockito.verify(delegate, Mockito.times(2)).getRequest(56);
+    }
+
+    @Test
+    public void testAddRequestInvalidates() {
+        dao.getRequest(56);
+        Mockito.when(delegate.addRequest(Mockito.any())).thenReturn(56);
+        assertEquals(56, dao.addRequest(testRequest));
+        dao.getRequest(56);
+        Mockito.verify(delegate, Mockito.times(2)).getRequest(56);
+    }
+
+    @Test
+    public void testUserCacheUpdateInvalidates() {
+        UserDAO userDelegate = Mockito.mock(UserDAO.class);
+        CachingUserDAO userDAO = new CachingUserDAO(userDelegate, 10);
+        Employee e = new Employee(123, "**********", "Morgan", "Freeman", LocalDate.of(1970, 1, 1), "mfreeman@gmail.com", null);
+        Mockito.when(userDelegate.getUser(123)).thenReturn(e);
+
+        assertSame(e, userDAO.getUser(123));
+        assertSame(e, userDAO.getUser(123));
+        Mockito.verify(userDelegate, Mockito.times(1)).getUser(123);
+
+        userDAO.updateUser(e);
+        userDAO.getUser(123);
+        Mockito.verify(userDelegate, Mockito.times(2)).getUser(123);
+    }
+}
@@ -0,0 +1,139 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestDashboard;
+import com.nathanpaternoster.models.requests.RequestEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DashboardRequestDAOTest {
+    private RequestDAO delegate;
+    private DashboardRequestDAO dao;
+    private List<ReimbursementRequest> rows;
+
+    private static ReimbursementRequest request(int requestID, int submitterID, long amount, String category, String status) {
+        return new ReimbursementRequest(requestID, submitterID, -1, amount, category, "Test description",
+                LocalDateTime.now(), null, status);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = Mockito.mock(RequestDAO.class);
+        dao = new DashboardRequestDAO(delegate);
+        rows = new ArrayList<>(Arrays.asList(
+                request(1, 100, 1000, "Food", "Pending"),
+                request(2, 100, 250, "Travel", "Pending"),
+                request(3, 200, 5000, "Travel", "Pending"),
+                request(4, 200, 700, "Food", "Approved"),
+                request(5, 300, 900, null, "Denied")));
+        Mockito.when(delegate.streamRequests(Mockito.eq("All"), Mockito.eq(-1), Mockito.any())).thenAnswer(invocation -> {
+            RowHandler<ReimbursementRequest> handler = invocation.getArgument(2);
+            for (ReimbursementRequest r : rows) handler.handle(r);
+            return true;
+        });
+    }
+
+    @Test
+    public void testLoad() {
+        assertNull(dao.getAggregates());
+        assertTrue(dao.reconcile());
+        RequestDashboard dashboard = dao.getAggregates().snapshot();
+        assertEquals(3, dashboard.getPendingCount());
+        assertEquals(6250, dashboard.getPendingAmount());
+        assertEquals(Long.valueOf(3), dashboard.getStatusCounts().get("Pending"));
+        assertEquals(Long.valueOf(1), dashboard.getStatusCounts().get("Approved"));
+        assertEquals(Long.valueOf(2), dashboard.getCategoryCounts().get("Travel"));
+        assertEquals(Long.valueOf(1), dashboard.getCategoryCounts().get(RequestAggregates.NO_CATEGORY));
+        assertEquals(2, dashboard.getOutstanding().size());
+        assertEquals(200, dashboard.getOutstanding().get(0).getEmployeeID());
+        assertEquals(1250, dashboard.getOutstanding().get(1).getAmount());
+        assertEquals(2, dashboard.getOutstanding().get(1).getCount());
+    }
+
+    @Test
+    public void testSubmitAndResolveUpdateTotals() {
+        dao.reconcile();
+        Mockito.when(delegate.addRequest(Mockito.any())).thenReturn(6);
+        Mockito.when(delegate.resolveRequest(1, 3, "Approved")).thenReturn(request(3, 200, 5000, "Travel", "Approved"));
+        assertEquals(6, dao.addRequest(request(-1, 300, 400, "Food", "Pending")));
+        assertNotNull(dao.resolveRequest(1, 3, "Approved"));
+
+        RequestDashboard dashboard = dao.getAggregates().snapshot();
+        assertEquals(3, dashboard.getPendingCount());
+        assertEquals(1650, dashboard.getPendingAmount());
+        assertEquals(Long.valueOf(2), dashboard.getStatusCounts().get("Approved"));
+        assertEquals(Long.valueOf(3), dashboard.getCategoryCounts().get("Food"));
+        assertEquals(100, dashboard.getOutstanding().get(0).getEmployeeID());
+        assertEquals(300, dashboard.getOutstanding().get(1).getEmployeeID());
+        assertEquals(2, dashboard.getOutstanding().size());     // employee 200 has nothing pending
+    }
+
+    @Test
+    public void testFailedWritesAreNotCounted() {
+        dao.reconcile();
+        Mockito.when(delegate.addRequest(Mockito.any())).thenReturn(-1);
+        Mockito.when(delegate.resolveRequests(Mockito.eq(1), Mockito.any())).thenReturn(Collections.emptyList());
+        dao.addRequest(request(-1, 300, 400, "Food", "Pending"));
+        dao.resolveRequests(1, Collections.singletonMap(1, "Denied"));
+        assertEquals(3, dao.getAggregates().getPendingCount());
+        assertEquals(6250, dao.getAggregates().getPendingAmount());
+    }
+
+    @Test
+    public void testEventsFromOtherInstancesUpdateTotals() {
+        dao.reconcile();
+        dao.apply(new RequestEvent(1, RequestEvent.SUBMITTED, request(6, 300, 400, "Food", "Pending")));
+        dao.apply(new RequestEvent(2, RequestEvent.RESOLVED, request(3, 200, 5000, "Travel", "Denied")));
+        dao.apply(new RequestEvent(2, RequestEvent.RESOLVED, request(3, 200, 5000, "Travel", "Denied")));    // e.g. also written here
+        RequestDashboard dashboard = dao.getAggregates().snapshot();
+        assertEquals(3, dashboard.getPendingCount());
+        assertEquals(1650, dashboard.getPendingAmount());
+        assertEquals(Long.valueOf(2), dashboard.getStatusCounts().get("Denied"));
+        assertEquals(300, dashboard.getOutstanding().get(1).getEmployeeID());
+    }
+
+    @Test
+    public void testResolvingTwiceIsIgnored() {
+        dao.reconcile();
+        RequestAggregates aggregates = dao.getAggregates();
+        aggregates.resolved(1, "Denied");
+        aggregates.resolved(1, "Denied");
+        aggregates.resolved(4, "Denied");
+        assertEquals(2, aggregates.getPendingCount());
+        assertEquals(Long.valueOf(2), aggregates.snapshot().getStatusCounts().get("Denied"));
+    }
+
+    @Test
+    public void testReconcileCorrectsDrift() {
+        dao.reconcile();
+        rows.set(0, request(1, 100, 1000, "Food", "Approved"));     // resolved without going through the DAO
+        assertEquals(3, dao.getAggregates().getPendingCount());
+        assertTrue(dao.reconcile());
+        assertEquals(2, dao.getAggregates().getPendingCount());
+        assertEquals(5250, dao.getAggregates().getPendingAmount());
+    }
+
+    @Test
+    public void testReconcileDiscardedWhenRequestsChangeDuringLoad() throws Exception {
+        dao.reconcile();
+        Mockito.when(delegate.addRequest(Mockito.any())).thenReturn(6);
+        Mockito.when(delegate.streamRequests(Mockito.eq("All"), Mockito.eq(-1), Mockito.any())).thenAnswer(invocation -> {
+            // a submission commits after the cursor has read the table
+            dao.addRequest(request(-1, 300, 400, "Food", "Pending"));
+            return true;
+        });
+        RequestAggregates before = dao.getAggregates();
+        assertFalse(dao.reconcile());
+        assertSame(before, dao.getAggregates());
+        assertEquals(4, dao.getAggregates().getPendingCount());
+    }
+}
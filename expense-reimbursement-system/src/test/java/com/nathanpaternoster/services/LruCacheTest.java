@@ -0,0 +1,66 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LruCacheTest {
+    private LruCache<Integer, String> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new LruCache<>(1);      // a single segment holding a single entry
+    }
+
+    @Test
+    public void testGetAndPut() {
+        assertNull(cache.get(1));
+        cache.put(1, "one");
+        assertEquals("one", cache.get(1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() {
+        cache.put(1, "one");
+        cache.put(2, "two");
+        assertNull(cache.get(1));
+        assertEquals("two", cache.get(2));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        LruCache<Integer, String> cache = new LruCache<>(32);   // 16 segments of 2 entries, keys 0, 16 and 32 share a segment
+        cache.put(0, "zero");
+        cache.put(16, "sixteen");
+        cache.get(0);
+        cache.put(32, "thirty two");
+        assertEquals("zero", cache.get(0));
+        assertNull(cache.get(16));
+        assertEquals("thirty two", cache.get(32));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        LruCache<Integer, String> cache = new LruCache<>(20);
+        for (int i = 0; i < 1000; ++i) cache.put(i, String.valueOf(i));
+        assertTrue(cache.size() <= 20);
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidateRejectsStaleLoad() {
+        long stamp = cache.stamp(1);
+        cache.invalidate(1);    // a write happened while the value was being loaded
+        assertFalse(cache.putIfValid(1, "stale", stamp));
+        assertNull(cache.get(1));
+
+        stamp = cache.stamp(1);
+        assertTrue(cache.putIfValid(1, "fresh", stamp));
+        assertEquals("fresh", cache.get(1));
+    }
+}
@@ -0,0 +1,99 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.models.notifications.Notification;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.users.Employee;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+public class NotificationDispatcherTest {
+    private FakeSmtpServer smtp;
+    private NotificationDAO dao;
+    private Notification testNotification;
+    private Employee recipient;
+
+    @Before
+    public void setUp() throws Exception {
+        smtp = new FakeSmtpServer();
+        dao = Mockito.mock(NotificationDAO.class);
+        ReimbursementRequest r = new ReimbursementRequest(56, 123, 987, 5050, "Food", "Test description",
+                LocalDateTime.now(), LocalDateTime.now(), "Approved");
+        recipient = new Employee(123, "temp!123", "Morgan", "Freeman", LocalDate.of(1970, 1, 1), "mfreeman@gmail.com", null);
+        testNotification = new Notification(7, "Resolution", 1, recipient, r);
+    }
+    @After
+    public void tearDown() throws Exception {
+        smtp.close();
+    }
+
+    @Test
+    public void testDispatchBatch() {
+        Mockito.when(dao.claimDue(Mockito.eq(10), Mockito.any())).thenReturn(Collections.singletonList(testNotification));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(dao, new EmailService("localhost", smtp.getPort(), false), 1, 10, 3, 1000);
+
+        assertEquals(1, dispatcher.dispatchBatch());
+        Mockito.verify(dao).markSent(7);
+        assertEquals(1, smtp.messages.size());
+        String message = smtp.messages.get(0);
+        assertTrue(message.contains("To: mfreeman@gmail.com"));
+        assertTrue(message.contains("Your reimbursement request for Food in the amount of $50.50 has been Approved"));
+    }
+
+    @Test
+    public void testDispatchWelcome() {
+        Notification welcome = new Notification(8, "Welcome", 1, recipient, null);
+        Mockito.when(dao.claimDue(Mockito.anyInt(), Mockito.any())).thenReturn(Collections.singletonList(welcome));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(dao, new EmailService("localhost", smtp.getPort(), false), 1, 10, 3, 1000);
+
+        dispatcher.dispatchBatch();
+        Mockito.verify(dao).markSent(8);
+        assertTrue(smtp.messages.get(0).contains("employee id of 123 and a temporary password of temp!123"));
+    }
+
+    @Test
+    public void testFailedDeliveryIsRescheduled() throws IOException {
+        Mockito.when(dao.claimDue(Mockito.anyInt(), Mockito.any())).thenReturn(Collections.singletonList(testNotification));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(dao, new EmailService("localhost", unusedPort(), false), 1, 10, 3, 1000);
+
+        LocalDateTime before = LocalDateTime.now();
+        dispatcher.dispatchBatch();
+        Mockito.verify(dao, Mockito.never()).markSent(Mockito.anyLong());
+        Mockito.verify(dao).reschedule(Mockito.eq(7L),
+                Mockito.argThat(t -> !t.isBefore(before.plusSeconds(NotificationDispatcher.BASE_BACKOFF_SECONDS))),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testFailedDeliveryGivesUp() throws IOException {
+        testNotification.setAttempts(3);
+        Mockito.when(dao.claimDue(Mockito.anyInt(), Mockito.any())).thenReturn(Collections.singletonList(testNotification));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(dao, new EmailService("localhost", unusedPort(), false), 1, 10, 3, 1000);
+
+        dispatcher.dispatchBatch();
+        Mockito.verify(dao).markFailed(Mockito.eq(7L), Mockito.anyString());
+        Mockito.verify(dao, Mockito.never()).reschedule(Mockito.anyLong(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testBackoff() {
+        assertEquals(NotificationDispatcher.BASE_BACKOFF_SECONDS, NotificationDispatcher.backoffSeconds(1));
+        assertEquals(NotificationDispatcher.BASE_BACKOFF_SECONDS * 4, NotificationDispatcher.backoffSeconds(3));
+        assertEquals(NotificationDispatcher.MAX_BACKOFF_SECONDS, NotificationDispatcher.backoffSeconds(100));
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
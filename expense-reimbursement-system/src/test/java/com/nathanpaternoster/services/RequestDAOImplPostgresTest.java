@@ -2,7 +2,9 @@ package com.nathanpaternoster.services;
 
 import static org.junit.Assert.*;
 
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestPage;
 import com.nathanpaternoster.services.RequestDAOImplPostgres;
 import org.junit.After;
 import org.junit.Before;
@@ -11,10 +13,16 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.List;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -41,11 +49,9 @@ public class RequestDAOImplPostgresTest {
                 LocalDateTime.now(),
                 "Pending");
         Mockito.when(con.prepareStatement(Mockito.anyString())).thenReturn(ps);
-        Mockito.when(con.prepareStatement(Mockito.anyString(), Mockito.anyInt())).thenReturn(ps);
         Mockito.when(dataSource.getConnection()).thenReturn(con);
         Mockito.when(ps.executeQuery()).thenReturn(rs);
         Mockito.when(ps.executeUpdate()).thenReturn(1);
-        Mockito.when(ps.getGeneratedKeys()).thenReturn(rs);
         Mockito.when(rs.next()).thenReturn(true, false);
         Mockito.when(rs.getInt("requestID")).thenReturn(testRequest.getRequestID());
         Mockito.when(rs.getInt("submitterID")).thenReturn(testRequest.getSubmitterID());
@@ -65,17 +71,22 @@ public class RequestDAOImplPostgresTest {
     public void testAddRequest() throws SQLException {
         Mockito.when(rs.getInt(1)).thenReturn(56);
         assertEquals(56, dao.addRequest(testRequest));
+        Mockito.verify(con).prepareStatement(Mockito.contains("insert into request_transitions"));
+        Mockito.verify(con).commit();
     }
 
     @Test
     public void testInvalidAddRequest() throws SQLException {
-        Mockito.when(ps.executeUpdate()).thenThrow(SQLException.class);
+        Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
         assertTrue(dao.addRequest(testRequest) < 0);
     }
 
     @Test
-    public void testGetRequest() {
+    public void testGetRequest() throws SQLException {
         ReimbursementRequest r = dao.getRequest(testRequest.getRequestID());
+        // looked up in the request's own partition
+        Mockito.verify(con).prepareStatement(Mockito.contains("where " + RequestDAOImplPostgres.BY_ID));
+        for (int i = 1; i <= 3; ++i) Mockito.verify(ps).setInt(i, testRequest.getRequestID());
         assertEquals(testRequest.getRequestID(), r.getRequestID());
         assertEquals(testRequest.getSubmitterID(), r.getSubmitterID());
         assertEquals(testRequest.getResolverID(), r.getResolverID());
@@ -105,6 +116,8 @@ public class RequestDAOImplPostgresTest {
         assertEquals(testRequest.getCategory(), r.getCategory());
         assertEquals(testRequest.getDescription(), r.getDescription());
         assertEquals(testRequest.getStatus(), r.getStatus());
+        Mockito.verify(con).prepareStatement(Mockito.contains("submitterID=?"));   // the user is bound, not concatenated
+        Mockito.verify(ps).setInt(1, 123);
         Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
         requests = dao.getPendingRequests(123);
         assertEquals(0, requests.size());
@@ -166,8 +179,161 @@ public class RequestDAOImplPostgresTest {
 
     @Test
     public void testResolveRequest() throws SQLException {
-        assertTrue(dao.resolveRequest(123, 45,"Approved"));
-        Mockito.when(ps.executeUpdate()).thenThrow(SQLException.class);
-        assertFalse(dao.resolveRequest(123, 45,"Approved"));
+        ReimbursementRequest resolved = dao.resolveRequest(123, 45,"Approved");
+        assertEquals(testRequest.getRequestID(), resolved.getRequestID());     // the row the update returned
+        assertEquals(testRequest.getAmount(), resolved.getAmount());
+        Mockito.verify(con).prepareStatement(Mockito.contains(" returning requestID, submitterID"));
+        Mockito.verify(con).prepareStatement(Mockito.contains("insert into notifications"));
+        Mockito.verify(ps).setString(3, "Approved");     // the transition's status
+        Mockito.verify(ps).executeQuery();     // status update
+        Mockito.verify(ps).executeUpdate();     // then transition and outbox insert
+        Mockito.verify(con).commit();
+        Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
+        assertNull(dao.resolveRequest(123, 45,"Approved"));
+    }
+
+    @Test
+    public void testResolveAlreadyResolvedRequest() throws SQLException {
+        Mockito.when(rs.next()).thenReturn(false);     // another manager resolved it first
+        assertNull(dao.resolveRequest(123, 45,"Denied"));
+        Mockito.verify(con).prepareStatement(Mockito.contains("where " + RequestDAOImplPostgres.BY_ID + " and status='Pending' and not archived"));
+        Mockito.verify(ps, Mockito.times(3)).setInt(Mockito.intThat(i -> i >= 4), Mockito.eq(45));
+        Mockito.verify(ps, Mockito.never()).executeUpdate();     // no notification is queued
+    }
+
+    @Test
+    public void testGetRequestHistory() throws SQLException {
+        Mockito.when(rs.next()).thenReturn(true, true, false);
+        Mockito.when(rs.getLong("transitionID")).thenReturn(7L, 9L);
+        Mockito.when(rs.getString("kind")).thenReturn("SUBMITTED", "RESOLVED");
+        Mockito.when(rs.getInt("actorID")).thenReturn(123, 987);
+        Mockito.when(rs.getString("status")).thenReturn("Pending", "Approved");
+        Mockito.when(rs.getTimestamp("timeChanged")).thenReturn(Timestamp.valueOf(testRequest.getTimeSubmitted()));
+        Mockito.when(rs.getLong("amount")).thenReturn(testRequest.getAmount());
+        List<AuditRecord> history = dao.getRequestHistory(56);
+        assertEquals(2, history.size());
+        assertEquals(AuditRecord.Type.SUBMITTED, history.get(0).getType());
+        assertEquals(9, history.get(1).getSequence());
+        assertEquals(987, history.get(1).getActorID());
+        assertEquals("Approved", history.get(1).getStatus());
+        assertEquals(Integer.valueOf(123), history.get(1).getSubmitterID());
+        Mockito.verify(ps).setInt(1, 56);
+        Mockito.verify(ps).setInt(4, 56);     // after the partition keys' lookups
+
+        Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
+        assertTrue(dao.getRequestHistory(56).isEmpty());
+    }
+
+    @Test
+    public void testGetVersion() throws SQLException {
+        TableVersions versions = new TableVersions(null, "requests", "users");
+        versions.changed("requests:42");
+        assertEquals(42, new RequestDAOImplPostgres(dataSource, null, versions).getVersion());
+        assertEquals(-1, dao.getVersion());
+        Mockito.verify(dataSource, Mockito.never()).getConnection();
+    }
+
+    @Test
+    public void testGetRequestPage() throws SQLException {
+        RequestPage page = dao.getRequestPage("Pending", 123, null, 10);
+        assertEquals(1, page.getRequests().size());
+        assertNull(page.getNextPageToken());
+        assertEquals(testRequest.getRequestID(), page.getRequests().get(0).getRequestID());
+        Mockito.verify(ps).setInt(1, 123);
+        Mockito.verify(ps).setInt(2, 11);   // one extra row to detect the next page
+    }
+
+    @Test
+    public void testGetRequestPageWithNextPage() throws SQLException {
+        Mockito.when(rs.next()).thenReturn(true, true, false);
+        RequestPage page = dao.getRequestPage("All", -1, null, 1);
+        assertEquals(1, page.getRequests().size());
+        PageToken token = PageToken.decode(page.getNextPageToken());
+        assertEquals(testRequest.getTimeSubmitted(), token.getTimeSubmitted());
+        assertEquals(testRequest.getRequestID(), token.getRequestID());
+
+        dao.getRequestPage("All", -1, token, 1);
+        Mockito.verify(con).prepareStatement(Mockito.contains("timeSubmitted <= ? and (timeSubmitted, requestID) < (?, ?)"));
+        Mockito.verify(ps).setTimestamp(1, Timestamp.valueOf(testRequest.getTimeSubmitted()));
+        Mockito.verify(ps).setTimestamp(2, Timestamp.valueOf(testRequest.getTimeSubmitted()));
+        Mockito.verify(ps).setInt(3, testRequest.getRequestID());
+    }
+
+    @Test
+    public void testFindWithNextPage() throws SQLException {
+        Mockito.when(rs.next()).thenReturn(true, true, false);
+        RequestQuery query = new RequestQuery().withCategory("Food").orderBy(RequestQuery.Column.AMOUNT, true).pageSize(1);
+        RequestPage page = dao.find(query);
+        assertEquals(1, page.getRequests().size());
+        Mockito.verify(ps).setObject(1, "Food");
+        Mockito.verify(ps).setObject(2, 2);
+
+        dao.find(new RequestQuery().withCategory("Food").orderBy(RequestQuery.Column.AMOUNT, true).pageSize(1).after(page.getNextPageToken()));
+        Mockito.verify(ps, Mockito.times(2)).setObject(Mockito.anyInt(), Mockito.eq(testRequest.getAmount()));
+        Mockito.verify(ps).setObject(4, testRequest.getRequestID());
+    }
+
+    @Test
+    public void testSearchRequestsWithNextPage() throws SQLException {
+        Mockito.when(rs.next()).thenReturn(true, true, false);
+        Mockito.when(rs.getFloat("rank")).thenReturn(0.6f, 0.3f);
+        RequestPage page = dao.searchRequests("hotel chicago", "Resolved", 123, null, 1);
+        assertEquals(1, page.getRequests().size());
+        SearchPageToken token = SearchPageToken.decode(page.getNextPageToken());
+        assertEquals(0.6f, token.getRank(), 0);
+        assertEquals(testRequest.getRequestID(), token.getRequestID());
+        Mockito.verify(con).prepareStatement(Mockito.contains("search @@ q"));
+        Mockito.verify(ps).setString(1, "hotel chicago");
+        Mockito.verify(ps).setInt(2, 123);
+
+        dao.searchRequests("hotel chicago", "All", -1, token, 1);
+        Mockito.verify(ps).setFloat(2, 0.6f);
+        Mockito.verify(ps).setFloat(3, 0.6f);
+        Mockito.verify(ps).setInt(4, testRequest.getRequestID());
+    }
+
+    @Test
+    public void testStreamRequests() throws Exception {
+        List<ReimbursementRequest> streamed = new ArrayList<>();
+        assertTrue(dao.streamRequests("All", -1, streamed::add));
+        assertEquals(1, streamed.size());
+        assertEquals(testRequest.getRequestID(), streamed.get(0).getRequestID());
+        Mockito.verify(con).setAutoCommit(false);
+        Mockito.verify(ps).setFetchSize(RequestDAOImplPostgres.STREAM_FETCH_SIZE);
+
+        Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
+        assertFalse(dao.streamRequests("All", -1, streamed::add));
+    }
+
+    @Test
+    public void testExportRequests() throws Exception {
+        PGConnection pg = Mockito.mock(PGConnection.class);
+        CopyManager copy = Mockito.mock(CopyManager.class);
+        Mockito.when(con.unwrap(PGConnection.class)).thenReturn(pg);
+        Mockito.when(pg.getCopyAPI()).thenReturn(copy);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestExport export = new RequestExport().withStatus("Approved");
+        Mockito.when(copy.copyOut(export.toSql(), out)).thenReturn(1500000L);
+        assertEquals(1500000L, dao.exportRequests(export, out));
+
+        Mockito.when(copy.copyOut(export.toSql(), out)).thenThrow(SQLException.class);
+        assertEquals(-1, dao.exportRequests(export, out));
+    }
+
+    @Test
+    public void testResolveRequests() throws SQLException {
+        Map<Integer, String> resolutions = new LinkedHashMap<>();
+        resolutions.put(56, "Approved");
+        resolutions.put(57, "Denied");
+        List<ReimbursementRequest> resolved = dao.resolveRequests(123, resolutions);
+        assertEquals(1, resolved.size());
+        assertEquals(testRequest.getRequestID(), resolved.get(0).getRequestID());
+        Mockito.verify(con).createArrayOf("int4", new Integer[]{56, 57});
+        Mockito.verify(con).createArrayOf("varchar", new String[]{"Approved", "Denied"});
+        Mockito.verify(con, Mockito.times(1)).prepareStatement(Mockito.anyString());     // a single statement
+        Mockito.verify(con).commit();
+
+        Mockito.when(ps.executeQuery()).thenThrow(SQLException.class);
+        assertTrue(dao.resolveRequests(123, resolutions).isEmpty());
     }
 }
\ No newline at end of file
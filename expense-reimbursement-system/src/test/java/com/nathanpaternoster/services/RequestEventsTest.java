@@ -0,0 +1,50 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.models.requests.RequestEvent;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequestEventsTest {
+    @Test
+    public void testParseTriggerPayload() {
+        // as json_build_object() writes a resolution
+        RequestEvent event = RequestEvents.parse("{\"id\" : 7, \"type\" : \"resolved\", \"requestID\" : 42, \"submitterID\" : 3, " +
+                "\"resolverID\" : 1, \"amount\" : 2500, \"category\" : \"Travel\", \"description\" : null, " +
+                "\"timeSubmitted\" : \"2024-05-01T09:30:00.123456\", \"timeResolved\" : \"2024-05-02T10:00:00\", \"status\" : \"Approved\"}");
+        assertNotNull(event);
+        assertEquals(7, event.getId());
+        assertEquals(RequestEvent.RESOLVED, event.getType());
+        assertEquals(42, event.getRequest().getRequestID());
+        assertEquals(1, event.getRequest().getResolverID());
+        assertEquals(2500, event.getRequest().getAmount());
+        assertNull(event.getRequest().getDescription());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 9, 30, 0, 123456000), event.getRequest().getTimeSubmitted());
+        assertEquals("Approved", event.getRequest().getStatus());
+    }
+
+    @Test
+    public void testSubmissionHasNoResolver() {
+        RequestEvent event = RequestEvents.parse("{\"id\" : 1, \"type\" : \"submitted\", \"requestID\" : 5, \"submitterID\" : 3, " +
+                "\"resolverID\" : null, \"amount\" : 100, \"category\" : null, \"description\" : \"Lunch\", " +
+                "\"timeSubmitted\" : \"2024-05-01T09:30:00\", \"timeResolved\" : null, \"status\" : \"Pending\"}");
+        assertEquals(0, event.getRequest().getResolverID());
+        assertNull(event.getRequest().getTimeResolved());
+        assertNull(event.getRequest().getCategory());
+    }
+
+    @Test
+    public void testMalformedPayloadsAreDropped() {
+        RequestEvents events = new RequestEvents();
+        List<RequestEvent> received = new ArrayList<>();
+        events.addListener(received::add);
+        events.publish("not json");
+        events.publish("{\"id\" : 1, \"type\" : \"submitted\", \"timeSubmitted\" : \"yesterday\"}");
+        assertTrue(received.isEmpty());
+        assertNull(RequestEvents.parse("not json"));
+    }
+}
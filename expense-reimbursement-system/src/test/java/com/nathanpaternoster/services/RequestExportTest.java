@@ -0,0 +1,31 @@
+package com.nathanpaternoster.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+public class RequestExportTest {
+
+    @Test
+    public void exportsCsvOldestFirst() {
+        String sql = new RequestExport().toSql();
+        Assert.assertTrue(sql.startsWith("copy (select requestID as \"requestID\""));
+        Assert.assertTrue(sql.endsWith(" from requests where true order by timeSubmitted asc, requestID asc) to stdout with (format csv, header);"));
+    }
+
+    @Test
+    public void compilesFiltersToConstants() {
+        String sql = new RequestExport().format(RequestExport.Format.named("NDJSON")).withStatus("Pending")
+                .submittedBetween(LocalDateTime.parse("2022-01-01T00:00"), LocalDateTime.parse("2022-02-01T00:00")).toSql();
+        Assert.assertTrue(sql.startsWith("copy (select json_build_object('requestID', requestID,"));
+        Assert.assertTrue(sql.contains(" where true and status='Pending' and not archived" +
+                " and timeSubmitted>='2022-01-01T00:00'::timestamp and timeSubmitted<'2022-02-01T00:00'::timestamp order by"));
+        Assert.assertTrue(sql.endsWith("to stdout with (format csv, delimiter e'\\x02', quote e'\\x01');"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsUnknownFormat() {
+        RequestExport.Format.named("xlsx");
+    }
+}
@@ -0,0 +1,80 @@
+package com.nathanpaternoster.services;
+
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RequestQueryTest {
+    private final ReimbursementRequest last = new ReimbursementRequest(77, 34, 65, 12500, "Hotel", "Chicago",
+            LocalDateTime.parse("2022-03-04T05:06:07.123"), null, "Pending");
+
+    @Test
+    public void defaultsToNewestFirst() {
+        List<Object> params = new ArrayList<>();
+        String sql = new RequestQuery().pageSize(10).toSql(params);
+        Assert.assertEquals("select " + RequestQuery.COLUMNS + " from requests where true order by timeSubmitted desc, requestID desc limit ?;", sql);
+        Assert.assertEquals(Arrays.<Object>asList(11), params);
+    }
+
+    @Test
+    public void compilesFiltersToParameters() {
+        List<Object> params = new ArrayList<>();
+        String sql = new RequestQuery().withStatus("Resolved").withSubmitter(34).withResolver(65).withCategory("Hotel'; drop table requests;--")
+                .submittedBetween(LocalDateTime.parse("2022-01-01T00:00"), null).amountBetween(10000, -1)
+                .orderBy(RequestQuery.Column.AMOUNT, true).pageSize(5).toSql(params);
+        Assert.assertEquals("select " + RequestQuery.COLUMNS + " from requests where true and status in ('Approved', 'Denied')"
+                + " and submitterID=? and resolverID=? and category=? and timeSubmitted>=? and amount>=?"
+                + " order by amount desc, requestID desc limit ?;", sql);
+        Assert.assertEquals(Arrays.<Object>asList(34, 65, "Hotel'; drop table requests;--",
+                Timestamp.valueOf("2022-01-01 00:00:00"), 10000L, 6), params);
+    }
+
+    @Test
+    public void continuesAfterTheLastRowInMixedDirections() {
+        RequestQuery first = new RequestQuery().orderBy(RequestQuery.Column.AMOUNT, true).orderBy(RequestQuery.Column.SUBMITTED, false);
+        String token = first.nextPageToken(last);
+
+        List<Object> params = new ArrayList<>();
+        String sql = new RequestQuery().orderBy(RequestQuery.Column.AMOUNT, true).orderBy(RequestQuery.Column.SUBMITTED, false)
+                .after(token).pageSize(2).toSql(params);
+        Assert.assertTrue(sql.contains(" and amount<=? and ((amount<?) or (amount=? and timeSubmitted>?) or (amount=? and timeSubmitted=? and requestID>?))"));
+        Assert.assertTrue(sql.endsWith(" order by amount desc, timeSubmitted asc, requestID asc limit ?;"));
+        Timestamp submitted = Timestamp.valueOf(last.getTimeSubmitted());
+        Assert.assertEquals(Arrays.<Object>asList(12500L, 12500L, 12500L, submitted, 12500L, submitted, 77, 3), params);
+    }
+
+    @Test
+    public void continuesAfterTheLastRowWithOneRowComparison() {
+        String token = new RequestQuery().orderBy(RequestQuery.Column.SUBMITTED, false).orderBy(RequestQuery.Column.AMOUNT, false).nextPageToken(last);
+
+        List<Object> params = new ArrayList<>();
+        String sql = new RequestQuery().orderBy(RequestQuery.Column.SUBMITTED, false).orderBy(RequestQuery.Column.AMOUNT, false)
+                .after(token).pageSize(2).toSql(params);
+        Assert.assertEquals("select " + RequestQuery.COLUMNS + " from requests where true and timeSubmitted>=? " +
+                "and (timeSubmitted, amount, requestID) > (?, ?, ?) order by timeSubmitted asc, amount asc, requestID asc limit ?;", sql);
+        Timestamp submitted = Timestamp.valueOf(last.getTimeSubmitted());
+        Assert.assertEquals(Arrays.<Object>asList(submitted, submitted, 12500L, 77, 3), params);
+
+        // newest first, the default order
+        params.clear();
+        sql = new RequestQuery().after(new RequestQuery().nextPageToken(last)).toSql(params);
+        Assert.assertTrue(sql.contains(" and timeSubmitted<=? and (timeSubmitted, requestID) < (?, ?) order by timeSubmitted desc, requestID desc"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsTokenOfAnotherOrder() {
+        String token = new RequestQuery().orderBy(RequestQuery.Column.AMOUNT, true).nextPageToken(last);
+        new RequestQuery().after(token);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsUnknownColumn() {
+        RequestQuery.Column.named("description");
+    }
+}
@@ -0,0 +1,44 @@
+package com.nathanpaternoster.services;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.services.cluster.ClusterBus;
+import com.nathanpaternoster.services.routing.RoutingDataSource;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class TableVersionsTest {
+    @Test
+    public void testNotificationsSetTheVersion() {
+        RoutingDataSource routing = Mockito.mock(RoutingDataSource.class);
+        TableVersions versions = new TableVersions(routing, "requests", "users");
+        assertEquals(-1, versions.get("requests"));
+        versions.changed("requests:1234");
+        assertEquals(1234, versions.get("requests"));
+        assertEquals(-1, versions.get("users"));
+        // the change is routed to the primary before any listing is tagged with it
+        Mockito.verify(routing).written();
+        versions.changed("requests:soon");
+        assertEquals(1234, versions.get("requests"));
+    }
+
+    @Test
+    public void testReconnectingResynchronizes() {
+        ClusterBus bus = Mockito.mock(ClusterBus.class);
+        TableVersions versions = new TableVersions(null, "requests", "users");
+        versions.listen(bus);
+        versions.changed("users:7");
+        versions.connected(false);
+        assertEquals(-1, versions.get("users"));     // changes are missed while disconnected
+
+        versions.connected(true);
+        ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(bus, Mockito.times(2)).send(Mockito.eq(TableVersions.CHANNEL), payloads.capture());
+        assertTrue(payloads.getAllValues().get(0).startsWith("requests:"));
+        assertTrue(payloads.getAllValues().get(1).startsWith("users:"));
+        assertEquals(-1, versions.get("users"));     // until the fresh version comes back
+        versions.changed(payloads.getAllValues().get(1));
+        assertTrue(versions.get("users") >= 0);
+    }
+}
@@ -12,11 +12,20 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UserDAOImplPostgresTest {
@@ -139,4 +148,54 @@ public class UserDAOImplPostgresTest {
         Mockito.when(rs.next()).thenReturn(false);
         assertTrue(dao.emailIsAvailable("fakeemailaddress"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamEmployees() throws Exception {
+        List<Employee> streamed = new ArrayList<>();
+        assertTrue(dao.streamEmployees(streamed::add));
+        assertEquals(1, streamed.size());
+        assertEquals(testEmployee.getEmail(), streamed.get(0).getEmail());
+        assertEquals("**********", streamed.get(0).getPassword()); // replaced password
+        Mockito.verify(ps).setFetchSize(UserDAOImplPostgres.STREAM_FETCH_SIZE);
+    }
+
+    @Test
+    public void testFindUnavailableEmails() throws SQLException {
+        Set<String> unavailable = dao.findUnavailableEmails(Arrays.asList(testEmployee.getEmail(), "fakeemailaddress"));
+        assertEquals(Collections.singleton(testEmployee.getEmail()), unavailable);
+        Mockito.verify(con).createArrayOf(Mockito.eq("varchar"), Mockito.any());
+    }
+
+    @Test
+    public void testImportEmployees() throws Exception {
+        PGConnection pgConnection = Mockito.mock(PGConnection.class);
+        CopyManager copyManager = Mockito.mock(CopyManager.class);
+        CopyIn copyIn = Mockito.mock(CopyIn.class);
+        Statement st = Mockito.mock(Statement.class);
+        Mockito.when(con.createStatement()).thenReturn(st);
+        Mockito.when(con.isWrapperFor(PGConnection.class)).thenReturn(true);
+        Mockito.when(con.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        Mockito.when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        Mockito.when(copyManager.copyIn(Mockito.anyString())).thenReturn(copyIn);
+        StringBuilder copied = new StringBuilder();
+        Mockito.doAnswer(invocation -> {
+            copied.append(new String((byte[]) invocation.getArgument(0), 0, invocation.getArgument(2), StandardCharsets.UTF_8));
+            return null;
+        }).when(copyIn).writeToCopy(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        Employee quoted = new Employee(-1, "pass\"1", "Ada", "Lovelace", null, "ada@mail.com", null);
+        Map<String, Integer> imported = dao.importEmployees(Arrays.asList(testEmployee, quoted));
+        assertEquals(Integer.valueOf(testEmployee.getUserID()), imported.get(testEmployee.getEmail()));
+        assertEquals("0,\"password!123\",\"Morgan\",\"Freeman\",\"mfreeman@gmail.com\",1970-01-01\n" +
+                "1,\"pass\"\"1\",\"Ada\",\"Lovelace\",\"ada@mail.com\",\n", copied.toString());
+        Mockito.verify(copyIn).endCopy();
+        Mockito.verify(con).commit();
+    }
+
+    @Test
+    public void testInvalidImportEmployees() throws SQLException {
+        Mockito.when(con.createStatement()).thenThrow(new SQLException());
+        assertNull(dao.importEmployees(Collections.singletonList(testEmployee)));
+        Mockito.verify(con, Mockito.never()).commit();
+    }
+}
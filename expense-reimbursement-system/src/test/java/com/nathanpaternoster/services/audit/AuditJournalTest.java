@@ -0,0 +1,135 @@
+package com.nathanpaternoster.services.audit;
+
+import com.nathanpaternoster.models.audit.AuditRecord;
+import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AuditJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path directory;
+    private AuditJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        journal = new AuditJournal(directory, 4);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    private static ReimbursementRequest request(int submitterID, long amount) {
+        return new ReimbursementRequest(-1, submitterID, -1, amount, "Food", "lunch", null, null, "Pending");
+    }
+
+    private static List<Integer> keys(List<AuditRecord> history) {
+        List<Integer> keys = new ArrayList<>();
+        for (AuditRecord r : history) keys.add(r.getKey());
+        return keys;
+    }
+
+    @Test
+    public void historyFollowsTheIndexBlock() throws Exception {
+        journal.append(AuditRecord.submitted(1, request(34, 500)));
+        journal.append(AuditRecord.submitted(2, request(35, 700)));
+        journal.append(AuditRecord.user(AuditRecord.Type.USER_UPDATED, 1, 1, "Employee"));
+        journal.append(AuditRecord.submitted(65, request(34, 900)));     // the next index block
+        journal.append(AuditRecord.resolved(1, 123, "Approved", null));
+
+        List<AuditRecord> history = journal.requestHistory(1);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(AuditRecord.Type.SUBMITTED, history.get(0).getType());
+        Assert.assertEquals(0, history.get(0).getSequence());
+        Assert.assertEquals(34, history.get(0).getActorID());
+        Assert.assertEquals(500, history.get(0).getAmount());
+        Assert.assertEquals("Pending", history.get(0).getStatus());
+        Assert.assertEquals(AuditRecord.Type.RESOLVED, history.get(1).getType());
+        Assert.assertEquals(123, history.get(1).getActorID());
+        Assert.assertEquals(-1, history.get(1).getAmount());
+        Assert.assertEquals("Approved", history.get(1).getStatus());
+        Assert.assertEquals(1, journal.userHistory(1).size());
+        Assert.assertEquals("Employee", journal.userHistory(1).get(0).getStatus());
+        Assert.assertEquals(1, journal.requestHistory(65).size());
+        Assert.assertTrue(journal.requestHistory(3).isEmpty());
+        Assert.assertEquals(65, journal.read(3).getKey());
+        Assert.assertNull(journal.read(5));
+    }
+
+    @Test
+    public void rollsSegmentsAndRebuildsTheIndexWhenReopened() throws Exception {
+        for (int i = 0; i < 10; ++i) journal.append(AuditRecord.submitted(i % 3, request(34, i)));
+        Assert.assertEquals(3, directory.toFile().list((dir, name) -> name.endsWith(".log")).length);
+        journal.close();
+
+        journal = new AuditJournal(directory, 100);     // an existing journal keeps its segment size
+        Assert.assertEquals(10, journal.getNextSequence());
+        Assert.assertEquals(4, keys(journal.requestHistory(0)).size());
+        journal.append(AuditRecord.submitted(0, request(34, 10)));
+        journal.append(AuditRecord.submitted(1, request(34, 11)));
+        journal.append(AuditRecord.submitted(2, request(34, 12)));      // the first record of a fourth segment
+        Assert.assertEquals(4, directory.toFile().list((dir, name) -> name.endsWith(".log")).length);
+        List<AuditRecord> history = journal.requestHistory(0);
+        Assert.assertEquals(5, history.size());
+        Assert.assertEquals(10, history.get(4).getSequence());
+        Assert.assertEquals(10, history.get(4).getAmount());
+
+        List<Long> scanned = new ArrayList<>();
+        Assert.assertEquals(13, journal.scan(8, r -> scanned.add(r.getSequence())));
+        Assert.assertEquals(5, scanned.size());
+    }
+
+    @Test
+    public void tornRecordEndsTheJournal() throws Exception {
+        for (int i = 0; i < 3; ++i) journal.append(AuditRecord.submitted(7, request(34, i)));
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("audit-0000000000.log").toFile(), "rw")) {
+            long amount = AuditJournal.HEADER_SIZE + 2 * AuditJournal.RECORD_SIZE + 48;
+            file.seek(amount);
+            file.writeLong(12345);
+        }
+
+        journal = new AuditJournal(directory, 4);
+        Assert.assertEquals(2, journal.getNextSequence());
+        Assert.assertEquals(2, journal.requestHistory(7).size());
+        Assert.assertEquals(2, journal.append(AuditRecord.resolved(7, 123, "Denied", null)));
+        Assert.assertEquals("Denied", journal.requestHistory(7).get(2).getStatus());
+    }
+
+    @Test
+    public void appendsAreSyncedTogether() throws Exception {
+        journal.start();
+        long first = journal.append(AuditRecord.submitted(1, request(34, 500)));
+        long last = journal.append(AuditRecord.resolved(1, 123, "Approved", null));
+        Assert.assertTrue(journal.awaitSynced(last, 5000));
+        Assert.assertTrue(journal.awaitSynced(first, 0));
+        Assert.assertTrue(journal.getSyncCount() >= 1);
+        Assert.assertEquals(2, journal.getAppendedCount());
+        journal.close();
+        Assert.assertEquals(2, journal.getSyncedSequence());
+        try {
+            journal.append(AuditRecord.submitted(2, request(34, 500)));
+            Assert.fail("Appended to a closed journal");
+        } catch (IOException expected) {
+            // closed
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void directoryIsLockedWhileOpen() throws Exception {
+        new AuditJournal(directory, 4);
+    }
+}
@@ -0,0 +1,114 @@
+package com.nathanpaternoster.services.cluster;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class ClusterBusTest {
+    private DataSource dataSource;
+    private Statement statement;
+    private PreparedStatement notify;
+    private final BlockingQueue<PGNotification> pending = new LinkedBlockingQueue<>();
+    private ClusterBus bus;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = Mockito.mock(DataSource.class);
+        Connection connection = Mockito.mock(Connection.class);
+        PGConnection pg = Mockito.mock(PGConnection.class);
+        statement = Mockito.mock(Statement.class);
+        notify = Mockito.mock(PreparedStatement.class);
+        Mockito.when(dataSource.getConnection()).thenReturn(connection);
+        Mockito.when(connection.unwrap(PGConnection.class)).thenReturn(pg);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+        Mockito.when(connection.prepareStatement("select pg_notify(?, ?);")).thenReturn(notify);
+        // waits for a notification like the driver, at most the poll time
+        Mockito.when(pg.getNotifications(Mockito.anyInt())).thenAnswer(invocation -> {
+            PGNotification n = pending.poll(invocation.<Integer>getArgument(0), TimeUnit.MILLISECONDS);
+            return (n == null) ? null : new PGNotification[] {n};
+        });
+        bus = new ClusterBus(dataSource, 20);
+    }
+
+    @After
+    public void tearDown() {
+        bus.close();
+    }
+
+    private static PGNotification notification(String channel, String payload) {
+        PGNotification n = Mockito.mock(PGNotification.class);
+        Mockito.when(n.getName()).thenReturn(channel);
+        Mockito.when(n.getParameter()).thenReturn(payload);
+        return n;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void dispatchesNotificationsToTheChannelsHandlers() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        bus.subscribe("request_events", events::add);
+        bus.subscribe("rate_limits", payload -> { throw new IllegalStateException("a failing handler"); });
+        bus.start();
+        await(bus::isConnected);
+        Mockito.verify(statement).execute("listen \"request_events\";");
+        Mockito.verify(statement).execute("listen \"rate_limits\";");
+
+        pending.add(notification("rate_limits", "x"));
+        pending.add(notification("request_events", "{\"id\" : 1}"));
+        await(() -> events.size() == 1);
+        Assert.assertEquals("{\"id\" : 1}", events.get(0));
+        Assert.assertEquals(2, bus.getReceivedCount());
+    }
+
+    @Test
+    public void sendsQueuedNotificationsBetweenPolls() throws Exception {
+        bus.send("rate_limits", "dropped while disconnected");
+        bus.start();
+        await(bus::isConnected);
+        bus.send("rate_limits", "a\t1\t10.0.0.1");
+        await(() -> bus.getSentCount() == 1);
+        Mockito.verify(notify).setString(1, "rate_limits");
+        Mockito.verify(notify).setString(2, "a\t1\t10.0.0.1");
+        Mockito.verify(notify, Mockito.times(1)).execute();
+    }
+
+    @Test
+    public void reconnectsAndTellsTheConnectionListeners() throws Exception {
+        Connection working = dataSource.getConnection();
+        Mockito.when(dataSource.getConnection()).thenThrow(new SQLException("refused")).thenReturn(working);
+        List<Boolean> states = new CopyOnWriteArrayList<>();
+        bus.addConnectionListener(states::add);
+        bus.start();
+        await(bus::isConnected);
+        Assert.assertEquals(1, bus.getFailureCount());
+        Assert.assertEquals(1, states.size());
+
+        // the connection breaks while sending
+        Mockito.when(notify.execute()).thenThrow(new SQLException("closed"));
+        bus.send("rate_limits", "x");
+        await(() -> states.size() == 2);
+        Assert.assertFalse(states.get(1));
+        Assert.assertFalse(bus.isConnected());
+    }
+}
@@ -0,0 +1,138 @@
+package com.nathanpaternoster.services.migration;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+public class MigrationRunnerTest {
+    private MigrationRunner runner;
+    private Connection con;
+    private Statement st;
+    private PreparedStatement ps;
+    private ResultSet rs;
+
+    @Before
+    public void setUp() throws Exception {
+        DataSource dataSource = Mockito.mock(DataSource.class);
+        con = Mockito.mock(Connection.class);
+        st = Mockito.mock(Statement.class);
+        ps = Mockito.mock(PreparedStatement.class);
+        rs = Mockito.mock(ResultSet.class);
+        Mockito.when(dataSource.getConnection()).thenReturn(con);
+        Mockito.when(con.createStatement()).thenReturn(st);
+        Mockito.when(con.prepareStatement(Mockito.anyString())).thenReturn(ps);
+        Mockito.when(ps.executeQuery()).thenReturn(rs);
+        runner = new MigrationRunner(dataSource, "db/migration");
+    }
+    @After
+    public void tearDown() throws Exception {
+    }
+
+    @Test
+    public void testLoad() {
+        List<MigrationRunner.Migration> migrations = runner.load();
+        assertTrue(migrations.size() >= 2);
+        assertEquals(1, migrations.get(0).getVersion());
+        assertEquals("baseline", migrations.get(0).getDescription());
+        assertTrue(migrations.get(0).isTransactional());
+        assertFalse(migrations.get(1).isTransactional());     // create index concurrently
+        assertEquals(64, migrations.get(0).getChecksum().length());
+    }
+
+    @Test
+    public void testSplitStatements() {
+        List<String> statements = MigrationRunner.splitStatements(
+                "-- migration: no-transaction\n-- comment\ncreate index a on t (x);\n\ncreate index b\n  on t (y);\n");
+        assertEquals(2, statements.size());
+        assertEquals("create index a on t (x);", statements.get(0));
+        assertEquals("create index b\n  on t (y);", statements.get(1));
+    }
+
+    @Test
+    public void testMigrateAppliesPendingMigrations() throws Exception {
+        List<MigrationRunner.Migration> migrations = runner.load();
+        Mockito.when(rs.next()).thenReturn(true, false);    // V1 has already been applied
+        Mockito.when(rs.getInt("version")).thenReturn(1);
+        Mockito.when(rs.getString("checksum")).thenReturn(migrations.get(0).getChecksum());
+
+        assertEquals(migrations.size() - 1, runner.migrate());
+        Mockito.verify(st, Mockito.never()).execute(migrations.get(0).getScript());
+        Mockito.verify(st).execute(Mockito.startsWith("create index concurrently if not exists requests_submitter_time_idx"));
+        Mockito.verify(con).prepareStatement("select pg_advisory_lock(?);");
+        Mockito.verify(con).prepareStatement("select pg_advisory_unlock(?);");
+        Mockito.verify(ps, Mockito.times(migrations.size() - 1)).executeUpdate();    // recorded in schema_migrations
+    }
+
+    @Test
+    public void testConcurrentIndex() {
+        assertEquals("requests_submitter_time_idx", MigrationRunner.concurrentIndex(
+                "create index concurrently if not exists requests_submitter_time_idx on requests (submitterID);"));
+        assertEquals("u", MigrationRunner.concurrentIndex("CREATE UNIQUE INDEX CONCURRENTLY u\n  on t (x);"));
+        assertNull(MigrationRunner.concurrentIndex("create index i on t (x);"));
+    }
+
+    /**
+     * Every migration but V1 is pending, and pg_index reports the given validity for every index, then true
+     */
+    private PreparedStatement indexValidity(Boolean first, Boolean... then) throws Exception {
+        List<MigrationRunner.Migration> migrations = runner.load();
+        Mockito.when(rs.next()).thenReturn(true, false);
+        Mockito.when(rs.getInt("version")).thenReturn(1);
+        Mockito.when(rs.getString("checksum")).thenReturn(migrations.get(0).getChecksum());
+        PreparedStatement validity = Mockito.mock(PreparedStatement.class);
+        ResultSet validityRs = Mockito.mock(ResultSet.class);
+        Mockito.when(con.prepareStatement(Mockito.startsWith("select indisvalid"))).thenReturn(validity);
+        Mockito.when(validity.executeQuery()).thenReturn(validityRs);
+        Mockito.when(validityRs.next()).thenReturn(true);
+        Mockito.when(validityRs.getBoolean(1)).thenReturn(first, then);
+        return validity;
+    }
+
+    @Test
+    public void testInvalidIndexIsRebuilt() throws Exception {
+        indexValidity(false, true);      // a failed earlier run left the first index of V2 invalid
+        runner.migrate();
+        Mockito.verify(st).execute("drop index concurrently if exists requests_submitter_time_idx;");
+        Mockito.verify(st, Mockito.times(1)).execute(Mockito.startsWith("drop index"));
+    }
+
+    @Test
+    public void testInvalidIndexIsNotRecorded() throws Exception {
+        indexValidity(false, false);     // the rebuild fails too
+        RuntimeException e = assertThrows(RuntimeException.class, () -> runner.migrate());
+        assertTrue(e.getMessage().contains("Index requests_submitter_time_idx of migration V2 is invalid"));
+        Mockito.verify(ps, Mockito.never()).executeUpdate();
+    }
+
+    @Test
+    public void testModifiedMigrationFails() throws Exception {
+        Mockito.when(rs.next()).thenReturn(true, false);
+        Mockito.when(rs.getInt("version")).thenReturn(1);
+        Mockito.when(rs.getString("checksum")).thenReturn("not the checksum");
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> runner.migrate());
+        assertEquals("Migration V1 has been modified since it was applied", e.getMessage());
+        Mockito.verify(con).prepareStatement("select pg_advisory_unlock(?);");
+        Mockito.verify(ps, Mockito.never()).executeUpdate();
+    }
+
+    @Test
+    public void testFailedMigrationRollsBack() throws Exception {
+        Mockito.when(rs.next()).thenReturn(false);
+        Mockito.when(st.execute(Mockito.startsWith("-- schema as it existed"))).thenThrow(new java.sql.SQLException("syntax error"));
+
+        assertThrows(RuntimeException.class, () -> runner.migrate());
+        Mockito.verify(con).rollback();
+        Mockito.verify(con, Mockito.never()).commit();
+    }
+}
@@ -0,0 +1,96 @@
+package com.nathanpaternoster.services.partition;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class RequestPartitionMaintainerTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 11, 20, 9, 30);
+    private DataSource dataSource;
+    private PreparedStatement lock;
+    private PreparedStatement unlock;
+    private PreparedStatement partition;
+    private PreparedStatement archive;
+    private ResultSet lockRs;
+    private ResultSet partitionRs;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = Mockito.mock(DataSource.class);
+        Connection connection = Mockito.mock(Connection.class);
+        lock = Mockito.mock(PreparedStatement.class);
+        unlock = Mockito.mock(PreparedStatement.class);
+        partition = Mockito.mock(PreparedStatement.class);
+        archive = Mockito.mock(PreparedStatement.class);
+        lockRs = Mockito.mock(ResultSet.class);
+        partitionRs = Mockito.mock(ResultSet.class);
+        ResultSet unlockRs = Mockito.mock(ResultSet.class);
+        Mockito.when(dataSource.getConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(Mockito.startsWith("select pg_try_advisory_lock"))).thenReturn(lock);
+        Mockito.when(connection.prepareStatement(Mockito.startsWith("select pg_advisory_unlock"))).thenReturn(unlock);
+        Mockito.when(connection.prepareStatement(Mockito.startsWith("select create_request_partition"))).thenReturn(partition);
+        Mockito.when(connection.prepareStatement(Mockito.startsWith("update requests set archived=true"))).thenReturn(archive);
+        Mockito.when(lock.executeQuery()).thenReturn(lockRs);
+        Mockito.when(unlock.executeQuery()).thenReturn(unlockRs);
+        Mockito.when(partition.executeQuery()).thenReturn(partitionRs);
+        Mockito.when(lockRs.next()).thenReturn(true);
+        Mockito.when(lockRs.getBoolean(1)).thenReturn(true);
+        Mockito.when(partitionRs.next()).thenReturn(true);
+    }
+
+    @Test
+    public void createsPartitionsAheadAndArchivesInBatches() throws Exception {
+        Mockito.when(partitionRs.getBoolean(1)).thenReturn(false, false, true);     // only the last month is new
+        Mockito.when(archive.executeUpdate()).thenReturn(100, 100, 30);
+        RequestPartitionMaintainer maintainer = new RequestPartitionMaintainer(dataSource, 2, 365, 100, () -> NOW);
+
+        Assert.assertTrue(maintainer.maintain());
+        Mockito.verify(partition).setDate(1, Date.valueOf(LocalDate.of(2026, 11, 1)));
+        Mockito.verify(partition).setDate(1, Date.valueOf(LocalDate.of(2026, 12, 1)));
+        Mockito.verify(partition).setDate(1, Date.valueOf(LocalDate.of(2027, 1, 1)));
+        Mockito.verify(archive, Mockito.times(3)).setTimestamp(1, Timestamp.valueOf(NOW.minusDays(365)));
+        Mockito.verify(unlock).executeQuery();
+        Assert.assertEquals(1, maintainer.getCreatedCount());
+        Assert.assertEquals(230, maintainer.getArchivedCount());
+    }
+
+    @Test
+    public void archivingCanBeDisabled() throws Exception {
+        RequestPartitionMaintainer maintainer = new RequestPartitionMaintainer(dataSource, 0, 0, 100, () -> NOW);
+
+        Assert.assertTrue(maintainer.maintain());
+        Mockito.verify(partition).executeQuery();
+        Mockito.verify(archive, Mockito.never()).executeUpdate();
+    }
+
+    @Test
+    public void skipsWhileAnotherInstanceHoldsTheLock() throws Exception {
+        Mockito.when(lockRs.getBoolean(1)).thenReturn(false);
+        RequestPartitionMaintainer maintainer = new RequestPartitionMaintainer(dataSource, 3, 365, 100, () -> NOW);
+
+        Assert.assertFalse(maintainer.maintain());
+        Mockito.verify(partition, Mockito.never()).executeQuery();
+        Mockito.verify(archive, Mockito.never()).executeUpdate();
+        Mockito.verify(unlock, Mockito.never()).executeQuery();
+    }
+
+    @Test
+    public void failureIsCountedAndLockReleased() throws Exception {
+        Mockito.when(archive.executeUpdate()).thenThrow(new java.sql.SQLException("deadlock detected"));
+        RequestPartitionMaintainer maintainer = new RequestPartitionMaintainer(dataSource, 0, 30, 100, () -> NOW);
+
+        Assert.assertFalse(maintainer.maintain());
+        Mockito.verify(unlock).executeQuery();
+        Assert.assertEquals(1, maintainer.getFailureCount());
+    }
+}
@@ -0,0 +1,164 @@
+package com.nathanpaternoster.services.pool;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectionPoolTest {
+    private DataSource factory;
+    private List<Connection> opened;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = Mockito.mock(DataSource.class);
+        opened = new ArrayList<>();
+        Mockito.when(factory.getConnection()).thenAnswer(invocation -> {
+            Connection c = Mockito.mock(Connection.class);
+            Mockito.when(c.getAutoCommit()).thenReturn(true);
+            Mockito.when(c.isValid(Mockito.anyInt())).thenReturn(true);
+            Mockito.when(c.prepareStatement(Mockito.anyString())).thenAnswer(i -> Mockito.mock(PreparedStatement.class));
+            opened.add(c);
+            return c;
+        });
+        pool = new ConnectionPool(factory, 1, 2, 50, 1, 60000, 0, 0);
+    }
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    @Test
+    public void testPrefillAndReuse() throws SQLException {
+        pool.start();
+        assertEquals(1, opened.size());
+        assertEquals(1, pool.getIdleCount());
+
+        Connection c = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        c.close();
+        c.close();      // closing a handle twice returns it once
+        assertTrue(c.isClosed());
+        assertEquals(1, pool.getIdleCount());
+
+        pool.getConnection().close();
+        assertEquals(1, opened.size());
+        assertEquals(2, pool.getAcquireTime().getCount());
+        assertThrows(SQLException.class, () -> c.prepareStatement("select 1"));
+    }
+
+    @Test
+    public void testAcquireTimesOutAtMaxSize() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        assertEquals(2, pool.getTotalCount());
+        assertThrows(SQLTimeoutException.class, () -> pool.getConnection());
+        assertEquals(1, pool.getTimeoutCount());
+        assertEquals(0, pool.getWaitingCount());
+
+        first.close();
+        pool.getConnection();
+        second.close();
+        assertEquals(2, opened.size());
+    }
+
+    @Test
+    public void testUncommittedWorkIsRolledBack() throws SQLException {
+        Connection c = pool.getConnection();
+        Connection physical = opened.get(0);
+        Mockito.when(physical.getAutoCommit()).thenReturn(false);
+        c.close();
+        Mockito.verify(physical).rollback();
+        Mockito.verify(physical).setAutoCommit(true);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testInvalidIdleConnectionIsReplaced() throws SQLException {
+        pool = new ConnectionPool(factory, 0, 2, 50, 1, 0, 0, 0);      // validate every idle connection
+        pool.getConnection().close();
+        Mockito.when(opened.get(0).isValid(Mockito.anyInt())).thenReturn(false);
+
+        pool.getConnection();
+        assertEquals(2, opened.size());
+        Mockito.verify(opened.get(0)).close();
+        assertEquals(1, pool.getValidationFailureCount());
+        assertEquals(1, pool.getTotalCount());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        pool = new ConnectionPool(factory, 0, 2, 50, 1, 60000, 1, 0);
+        Connection c = pool.getConnection();
+        Thread.sleep(10);
+        pool.housekeep();
+        pool.housekeep();   // each leak is reported once
+        assertEquals(1, pool.getLeakCount());
+        c.close();
+    }
+
+    @Test
+    public void testBrokenConnectionIsDiscarded() throws SQLException {
+        Connection c = pool.getConnection();
+        Mockito.when(opened.get(0).prepareStatement(Mockito.anyString())).thenThrow(new SQLException("I/O error", "08006"));
+        assertThrows(SQLException.class, () -> c.prepareStatement("select 1"));
+        c.close();
+        assertEquals(0, pool.getTotalCount());
+        Mockito.verify(opened.get(0)).close();
+    }
+
+    @Test
+    public void testStatementCache() throws SQLException {
+        pool = new ConnectionPool(factory, 0, 1, 50, 1, 60000, 0, 2);
+        Connection c = pool.getConnection();
+        PreparedStatement ps = c.prepareStatement("select 1");
+        ps.setInt(1, 5);
+        ps.close();
+        assertTrue(ps.isClosed());
+        assertSame(c, ps.getConnection());
+        c.close();
+
+        // the same SQL on the next checkout reuses the statement, reset for the new borrower
+        c = pool.getConnection();
+        c.prepareStatement("select 1").close();
+        Mockito.verify(opened.get(0), Mockito.times(1)).prepareStatement("select 1");
+        assertEquals(1, pool.getStatementCacheHitCount());
+        assertEquals(1, pool.getStatementCacheMissCount());
+
+        // a second open statement for the same SQL is prepared separately and not cached
+        PreparedStatement first = c.prepareStatement("select 1");
+        PreparedStatement second = c.prepareStatement("select 1");
+        assertNotSame(first, second);
+        Mockito.verify(opened.get(0), Mockito.times(2)).prepareStatement("select 1");
+        first.close();
+        second.close();
+        c.close();
+    }
+
+    @Test
+    public void testStatementCacheEviction() throws SQLException {
+        pool = new ConnectionPool(factory, 0, 1, 50, 1, 60000, 0, 1);
+        Connection c = pool.getConnection();
+        PreparedStatement first = c.prepareStatement("select 1");
+        first.close();
+        first.close();
+        c.prepareStatement("select 2").close();     // evicts "select 1"
+        c.prepareStatement("select 1").close();
+        Mockito.verify(opened.get(0), Mockito.times(2)).prepareStatement("select 1");
+        assertEquals(0, pool.getStatementCacheHitCount());
+        c.close();
+        pool.close();
+        Mockito.verify(opened.get(0)).close();
+    }
+}
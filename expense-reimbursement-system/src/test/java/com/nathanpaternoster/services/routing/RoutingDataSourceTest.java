@@ -0,0 +1,148 @@
+package com.nathanpaternoster.services.routing;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RoutingDataSourceTest {
+    private final AtomicLong now = new AtomicLong(1000);
+    private DataSource primary;
+    private DataSource replica;
+    private Connection primaryConnection;
+    private Connection replicaConnection;
+    private ResultSet primaryRs;
+    private ResultSet replicaRs;
+    private RoutingDataSource routing;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = Mockito.mock(DataSource.class);
+        replica = Mockito.mock(DataSource.class);
+        primaryConnection = Mockito.mock(Connection.class);
+        replicaConnection = Mockito.mock(Connection.class);
+        Statement primaryStatement = Mockito.mock(Statement.class);
+        Statement replicaStatement = Mockito.mock(Statement.class);
+        primaryRs = Mockito.mock(ResultSet.class);
+        replicaRs = Mockito.mock(ResultSet.class);
+        Mockito.when(primary.getConnection()).thenReturn(primaryConnection);
+        Mockito.when(replica.getConnection()).thenReturn(replicaConnection);
+        Mockito.when(primaryConnection.createStatement()).thenReturn(primaryStatement);
+        Mockito.when(replicaConnection.createStatement()).thenReturn(replicaStatement);
+        Mockito.when(primaryStatement.executeQuery(Mockito.anyString())).thenReturn(primaryRs);
+        Mockito.when(replicaStatement.executeQuery(Mockito.anyString())).thenReturn(replicaRs);
+        Mockito.when(primaryRs.getString(1)).thenReturn("1/A0");
+        Mockito.when(replicaRs.getString(1)).thenReturn("1/A0");
+        routing = new RoutingDataSource(primary, Collections.singletonList(replica), 5000, now::get);
+    }
+
+    @Test
+    public void parsesLsn() {
+        Assert.assertEquals((0x16L << 32) + 0xB374D848L, RoutingDataSource.parseLsn("16/B374D848"));
+    }
+
+    @Test
+    public void readsPrimaryUntilReplicaIsSampled() throws Exception {
+        Assert.assertSame(primaryConnection, routing.getConnection());
+        now.incrementAndGet();
+        routing.sample();
+        Assert.assertSame(replicaConnection, routing.getConnection());
+        Assert.assertEquals(0, routing.getReplicas().get(0).getLagBytes());
+        Assert.assertEquals(1, routing.getPrimaryReadCount());
+        Assert.assertEquals(1, routing.getReplicaReadCount());
+    }
+
+    @Test
+    public void readsPrimaryAfterWriteUntilReplicaHasReplayedIt() throws Exception {
+        now.incrementAndGet();
+        routing.sample();
+        now.incrementAndGet();
+        routing.written();
+        Assert.assertSame(primaryConnection, routing.getConnection());
+
+        // sampled after the write, but the replica is 16 bytes behind
+        now.incrementAndGet();
+        Mockito.when(primaryRs.getString(1)).thenReturn("1/B0");
+        Mockito.when(replicaRs.getLong(2)).thenReturn(40L);
+        routing.sample();
+        Assert.assertEquals(16, routing.getReplicas().get(0).getLagBytes());
+        Assert.assertEquals(40, routing.getReplicas().get(0).getLagMillis());
+        Assert.assertSame(primaryConnection, routing.getConnection());
+
+        now.incrementAndGet();
+        Mockito.when(replicaRs.getString(1)).thenReturn("1/B0");
+        routing.sample();
+        Assert.assertSame(replicaConnection, routing.getConnection());
+    }
+
+    @Test
+    public void pinnedThreadsReadPrimary() throws Exception {
+        now.incrementAndGet();
+        routing.sample();
+        RoutingDataSource.pinToPrimary(true);
+        try {
+            Assert.assertSame(primaryConnection, routing.getConnection());
+        } finally {
+            RoutingDataSource.pinToPrimary(false);
+        }
+        Assert.assertSame(replicaConnection, routing.getConnection());
+    }
+
+    @Test
+    public void failedReplicaFallsBackToPrimary() throws Exception {
+        now.incrementAndGet();
+        routing.sample();
+        Mockito.when(replica.getConnection()).thenThrow(SQLException.class);
+        Assert.assertSame(primaryConnection, routing.getConnection());
+        Assert.assertFalse(routing.getReplicas().get(0).isAvailable());
+        routing.sample();
+        Assert.assertEquals(-1, routing.getReplicas().get(0).getLagBytes());
+    }
+
+    /**
+     * Runs against two local Postgres instances, e.g.
+     * -DroutingTestPrimary=jdbc:postgresql://localhost:5432/ersDB?user=postgres&password=...
+     * -DroutingTestReplica=jdbc:postgresql://localhost:5433/ersDB?user=postgres&password=...
+     */
+    @Test
+    public void routesToLocalReplica() throws Exception {
+        String primaryUrl = System.getProperty("routingTestPrimary");
+        String replicaUrl = System.getProperty("routingTestReplica");
+        Assume.assumeTrue(primaryUrl != null && replicaUrl != null);
+        PGSimpleDataSource primary = new PGSimpleDataSource();
+        primary.setURL(primaryUrl);
+        PGSimpleDataSource replica = new PGSimpleDataSource();
+        replica.setURL(replicaUrl);
+        RoutingDataSource routing = new RoutingDataSource(primary, Collections.singletonList(replica), 5000);
+        try (Connection c = primary.getConnection(); Statement st = c.createStatement()) {
+            st.execute("create table if not exists routing_test (id int); insert into routing_test values (1);");
+        }
+        routing.written();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (routing.getReplicaReadCount() == 0 && System.currentTimeMillis() < deadline) {
+            routing.sample();
+            try (Connection c = routing.getConnection()) {
+                Thread.sleep(100);
+            }
+        }
+        Assert.assertEquals(1, routing.getReplicaReadCount());
+        try (Connection c = routing.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("select count(*) from routing_test;")) {
+            rs.next();
+            Assert.assertTrue(rs.getInt(1) > 0);    // the replica has the write
+        }
+        try (Connection c = primary.getConnection(); Statement st = c.createStatement()) {
+            st.execute("drop table routing_test;");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.nathanpaternoster.services.timing;
+
+import static org.junit.Assert.*;
+
+import com.nathanpaternoster.metrics.MetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.postgresql.PGConnection;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class TimingDataSourceTest {
+    private Connection physical;
+    private PreparedStatement statement;
+    private ResultSet rs;
+    private TimingDataSource timing;
+
+    @Before
+    public void setUp() throws Exception {
+        DataSource factory = Mockito.mock(DataSource.class);
+        physical = Mockito.mock(Connection.class);
+        statement = Mockito.mock(PreparedStatement.class);
+        rs = Mockito.mock(ResultSet.class);
+        Mockito.when(factory.getConnection()).thenReturn(physical);
+        Mockito.when(physical.getAutoCommit()).thenReturn(true);
+        Mockito.when(physical.prepareStatement(Mockito.anyString())).thenReturn(statement);
+        Mockito.when(statement.executeQuery()).thenReturn(rs);
+        Mockito.when(rs.next()).thenReturn(true, true, true, false);
+        timing = new TimingDataSource(factory, new MetricsRegistry());
+    }
+
+    @Test
+    public void testStatementTimingAndRows() throws Exception {
+        for (int id : new int[]{1, 2}) {
+            try (Connection c = timing.getConnection();
+                 PreparedStatement ps = c.prepareStatement("select * from requests where requestID = " + id + ";")) {
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) rs.getInt(1);
+                assertSame(ps, rs.getStatement());
+                assertSame(c, ps.getConnection());
+            }
+        }
+        assertEquals(1, timing.getStatements().size());
+        StatementStats stats = timing.getStatements().get(0);
+        assertEquals("select * from requests where requestID = ?", stats.getStatement());
+        assertEquals(2, stats.getTime().getCount());
+        assertEquals(3, stats.getRows());      // the mock result set's rows are all used by the first iteration
+        assertEquals(2, timing.getAcquireTime().getCount());
+        Mockito.verify(physical, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void testErrorsCounted() throws Exception {
+        Mockito.when(statement.executeUpdate()).thenThrow(new SQLException("duplicate key"));
+        try (Connection c = timing.getConnection();
+             PreparedStatement ps = c.prepareStatement("insert into users values (?, ?)")) {
+            assertThrows(SQLException.class, ps::executeUpdate);
+        }
+        StatementStats stats = timing.getStatements().get(0);
+        assertEquals(1, stats.getErrors());
+        assertEquals(1, stats.getTime().getCount());
+    }
+
+    @Test
+    public void testTransactionTiming() throws Exception {
+        try (Connection c = timing.getConnection()) {
+            c.setAutoCommit(false);
+            c.commit();     // nothing ran, not a transaction
+            c.prepareStatement("update requests set status = ?").executeUpdate();
+            c.commit();
+            c.prepareStatement("update requests set status = ?").executeUpdate();
+            c.rollback();
+            c.prepareStatement("update requests set status = ?").executeUpdate();
+        }   // closed with a transaction open
+        assertEquals(1, timing.getTransactionTime(true).getCount());
+        assertEquals(2, timing.getTransactionTime(false).getCount());
+    }
+
+    @Test
+    public void testUnwrapReachesDriver() throws Exception {
+        PGConnection pg = Mockito.mock(PGConnection.class);
+        Mockito.when(physical.isWrapperFor(PGConnection.class)).thenReturn(true);
+        Mockito.when(physical.unwrap(PGConnection.class)).thenReturn(pg);
+        try (Connection c = timing.getConnection()) {
+            assertTrue(c.isWrapperFor(PGConnection.class));
+            assertSame(pg, c.unwrap(PGConnection.class));
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("select * from users where email = ? and userID = ?",
+                TimingDataSource.normalize("select *\n  from users where email = 'o''brien@mail.com' and userID = 42;"));
+        assertEquals("select * from requests where submitterID = any(?) and status in (?) limit ?",
+                TimingDataSource.normalize("select * from requests where submitterID = any(?) and status in (?, ?,?) limit 10"));
+        assertEquals("select col1, \"t2\".x from t2", TimingDataSource.normalize("select col1, \"t2\".x -- comment 5\nfrom t2"));
+        assertEquals("values (?), (?)", TimingDataSource.normalize("values (1.5, 'a'), (2, 'b')"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.nathanpaternoster.web;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class AccessLogFilterTest {
+    private AccessLogFilter filter;
+    private HttpServletRequest testRequest;
+    private HttpServletResponse testResponse;
+
+    @Before
+    public void setUp() {
+        filter = new AccessLogFilter();
+        testRequest = Mockito.mock(HttpServletRequest.class);
+        testResponse = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(testRequest.getMethod()).thenReturn("GET");
+        Mockito.when(testRequest.getRequestURI()).thenReturn("/managers/1");
+        Mockito.when(testResponse.getStatus()).thenReturn(200);
+    }
+
+    @Test
+    public void keepsCallersRequestID() throws Exception {
+        Mockito.when(testRequest.getHeader(AccessLogFilter.HEADER)).thenReturn("lb-4f2a.9");
+        String[] seen = new String[1];
+        filter.doFilter(testRequest, testResponse, (req, resp) -> seen[0] = ThreadContext.get(AccessLogFilter.REQUEST_ID));
+
+        Assert.assertEquals("lb-4f2a.9", seen[0]);
+        Mockito.verify(testResponse).setHeader(AccessLogFilter.HEADER, "lb-4f2a.9");
+        Assert.assertNull(ThreadContext.get(AccessLogFilter.REQUEST_ID));
+    }
+
+    @Test
+    public void replacesUnsafeRequestID() {
+        Assert.assertTrue(AccessLogFilter.requestId(null).matches("[0-9a-f]{16}"));
+        Assert.assertTrue(AccessLogFilter.requestId("").matches("[0-9a-f]{16}"));
+        Assert.assertTrue(AccessLogFilter.requestId("a b\nstatus=200").matches("[0-9a-f]{16}"));
+        Assert.assertNotEquals(AccessLogFilter.requestId(null), AccessLogFilter.requestId(null));
+    }
+
+    @Test
+    public void clearsRequestIDAfterException() throws Exception {
+        try {
+            filter.doFilter(testRequest, testResponse, (req, resp) -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertNull(ThreadContext.get(AccessLogFilter.REQUEST_ID));
+    }
+}
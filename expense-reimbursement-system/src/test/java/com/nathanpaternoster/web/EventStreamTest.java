@@ -0,0 +1,142 @@
+package com.nathanpaternoster.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the event stream in an embedded Tomcat and connects hundreds of subscribers over plain sockets, read one after
+ * another from the test thread so the only threads that could grow are the server's
+ */
+public class EventStreamTest {
+    private static final int SUBSCRIBERS = 400;
+    private Tomcat tomcat;
+    private EventStream stream;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        stream = new EventStream(new ObjectMapper(), 1000);
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        Context context = tomcat.addContext("", null);
+        Wrapper servlet = Tomcat.addServlet(context, "events", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                stream.subscribe(req, resp);
+            }
+        });
+        servlet.setAsyncSupported(true);
+        context.addServletMappingDecoded("/events", "events");
+        tomcat.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket s : sockets) s.close();
+        stream.stop();
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    private Socket subscribe(String lastEventID) throws IOException {
+        Socket socket = new Socket("localhost", tomcat.getConnector().getLocalPort());
+        socket.setSoTimeout(10000);
+        String request = "GET /events HTTP/1.1\r\nHost: localhost\r\n" +
+                (lastEventID != null ? "Last-Event-ID: " + lastEventID + "\r\n" : "") + "\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        sockets.add(socket);
+        return socket;
+    }
+
+    /**
+     * Read from the socket until the text has been received
+     * @return Everything read
+     */
+    private static String readUntil(Socket socket, String text) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[1024];
+        while (sb.indexOf(text) < 0) {
+            int n = in.read(buffer);
+            if (n < 0) break;
+            sb.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    private static int threads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    @Test
+    public void threadCountStaysFlatAsSubscribersGrow() throws Exception {
+        for (int i = 0; i < 20; ++i) readUntil(subscribe(null), "retry: 5000");
+        int baseline = threads();
+        for (int i = 20; i < SUBSCRIBERS; ++i) readUntil(subscribe(null), "retry: 5000");
+        int threads = threads();
+        System.out.println("Threads with 20 subscribers: " + baseline + ", with " + SUBSCRIBERS + ": " + threads);
+        Assert.assertEquals(SUBSCRIBERS, stream.getSubscriberCount());
+        // a thread per subscriber would need 380 more, more than the connector's 200 worker threads
+        Assert.assertTrue("threads grew from " + baseline + " to " + threads, threads - baseline < 20);
+
+        stream.publish("submitted", Collections.singletonMap("requestID", 42));
+        for (Socket socket : sockets) {
+            String received = readUntil(socket, "{\"requestID\":42}");
+            Assert.assertTrue(received.contains("event: submitted\ndata: {\"requestID\":42}"));
+        }
+    }
+
+    @Test
+    public void reconnectReplaysMissedEvents() throws Exception {
+        readUntil(subscribe(null), "retry: 5000");
+        stream.publish("submitted", Collections.singletonMap("requestID", 1));
+        stream.publish("resolved", Collections.singletonMap("requestID", 1));
+        stream.publish("submitted", Collections.singletonMap("requestID", 2));
+        String replayed = readUntil(subscribe("1"), "id: 3");
+        Assert.assertFalse(replayed.contains("id: 1\n"));
+        Assert.assertTrue(replayed.contains("id: 2\nevent: resolved"));
+    }
+
+    @Test
+    public void reconnectReplaysEventsAfterTheDatabaseId() throws Exception {
+        readUntil(subscribe(null), "retry: 5000");
+        // ids come from a sequence and commits can reorder them
+        stream.publish(10, "submitted", Collections.singletonMap("requestID", 10));
+        stream.publish(12, "submitted", Collections.singletonMap("requestID", 12));
+        stream.publish(11, "submitted", Collections.singletonMap("requestID", 11));
+        String replayed = readUntil(subscribe("12"), "id: 11");
+        Assert.assertFalse(replayed.contains("id: 10\n"));
+        Assert.assertFalse(replayed.contains("id: 12\n"));
+        // an id published to another instance only is older or newer than those kept here
+        Assert.assertTrue(readUntil(subscribe("9"), "id: 11").contains("id: 10\n"));
+    }
+
+    @Test
+    public void subscribersAreLimited() throws Exception {
+        stream = new EventStream(new ObjectMapper(), 1);
+        readUntil(subscribe(null), "retry: 5000");
+        String refused = readUntil(subscribe(null), "\r\n\r\n");
+        Assert.assertTrue(refused.startsWith("HTTP/1.1 503"));
+    }
+}
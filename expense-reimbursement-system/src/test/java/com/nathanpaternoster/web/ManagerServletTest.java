@@ -5,24 +5,42 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.nathanpaternoster.controllers.users.ManagerController;
 import com.nathanpaternoster.controllers.requests.ReimbursementRequestController;
+import com.nathanpaternoster.models.audit.AuditRecord;
 import com.nathanpaternoster.models.requests.ReimbursementRequest;
+import com.nathanpaternoster.models.requests.RequestDashboard;
+import com.nathanpaternoster.models.requests.RequestPage;
 import com.nathanpaternoster.models.users.Employee;
+import com.nathanpaternoster.models.users.EmployeeImportResult;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import com.nathanpaternoster.services.DashboardRequestDAO;
+import com.nathanpaternoster.services.RequestAggregates;
+import com.nathanpaternoster.services.RequestExport;
+import com.nathanpaternoster.services.RowHandler;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
 
 public class ManagerServletTest {
     private testingServlet testServlet;
@@ -85,6 +103,166 @@ public class ManagerServletTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void employeeTokenIsRejected() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/999");
+        Mockito.when(testRequest.getAttribute(Authentication.USER)).thenReturn(123);
+        Mockito.when(testRequest.getAttribute(Authentication.USER_TYPE)).thenReturn("Employee");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(403);
+        Mockito.verify(testReqCon, Mockito.never()).viewRequest(Mockito.anyInt());
+    }
+
+    @Test
+    public void getRequestWithToken() throws Exception {
+        Mockito.when(testRequest.getSession(Mockito.anyBoolean())).thenReturn(null);
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/999");
+        Mockito.when(testRequest.getAttribute(Authentication.USER)).thenReturn(123);
+        Mockito.when(testRequest.getAttribute(Authentication.USER_TYPE)).thenReturn("Manager");
+        Mockito.when(testReqCon.viewRequest(999)).thenReturn(testReimbRequest);
+        testServlet.doGet(testRequest, testResponse);
+        Assert.assertEquals(om.writeValueAsString(testReimbRequest), testWriter.data);
+    }
+
+    @Test
+    public void searchRequests() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/search");
+        Mockito.when(testRequest.getParameter("q")).thenReturn("hotel chicago");
+        Mockito.when(testRequest.getParameter("status")).thenReturn("pending");
+        Mockito.when(testReqCon.searchRequests("hotel chicago", "pending", null, null, null))
+                .thenReturn(new RequestPage(Collections.singletonList(testReimbRequest), null));
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(200);
+        Assert.assertTrue(testWriter.data.contains("\"requestID\":999"));
+    }
+
+    @Test
+    public void searchRequestsInvalid() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/search");
+        Mockito.when(testReqCon.searchRequests(null, null, null, null, null)).thenThrow(new RuntimeException("Enter the words to search for with ?q="));
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(400);
+    }
+
+    @Test
+    public void exportRequestsGzipped() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/export");
+        Mockito.when(testRequest.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        testingOutputStream out = new testingOutputStream();
+        Mockito.when(testResponse.getOutputStream()).thenReturn(out);
+        Mockito.when(testReqCon.newExport(Mockito.anyMap())).thenReturn(new RequestExport());
+        Mockito.when(testReqCon.exportRequests(Mockito.any(RequestExport.class), Mockito.any(OutputStream.class))).thenAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write("requestID,amount\n999,5.00\n".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        });
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(200);
+        Mockito.verify(testResponse).setContentType("text/csv");
+        Mockito.verify(testResponse).setHeader("Content-Encoding", "gzip");
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.data.toByteArray()))) {
+            byte[] buffer = new byte[256];
+            for (int n; (n = in.read(buffer)) > 0; ) csv.write(buffer, 0, n);
+        }
+        Assert.assertEquals("requestID,amount\n999,5.00\n", csv.toString("UTF-8"));
+    }
+
+    @Test
+    public void exportRequestsInvalidOrBusy() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/export");
+        Mockito.when(testReqCon.newExport(Mockito.anyMap())).thenThrow(new RuntimeException("Dates must be formatted yyyy-MM-dd"));
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(400);
+
+        Mockito.reset(testReqCon);
+        Mockito.when(testReqCon.newExport(Mockito.anyMap())).thenReturn(new RequestExport());
+        testServlet.exports.acquire();
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(503);
+        Mockito.verify(testReqCon, Mockito.never()).exportRequests(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void getRequestHistory() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/999/history");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(404);
+
+        Mockito.when(testReqCon.viewRequestHistory(999)).thenReturn(Arrays.asList(
+                AuditRecord.submitted(999, testReimbRequest).at(0),
+                AuditRecord.resolved(999, 123, "Approved", null).at(1)));
+        testServlet.doGet(testRequest, testResponse);
+        Assert.assertTrue(testWriter.data.startsWith("{\"requestID\":999,\"history\":[{\"sequence\":0,"));
+        Assert.assertTrue(testWriter.data.contains("\"type\":\"RESOLVED\""));
+        Assert.assertTrue(testWriter.data.contains("\"amount\":\"$5.00\""));
+    }
+
+    @Test
+    public void getDashboard() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/dashboard");
+        DashboardRequestDAO dashboard = Mockito.mock(DashboardRequestDAO.class);
+        RequestAggregates aggregates = new RequestAggregates();
+        aggregates.submitted(999, testReimbRequest);
+        Mockito.when(dashboard.getAggregates()).thenReturn(aggregates);
+        testServlet.dashboard = dashboard;
+        testServlet.doGet(testRequest, testResponse);
+        RequestDashboard actual = om.readValue(testWriter.data, RequestDashboard.class);
+        Assert.assertEquals(1, actual.getPendingCount());
+        Assert.assertEquals(34, actual.getOutstanding().get(0).getEmployeeID());
+        Assert.assertTrue(testWriter.data.contains("\"pendingAmount\":\"$5.00\""));
+    }
+
+    @Test
+    public void getDashboardNotLoaded() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/dashboard");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(503);
+    }
+
+    @Test
+    public void getPendingRequestsNotModified() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/pending");
+        Mockito.when(testReqCon.getRequestsVersion()).thenReturn(7L);
+        Mockito.when(testReqCon.viewAllRequestPage("pending", null, null))
+                .thenReturn(new RequestPage(Collections.singletonList(testReimbRequest), null));
+        testServlet.doGet(testRequest, testResponse);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(testResponse).setHeader(Mockito.eq("ETag"), etag.capture());
+
+        // unchanged: answered without querying
+        Mockito.when(testRequest.getHeader("If-None-Match")).thenReturn("\"other\", W/" + etag.getValue());
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(304);
+        Mockito.verify(testReqCon, Mockito.times(1)).viewAllRequestPage("pending", null, null);
+
+        // a request was resolved since
+        Mockito.when(testReqCon.getRequestsVersion()).thenReturn(8L);
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testReqCon, Mockito.times(2)).viewAllRequestPage("pending", null, null);
+    }
+
+    @Test
+    public void unknownVersionIsNotTagged() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/pending");
+        Mockito.when(testRequest.getHeader("If-None-Match")).thenReturn("*");
+        Mockito.when(testReqCon.getRequestsVersion()).thenReturn(-1L);
+        Mockito.when(testReqCon.viewAllRequestPage("pending", null, null))
+                .thenReturn(new RequestPage(Collections.singletonList(testReimbRequest), null));
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse, Mockito.never()).setHeader(Mockito.eq("ETag"), Mockito.anyString());
+        Mockito.verify(testResponse, Mockito.never()).setStatus(304);
+        Mockito.verify(testReqCon).viewAllRequestPage("pending", null, null);
+    }
+
+    @Test
+    public void getResolvedRequestIsCacheable() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/999");
+        testReimbRequest.setStatus("Approved");
+        Mockito.when(testReqCon.viewRequest(999)).thenReturn(testReimbRequest);
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setHeader("Cache-Control", ConditionalGet.IMMUTABLE);
+    }
+
     @Test
     public void getEmployee() throws ServletException, IOException {
         Mockito.when(testRequest.getPathInfo()).thenReturn("/123/employees/777");
@@ -108,6 +286,37 @@ public class ManagerServletTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void streamAllEmployees() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/employees/all");
+        Mockito.when(testRequest.getParameter("stream")).thenReturn("true");
+        testingOutputStream out = new testingOutputStream();
+        Mockito.when(testResponse.getOutputStream()).thenReturn(out);
+        Mockito.when(testManCon.streamAllEmployees(Mockito.any())).thenAnswer(invocation -> {
+            RowHandler<Employee> handler = invocation.getArgument(0);
+            handler.handle(testEmployee);
+            handler.handle(testEmployee);
+            return true;
+        });
+
+        testServlet.doGet(testRequest, testResponse);
+        String expected = om.writeValueAsString(new ManagerServlet.EmployeeArray(Arrays.asList(testEmployee, testEmployee)));
+        Assert.assertEquals(expected, out.data.toString("UTF-8"));
+        Mockito.verify(testManCon, Mockito.never()).viewAllEmployees();
+    }
+
+    @Test
+    public void streamRequestsFailure() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/all");
+        Mockito.when(testRequest.getParameter("stream")).thenReturn("true");
+        testingOutputStream out = new testingOutputStream();
+        Mockito.when(testResponse.getOutputStream()).thenReturn(out);
+        Mockito.when(testReqCon.streamAllRequests(Mockito.anyString(), Mockito.any())).thenReturn(false);
+
+        testServlet.doGet(testRequest, testResponse);
+        Assert.assertEquals("{\"requests\":[],\"error\":\"Failed to retrieve reimbursement requests\"}", out.data.toString("UTF-8"));
+    }
+
     @Test
     public void getAllPendingRequests() throws ServletException, IOException {
         Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/pending");
@@ -115,10 +324,116 @@ public class ManagerServletTest {
         ManagerServlet.RequestArray arr = new ManagerServlet.RequestArray(requests);
         String expected = om.writeValueAsString(arr);
 
-        Mockito.when(testReqCon.viewAllPendingRequests()).thenReturn(requests);
+        Mockito.when(testReqCon.viewAllRequestPage("pending", null, null)).thenReturn(new RequestPage(requests, null));
+        testServlet.doGet(testRequest, testResponse);
+        String actual = testWriter.data;
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void getPendingRequestPage() throws ServletException, IOException {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/pending");
+        Mockito.when(testRequest.getParameter("pageSize")).thenReturn("1");
+        Mockito.when(testRequest.getParameter("pageToken")).thenReturn("token");
+        RequestPage page = new RequestPage(Collections.singletonList(testReimbRequest), "nextToken");
+        String expected = om.writeValueAsString(new ManagerServlet.RequestArray(page));
+
+        Mockito.when(testReqCon.viewAllRequestPage("pending", "1", "token")).thenReturn(page);
         testServlet.doGet(testRequest, testResponse);
         String actual = testWriter.data;
         Assert.assertEquals(expected, actual);
+        Assert.assertTrue(actual.contains("\"nextPageToken\":\"nextToken\""));
+    }
+
+    @Test
+    public void resolveRequestsInBulk() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/update");
+        Mockito.when(testRequest.getInputStream()).thenReturn(
+                new testingInputStream("[{\"requestID\":999,\"approved\":true},{\"requestID\":5,\"approved\":false}]"));
+        Mockito.when(testReqCon.resolveRequests(Mockito.eq(123), Mockito.anyMap())).thenAnswer(invocation -> {
+            Map<Integer, Boolean> decisions = invocation.getArgument(1);
+            Assert.assertEquals(Boolean.TRUE, decisions.get(999));
+            Assert.assertEquals(Boolean.FALSE, decisions.get(5));
+            return Collections.singletonList(testReimbRequest);
+        });
+
+        testServlet.doPut(testRequest, testResponse);
+        String actual = testWriter.data;
+        Assert.assertTrue(actual.startsWith("{\"results\":[{\"requestID\":999,\"resolved\":true,\"request\":{"));
+        Assert.assertTrue(actual.endsWith("{\"requestID\":5,\"resolved\":false,\"error\":\"Request not found or already resolved\"}]}"));
+        Mockito.verify(testResponse).setStatus(200);
+    }
+
+    @Test
+    public void resolveRequestsInBulkRejectsNullDecisions() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/update");
+        Mockito.when(testRequest.getInputStream()).thenReturn(new testingInputStream("null"), new testingInputStream("[{\"requestID\":5,\"approved\":true},null]"));
+        testServlet.doPut(testRequest, testResponse);
+        testServlet.doPut(testRequest, testResponse);
+        Mockito.verify(testResponse, Mockito.times(2)).setStatus(400);
+        Mockito.verify(testReqCon, Mockito.never()).resolveRequests(Mockito.anyInt(), Mockito.anyMap());
+    }
+
+    @Test
+    public void resolveRequestResolvedConcurrently() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/update/999");
+        Mockito.when(testRequest.getInputStream()).thenReturn(new testingInputStream("true"));
+        ReimbursementRequest denied = new ReimbursementRequest(999, 34, 65, 500, "Food", "burgers",
+                LocalDateTime.parse("2022-01-01T12:42:47"), LocalDateTime.parse("2022-02-02T07:14:58"), "Denied");
+        Mockito.when(testReqCon.viewRequest(999)).thenReturn(denied);
+        Mockito.when(testReqCon.resolveRequest(123, 999, true)).thenReturn(null);
+        testServlet.doPut(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(409);
+    }
+
+    @Test
+    public void resolveRequestReturnsTheUpdatedRow() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/update/999");
+        Mockito.when(testRequest.getInputStream()).thenReturn(new testingInputStream("true"));
+        Mockito.when(testReqCon.resolveRequest(123, 999, true)).thenReturn(testReimbRequest);
+        testServlet.doPut(testRequest, testResponse);
+        Assert.assertTrue(testWriter.data.startsWith("{\"requestID\":" + testReimbRequest.getRequestID()));
+        Mockito.verify(testResponse).setStatus(200);
+        Mockito.verify(testReqCon, Mockito.never()).viewRequest(Mockito.anyInt());     // one statement per resolution
+    }
+
+    @Test
+    public void resolveMissingRequest() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/update/999");
+        Mockito.when(testRequest.getInputStream()).thenReturn(new testingInputStream("false"));
+        testServlet.doPut(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(404);
+    }
+
+    @Test
+    public void importEmployeesFromCsv() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/employees/import");
+        Mockito.when(testRequest.getContentType()).thenReturn("text/csv; charset=UTF-8");
+        Mockito.when(testRequest.getReader()).thenReturn(new BufferedReader(new StringReader(
+                "email,firstName,lastName,dob\n\"ada@mail.com\",Ada,Lovelace,1990-01-01\nalan@mail.com,Alan,Turing,not-a-date\n")));
+        Mockito.when(testManCon.importEmployees(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Employee> rows = invocation.getArgument(0);
+            Assert.assertEquals(2, rows.size());
+            Assert.assertEquals("ada@mail.com", rows.get(0).getEmail());
+            Assert.assertEquals(LocalDate.of(1990, 1, 1), rows.get(0).getDob());
+            Assert.assertNull(rows.get(1));     // unparseable date
+            return Arrays.asList(new EmployeeImportResult(1, 10, "ada@mail.com", null),
+                    new EmployeeImportResult(2, null, null, "Row could not be parsed"));
+        });
+
+        testServlet.doPost(testRequest, testResponse);
+        Assert.assertEquals("{\"imported\":1,\"results\":[{\"row\":1,\"userID\":10,\"email\":\"ada@mail.com\"}," +
+                "{\"row\":2,\"error\":\"Row could not be parsed\"}]}", testWriter.data);
+        Mockito.verify(testResponse).setStatus(200);
+    }
+
+    @Test
+    public void importEmployeesRejectsUnknownFormat() throws Exception {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/employees/import");
+        Mockito.when(testRequest.getContentType()).thenReturn("application/xml");
+        testServlet.doPost(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(415);
+        Mockito.verify(testManCon, Mockito.never()).importEmployees(Mockito.anyList());
     }
 
     @Test
@@ -128,20 +443,63 @@ public class ManagerServletTest {
         ManagerServlet.RequestArray arr = new ManagerServlet.RequestArray(requests);
         String expected = om.writeValueAsString(arr);
 
-        Mockito.when(testReqCon.viewRequests(Mockito.anyInt())).thenReturn(requests);
+        Mockito.when(testReqCon.viewRequestPage(Mockito.eq(555), Mockito.anyString(), Mockito.any(), Mockito.any())).thenReturn(new RequestPage(requests, null));
         testServlet.doGet(testRequest, testResponse);
         String actual = testWriter.data;
         Assert.assertEquals(expected, actual);
     }
+
+    @Test
+    public void getRequestWithInvalidID() throws ServletException, IOException {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/requests/abc");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(400);
+        Mockito.verify(testRequest).setAttribute("routeTemplate", "/managers/{userID}/requests/{requestID}");
+        Mockito.verify(testReqCon, Mockito.never()).viewRequest(Mockito.anyInt());
+    }
+
+    @Test
+    public void unknownRoute() throws ServletException, IOException {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/123/employees/777/requests");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(404);
+    }
+
+    @Test
+    public void unauthorizedBeforeRouting() throws ServletException, IOException {
+        Mockito.when(testRequest.getPathInfo()).thenReturn("/456/unknown");
+        testServlet.doGet(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(403);
+    }
 }
 
-class testingWriter extends PrintWriter {
-    public String data;
-    testingWriter(OutputStream stream) {
-        super(stream);
+class testingOutputStream extends ServletOutputStream {
+    public ByteArrayOutputStream data = new ByteArrayOutputStream();
+    public boolean isReady() {
+        return true;
+    }
+    public void setWriteListener(WriteListener writeListener) {
+    }
+    public void write(int b) {
+        data.write(b);
+    }
+}
+
+class testingInputStream extends ServletInputStream {
+    private final ByteArrayInputStream data;
+    testingInputStream(String body) {
+        data = new ByteArrayInputStream(body.getBytes());
+    }
+    public boolean isFinished() {
+        return data.available() == 0;
+    }
+    public boolean isReady() {
+        return true;
+    }
+    public void setReadListener(ReadListener readListener) {
     }
-    public void write(String passThrough) {
-        data = passThrough;
+    public int read() {
+        return data.read();
     }
 }
 
@@ -150,5 +508,6 @@ class testingServlet extends ManagerServlet {
         managerController = manCon;
         requestController = reqCon;
         this.om = om;
+        exports = new Semaphore(1);
     }
 }
\ No newline at end of file
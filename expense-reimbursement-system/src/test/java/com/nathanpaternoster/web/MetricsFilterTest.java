@@ -0,0 +1,86 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.metrics.MetricsRegistry;
+import com.nathanpaternoster.web.routing.RouteMatch;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.StringWriter;
+import java.util.Collections;
+
+public class MetricsFilterTest {
+    private MetricsRegistry registry;
+    private MetricsFilter filter;
+    private HttpServletRequest testRequest;
+    private HttpServletResponse testResponse;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new MetricsRegistry();
+        filter = new MetricsFilter(registry);
+        FilterConfig config = Mockito.mock(FilterConfig.class);
+        ServletContext context = Mockito.mock(ServletContext.class);
+        ServletRegistration login = Mockito.mock(ServletRegistration.class);
+        Mockito.when(login.getMappings()).thenReturn(Collections.singletonList("/login"));
+        Mockito.doReturn(Collections.singletonMap("login", login)).when(context).getServletRegistrations();
+        Mockito.when(config.getServletContext()).thenReturn(context);
+        filter.init(config);
+
+        testRequest = Mockito.mock(HttpServletRequest.class);
+        testResponse = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(testRequest.getMethod()).thenReturn("GET");
+        Mockito.when(testResponse.getWriter()).thenReturn(new testingWriter(System.out));
+    }
+
+    private String metrics() throws Exception {
+        StringWriter out = new StringWriter();
+        registry.write(out);
+        return out.toString();
+    }
+
+    @Test
+    public void recordsRouteTemplate() throws Exception {
+        Mockito.when(testRequest.getAttribute(RouteMatch.TEMPLATE_ATTRIBUTE)).thenReturn("/managers/{userID}/requests/{requestID}");
+        Mockito.when(testResponse.getStatus()).thenReturn(200);
+        filter.doFilter(testRequest, testResponse, (req, resp) -> resp.getWriter().write("{\"requestID\":5}"));
+
+        String metrics = metrics();
+        String labels = "method=\"GET\",route=\"/managers/{userID}/requests/{requestID}\"";
+        Assert.assertTrue(metrics.contains("ers_http_responses_total{" + labels + ",status=\"200\"} 1\n"));
+        Assert.assertTrue(metrics.contains("ers_http_request_duration_seconds_count{" + labels + "} 1\n"));
+        Assert.assertTrue(metrics.contains("ers_http_response_size_bytes_sum{" + labels + "} 15\n"));
+    }
+
+    @Test
+    public void unknownPathsShareOneRoute() throws Exception {
+        Mockito.when(testResponse.getStatus()).thenReturn(404);
+        Mockito.when(testRequest.getServletPath()).thenReturn("/random/1", "/random/2", "/login");
+        filter.doFilter(testRequest, testResponse, (req, resp) -> { });
+        filter.doFilter(testRequest, testResponse, (req, resp) -> { });
+        filter.doFilter(testRequest, testResponse, (req, resp) -> { });
+
+        String metrics = metrics();
+        Assert.assertTrue(metrics.contains("ers_http_responses_total{method=\"GET\",route=\"other\",status=\"404\"} 2\n"));
+        Assert.assertTrue(metrics.contains("ers_http_responses_total{method=\"GET\",route=\"/login\",status=\"404\"} 1\n"));
+        Assert.assertFalse(metrics.contains("/random"));
+    }
+
+    @Test
+    public void exceptionCountsAsServerError() throws Exception {
+        try {
+            filter.doFilter(testRequest, testResponse, (req, resp) -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertTrue(metrics().contains("status=\"500\"} 1\n"));
+    }
+}
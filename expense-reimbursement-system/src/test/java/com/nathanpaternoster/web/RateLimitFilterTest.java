@@ -0,0 +1,55 @@
+package com.nathanpaternoster.web;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class RateLimitFilterTest {
+    private RateLimitFilter filter;
+    private HttpServletRequest testRequest;
+    private HttpServletResponse testResponse;
+    private FilterChain chain;
+
+    @Before
+    public void setUp() throws Exception {
+        filter = new RateLimitFilter(new RateLimiter(2, 6, 100), new RateLimiter(1, 6, 100));
+        testRequest = Mockito.mock(HttpServletRequest.class);
+        testResponse = Mockito.mock(HttpServletResponse.class);
+        chain = Mockito.mock(FilterChain.class);
+        Mockito.when(testRequest.getRemoteAddr()).thenReturn("10.0.0.1");
+        Mockito.when(testRequest.getMethod()).thenReturn("POST");
+        Mockito.when(testResponse.getWriter()).thenReturn(new testingWriter(System.out));
+    }
+
+    @Test
+    public void rejectsClientOverItsBurst() throws Exception {
+        filter.doFilter(testRequest, testResponse, chain);
+        filter.doFilter(testRequest, testResponse, chain);
+        filter.doFilter(testRequest, testResponse, chain);
+        Mockito.verify(chain, Mockito.times(2)).doFilter(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(429);
+        Mockito.verify(testResponse).setHeader("Retry-After", "10");
+    }
+
+    @Test
+    public void rejectsLoggedInUserOverItsBurst() throws Exception {
+        Mockito.when(testRequest.getAttribute(Authentication.USER)).thenReturn(123);
+        filter.doFilter(testRequest, testResponse, chain);
+        filter.doFilter(testRequest, testResponse, chain);
+        Mockito.verify(chain, Mockito.times(1)).doFilter(testRequest, testResponse);
+        Mockito.verify(testResponse).setStatus(429);
+    }
+
+    @Test
+    public void readsAreNotLimited() throws Exception {
+        Mockito.when(testRequest.getMethod()).thenReturn("GET");
+        for (int i = 0; i < 5; ++i) filter.doFilter(testRequest, testResponse, chain);
+        Mockito.verify(chain, Mockito.times(5)).doFilter(testRequest, testResponse);
+        Mockito.verify(testResponse, Mockito.never()).setStatus(429);
+    }
+}
@@ -0,0 +1,62 @@
+package com.nathanpaternoster.web;
+
+import com.nathanpaternoster.services.cluster.ClusterBus;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimitSyncTest {
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    @Test
+    public void instancesShareTheirBuckets() {
+        ClusterBus bus = Mockito.mock(ClusterBus.class);
+        RateLimiter ipHere = new RateLimiter(3, 60, 100, now::get);
+        RateLimiter ipThere = new RateLimiter(3, 60, 100, now::get);
+        RateLimitSync here = new RateLimitSync(bus);
+        RateLimitSync there = new RateLimitSync(bus);
+        here.add("ip", ipHere);
+        there.add("ip", ipThere);
+        here.add("user", new RateLimiter(3, 60, 100, now::get));
+
+        ipHere.tryAcquire("10.0.0.1");
+        ipHere.tryAcquire("10.0.0.1");
+        here.send();
+        ArgumentCaptor<String> payload = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(bus).send(Mockito.eq(RateLimitSync.CHANNEL), payload.capture());
+        Assert.assertEquals(here.getInstance() + "\nip\t2\t10.0.0.1", payload.getValue());
+
+        // every instance receives the payload, the sender ignores its own
+        here.receive(payload.getValue());
+        there.receive(payload.getValue());
+        Assert.assertEquals(0, ipThere.tryAcquire("10.0.0.1"));
+        Assert.assertTrue(ipThere.tryAcquire("10.0.0.1") > 0);
+        Assert.assertEquals(0, ipHere.tryAcquire("10.0.0.1"));
+    }
+
+    @Test
+    public void largeReportsAreSplit() {
+        ClusterBus bus = Mockito.mock(ClusterBus.class);
+        RateLimiter limiter = new RateLimiter(3, 60, 10000, now::get);
+        RateLimitSync sync = new RateLimitSync(bus);
+        sync.add("ip", limiter);
+        for (int i = 0; i < 1000; ++i) limiter.tryAcquire("10.0." + (i / 256) + "." + (i % 256));
+        sync.send();
+        ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(bus, Mockito.atLeast(2)).send(Mockito.eq(RateLimitSync.CHANNEL), payloads.capture());
+        int lines = 0;
+        for (String payload : payloads.getAllValues()) {
+            Assert.assertTrue(payload.length() <= ClusterBus.MAX_PAYLOAD);
+            Assert.assertTrue(payload.startsWith(sync.getInstance() + "\n"));
+            lines += payload.split("\n").length - 1;
+        }
+        Assert.assertEquals(1000, lines);
+        sync.send();
+        Mockito.verifyNoMoreInteractions(bus);     // nothing taken since
+    }
+}
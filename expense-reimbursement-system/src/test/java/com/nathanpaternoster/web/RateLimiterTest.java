@@ -0,0 +1,80 @@
+package com.nathanpaternoster.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimiterTest {
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    @Test
+    public void allowsBurstThenRefillsLazily() {
+        RateLimiter limiter = new RateLimiter(3, 60, 100, now::get);     // a token per second
+        for (int i = 0; i < 3; ++i) Assert.assertEquals(0, limiter.tryAcquire("a"));
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.tryAcquire("a"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(600), limiter.tryAcquire("a"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        Assert.assertEquals(0, limiter.tryAcquire("a"));
+        Assert.assertEquals(0, limiter.tryAcquire("b"));     // keys have their own buckets
+        Assert.assertEquals(2, limiter.getRejectedCount());
+        Assert.assertEquals(5, limiter.getAllowedCount());
+    }
+
+    @Test
+    public void refillIsCappedAtCapacity() {
+        RateLimiter limiter = new RateLimiter(2, 60, 100, now::get);
+        limiter.tryAcquire("a");
+        now.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        Assert.assertEquals(0, limiter.tryAcquire("a"));
+        Assert.assertEquals(0, limiter.tryAcquire("a"));
+        Assert.assertTrue(limiter.tryAcquire("a") > 0);
+    }
+
+    @Test
+    public void dropsIdleBuckets() {
+        RateLimiter limiter = new RateLimiter(2, 60, 100, now::get);
+        for (int i = 0; i < 50; ++i) limiter.tryAcquire("key" + i);
+        Assert.assertEquals(50, limiter.size());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));    // long enough to refill completely
+        for (int i = 0; i < 50; ++i) limiter.tryAcquire("other" + i);
+        // idle buckets are dropped when their stripe is next used, so only stripes no new key landed in keep old ones
+        Assert.assertTrue(limiter.size() < 60);
+        Assert.assertEquals(0, limiter.getEvictionCount());
+    }
+
+    @Test
+    public void memoryIsBounded() {
+        RateLimiter limiter = new RateLimiter(2, 60, 32, now::get);
+        for (int i = 0; i < 10000; ++i) limiter.tryAcquire("key" + i);
+        Assert.assertTrue(limiter.size() <= 32);
+        Assert.assertTrue(limiter.getEvictionCount() >= 10000 - 32);
+    }
+
+    @Test
+    public void recordsTakenTokensForOtherInstances() {
+        RateLimiter limiter = new RateLimiter(2, 60, 100, now::get);
+        limiter.tryAcquire("a");
+        Assert.assertTrue(limiter.drainTaken().isEmpty());     // not recording yet
+        limiter.recordTaken();
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+        limiter.tryAcquire("a");     // rejected, the bucket is empty
+        Assert.assertEquals(Long.valueOf(1), limiter.drainTaken().get("a"));
+        Assert.assertTrue(limiter.drainTaken().isEmpty());
+    }
+
+    @Test
+    public void consumesTokensOtherInstancesTook() {
+        RateLimiter limiter = new RateLimiter(3, 60, 100, now::get);
+        limiter.consume("a", 2);
+        Assert.assertEquals(0, limiter.tryAcquire("a"));
+        Assert.assertTrue(limiter.tryAcquire("a") > 0);
+        limiter.consume("b", 50);     // empties the bucket and no more
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(0, limiter.tryAcquire("b"));
+        Assert.assertEquals(2, limiter.getAllowedCount());     // consumed tokens aren't counted as requests
+    }
+}
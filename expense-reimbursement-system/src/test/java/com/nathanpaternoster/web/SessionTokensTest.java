@@ -0,0 +1,63 @@
+package com.nathanpaternoster.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+public class SessionTokensTest {
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    private static SessionTokens at(long epochSecond) {
+        return new SessionTokens(SECRET, 1800, Clock.fixed(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void verifiesIssuedToken() {
+        SessionTokens tokens = at(1000);
+        SessionTokens.Claims claims = tokens.verify(tokens.issue(42, "Manager"));
+        Assert.assertNotNull(claims);
+        Assert.assertEquals(42, claims.getUserID());
+        Assert.assertEquals("Manager", claims.getUserType());
+        Assert.assertEquals(2800, claims.getExpiresAt());
+    }
+
+    @Test
+    public void anotherReplicaWithTheSameSecretAccepts() {
+        String token = at(1000).issue(42, "Employee");
+        Assert.assertNotNull(at(1500).verify(token));
+    }
+
+    @Test
+    public void rejectsExpiredToken() {
+        String token = at(1000).issue(42, "Employee");
+        Assert.assertNull(at(2800).verify(token));
+    }
+
+    @Test
+    public void rejectsTamperedToken() {
+        SessionTokens tokens = at(1000);
+        String token = tokens.issue(42, "Employee");
+        String forged = java.util.Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("42.Manager.2800".getBytes(StandardCharsets.UTF_8)) + token.substring(token.indexOf('.'));
+        Assert.assertNull(tokens.verify(forged));
+        Assert.assertNull(tokens.verify(token.substring(0, token.length() - 2)));
+        Assert.assertNull(tokens.verify("not a token"));
+        Assert.assertNull(tokens.verify(null));
+    }
+
+    @Test
+    public void rejectsOtherSecret() {
+        String token = at(1000).issue(42, "Employee");
+        byte[] other = "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(new SessionTokens(other, 1800).verify(token));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortSecret() {
+        new SessionTokens("too short".getBytes(StandardCharsets.UTF_8), 1800);
+    }
+}
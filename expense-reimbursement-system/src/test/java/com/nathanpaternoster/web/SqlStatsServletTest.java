@@ -0,0 +1,43 @@
+package com.nathanpaternoster.web;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class SqlStatsServletTest {
+    private SqlStatsServlet servlet;
+    private HttpServletRequest req;
+    private HttpServletResponse resp;
+
+    @Before
+    public void setUp() {
+        servlet = new SqlStatsServlet();    // SQL timing is off, timing is null
+        req = Mockito.mock(HttpServletRequest.class);
+        resp = Mockito.mock(HttpServletResponse.class);
+    }
+
+    @Test
+    public void anonymousRequestsAreRefused() throws Exception {
+        servlet.doGet(req, resp);
+        Mockito.verify(resp).setStatus(403);
+    }
+
+    @Test
+    public void employeesAreRefused() throws Exception {
+        Mockito.when(req.getAttribute(Authentication.USER)).thenReturn(5);
+        Mockito.when(req.getAttribute(Authentication.USER_TYPE)).thenReturn("Employee");
+        servlet.doGet(req, resp);
+        Mockito.verify(resp).setStatus(403);
+    }
+
+    @Test
+    public void managersAreAnswered() throws Exception {
+        Mockito.when(req.getAttribute(Authentication.USER)).thenReturn(1);
+        Mockito.when(req.getAttribute(Authentication.USER_TYPE)).thenReturn("Manager");
+        servlet.doGet(req, resp);
+        Mockito.verify(resp).setStatus(404);    // past authentication, SQL timing isn't enabled
+    }
+}
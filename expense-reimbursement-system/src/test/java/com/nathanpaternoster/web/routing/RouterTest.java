@@ -0,0 +1,82 @@
+package com.nathanpaternoster.web.routing;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouterTest {
+    private Router<String> router;
+    private RouteMatch match;
+
+    @Before
+    public void setUp() throws Exception {
+        router = new Router<String>("/managers")
+                .add("GET", "/{userID}", "welcome")
+                .add("GET", "/{userID}/requests/pending", "pending")
+                .add("GET", "/{userID}/requests/{requestID}", "request")
+                .add("GET", "/{userID}/requests/employee/{employeeID}", "employeeRequests")
+                .add("PUT", "/{userID}/requests/update/{requestID}", "resolve");
+        match = new RouteMatch();
+    }
+
+    @Test
+    public void testMatchParameters() {
+        assertEquals("employeeRequests", router.match("GET", "/123/requests/employee/555", match));
+        assertEquals("/managers/{userID}/requests/employee/{employeeID}", match.getTemplate());
+        assertEquals(123, match.getInt("userID"));
+        assertEquals(555, match.getInt("employeeID"));
+        assertThrows(IllegalArgumentException.class, () -> match.getInt("requestID"));
+    }
+
+    @Test
+    public void testLiteralBeforeParameter() {
+        assertEquals("pending", router.match("GET", "/123/requests/PENDING", match));
+        assertEquals("request", router.match("GET", "/123/requests/999", match));
+        assertEquals(999, match.getInt("requestID"));
+        // backtracks to the parameter when the literal branch has no route
+        assertEquals("request", router.match("GET", "/123/requests/employee", match));
+    }
+
+    @Test
+    public void testInvalidIntStillMatches() {
+        assertEquals("request", router.match("GET", "/123/requests/abc", match));
+        assertThrows(NumberFormatException.class, () -> match.getInt("requestID"));
+        assertEquals("abc", match.getString("requestID"));
+        assertEquals("request", router.match("GET", "/123/requests/99999999999", match));
+        assertThrows(NumberFormatException.class, () -> match.getInt("requestID"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertNull(router.match("GET", "/123/requests/5/extra", match));
+        assertNull(router.match("GET", "/123//requests", match));
+        assertNull(router.match("GET", "/", match));
+        assertNull(router.match("POST", "/123", match));
+        assertNull(router.match("GET", "/123/requests/update/5", match));
+        assertEquals("resolve", router.match("PUT", "/123/requests/update/5", match));
+    }
+
+    @Test
+    public void testTrailingSlash() {
+        assertEquals("welcome", router.match("GET", "/123/", match));
+        assertEquals(123, match.getInt("userID"));
+    }
+
+    @Test
+    public void testInvalidTemplates() {
+        assertThrows(IllegalArgumentException.class, () -> router.add("GET", "{userID}", "x"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/{userID}//x", "x"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/{id}/{id}", "x"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/{id}/requests/{requestID}", "x"));
+    }
+
+    @Test
+    public void testParseInt() {
+        assertEquals(-42, RouteMatch.parseInt("/-42/", 1, 4));
+        assertEquals(Integer.MAX_VALUE, RouteMatch.parseInt("2147483647", 0, 10));
+        assertThrows(NumberFormatException.class, () -> RouteMatch.parseInt("2147483648", 0, 10));
+        assertThrows(NumberFormatException.class, () -> RouteMatch.parseInt("-", 0, 1));
+        assertThrows(NumberFormatException.class, () -> RouteMatch.parseInt("", 1, 0));
+    }
+}
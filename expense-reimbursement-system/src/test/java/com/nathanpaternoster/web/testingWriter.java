@@ -0,0 +1,17 @@
+package com.nathanpaternoster.web;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * A response writer for the servlet and filter tests that keeps the last string written
+ */
+class testingWriter extends PrintWriter {
+    public String data;
+    testingWriter(OutputStream stream) {
+        super(stream);
+    }
+    public void write(String passThrough) {
+        data = passThrough;
+    }
+}